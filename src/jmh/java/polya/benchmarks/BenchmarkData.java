@@ -0,0 +1,202 @@
+package polya.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import polya.crp.CRPStateInterface;
+import polya.crp.utils.ClusterId;
+import polya.ddcrp.Customer;
+import polya.ddcrp.CustomerColumn;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.TwoMomentsSufficientStatistics;
+
+/**
+ * Synthetic datasets shared by the benchmarks.
+ */
+public class BenchmarkData
+{
+  /**
+   * Well separated clusters: point i is drawn from a unit variance normal
+   * centered at 5 * (i % k) in every coordinate.
+   *
+   * @param rand
+   * @param n Number of points
+   * @param k Number of clusters
+   * @param dim
+   * @return
+   */
+  public static double [][] clusteredPoints(Random rand, int n, int k, int dim)
+  {
+    double [][] result = new double[n][dim];
+    for (int i = 0; i < n; i++)
+      for (int d = 0; d < dim; d++)
+        result[i][d] = 5.0 * (i % k) + rand.nextGaussian();
+    return result;
+  }
+
+  /**
+   *
+   * @param points
+   * @return The statistic of each point, keyed by its index
+   */
+  public static Map<Integer,SufficientStatistic> statistics(double [][] points)
+  {
+    TwoMomentsSufficientStatistics [] stats = TwoMomentsSufficientStatistics.pack(points);
+    Map<Integer,SufficientStatistic> result = new HashMap<Integer,SufficientStatistic>();
+    for (int i = 0; i < stats.length; i++)
+      result.put(i, stats[i]);
+    return result;
+  }
+
+  /**
+   * Seats customer i at table i % k, i.e. at the cluster it was generated from.
+   *
+   * @param state An empty restaurant
+   * @param n
+   * @param k
+   */
+  public static void seatByCluster(CRPStateInterface state, int n, int k)
+  {
+    ClusterId [] tables = new ClusterId[k];
+    for (int i = 0; i < n; i++)
+    {
+      final int cluster = i % k;
+      if (tables[cluster] == null)
+        tables[cluster] = state.addCustomerToNewTable(i);
+      else
+        state.addCustomerToExistingTable(i, tables[cluster]);
+    }
+  }
+
+  /**
+   * Customers on a side x side grid, split into k vertical bands; the
+   * data of the customers in band b is drawn from a unit variance normal
+   * centered at 5 * b in every coordinate.
+   *
+   * @param rand
+   * @param side
+   * @param k
+   * @param dim
+   * @return
+   */
+  public static Map<Customer,SufficientStatistic> gridCustomers(Random rand, int side, int k, int dim)
+  {
+    Map<Customer,SufficientStatistic> result = new HashMap<Customer,SufficientStatistic>();
+    int id = 0;
+    for (int x = 0; x < side; x++)
+      for (int y = 0; y < side; y++)
+      {
+        double [] point = new double[dim];
+        for (int d = 0; d < dim; d++)
+          point[d] = 5.0 * band(x, side, k) + rand.nextGaussian();
+        result.put(new Customer(id++, x, y, point[0]), TwoMomentsSufficientStatistics.fromOnePoint(point));
+      }
+    return result;
+  }
+
+  /**
+   *
+   * @param x
+   * @param side
+   * @param k
+   * @return The band of column x in gridCustomers()
+   */
+  public static int band(int x, int side, int k)
+  {
+    return x * k / side;
+  }
+
+  /**
+   *
+   * @param customers
+   * @param side
+   * @return The customers of gridCustomers() arranged by column, sorted by row
+   */
+  public static List<CustomerColumn> columns(Iterable<Customer> customers, int side)
+  {
+    Customer [][] grid = grid(customers, side);
+    List<CustomerColumn> result = new ArrayList<CustomerColumn>();
+    for (int x = 0; x < side; x++)
+    {
+      CustomerColumn column = new CustomerColumn(x);
+      for (int y = 0; y < side; y++)
+        column.addCustomer(grid[x][y]);
+      result.add(column);
+    }
+    return result;
+  }
+
+  /**
+   * Links connecting the customers of each band of gridCustomers() into
+   * one table: each customer points to the one above it, and the top of
+   * each column points to the top of the previous column of the band.
+   *
+   * @param grid See grid()
+   * @param side
+   * @param k
+   * @return Pairs (customer, link)
+   */
+  public static List<Customer []> bandLinks(Customer [][] grid, int side, int k)
+  {
+    List<Customer []> result = new ArrayList<Customer []>();
+    for (int x = 0; x < side; x++)
+      for (int y = 0; y < side; y++)
+        if (y > 0)
+          result.add(new Customer[]{grid[x][y], grid[x][y - 1]});
+        else if (x > 0 && band(x - 1, side, k) == band(x, side, k))
+          result.add(new Customer[]{grid[x][y], grid[x - 1][y]});
+    return result;
+  }
+
+  /**
+   *
+   * @param customers
+   * @param side
+   * @return The customers of gridCustomers() indexed by [x][y]
+   */
+  public static Customer [][] grid(Iterable<Customer> customers, int side)
+  {
+    Customer [][] result = new Customer[side][side];
+    for (Customer customer : customers)
+      result[customer.x][customer.y] = customer;
+    return result;
+  }
+
+  /**
+   * Geyer's initial positive sequence estimator: the autocorrelations are
+   * summed by pairs of lags until a pair has a negative sum.
+   *
+   * @param trace Values of a statistic along a chain
+   * @return The effective sample size of the trace
+   */
+  public static double effectiveSampleSize(double [] trace)
+  {
+    final int n = trace.length;
+    double mean = 0.0;
+    for (double value : trace)
+      mean += value / n;
+    final double variance = autocovariance(trace, mean, 0);
+    if (variance == 0.0)
+      return n;
+    double tau = -1.0;
+    for (int lag = 0; lag + 1 < n; lag += 2)
+    {
+      final double pair = (autocovariance(trace, mean, lag) + autocovariance(trace, mean, lag + 1)) / variance;
+      if (pair < 0.0)
+        break;
+      tau += 2.0 * pair;
+    }
+    return n / Math.max(tau, 1.0 / n);
+  }
+
+  private static double autocovariance(double [] trace, double mean, int lag)
+  {
+    double result = 0.0;
+    for (int i = 0; i + lag < trace.length; i++)
+      result += (trace[i] - mean) * (trace[i + lag] - mean);
+    return result / trace.length;
+  }
+}
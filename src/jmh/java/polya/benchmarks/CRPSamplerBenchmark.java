@@ -0,0 +1,76 @@
+package polya.benchmarks;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.crp.ArrayCRPState;
+import polya.crp.CRPSampler;
+import polya.crp.CRPState;
+import polya.crp.CRPStateInterface;
+import polya.crp.PYPrior;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+
+/**
+ * One collapsed Gibbs move (CRPSampler.gibbs) on a NIW mixture, starting
+ * from the true clustering.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CRPSamplerBenchmark
+{
+  @Param({"1000", "10000"})
+  public int n;
+
+  @Param({"10", "100"})
+  public int k;
+
+  @Param({"2", "20"})
+  public int dim;
+
+  @Param({"hash", "array"})
+  public String state;
+
+  private Random rand;
+  private CRPStateInterface crpState;
+  private NIWHyperParameter hp;
+  private CollapsedNIWModel model;
+  private PYPrior prior;
+
+  @Setup
+  public void setup()
+  {
+    rand = new Random(1);
+    Map<Integer,SufficientStatistic> data = BenchmarkData.statistics(BenchmarkData.clusteredPoints(rand, n, k, dim));
+    crpState = state.equals("array") ? new ArrayCRPState(data) : new CRPState(data);
+    BenchmarkData.seatByCluster(crpState, n, k);
+    hp = NIWHyperParameter.withDimensionality(dim);
+    model = new CollapsedNIWModel(hp);
+    prior = new PYPrior(1.0, 0.0, crpState);
+  }
+
+  @Benchmark
+  public CRPStateInterface gibbs()
+  {
+    CRPSampler.gibbs(rand, rand.nextInt(n), crpState, hp, model, prior);
+    return crpState;
+  }
+}
@@ -0,0 +1,58 @@
+package polya.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.crp.CRPState;
+import polya.crp.CRPs;
+import polya.crp.PYPrior;
+
+/**
+ * The Pitman-Yor prior of a seating arrangement, CRPs.crpAssignmentLogProbabilitiy.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CRPsBenchmark
+{
+  @Param({"1000", "100000"})
+  public int n;
+
+  @Param({"10", "1000"})
+  public int k;
+
+  @Param({"0.0", "0.5"})
+  public double discount;
+
+  private CRPState crpState;
+  private PYPrior prior;
+
+  @Setup
+  public void setup()
+  {
+    crpState = new CRPState(BenchmarkData.statistics(BenchmarkData.clusteredPoints(new Random(1), n, k, 1)));
+    BenchmarkData.seatByCluster(crpState, n, k);
+    prior = new PYPrior(1.0, discount, crpState);
+  }
+
+  @Benchmark
+  public double crpAssignmentLogProbability()
+  {
+    return CRPs.crpAssignmentLogProbabilitiy(prior, crpState);
+  }
+}
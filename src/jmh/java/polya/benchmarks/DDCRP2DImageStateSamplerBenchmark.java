@@ -0,0 +1,91 @@
+package polya.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.ddcrp.Customer;
+import polya.ddcrp.DDCRPPrior;
+import polya.ddcrp.DDCRP2DImageState;
+import polya.ddcrp.DDCRP2DImageStateSampler;
+import polya.ddcrp.IndicatorDecay;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+
+/**
+ * One Gibbs move on the link of a customer, restricted to its neighbors
+ * (DDCRP2DImageStateSampler.gibbs), on a grid of customers with k vertical
+ * bands, starting from one table per band.
+ * 
+ * n is rounded down to a square.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DDCRP2DImageStateSamplerBenchmark
+{
+  @Param({"2500", "40000"})
+  public int n;
+
+  @Param({"4", "16"})
+  public int k;
+
+  @Param({"1", "8"})
+  public int dim;
+
+  private Random rand;
+  private DDCRP2DImageState ddcrpState;
+  private List<Customer> customers;
+  private NIWHyperParameter hp;
+  private CollapsedNIWModel model;
+  private DDCRPPrior prior;
+
+  @Setup
+  public void setup()
+  {
+    rand = new Random(1);
+    final int side = (int) Math.sqrt(n);
+    Map<Customer,SufficientStatistic> data = BenchmarkData.gridCustomers(rand, side, k, dim);
+    ddcrpState = DDCRP2DImageState.fullyDisconnectedClustering(data, BenchmarkData.columns(data.keySet(), side));
+    for (Customer [] link : BenchmarkData.bandLinks(BenchmarkData.grid(data.keySet(), side), side, k))
+      ddcrpState.updateCustomerLink(link[0], link[1]);
+    customers = new ArrayList<Customer>(data.keySet());
+    hp = NIWHyperParameter.withDimensionality(dim);
+    model = new CollapsedNIWModel(hp);
+    prior = new DDCRPPrior(1.0, new IndicatorDecay(1.0), ddcrpState);
+  }
+
+  @Benchmark
+  public DDCRP2DImageState gibbs()
+  {
+    DDCRP2DImageStateSampler.gibbs(rand, customers.get(rand.nextInt(customers.size())), ddcrpState, hp, model, prior);
+    return ddcrpState;
+  }
+
+  @Benchmark
+  public int getNeighbors()
+  {
+    int result = 0;
+    for (Customer neighbor : ddcrpState.getNeighbors(customers.get(rand.nextInt(customers.size()))))
+      result += neighbor.id;
+    return result;
+  }
+}
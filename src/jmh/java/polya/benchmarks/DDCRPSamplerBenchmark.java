@@ -0,0 +1,90 @@
+package polya.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.ddcrp.Customer;
+import polya.ddcrp.DDCRPPrior;
+import polya.ddcrp.DDCRPSampler;
+import polya.ddcrp.DDCRPState;
+import polya.ddcrp.GridIndicatorDecay;
+import polya.ddcrp.IndicatorDecay;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+
+/**
+ * One Gibbs move on the link of a customer (DDCRPSampler.gibbs) on a
+ * grid of customers with k vertical bands, starting from one table per band.
+ * The decay is IndicatorDecay(1), or the same decay with its support
+ * precomputed (GridIndicatorDecay), which DDCRPSampler uses to only score
+ * the neighbors of the customer.
+ * 
+ * n is rounded down to a square.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DDCRPSamplerBenchmark
+{
+  @Param({"400", "2500"})
+  public int n;
+
+  @Param({"4", "16"})
+  public int k;
+
+  @Param({"1", "8"})
+  public int dim;
+
+  @Param({"dense", "sparse"})
+  public String decay;
+
+  private Random rand;
+  private DDCRPState ddcrpState;
+  private List<Customer> customers;
+  private NIWHyperParameter hp;
+  private CollapsedNIWModel model;
+  private DDCRPPrior prior;
+
+  @Setup
+  public void setup()
+  {
+    rand = new Random(1);
+    final int side = (int) Math.sqrt(n);
+    Map<Customer,SufficientStatistic> data = BenchmarkData.gridCustomers(rand, side, k, dim);
+    ddcrpState = DDCRPState.fullyDisconnectedClustering(data);
+    for (Customer [] link : BenchmarkData.bandLinks(BenchmarkData.grid(data.keySet(), side), side, k))
+      ddcrpState.updateCustomerLink(link[0], link[1]);
+    customers = new ArrayList<Customer>(data.keySet());
+    hp = NIWHyperParameter.withDimensionality(dim);
+    model = new CollapsedNIWModel(hp);
+    prior = new DDCRPPrior(1.0, 
+        decay.equals("sparse") ? new GridIndicatorDecay(1.0, data.keySet()) : new IndicatorDecay(1.0), 
+        ddcrpState);
+  }
+
+  @Benchmark
+  public DDCRPState gibbs()
+  {
+    DDCRPSampler.gibbs(rand, customers.get(rand.nextInt(customers.size())), ddcrpState, hp, model, prior);
+    return ddcrpState;
+  }
+}
@@ -0,0 +1,90 @@
+package polya.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.parametric.Parametrics;
+import polya.parametric.PredictivePosterior;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.TwoMomentsSufficientStatistics;
+
+/**
+ * Marginals and predictives of CollapsedNIWModel, through Parametrics and
+ * through the incremental NIWPredictivePosterior.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NIWParametricsBenchmark
+{
+  /**
+   * Number of points already in the cluster
+   */
+  @Param({"100"})
+  public int n;
+
+  @Param({"2", "8", "20", "50"})
+  public int dim;
+
+  private NIWHyperParameter hp;
+  private CollapsedNIWModel model;
+  private TwoMomentsSufficientStatistics cluster, point;
+  private PredictivePosterior posterior;
+
+  @Setup
+  public void setup()
+  {
+    Random rand = new Random(1);
+    double [][] points = BenchmarkData.clusteredPoints(rand, n + 1, 1, dim);
+    cluster = TwoMomentsSufficientStatistics.fromEmpty(dim);
+    for (int i = 0; i < n; i++)
+      cluster.addPoint(points[i]);
+    point = TwoMomentsSufficientStatistics.fromOnePoint(points[n]);
+    hp = NIWHyperParameter.withDimensionality(dim);
+    model = new CollapsedNIWModel(hp);
+    posterior = model.predictivePosterior(hp);
+    posterior.add(cluster);
+  }
+
+  @Benchmark
+  public double logMarginal()
+  {
+    return Parametrics.logMarginal(model, hp, cluster);
+  }
+
+  @Benchmark
+  public double logPredictive()
+  {
+    return Parametrics.logPredictive(model, hp, point, cluster);
+  }
+
+  @Benchmark
+  public double posteriorLogPredictive()
+  {
+    return posterior.logPredictive(point);
+  }
+
+  @Benchmark
+  public double posteriorAddRemove()
+  {
+    posterior.add(point);
+    posterior.remove(point);
+    return posterior.logPriorDensityAtThetaStar();
+  }
+}
@@ -0,0 +1,105 @@
+package polya.benchmarks;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.crp.CRPFactor;
+import polya.crp.CRPSampler;
+import polya.crp.CRPState;
+import polya.crp.PYPrior;
+import polya.crp.SplitMergeSampler;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+
+/**
+ * Effective samples per second of the log likelihood (CRPFactor), for
+ * short chains started with each cluster split in two tables, with Gibbs
+ * moves alone or with Gibbs and split-merge moves.
+ *
+ * The effectiveSamples counter is the number to compare; the primary
+ * score is the number of chains per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class SplitMergeBenchmark
+{
+  @Param({"1000"})
+  public int n;
+
+  @Param({"4", "16"})
+  public int k;
+
+  @Param({"2"})
+  public int dim;
+
+  @Param({"gibbs", "splitMerge"})
+  public String sampler;
+
+  /**
+   * Each sweep is n Gibbs moves, plus this number of split-merge moves
+   */
+  public static final int SPLIT_MERGE_MOVES_PER_SWEEP = 1;
+
+  public static final int N_SWEEPS = 200;
+
+  private Random rand;
+  private Map<Integer,SufficientStatistic> data;
+  private NIWHyperParameter hp;
+  private CollapsedNIWModel model;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters
+  {
+    public long effectiveSamples;
+  }
+
+  @Setup
+  public void setup()
+  {
+    rand = new Random(1);
+    data = BenchmarkData.statistics(BenchmarkData.clusteredPoints(rand, n, k, dim));
+    hp = NIWHyperParameter.withDimensionality(dim);
+    model = new CollapsedNIWModel(hp);
+  }
+
+  @Benchmark
+  public double chain(Counters counters)
+  {
+    CRPState crpState = new CRPState(data);
+    BenchmarkData.seatByCluster(crpState, n, 2 * k);
+    PYPrior prior = new PYPrior(1.0, 0.0, crpState);
+    CRPFactor factor = new CRPFactor(model, crpState);
+    double [] trace = new double[N_SWEEPS];
+    for (int sweep = 0; sweep < N_SWEEPS; sweep++)
+    {
+      for (int i = 0; i < n; i++)
+        CRPSampler.gibbs(rand, rand.nextInt(n), crpState, hp, model, prior);
+      if (sampler.equals("splitMerge"))
+        for (int i = 0; i < SPLIT_MERGE_MOVES_PER_SWEEP; i++)
+          SplitMergeSampler.splitMerge(rand, crpState, hp, model, prior);
+      trace[sweep] = factor.logDensity();
+    }
+    counters.effectiveSamples += Math.round(BenchmarkData.effectiveSampleSize(trace));
+    return trace[N_SWEEPS - 1];
+  }
+}
@@ -0,0 +1,126 @@
+package polya.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.parametric.BatchConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.Parametrics;
+import polya.parametric.PosteriorBatch;
+import polya.parametric.PredictivePosterior;
+import polya.parametric.normal.CollapsedNIGModel;
+import polya.parametric.normal.CollapsedNormalNormalModel;
+import polya.parametric.normal.NIGHyperParameter;
+import polya.parametric.normal.NormalParameter;
+import polya.parametric.normal.TwoMomentsSufficientStatistics;
+
+/**
+ * Marginals and predictives of the univariate models, CollapsedNIGModel
+ * and CollapsedNormalNormalModel, and the predictives of a point at k
+ * tables, one PredictivePosterior at a time or with a PosteriorBatch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UnivariateParametricsBenchmark
+{
+  @Param({"NIG", "NormalNormal"})
+  public String model;
+
+  /**
+   * Number of points already in the cluster
+   */
+  @Param({"100"})
+  public int n;
+
+  /**
+   * Number of tables for the batch predictives
+   */
+  @Param({"100"})
+  public int k;
+
+  private HyperParameter hp;
+  private BatchConjugateModel collapsedModel;
+  private TwoMomentsSufficientStatistics cluster, point;
+  private PredictivePosterior [] posteriors;
+  private PosteriorBatch batch;
+  private double [] logPredictives;
+
+  @Setup
+  public void setup()
+  {
+    Random rand = new Random(1);
+    double [][] points = BenchmarkData.clusteredPoints(rand, n + 1, 1, 1);
+    cluster = TwoMomentsSufficientStatistics.fromEmpty(1);
+    for (int i = 0; i < n; i++)
+      cluster.addPoint(points[i]);
+    point = TwoMomentsSufficientStatistics.fromOnePoint(points[n]);
+    if (model.equals("NIG"))
+    {
+      hp = new NIGHyperParameter(0.0, 1.0, 1.0, 1.0);
+      collapsedModel = new CollapsedNIGModel(hp);
+    }
+    else if (model.equals("NormalNormal"))
+    {
+      hp = new NormalParameter(0.0, 1.0);
+      collapsedModel = new CollapsedNormalNormalModel(1.0, hp);
+    }
+    else
+      throw new RuntimeException("Unknown model " + model);
+
+    posteriors = new PredictivePosterior[k];
+    batch = collapsedModel.posteriorBatch(hp);
+    logPredictives = new double[k];
+    for (int t = 0; t < k; t++)
+    {
+      TwoMomentsSufficientStatistics table = TwoMomentsSufficientStatistics.fromEmpty(1);
+      for (double [] x : BenchmarkData.clusteredPoints(rand, 1 + t % 10, 1, 1))
+        table.addPoint(x);
+      posteriors[t] = Parametrics.predictivePosterior(collapsedModel, hp);
+      posteriors[t].add(table);
+      batch.set(t, table);
+    }
+  }
+
+  @Benchmark
+  public double logMarginal()
+  {
+    return Parametrics.logMarginal(collapsedModel, hp, cluster);
+  }
+
+  @Benchmark
+  public double logPredictive()
+  {
+    return Parametrics.logPredictive(collapsedModel, hp, point, cluster);
+  }
+
+  @Benchmark
+  public double [] logPredictivesLoop()
+  {
+    for (int t = 0; t < k; t++)
+      logPredictives[t] = posteriors[t].logPredictive(point);
+    return logPredictives;
+  }
+
+  @Benchmark
+  public double [] logPredictivesBatch()
+  {
+    batch.logPredictives(point, k, logPredictives);
+    return logPredictives;
+  }
+}
@@ -0,0 +1,571 @@
+package polya.crp;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import blang.annotations.Processors;
+import blang.annotations.Samplers;
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterIndex;
+import polya.crp.utils.ClusterMarginalCache;
+import polya.crp.utils.TableSizeHistogram;
+import polya.crp.utils.TableSizeIndex;
+import polya.parametric.SufficientStatistic;
+
+/**
+ * A seating arrangement backed by primitive arrays, for restaurants with
+ * a large number of customers.
+ *
+ * Customers are the integers 0, 1, ..., nPossibleCustomers - 1. Tables live
+ * in slots; the ClusterId of a table is its slot index. Membership of each
+ * table is an intrusive doubly linked list threaded through the customer
+ * arrays, and slots of destroyed tables are recycled via a free-list. Apart
+ * from the sufficient statistics, no objects are allocated when customers are
+ * added or removed.
+ *
+ * Behaves like CRPState, except that partition() returns a copy instead
+ * of the live tables.
+ */
+@Samplers({CRPSampler.class, SplitMergeSampler.class})
+@Processors({CRPProcessor.class})
+public class ArrayCRPState implements CRPStateInterface
+{
+  private static final int NONE = -1;
+
+  /**
+   * Sufficient statistics of individual customers, indexed by customer
+   */
+  private final SufficientStatistic [] customer2Statistic;
+
+  /**
+   * Slot of the table each customer sits at, or NONE
+   */
+  private final int [] customer2Slot;
+
+  /**
+   * Intrusive doubly linked lists of the customers at each table
+   */
+  private final int [] nextCustomer, previousCustomer;
+
+  /**
+   * For each slot, the first customer of the list, the number of customers
+   * and the statistics of the table (NONE, 0 and null for free slots)
+   */
+  private int [] slot2FirstCustomer = new int[0];
+  private int [] slot2Size = new int[0];
+  private SufficientStatistic [] slot2Statistic = new SufficientStatistic[0];
+
+  /**
+   * ClusterId and set view for each slot, created the first time the slot
+   * is used and then reused
+   */
+  private ClusterId [] slot2ClusterId = new ClusterId[0];
+  private TableView [] slot2View = new TableView[0];
+
+  /**
+   * Stack of free slots below nSlotsUsed
+   */
+  private int [] freeSlots = new int[0];
+  private int nFreeSlots = 0;
+
+  /**
+   * Slots at or above this index have never been used
+   */
+  private int nSlotsUsed = 0;
+
+  private int nCustomers = 0;
+  private int nTables = 0;
+
+  private final Set<Integer> allCustomers = new SeatedCustomersView();
+
+  /**
+   * Posteriors and marginals of the tables, kept in sync as customers move
+   */
+  private final ClusterMarginalCache marginalCache = new ClusterMarginalCache();
+  private final TableSizeHistogram sizeHistogram = new TableSizeHistogram();
+  private final TableSizeIndex sizeIndex = new TableSizeIndex();
+
+  /**
+   * Creates a new ArrayCRPState where each customer sits at that table. This is
+   * the standard recommended initialization for CRP-based samplers.
+   *
+   * @param customer2Statistic
+   * @return
+   */
+  public static ArrayCRPState fullyDisconnectedClustering(Map<Integer,SufficientStatistic> customer2Statistic)
+  {
+    ArrayCRPState result = new ArrayCRPState(customer2Statistic);
+    for (int customer = 0; customer < result.customer2Statistic.length; customer++)
+      result.addCustomerToNewTable(customer);
+    return result;
+  }
+
+  /**
+   *
+   * @param customer2Statistic Keys should be exactly 0, 1, ..., customer2Statistic.size() - 1
+   */
+  public ArrayCRPState(Map<Integer,SufficientStatistic> customer2Statistic)
+  {
+    this(toArray(customer2Statistic));
+  }
+
+  /**
+   *
+   * @param customer2Statistic Entry i is the statistic of customer i. The array is not copied.
+   */
+  public ArrayCRPState(SufficientStatistic [] customer2Statistic)
+  {
+    final int n = customer2Statistic.length;
+    this.customer2Statistic = customer2Statistic;
+    this.customer2Slot = new int[n];
+    this.nextCustomer = new int[n];
+    this.previousCustomer = new int[n];
+    Arrays.fill(customer2Slot, NONE);
+  }
+
+  private static SufficientStatistic [] toArray(Map<Integer,SufficientStatistic> customer2Statistic)
+  {
+    SufficientStatistic [] result = new SufficientStatistic[customer2Statistic.size()];
+    for (Integer customer : customer2Statistic.keySet())
+    {
+      if (customer < 0 || customer >= result.length)
+        throw new RuntimeException("Customers should be indexed 0, 1, ..., n-1; got " + customer);
+      result[customer] = customer2Statistic.get(customer);
+    }
+    return result;
+  }
+
+  @Override
+  public void removeCustomer(Integer _customer)
+  {
+    final int customer = _customer;
+    checkCustomerIndex(customer);
+    final int slot = customer2Slot[customer];
+    if (slot == NONE)
+      throw new RuntimeException("Customer " + customer + " was not in the CRPState");
+
+    unlink(customer, slot);
+    customer2Slot[customer] = NONE;
+    nCustomers--;
+
+    if (slot2Size[slot] == 0)
+    {
+      slot2Statistic[slot] = null;
+      freeSlots[nFreeSlots++] = slot;
+      nTables--;
+      marginalCache.invalidate(slot2ClusterId[slot]);
+    }
+    else
+    {
+      slot2Statistic[slot].minusEqual(customer2Statistic[customer]);
+      marginalCache.customerRemoved(slot2ClusterId[slot], customer2Statistic[customer]);
+    }
+  }
+
+  /**
+   *
+   * @param customer A customer not currently in restaurant
+   * @param clusterId The existing, non-empty cluster to join
+   *
+   * @throws RuntimeException If customer was already in restaurant
+   */
+  @Override
+  public void addCustomerToExistingTable(Integer _customer, ClusterId clusterId)
+  {
+    final int customer = _customer;
+    checkCustomerNotAlreadyThere(customer);
+    final int slot = clusterId.id();
+    if (slot >= nSlotsUsed || slot2Size[slot] == 0)
+      throw new RuntimeException("Table " + clusterId + " is empty.");
+
+    link(customer, slot);
+    slot2Statistic[slot].plusEqual(customer2Statistic[customer]);
+    marginalCache.customerAdded(slot2ClusterId[slot], customer2Statistic[customer]);
+  }
+
+  /**
+   * Create a new table containing only the provided customer
+   *
+   * @param customer A customer not currently in restaurant
+   * @return clusterId The ClusterId of the newly created table
+   *
+   * @throws RuntimeException If customer was already in restaurant
+   */
+  @Override
+  public ClusterId addCustomerToNewTable(Integer _customer)
+  {
+    final int customer = _customer;
+    checkCustomerNotAlreadyThere(customer);
+
+    final int slot = nextFreeSlot();
+    link(customer, slot);
+    // copy since customer2Statistic should stay unchanged
+    slot2Statistic[slot] = customer2Statistic[customer].copy();
+    nTables++;
+    marginalCache.invalidate(slot2ClusterId[slot]);
+    return slot2ClusterId[slot];
+  }
+
+  private void link(int customer, int slot)
+  {
+    final int first = slot2FirstCustomer[slot];
+    nextCustomer[customer] = first;
+    previousCustomer[customer] = NONE;
+    if (first != NONE)
+      previousCustomer[first] = customer;
+    slot2FirstCustomer[slot] = customer;
+    if (slot2Size[slot] == 0)
+    {
+      sizeHistogram.add(1);
+      sizeIndex.add(slot2ClusterId[slot]);
+    }
+    else
+    {
+      sizeHistogram.resize(slot2Size[slot], slot2Size[slot] + 1);
+      sizeIndex.increment(slot2ClusterId[slot]);
+    }
+    slot2Size[slot]++;
+    customer2Slot[customer] = slot;
+    nCustomers++;
+  }
+
+  private void unlink(int customer, int slot)
+  {
+    final int next = nextCustomer[customer], previous = previousCustomer[customer];
+    if (previous == NONE)
+      slot2FirstCustomer[slot] = next;
+    else
+      nextCustomer[previous] = next;
+    if (next != NONE)
+      previousCustomer[next] = previous;
+    if (slot2Size[slot] == 1)
+      sizeHistogram.remove(1);
+    else
+      sizeHistogram.resize(slot2Size[slot], slot2Size[slot] - 1);
+    sizeIndex.decrement(slot2ClusterId[slot]);
+    slot2Size[slot]--;
+  }
+
+  private int nextFreeSlot()
+  {
+    if (nFreeSlots > 0)
+      return freeSlots[--nFreeSlots];
+    if (nSlotsUsed == slot2Size.length)
+      growSlots();
+    final int slot = nSlotsUsed++;
+    slot2ClusterId[slot] = new ClusterId(slot);
+    slot2View[slot] = new TableView(slot);
+    return slot;
+  }
+
+  private void growSlots()
+  {
+    final int newCapacity = Math.max(16, 2 * slot2Size.length);
+    slot2FirstCustomer = Arrays.copyOf(slot2FirstCustomer, newCapacity);
+    Arrays.fill(slot2FirstCustomer, nSlotsUsed, newCapacity, NONE);
+    slot2Size = Arrays.copyOf(slot2Size, newCapacity);
+    slot2Statistic = Arrays.copyOf(slot2Statistic, newCapacity);
+    slot2ClusterId = Arrays.copyOf(slot2ClusterId, newCapacity);
+    slot2View = Arrays.copyOf(slot2View, newCapacity);
+    freeSlots = Arrays.copyOf(freeSlots, newCapacity);
+  }
+
+  private void checkCustomerIndex(int customer)
+  {
+    if (customer < 0 || customer >= customer2Slot.length)
+      throw new RuntimeException("Unknown customer " + customer);
+  }
+
+  private void checkCustomerNotAlreadyThere(int customer)
+  {
+    checkCustomerIndex(customer);
+    if (customer2Slot[customer] != NONE)
+      throw new RuntimeException("Customer already in there. Remove the customer first.");
+  }
+
+  private int slot(ClusterId clusterId)
+  {
+    final int slot = clusterId.id();
+    if (slot >= nSlotsUsed || slot2Size[slot] == 0)
+      return NONE;
+    return slot;
+  }
+
+  @Override
+  public ClusterId getClusterIdOfCustomer(Integer customer)
+  {
+    final int slot = customer2Slot[customer];
+    return slot == NONE ? null : slot2ClusterId[slot];
+  }
+
+  @Override
+  public Set<Integer> getTableOfCustomer(Integer customer)
+  {
+    final int slot = customer2Slot[customer];
+    return slot == NONE ? null : slot2View[slot];
+  }
+
+  /**
+   * Note: the returned set is a read-only view of the table currently in this slot.
+   */
+  @Override
+  public Set<Integer> getTable(ClusterId clusterId)
+  {
+    final int slot = slot(clusterId);
+    return slot == NONE ? null : slot2View[slot];
+  }
+
+  /**
+   *
+   * @param clusterId
+   * @return Number of customers at the table, zero if the table does not exist
+   */
+  public int tableSize(ClusterId clusterId)
+  {
+    final int slot = slot(clusterId);
+    return slot == NONE ? 0 : slot2Size[slot];
+  }
+
+  /**
+   *
+   * @return The id of all non-empty tables, sorted
+   */
+  @Override
+  public List<ClusterId> getAllClusterIds()
+  {
+    List<ClusterId> result = new ArrayList<ClusterId>(nTables);
+    for (int slot = 0; slot < nSlotsUsed; slot++)
+      if (slot2Size[slot] > 0)
+        result.add(slot2ClusterId[slot]);
+    return result;
+  }
+
+  /**
+   *
+   * @return Set of blocks, where each block is a copy of the set of customers at the same table
+   */
+  @Override
+  public Set<Set<Integer>> partition()
+  {
+    Set<Set<Integer>> result = new HashSet<Set<Integer>>();
+    for (int slot = 0; slot < nSlotsUsed; slot++)
+      if (slot2Size[slot] > 0)
+        result.add(new HashSet<Integer>(slot2View[slot]));
+    return result;
+  }
+
+  @Override
+  public int nCustomers()
+  {
+    return nCustomers;
+  }
+
+  @Override
+  public int nTables()
+  {
+    return nTables;
+  }
+
+  /**
+   *
+   * @return Read-only view of the customers currently sitting, across all tables.
+   */
+  @Override
+  public Set<Integer> getAllCustomers()
+  {
+    return allCustomers;
+  }
+
+  @Override
+  public SufficientStatistic getCustomerStatistic(Integer customer)
+  {
+    return customer2Statistic[customer];
+  }
+
+  @Override
+  public SufficientStatistic getClusterStatistics(ClusterId current)
+  {
+    final int slot = slot(current);
+    return slot == NONE ? null : slot2Statistic[slot];
+  }
+
+  @Override
+  public ClusterMarginalCache getMarginalCache()
+  {
+    return marginalCache;
+  }
+
+  @Override
+  public TableSizeHistogram getTableSizeHistogram()
+  {
+    return sizeHistogram;
+  }
+
+  @Override
+  public TableSizeIndex getTableSizeIndex()
+  {
+    return sizeIndex;
+  }
+
+  @Override
+  public ClusterIndex getClusterIndex()
+  {
+    return sizeIndex;
+  }
+
+  /**
+   * Makes some basic integrity checks
+   */
+  @Override
+  public void checkIntegrity()
+  {
+    int check = 0, checkTables = 0;
+    for (int slot = 0; slot < nSlotsUsed; slot++)
+    {
+      int count = 0;
+      for (int c = slot2FirstCustomer[slot]; c != NONE; c = nextCustomer[c])
+      {
+        if (customer2Slot[c] != slot)
+          throw new RuntimeException();
+        count++;
+      }
+      if (count != slot2Size[slot])
+        throw new RuntimeException();
+      if (count > 0)
+      {
+        if (slot2Statistic[slot].numberOfPoints() != count || sizeHistogram.count(count) == 0
+            || sizeIndex.size(slot2ClusterId[slot]) != count)
+          throw new RuntimeException();
+        checkTables++;
+      }
+      check += count;
+    }
+    if (check != nCustomers || checkTables != nTables || nTables + nFreeSlots != nSlotsUsed
+        || sizeHistogram.nTables() != nTables || sizeIndex.nTables() != nTables)
+      throw new RuntimeException();
+    sizeIndex.checkIntegrity();
+  }
+
+  /**
+   * Read-only view of the customers in one slot
+   */
+  private class TableView extends AbstractSet<Integer>
+  {
+    private final int slot;
+
+    private TableView(int slot)
+    {
+      this.slot = slot;
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+      if (!(o instanceof Integer))
+        return false;
+      final int customer = (Integer) o;
+      return customer >= 0 && customer < customer2Slot.length && customer2Slot[customer] == slot;
+    }
+
+    @Override
+    public int size()
+    {
+      return slot2Size[slot];
+    }
+
+    @Override
+    public Iterator<Integer> iterator()
+    {
+      return new Iterator<Integer>() {
+        private int next = slot2FirstCustomer[slot];
+
+        @Override
+        public boolean hasNext()
+        {
+          return next != NONE;
+        }
+
+        @Override
+        public Integer next()
+        {
+          if (next == NONE)
+            throw new NoSuchElementException();
+          final int result = next;
+          next = nextCustomer[next];
+          return result;
+        }
+
+        @Override
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
+  /**
+   * Read-only view of the seated customers
+   */
+  private class SeatedCustomersView extends AbstractSet<Integer>
+  {
+    @Override
+    public boolean contains(Object o)
+    {
+      if (!(o instanceof Integer))
+        return false;
+      final int customer = (Integer) o;
+      return customer >= 0 && customer < customer2Slot.length && customer2Slot[customer] != NONE;
+    }
+
+    @Override
+    public int size()
+    {
+      return nCustomers;
+    }
+
+    @Override
+    public Iterator<Integer> iterator()
+    {
+      return new Iterator<Integer>() {
+        private int next = advance(0);
+
+        private int advance(int from)
+        {
+          while (from < customer2Slot.length && customer2Slot[from] == NONE)
+            from++;
+          return from;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+          return next < customer2Slot.length;
+        }
+
+        @Override
+        public Integer next()
+        {
+          if (!hasNext())
+            throw new NoSuchElementException();
+          final int result = next;
+          next = advance(next + 1);
+          return result;
+        }
+
+        @Override
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+}
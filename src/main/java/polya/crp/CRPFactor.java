@@ -1,8 +1,7 @@
 package polya.crp;
 
-import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterMarginalCache;
 import polya.parametric.CollapsedConjugateModel;
-import polya.parametric.Parametrics;
 import blang.annotations.FactorArgument;
 import blang.annotations.FactorComponent;
 import blang.factors.Factor;
@@ -19,9 +18,11 @@ public class CRPFactor implements Factor
 	public final CollapsedConjugateModel collapsedModel;
 
 	@FactorArgument//(makeStochastic=true) makeStochastic for the data CRPState
-	public final CRPState clustering;
+	public final CRPStateInterface clustering;
 
-	public CRPFactor(CollapsedConjugateModel collapsedModel, CRPState crpState)
+	private double inverseTemperature = 1.0;
+
+	public CRPFactor(CollapsedConjugateModel collapsedModel, CRPStateInterface crpState)
 	{
 		this.collapsedModel = collapsedModel;
 		this.clustering = crpState;
@@ -32,17 +33,42 @@ public class CRPFactor implements Factor
 		return collapsedModel;
 	}
 
+	/**
+	 * Sets the power of the likelihood in logDensity(), 1 by default; a
+	 * value below 1 flattens the posterior, see ParallelTempering.
+	 */
+	public void setInverseTemperature(double inverseTemperature)
+	{
+		if (!(inverseTemperature > 0.0 && inverseTemperature <= 1.0))
+			throw new RuntimeException("Invalid inverse temperature: " + inverseTemperature);
+		this.inverseTemperature = inverseTemperature;
+	}
+
+	public double getInverseTemperature()
+	{
+		return inverseTemperature;
+	}
+
 	@Override
 	public double logDensity()
+	{
+		final double logLikelihood = logLikelihood();
+		return inverseTemperature == 1.0 ? logLikelihood : inverseTemperature * logLikelihood;
+	}
+
+	/**
+	 * @return The log marginal likelihood of the tables, regardless of the
+	 *  inverse temperature
+	 */
+	public double logLikelihood()
 	{
 		if (!collapsedModel.checkHyperParameterBound())
 			return Double.NEGATIVE_INFINITY;
 
-		double result = 0.0;
-		for (ClusterId id : clustering.getAllClusterIds())
-			result += Parametrics.logMarginal(collapsedModel, collapsedModel.getHyperParameter(), clustering.getClusterStatistics(id));
-      
-		return result;
+		// running total, patched by the changes to the tables
+		ClusterMarginalCache cache = clustering.getMarginalCache();
+		cache.checkHyperParameters(collapsedModel, collapsedModel.getHyperParameter());
+		return cache.totalLogMarginal(clustering);
 	}
 
 }
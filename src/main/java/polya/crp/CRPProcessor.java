@@ -8,19 +8,19 @@ import blang.processing.ProcessorContext;
  * @author Seong-Hwan Jun (s2jun.uw@gmail.com)
  *
  */
-public class CRPProcessor implements NodeProcessor<CRPState>
+public class CRPProcessor implements NodeProcessor<CRPStateInterface>
 {
-	private CRPState variable;
+	private CRPStateInterface variable;
 
 	@Override
 	public void process(ProcessorContext context) 
 	{
 		System.out.println("MCMC iter:" + context.getMcmcIteration());
-		System.out.println("nTables=" + variable.getAllClusterIds().size());
+		System.out.println("nTables=" + variable.nTables());
 	}
 
 	@Override
-	public void setReference(CRPState variable) 
+	public void setReference(CRPStateInterface variable) 
 	{
 		this.variable = variable;
 	}
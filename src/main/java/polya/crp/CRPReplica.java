@@ -0,0 +1,57 @@
+package polya.crp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import polya.crp.utils.ParallelTempering;
+
+/**
+ * A CRP state with its factors, as a replica of ParallelTempering. A sweep
+ * reseats each customer once, in random order, with the tempered
+ * CRPSampler.gibbs(); it also sets the inverse temperature of the
+ * CRPFactor, so that logDensity() matches the target of the replica.
+ */
+public class CRPReplica implements ParallelTempering.Replica
+{
+  public final CRPFactor likelihood;
+  public final PYPrior prior;
+  private final List<Integer> customers;
+
+  /**
+   * @param likelihood Its collapsed model should not be shared with the
+   *  other replicas unless it is safe to use from several threads at once
+   * @param prior On the state of the likelihood
+   */
+  public CRPReplica(CRPFactor likelihood, PYPrior prior)
+  {
+    this.likelihood = likelihood;
+    this.prior = prior;
+    this.customers = new ArrayList<Integer>(likelihood.clustering.getAllCustomers());
+    Collections.sort(customers);
+  }
+
+  public CRPStateInterface getState()
+  {
+    return likelihood.clustering;
+  }
+
+  @Override
+  public void sweep(Random rand, double inverseTemperature)
+  {
+    likelihood.setInverseTemperature(inverseTemperature);
+    Collections.shuffle(customers, rand);
+    for (Integer customer : customers)
+      CRPSampler.gibbs(
+          rand, customer, likelihood.clustering,
+          likelihood.collapsedModel.getHyperParameter(), likelihood.collapsedModel,
+          prior, inverseTemperature);
+  }
+
+  @Override
+  public double logLikelihood()
+  {
+    return likelihood.logLikelihood();
+  }
+}
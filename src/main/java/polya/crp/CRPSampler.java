@@ -4,15 +4,16 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
-import bayonet.distributions.Multinomial;
 import blang.factors.Factor;
 import blang.mcmc.ConnectedFactor;
 import blang.mcmc.MHProposalDistribution;
 import blang.mcmc.SampledVariable;
+import polya.crp.utils.CategoricalSampler;
 import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterIndex;
+import polya.crp.utils.ClusterMarginalCache;
 import polya.parametric.CollapsedConjugateModel;
 import polya.parametric.HyperParameter;
-import polya.parametric.Parametrics;
 import polya.parametric.SufficientStatistic;
 
 
@@ -25,7 +26,7 @@ import polya.parametric.SufficientStatistic;
 public class CRPSampler implements MHProposalDistribution
 {
 	@SampledVariable
-	CRPState crpState;
+	CRPStateInterface crpState;
 	@ConnectedFactor
 	List<Factor> connectedFactors; 
 	// Note: need CollapsedConjugateModel and PYPrior but CRPFactor and PYPrior are the connected factors
@@ -37,6 +38,7 @@ public class CRPSampler implements MHProposalDistribution
 		PYPrior pyPrior = null;
 		CollapsedConjugateModel collapsedModel = null;
 		HyperParameter hp = null;
+		double inverseTemperature = 1.0;
 		
 		for (Factor f : connectedFactors)
 		{
@@ -49,6 +51,7 @@ public class CRPSampler implements MHProposalDistribution
 				CRPFactor crpFactor = (CRPFactor)f;
 				collapsedModel = crpFactor.getCollapsedConjugateModel();
 				hp = collapsedModel.getHyperParameter();
+				inverseTemperature = crpFactor.getInverseTemperature();
 			}
 		}
 		
@@ -61,7 +64,7 @@ public class CRPSampler implements MHProposalDistribution
 		Set<Integer> customers = crpState.getAllCustomers();
 		Integer customer= rand.nextInt(customers.size());
 		
-		gibbs(rand, customer, crpState, hp, collapsedModel, pyPrior);
+		gibbs(rand, customer, crpState, hp, collapsedModel, pyPrior, inverseTemperature);
 		
 		// return the new Proposal object with acceptance prob of log(1) = 0
 		Proposal proposal = new Proposal() {
@@ -81,41 +84,60 @@ public class CRPSampler implements MHProposalDistribution
   public static void gibbs(
       Random rand, 
       Integer customer,
-      CRPState state, 
+      CRPStateInterface state, 
       HyperParameter hp, 
       CollapsedConjugateModel collapsedModel,
       PYPrior prior)
+  {
+    gibbs(rand, customer, state, hp, collapsedModel, prior, 1.0);
+  }
+
+  /**
+   * Same as above, with the likelihood raised to the power
+   * inverseTemperature, see CRPFactor.setInverseTemperature().
+   */
+  public static void gibbs(
+      Random rand, 
+      Integer customer,
+      CRPStateInterface state, 
+      HyperParameter hp, 
+      CollapsedConjugateModel collapsedModel,
+      PYPrior prior,
+      double inverseTemperature)
   {
     /* startRem throw new RuntimeException(); */ 
     state.removeCustomer(customer);
+    // posteriors of the untouched tables are reused from the previous moves
+    ClusterMarginalCache cache = state.getMarginalCache();
+    cache.checkHyperParameters(collapsedModel, hp);
     // consider all the way to re-insert them
     int nOutcomes = state.nTables() + 1;
-    List<ClusterId> existingTables = state.getAllClusterIds();
-    double [] logUnnormalizedPrs = new double[nOutcomes];
+    // positions of the tables, valid until the assignment below
+    ClusterIndex existingTables = state.getClusterIndex();
+    CategoricalSampler sampler = CategoricalSampler.forCurrentThread();
+    double [] logUnnormalizedPrs = sampler.logWeights(nOutcomes);
     SufficientStatistic currentCustomer = state.getCustomerStatistic(customer);
+    cache.logPredictives(state, currentCustomer, logUnnormalizedPrs); // G_0
     for (int i = 0; i < state.nTables(); i++)
     {
-      ClusterId current = existingTables.get(i);
-      SufficientStatistic customerAlreadyAtTable = state.getClusterStatistics(current);
-      logUnnormalizedPrs[i] = 
-        Parametrics.logPredictive(collapsedModel, hp, currentCustomer, customerAlreadyAtTable) // G_0
-        + prior.logUnnormalizedPredictive(state.getTable(current).size(), state.nTables()); // table prior probabilities
+      ClusterId current = existingTables.clusterId(i);
+      logUnnormalizedPrs[i] *= inverseTemperature;
+      logUnnormalizedPrs[i] += 
+        prior.logUnnormalizedPredictive(state.getTable(current).size(), state.nTables()); // table prior probabilities
     }
     int createTableIndex = state.nTables();
     logUnnormalizedPrs[createTableIndex] = 
-      Parametrics.logMarginal(collapsedModel, hp, currentCustomer) // G_0
+      inverseTemperature * cache.logMarginal(currentCustomer) // G_0
       + prior.logUnnormalizedPredictive(0, state.nTables());
     
-    Multinomial.expNormalize(logUnnormalizedPrs);
-
     // sample
-    int sampledIndex = Multinomial.sampleMultinomial(rand , logUnnormalizedPrs);
+    int sampledIndex = sampler.sample(rand, nOutcomes);
     
     // do the assignment
     if (sampledIndex == createTableIndex)
       state.addCustomerToNewTable(customer);
     else
-      state.addCustomerToExistingTable(customer, existingTables.get(sampledIndex));
+      state.addCustomerToExistingTable(customer, existingTables.clusterId(sampledIndex));
     /* endRem */
   }
 
@@ -8,9 +8,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.base.Supplier;
+
 import blang.annotations.Processors;
 import blang.annotations.Samplers;
 import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterIndex;
+import polya.crp.utils.ClusterMarginalCache;
+import polya.crp.utils.Journal;
+import polya.crp.utils.Snapshot;
+import polya.crp.utils.TableSizeHistogram;
+import polya.crp.utils.TableSizeIndex;
 import polya.parametric.SufficientStatistic;
 import tutorialj.Tutorial;
 
@@ -24,9 +32,9 @@ import tutorialj.Tutorial;
  * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
  *
  */
-@Samplers({CRPSampler.class})
+@Samplers({CRPSampler.class, SplitMergeSampler.class})
 @Processors({CRPProcessor.class})
-public class CRPState
+public class CRPState implements CRPStateInterface
 {
   
   /**
@@ -57,16 +65,24 @@ public class CRPState
       throw new RuntimeException("Customer " + customer + " was not in the CRPState");
     
     ClusterId clusterId = customer2Cluster.get(customer);
+    sizeIndex.decrement(clusterId);
     if (table.isEmpty())
     {
+      sizeHistogram.remove(1);
       cluster2Statistic.remove(clusterId);
       cluster2Customers.remove(clusterId);
-      _lastRemoved = clusterId;
+      marginalCache.invalidate(clusterId);
+      _freeIds.add(clusterId);
     }
     else
+    {
+      sizeHistogram.resize(table.size() + 1, table.size());
       cluster2Statistic.get(clusterId).minusEqual(customer2Statistic.get(customer));
+      marginalCache.customerRemoved(clusterId, customer2Statistic.get(customer));
+    }
     
     customer2Cluster.remove(customer);
+    journal.record(customer, null);
     /* endRem */
   }
   
@@ -92,6 +108,19 @@ public class CRPState
    */
   private final Map<Integer, SufficientStatistic> customer2Statistic;
   
+  /**
+   * Posteriors and marginals of the tables, kept in sync as customers move
+   */
+  private final ClusterMarginalCache marginalCache = new ClusterMarginalCache();
+
+  private final TableSizeHistogram sizeHistogram = new TableSizeHistogram();
+  private final TableSizeIndex sizeIndex = new TableSizeIndex();
+  
+  /**
+   * Changes of customer2Cluster since the last snapshot
+   */
+  private final Journal<Integer, ClusterId> journal = new Journal<Integer, ClusterId>();
+  
   /**
    * Creates a new CRPState where each customer sits at that table. This is
    * the standard recommended initialization for CRP-based samplers.
@@ -164,9 +193,14 @@ public class CRPState
   {
     checkCustomerNotAlreadyThere(customer);
     
-    cluster2Customers.get(clusterId).add(customer);
+    Set<Integer> table = cluster2Customers.get(clusterId);
+    table.add(customer);
+    sizeHistogram.resize(table.size() - 1, table.size());
+    sizeIndex.increment(clusterId);
     customer2Cluster.put(customer, clusterId);
+    journal.record(customer, clusterId);
     cluster2Statistic.get(clusterId).plusEqual(customer2Statistic.get(customer));
+    marginalCache.customerAdded(clusterId, customer2Statistic.get(customer));
   }
   
   /**
@@ -186,10 +220,14 @@ public class CRPState
     
     ClusterId clusterId = getNextClusterId();
     cluster2Customers.put(clusterId, newTable);
+    sizeHistogram.add(1);
+    sizeIndex.add(clusterId);
     customer2Cluster.put(customer, clusterId);
+    journal.record(customer, clusterId);
     // note that we make a copy in this case because we want customer2Statistic
     // to stay unchanged
     cluster2Statistic.put(clusterId, customer2Statistic.get(customer).copy());
+    marginalCache.invalidate(clusterId);
     
     return clusterId;
   }
@@ -219,6 +257,12 @@ public class CRPState
     }
     if (check != nCustomers())
       throw new RuntimeException();
+    for (Map.Entry<ClusterId, Set<Integer>> entry : cluster2Customers.entrySet())
+      if (sizeHistogram.count(entry.getValue().size()) == 0 || sizeIndex.size(entry.getKey()) != entry.getValue().size())
+        throw new RuntimeException();
+    if (sizeHistogram.nTables() != nTables() || sizeIndex.nTables() != nTables())
+      throw new RuntimeException();
+    sizeIndex.checkIntegrity();
   }
   
   /**
@@ -233,6 +277,8 @@ public class CRPState
 
   
   /**
+   * Note: the blocks are the live tables of this state, copy them or use 
+   * snapshot() to keep a sample.
    * 
    * @return Set of blocks, where each block is as set of customers at the same table
    */
@@ -241,6 +287,43 @@ public class CRPState
     return new HashSet<Set<Integer>>(cluster2Customers.values());
   }
   
+  /**
+   * A snapshot of the seating arrangement, which is not affected by later
+   * changes to this state. Only the customers moved since the previous
+   * snapshot are stored (see Journal), so retaining a snapshot every few
+   * sweeps costs much less than copying the partition.
+   * 
+   * @return A map from customers to their ClusterId, see partition(Snapshot)
+   */
+  public Snapshot<Integer, ClusterId> snapshot()
+  {
+    return journal.snapshot(customer2Cluster.size(), new Supplier<Map<Integer, ClusterId>>() {
+      @Override
+      public Map<Integer, ClusterId> get()
+      {
+        return customer2Cluster;
+      }
+    });
+  }
+  
+  /**
+   * 
+   * @param snapshot
+   * @return The partition when the snapshot was taken, as new sets
+   */
+  public static Set<Set<Integer>> partition(Snapshot<Integer, ClusterId> snapshot)
+  {
+    Map<ClusterId, Set<Integer>> blocks = new HashMap<ClusterId, Set<Integer>>();
+    for (Map.Entry<Integer, ClusterId> entry : snapshot.toMap().entrySet())
+    {
+      Set<Integer> block = blocks.get(entry.getValue());
+      if (block == null)
+        blocks.put(entry.getValue(), block = new HashSet<Integer>());
+      block.add(entry.getKey());
+    }
+    return new HashSet<Set<Integer>>(blocks.values());
+  }
+  
   private void checkCustomerNotAlreadyThere(Integer customer)
   {
     if (customer2Cluster.containsKey(customer))
@@ -248,7 +331,9 @@ public class CRPState
   }
   
   private int _nextClusterId = 0;
-  private ClusterId _lastRemoved = null;
+  // ids of the deleted tables, reused last in first out, so that the ids
+  // stay below the largest number of tables so far
+  private final List<ClusterId> _freeIds = new ArrayList<ClusterId>();
   
   /**
    * Return a cluster id not in use.
@@ -256,12 +341,8 @@ public class CRPState
    */
   private ClusterId getNextClusterId()
   {
-    if (_lastRemoved != null)
-    {
-      ClusterId result = _lastRemoved;
-      _lastRemoved = null;
-      return result;
-    }
+    if (!_freeIds.isEmpty())
+      return _freeIds.remove(_freeIds.size() - 1);
     if (_nextClusterId == Integer.MAX_VALUE)
       throw new RuntimeException("Ids exhausted.");
     return new ClusterId(_nextClusterId++);
@@ -303,5 +384,44 @@ public class CRPState
   {
     return customer2Cluster.keySet();
   }
+  
+  /**
+   * 
+   * @return The cache of per-table posteriors and marginals, kept in sync 
+   *  with the seating arrangement
+   */
+  public ClusterMarginalCache getMarginalCache()
+  {
+    return marginalCache;
+  }
+
+  /**
+   * 
+   * @return The number of tables of each size, kept in sync with the
+   *  seating arrangement
+   */
+  public TableSizeHistogram getTableSizeHistogram()
+  {
+    return sizeHistogram;
+  }
+
+  /**
+   * 
+   * @return The live tables and their sizes, kept in sync with the 
+   *  seating arrangement
+   */
+  public TableSizeIndex getTableSizeIndex()
+  {
+    return sizeIndex;
+  }
+
+  /**
+   * 
+   * @return The live tables, in the slots of getTableSizeIndex()
+   */
+  public ClusterIndex getClusterIndex()
+  {
+    return sizeIndex;
+  }
 
 }
@@ -0,0 +1,57 @@
+package polya.crp;
+
+import java.util.List;
+import java.util.Set;
+
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterMarginalCache;
+import polya.crp.utils.Clustering;
+import polya.crp.utils.TableSizeHistogram;
+import polya.crp.utils.TableSizeIndex;
+import polya.parametric.SufficientStatistic;
+
+/**
+ * The operations on a seating arrangement needed by the CRP samplers and factors.
+ *
+ * See CRPState for the hash-based implementation and ArrayCRPState for a
+ * primitive-array based one suited to large numbers of customers.
+ */
+public interface CRPStateInterface extends Clustering
+{
+  public void removeCustomer(Integer customer);
+  public void addCustomerToExistingTable(Integer customer, ClusterId clusterId);
+  public ClusterId addCustomerToNewTable(Integer customer);
+
+  public ClusterId getClusterIdOfCustomer(Integer customer);
+  public Set<Integer> getTableOfCustomer(Integer customer);
+  public Set<Integer> getTable(ClusterId clusterId);
+  public List<ClusterId> getAllClusterIds();
+  public Set<Set<Integer>> partition();
+
+  public int nCustomers();
+  public int nTables();
+  public Set<Integer> getAllCustomers();
+
+  public SufficientStatistic getCustomerStatistic(Integer customer);
+  public SufficientStatistic getClusterStatistics(ClusterId current);
+
+  /**
+   * @return Cached per-table posteriors and marginals; implementations
+   *  notify it of every change to the tables (see ClusterMarginalCache)
+   */
+  public ClusterMarginalCache getMarginalCache();
+
+  /**
+   * @return The number of tables of each size, kept up to date by the
+   *  implementations; should not be modified
+   */
+  public TableSizeHistogram getTableSizeHistogram();
+
+  /**
+   * @return The live tables in dense slots with their sizes, kept up to
+   *  date by the implementations; should not be modified
+   */
+  public TableSizeIndex getTableSizeIndex();
+
+  public void checkIntegrity();
+}
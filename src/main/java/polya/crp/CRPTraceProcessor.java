@@ -0,0 +1,93 @@
+package polya.crp;
+
+import java.io.File;
+import java.util.Arrays;
+
+import blang.processing.NodeProcessor;
+import blang.processing.ProcessorContext;
+import polya.crp.utils.AssignmentTraceWriter;
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterIndex;
+
+/**
+ * Writes the table of each customer to an assignment trace (see
+ * AssignmentTraceWriter) each time it is called, i.e. every thinning
+ * period of the MCMC. Customers should be 0, 1, ..., n-1, as created by
+ * NIWs.loadFromCSVFile().
+ *
+ * Not listed in the @Processors of the states, since it writes a file;
+ * add it with e.g. factory.addProcessor(new CRPTraceProcessor(state, file)).
+ * The trace is read back with AssignmentTraceReader. Each sample is
+ * flushed to the file as it is written, so an aborted run keeps all the
+ * samples before it.
+ */
+public class CRPTraceProcessor implements NodeProcessor<CRPStateInterface>
+{
+  private final File file;
+  private CRPStateInterface variable;
+  private AssignmentTraceWriter writer = null;
+  private int [] labels;
+
+  /**
+   *
+   * @param file Overwritten at the first call
+   */
+  public CRPTraceProcessor(File file)
+  {
+    this.file = file;
+  }
+
+  public CRPTraceProcessor(CRPStateInterface variable, File file)
+  {
+    this(file);
+    setReference(variable);
+  }
+
+  @Override
+  public void process(ProcessorContext context)
+  {
+    write(context.getMcmcIteration());
+    if (context.isLastProcessCall())
+      close();
+  }
+
+  /**
+   * Appends the current tables as the sample of the given iteration.
+   */
+  void write(int iteration)
+  {
+    if (writer == null)
+    {
+      int nCustomers = 0;
+      for (Integer customer : variable.getAllCustomers())
+        nCustomers = Math.max(nCustomers, customer + 1);
+      writer = new AssignmentTraceWriter(file, nCustomers);
+      labels = new int[nCustomers];
+    }
+    Arrays.fill(labels, -1);
+    ClusterIndex tables = variable.getClusterIndex();
+    for (int i = 0; i < tables.nClusters(); i++)
+    {
+      final ClusterId id = tables.clusterId(i);
+      for (Integer customer : variable.getTable(id))
+        labels[customer] = id.id();
+    }
+    writer.write(iteration, labels);
+    writer.flush();
+  }
+
+  /**
+   * Closes the file; called automatically at the last iteration.
+   */
+  public void close()
+  {
+    if (writer != null)
+      writer.close();
+  }
+
+  @Override
+  public void setReference(CRPStateInterface variable)
+  {
+    this.variable = variable;
+  }
+}
@@ -1,29 +1,18 @@
 package polya.crp;
 
-import java.util.Map;
-
 import org.apache.commons.math3.special.Gamma;
 
-import polya.crp.utils.ClusterId;
-
-import com.beust.jcommander.internal.Maps;
-import com.google.common.base.Optional;
+import polya.crp.utils.TableSizeHistogram;
 
 
 
 public class CRPs
 {
-  public static double crpAssignmentLogProbabilitiy(PYPrior prior, CRPState state)
+  public static double crpAssignmentLogProbabilitiy(PYPrior prior, CRPStateInterface state)
   {
     if (!prior.inBounds())
       return Double.NEGATIVE_INFINITY;
-    Map<Integer,Integer> tableSizeCount = Maps.newHashMap();
-    for (ClusterId id : state.getAllClusterIds())
-    {
-      int currentTableSize = state.getTable(id).size();
-      int updatedCount = 1 + Optional.fromNullable(tableSizeCount.get(currentTableSize)).or(0);
-      tableSizeCount.put(currentTableSize, updatedCount);
-    }
+    TableSizeHistogram histogram = state.getTableSizeHistogram();
     final int n = state.nTables();
     final int m = state.nCustomers();
     
@@ -36,11 +25,10 @@ public class CRPs
     else
       result += n * Math.log(prior.discount()) + logRisingFactorial(prior.alpha0()/prior.discount(), n);
     
-    for (int k : tableSizeCount.keySet())
+    for (int i = 0; i < histogram.nDistinctSizes(); i++)
     {
-      int nk = tableSizeCount.get(k);
-      double current = blockLogFactor(prior.discount(), k);
-      result += nk * current;
+      final int k = histogram.distinctSize(i);
+      result += histogram.count(k) * prior.blockLogFactor(k);
     }
     return result;
   }
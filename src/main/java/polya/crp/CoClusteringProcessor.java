@@ -0,0 +1,62 @@
+package polya.crp;
+
+import java.util.Arrays;
+
+import blang.processing.NodeProcessor;
+import blang.processing.ProcessorContext;
+import polya.crp.utils.ClusterIndex;
+import polya.crp.utils.CoClusteringAccumulator;
+
+/**
+ * Adds the seating arrangement to a CoClusteringAccumulator each time it
+ * is called, i.e. every thinning period of the MCMC. Customers should be
+ * 0, 1, ..., n-1, as created by NIWs.loadFromCSVFile().
+ *
+ * For a point estimate, also add a CRPTraceProcessor, and after the MCMC
+ * pass its trace to getAccumulator().minimizeBinderLoss().
+ */
+public class CoClusteringProcessor implements NodeProcessor<CRPStateInterface>
+{
+  private final CoClusteringAccumulator accumulator;
+  private CRPStateInterface variable;
+  private final int [] labels;
+
+  /**
+   *
+   * @param accumulator Its number of customers should be the one of the
+   *  state
+   */
+  public CoClusteringProcessor(CoClusteringAccumulator accumulator)
+  {
+    this.accumulator = accumulator;
+    this.labels = new int[accumulator.nCustomers()];
+  }
+
+  public CoClusteringProcessor(CRPStateInterface variable, CoClusteringAccumulator accumulator)
+  {
+    this(accumulator);
+    setReference(variable);
+  }
+
+  @Override
+  public void process(ProcessorContext context)
+  {
+    Arrays.fill(labels, -1);
+    ClusterIndex tables = variable.getClusterIndex();
+    for (int i = 0; i < tables.nClusters(); i++)
+      for (Integer customer : variable.getTable(tables.clusterId(i)))
+        labels[customer] = tables.clusterId(i).id();
+    accumulator.add(labels);
+  }
+
+  public CoClusteringAccumulator getAccumulator()
+  {
+    return accumulator;
+  }
+
+  @Override
+  public void setReference(CRPStateInterface variable)
+  {
+    this.variable = variable;
+  }
+}
@@ -0,0 +1,151 @@
+package polya.crp;
+
+import java.util.List;
+import java.util.Random;
+
+import blang.factors.Factor;
+import blang.mcmc.ConnectedFactor;
+import blang.mcmc.MHProposalDistribution;
+import blang.mcmc.SampledVariable;
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterMarginalCache;
+import polya.crp.utils.TableSizeIndex;
+import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.SufficientStatistic;
+
+/**
+ * Reseats a customer by Metropolis-Hastings rather than Gibbs, in the
+ * style of the samplers for LDA with many topics: the cost of a move does
+ * not depend on the number of tables, whereas CRPSampler.gibbs() computes
+ * a predictive for each of them.
+ *
+ * The target is the full conditional of CRPSampler.gibbs(). Each of the
+ * nProposals steps proposes a table from the prior predictive,
+ * independently of the current table (an existing table is drawn in
+ * O(log K) from the TableSizeIndex of the state), and accepts it with the
+ * ratio of the likelihoods, which needs the predictives of the current
+ * and proposed tables only.
+ *
+ * Not in the @Samplers of CRPState; list it instead of CRPSampler when
+ * the number of tables is large.
+ */
+public class MetropolisCRPSampler implements MHProposalDistribution
+{
+  @SampledVariable
+  CRPStateInterface crpState;
+  @ConnectedFactor
+  List<Factor> connectedFactors;
+
+  /**
+   * Number of Metropolis-Hastings steps per move
+   */
+  public static int nProposals = 4;
+
+  /**
+   * Marks the new table among the outcomes of a move.
+   */
+  private static final ClusterId NEW_TABLE = new ClusterId(-1);
+
+  @Override
+  public Proposal propose(Random rand)
+  {
+    PYPrior pyPrior = null;
+    CollapsedConjugateModel collapsedModel = null;
+
+    for (Factor f : connectedFactors)
+    {
+      if (f instanceof PYPrior)
+        pyPrior = (PYPrior) f;
+      if (f instanceof CRPFactor)
+      {
+        if (((CRPFactor) f).getInverseTemperature() != 1.0)
+          throw new RuntimeException("MetropolisCRPSampler does not support tempering, use CRPSampler");
+        collapsedModel = ((CRPFactor) f).getCollapsedConjugateModel();
+      }
+    }
+
+    if (pyPrior == null)
+      throw new RuntimeException("PYPrior is not connected to the CRPState");
+    if (collapsedModel == null)
+      throw new RuntimeException("CRPFactor is not connected to the CRPState");
+
+    Integer customer = rand.nextInt(crpState.nCustomers());
+    metropolis(rand, customer, crpState, collapsedModel.getHyperParameter(), collapsedModel, pyPrior, nProposals);
+
+    // the move leaves the posterior invariant by itself
+    return new Proposal() {
+
+      @Override
+      public double logProposalRatio() {
+        return 0;
+      }
+
+      @Override
+      public void acceptReject(boolean accept) {
+      }
+    };
+  }
+
+  /**
+   * Reseats the customer by nProposals Metropolis-Hastings steps targeting
+   * the full conditional of CRPSampler.gibbs(), starting at its current
+   * table.
+   */
+  public static void metropolis(
+      Random rand,
+      Integer customer,
+      CRPStateInterface state,
+      HyperParameter hp,
+      CollapsedConjugateModel collapsedModel,
+      PYPrior prior,
+      int nProposals)
+  {
+    final ClusterId previous = state.getClusterIdOfCustomer(customer);
+    state.removeCustomer(customer);
+    ClusterMarginalCache cache = state.getMarginalCache();
+    cache.checkHyperParameters(collapsedModel, hp);
+    final SufficientStatistic currentCustomer = state.getCustomerStatistic(customer);
+    final TableSizeIndex tables = state.getTableSizeIndex();
+    final double existingWeight = tables.totalWeight(prior.discount());
+    final double newTableWeight = Math.exp(prior.logUnnormalizedPredictive(0, tables.nTables()));
+
+    ClusterId current = state.getTable(previous) == null ? NEW_TABLE : previous;
+    double currentLogLikelihood = logLikelihood(current, currentCustomer, state, cache);
+    for (int step = 0; step < nProposals; step++)
+    {
+      // prior predictive proposal, independent of the current table
+      final ClusterId proposed =
+          rand.nextDouble() * (existingWeight + newTableWeight) < existingWeight ?
+              tables.clusterId(tables.sampleSlot(rand, prior.discount())) :
+              NEW_TABLE;
+      if (proposed.equals(current))
+        continue;
+      final double proposedLogLikelihood = logLikelihood(proposed, currentCustomer, state, cache);
+      if (Math.log(rand.nextDouble()) < proposedLogLikelihood - currentLogLikelihood)
+      {
+        current = proposed;
+        currentLogLikelihood = proposedLogLikelihood;
+      }
+    }
+
+    if (current == NEW_TABLE)
+      state.addCustomerToNewTable(customer);
+    else
+      state.addCustomerToExistingTable(customer, current);
+  }
+
+  /**
+   * @return The log predictive of the customer at the table
+   */
+  private static double logLikelihood(
+      ClusterId table,
+      SufficientStatistic customer,
+      CRPStateInterface state,
+      ClusterMarginalCache cache)
+  {
+    if (table == NEW_TABLE)
+      return cache.logMarginal(customer);
+    return cache.logPredictive(table, state.getClusterStatistics(table), customer);
+  }
+}
@@ -0,0 +1,315 @@
+package polya.crp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import polya.crp.utils.CategoricalSampler;
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.TableSummary;
+import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.Parametrics;
+import polya.parametric.PredictivePosterior;
+import polya.parametric.SufficientStatistic;
+
+/**
+ * Online inference for a PY mixture, for data arriving one customer at a
+ * time, in memory and time per customer independent of the number of
+ * customers seen (but linear in the number of tables).
+ *
+ * Each new customer is seated with the same conditional as
+ * CRPSampler.gibbs(), given the tables built so far, then
+ * nRejuvenationMoves customers picked at random in a window of recent
+ * customers are reseated the same way. Customers leaving the window are
+ * retired: they stay at their table, which keeps their statistic and
+ * counts them in its size, but they are never moved again and nothing is
+ * kept about them individually.
+ *
+ * The window holds at most windowSize customers, and is either the most
+ * recent ones (SLIDING), or a uniform sample of all the customers seen so
+ * far (RESERVOIR).
+ *
+ * Each table keeps a PredictivePosterior updated in place, so a move costs
+ * one predictive per table.
+ *
+ * The tables are not a CRPStateInterface, which keeps the statistic and
+ * table of every customer, as retired customers are forgotten; the seating
+ * conditional is therefore computed here rather than by CRPSampler.
+ */
+public class OnlineCRP
+{
+  public static enum Window { SLIDING, RESERVOIR }
+
+  private final PYPrior prior;
+  private final PredictivePosterior empty;
+  private final Window windowType;
+  private final int nRejuvenationMoves;
+
+  private final List<Table> tables = new ArrayList<Table>();
+  private int nextClusterId = 0;
+  private final List<ClusterId> freeClusterIds = new ArrayList<ClusterId>();
+
+  // window slot i holds the customer windowIds[i]
+  private final long [] windowIds;
+  private final SufficientStatistic [] windowStatistics;
+  private final Table [] windowTables;
+  private int nInWindow = 0;
+  private long nCustomers = 0;
+
+  /**
+   *
+   * @param collapsedModel
+   * @param hp
+   * @param prior Only its parameters are used, not its state
+   * @param windowType
+   * @param windowSize Maximum number of customers that can still be moved
+   * @param nRejuvenationMoves Number of customers of the window reseated
+   *  after each new customer (windowSize for about one sweep)
+   */
+  public OnlineCRP(
+      CollapsedConjugateModel collapsedModel,
+      HyperParameter hp,
+      PYPrior prior,
+      Window windowType,
+      int windowSize,
+      int nRejuvenationMoves)
+  {
+    if (windowSize < 1 || nRejuvenationMoves < 0)
+      throw new RuntimeException();
+    this.prior = prior;
+    this.empty = Parametrics.predictivePosterior(collapsedModel, hp);
+    this.windowType = windowType;
+    this.nRejuvenationMoves = nRejuvenationMoves;
+    this.windowIds = new long[windowSize];
+    this.windowStatistics = new SufficientStatistic[windowSize];
+    this.windowTables = new Table[windowSize];
+  }
+
+  /**
+   * Seats a new customer, then performs the rejuvenation moves.
+   *
+   * @param rand
+   * @param customer The statistic of the new customer, which is kept as
+   *  long as it is in the window and should not be modified
+   * @return The table of the new customer after the rejuvenation moves
+   */
+  public ClusterId observe(Random rand, SufficientStatistic customer)
+  {
+    final long id = nCustomers++;
+    Table table = seat(rand, customer);
+
+    // slot of the new customer in the window, or -1 if retired right away
+    int slot;
+    if (nInWindow < windowIds.length)
+      slot = nInWindow++;
+    else if (windowType == Window.SLIDING)
+      slot = (int) ((nCustomers - 1) % windowIds.length);
+    else
+    {
+      // keep it with probability windowSize / nCustomers
+      final long index = (long) (rand.nextDouble() * nCustomers);
+      slot = index < windowIds.length ? (int) index : -1;
+    }
+    if (slot != -1)
+    {
+      windowIds[slot] = id;
+      windowStatistics[slot] = customer;
+      windowTables[slot] = table;
+    }
+
+    for (int move = 0; move < nRejuvenationMoves; move++)
+      reseat(rand, rand.nextInt(nInWindow));
+
+    return slot == -1 ? table.id : windowTables[slot].id;
+  }
+
+  /**
+   * Reseats every customer of the window once, in order, e.g. before
+   * reading the state at the end of a stream.
+   *
+   * @param rand
+   */
+  public void sweep(Random rand)
+  {
+    for (int slot = 0; slot < nInWindow; slot++)
+      reseat(rand, slot);
+  }
+
+  private void reseat(Random rand, int slot)
+  {
+    final SufficientStatistic customer = windowStatistics[slot];
+    remove(windowTables[slot], customer);
+    windowTables[slot] = seat(rand, customer);
+  }
+
+  /**
+   * Samples a table for the customer as in CRPSampler.gibbs() and adds it
+   * there.
+   */
+  private Table seat(Random rand, SufficientStatistic customer)
+  {
+    final int nTables = tables.size();
+    CategoricalSampler sampler = CategoricalSampler.forCurrentThread();
+    double [] logUnnormalizedPrs = sampler.logWeights(nTables + 1);
+    for (int i = 0; i < nTables; i++)
+    {
+      Table current = tables.get(i);
+      logUnnormalizedPrs[i] =
+          current.summary.logPredictive(customer)
+          + prior.logUnnormalizedPredictive(current.summary.size(), nTables);
+    }
+    logUnnormalizedPrs[nTables] =
+        empty.logPredictive(customer)
+        + prior.logUnnormalizedPredictive(0, nTables);
+
+    final int sampledIndex = sampler.sample(rand, nTables + 1);
+
+    Table result;
+    if (sampledIndex == nTables)
+    {
+      result = new Table(nextClusterId(), new TableSummary(empty, customer));
+      result.index = nTables;
+      tables.add(result);
+    }
+    else
+    {
+      result = tables.get(sampledIndex);
+      result.summary.add(customer);
+    }
+    return result;
+  }
+
+  private void remove(Table table, SufficientStatistic customer)
+  {
+    table.summary.remove(customer);
+    if (table.summary.size() > 0)
+      return;
+    // swap with the last table
+    Table last = tables.remove(tables.size() - 1);
+    if (last != table)
+    {
+      tables.set(table.index, last);
+      last.index = table.index;
+    }
+    freeClusterIds.add(table.id);
+  }
+
+  private ClusterId nextClusterId()
+  {
+    if (!freeClusterIds.isEmpty())
+      return freeClusterIds.remove(freeClusterIds.size() - 1);
+    return new ClusterId(nextClusterId++);
+  }
+
+  /**
+   *
+   * @return The number of customers observed so far, retired or not
+   */
+  public long nCustomers()
+  {
+    return nCustomers;
+  }
+
+  public int nTables()
+  {
+    return tables.size();
+  }
+
+  /**
+   *
+   * @return The ids of the current tables, in no particular order
+   */
+  public List<ClusterId> getAllClusterIds()
+  {
+    List<ClusterId> result = new ArrayList<ClusterId>();
+    for (Table table : tables)
+      result.add(table.id);
+    return result;
+  }
+
+  /**
+   *
+   * @param clusterId
+   * @return The number of customers at the table, including the retired
+   *  ones
+   */
+  public int tableSize(ClusterId clusterId)
+  {
+    return table(clusterId).summary.size();
+  }
+
+  /**
+   *
+   * @param clusterId
+   * @return The statistic of the customers at the table, including the
+   *  retired ones; should not be modified
+   */
+  public SufficientStatistic getClusterStatistics(ClusterId clusterId)
+  {
+    return table(clusterId).summary.statistic();
+  }
+
+  /**
+   *
+   * @return The number of customers in the window
+   */
+  public int nInWindow()
+  {
+    return nInWindow;
+  }
+
+  /**
+   *
+   * @param slot Between 0 (inclusive) and nInWindow() (exclusive)
+   * @return The index, in the order of observation, of the customer in the
+   *  given slot of the window
+   */
+  public long getWindowCustomer(int slot)
+  {
+    checkSlot(slot);
+    return windowIds[slot];
+  }
+
+  /**
+   *
+   * @param slot Between 0 (inclusive) and nInWindow() (exclusive)
+   * @return The table of the customer in the given slot of the window
+   */
+  public ClusterId getWindowTable(int slot)
+  {
+    checkSlot(slot);
+    return windowTables[slot].id;
+  }
+
+  private void checkSlot(int slot)
+  {
+    if (slot < 0 || slot >= nInWindow)
+      throw new RuntimeException("Invalid window slot: " + slot);
+  }
+
+  private Table table(ClusterId clusterId)
+  {
+    // linear, but only used by the accessors
+    for (Table table : tables)
+      if (table.id.equals(clusterId))
+        return table;
+    throw new RuntimeException("Unknown table: " + clusterId);
+  }
+
+  /**
+   * A table, including its retired customers, and its position in tables.
+   */
+  private static class Table
+  {
+    private final ClusterId id;
+    private final TableSummary summary;
+    private int index;
+
+    private Table(ClusterId id, TableSummary summary)
+    {
+      this.id = id;
+      this.summary = summary;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package polya.crp;
+
+import java.util.Arrays;
+
+/**
+ * The logarithms needed by PYPrior for given values of alpha0 and
+ * discount, tabulated lazily:
+ *
+ * - log(k - discount), for a customer joining a table of size k,
+ * - log(alpha0 + t discount), for a customer creating table t + 1,
+ * - CRPs.blockLogFactor(discount, k), for a table of size k.
+ *
+ * Each table grows (at least doubling) the first time an entry past its
+ * end is needed. Growing replaces the array, so that concurrent readers
+ * see either the old or the new one; two threads growing at the same
+ * time compute the same values.
+ */
+final class PYLogTables
+{
+  final double alpha0, discount;
+
+  private volatile double [] logSizeMinusDiscount = new double[0];
+  private volatile double [] logNewTable = new double[0];
+  private volatile double [] blockLogFactors = new double[0];
+
+  PYLogTables(double alpha0, double discount)
+  {
+    this.alpha0 = alpha0;
+    this.discount = discount;
+  }
+
+  /**
+   * @return Tables for a new value of alpha0, sharing those depending only
+   *  on the discount
+   */
+  PYLogTables withAlpha0(double alpha0)
+  {
+    PYLogTables result = new PYLogTables(alpha0, discount);
+    result.logSizeMinusDiscount = logSizeMinusDiscount;
+    result.blockLogFactors = blockLogFactors;
+    return result;
+  }
+
+  double logSizeMinusDiscount(int size)
+  {
+    double [] current = logSizeMinusDiscount;
+    if (size >= current.length)
+    {
+      final int oldLength = current.length;
+      current = grow(current, size);
+      for (int k = oldLength; k < current.length; k++)
+        current[k] = Math.log(k - discount);
+      logSizeMinusDiscount = current;
+    }
+    return current[size];
+  }
+
+  double logNewTable(int nTables)
+  {
+    double [] current = logNewTable;
+    if (nTables >= current.length)
+    {
+      final int oldLength = current.length;
+      current = grow(current, nTables);
+      for (int k = oldLength; k < current.length; k++)
+        current[k] = Math.log(alpha0 + k * discount);
+      logNewTable = current;
+    }
+    return current[nTables];
+  }
+
+  double blockLogFactor(int size)
+  {
+    double [] current = blockLogFactors;
+    if (size >= current.length)
+    {
+      final int oldLength = current.length;
+      current = grow(current, size);
+      for (int k = oldLength; k < current.length; k++)
+        current[k] = CRPs.blockLogFactor(discount, k);
+      blockLogFactors = current;
+    }
+    return current[size];
+  }
+
+  private static double [] grow(double [] array, int index)
+  {
+    if (index < 0)
+      throw new RuntimeException("Invalid index: " + index);
+    return Arrays.copyOf(array, Math.max(index + 1, Math.max(16, 2 * array.length)));
+  }
+}
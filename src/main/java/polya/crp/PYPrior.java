@@ -37,14 +37,20 @@ public class PYPrior implements Factor
 	private final RealVariable discount; // this should be in the interval [0, 1), with discount = 0 implying DPMM instead of PYMM
 	
 	@FactorArgument(makeStochastic=true)
-	private final CRPState crpState;
+	private final CRPStateInterface crpState;
+
+  /**
+   * Tabulated logarithms for the current values of alpha0 and discount,
+   * replaced when these values change
+   */
+  private volatile PYLogTables logTables = null;
   
   /**
    * 
    * @param alpha0
    * @param discount
    */
-  public PYPrior(double alpha0, double discount, CRPState crpState)
+  public PYPrior(double alpha0, double discount, CRPStateInterface crpState)
   {
     this.alpha0 = new RealVariable(alpha0);
     this.discount = new RealVariable(discount);
@@ -85,9 +91,35 @@ public class PYPrior implements Factor
   public double logUnnormalizedPredictive(int nCustomersAtTable, int nTables)
   {
     if (nCustomersAtTable == 0)
-      return Math.log(alpha0.getValue() + nTables * discount.getValue());
+      return logTables().logNewTable(nTables);
+    else
+      return logTables().logSizeMinusDiscount(nCustomersAtTable);
+  }
+
+  /**
+   * Same as CRPs.blockLogFactor(discount(), size), but tabulated.
+   *
+   * @param size
+   * @return The contribution of a table of the given size to the log
+   *  probability of a seating arrangement
+   */
+  public double blockLogFactor(int size)
+  {
+    return logTables().blockLogFactor(size);
+  }
+
+  private PYLogTables logTables()
+  {
+    PYLogTables current = logTables;
+    final double alpha0 = alpha0(), discount = discount();
+    if (current == null || current.discount != discount)
+      current = new PYLogTables(alpha0, discount);
+    else if (current.alpha0 != alpha0)
+      current = current.withAlpha0(alpha0);
     else
-      return Math.log(nCustomersAtTable - discount.getValue());
+      return current;
+    logTables = current;
+    return current;
   }
   
   /**
@@ -0,0 +1,266 @@
+package polya.crp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import polya.crp.utils.ClusterId;
+import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.SufficientStatistic;
+import blang.factors.Factor;
+import blang.mcmc.ConnectedFactor;
+import blang.mcmc.MHProposalDistribution;
+import blang.mcmc.SampledVariable;
+
+/**
+ * A Gibbs sweep over all customers, run in parallel over shards of the
+ * tables. Only for Dirichlet processes, i.e. PYPrior with discount zero.
+ *
+ * Based on the auxiliary variable representation of a DP with strength
+ * alpha0 as a mixture of nShards DPs with strength alpha0 / nShards
+ * (Williamson, Dubey and Xing, 2013): each table belongs to one shard,
+ * and given the partition, the shards of the tables are independent and
+ * uniform. A sweep:
+ *
+ * 1. resamples the shard of each table, uniformly;
+ * 2. in parallel over shards, reseats each customer once with
+ *    CRPSampler.gibbs, among the tables of its shard or a new table of
+ *    its shard, with strength alpha0 / nShards;
+ * 3. writes the new seating arrangement back into the state, moving
+ *    only the customers whose table changed.
+ *
+ * Both steps are exact Gibbs steps, since given the shards, the seating
+ * arrangements within the shards are independent.
+ *
+ * Each shard uses its own Random, seeded from the one passed to sweep(),
+ * so that the result depends only on that Random and on nShards, not on
+ * the number of threads or their scheduling.
+ *
+ * Not in the @Samplers of CRPState, as it would be used in addition to
+ * CRPSampler; call sweep() directly, or list it instead of CRPSampler.
+ */
+public class ParallelCRPSampler implements MHProposalDistribution
+{
+  @SampledVariable
+  CRPStateInterface crpState;
+  @ConnectedFactor
+  List<Factor> connectedFactors;
+
+  /**
+   * Number of shards used by propose()
+   */
+  public static int nShards = Runtime.getRuntime().availableProcessors();
+
+  @Override
+  public Proposal propose(Random rand)
+  {
+    PYPrior pyPrior = null;
+    CollapsedConjugateModel collapsedModel = null;
+
+    for (Factor f : connectedFactors)
+    {
+      if (f instanceof PYPrior)
+        pyPrior = (PYPrior) f;
+      if (f instanceof CRPFactor)
+      {
+        if (((CRPFactor) f).getInverseTemperature() != 1.0)
+          throw new RuntimeException("ParallelCRPSampler does not support tempering, use CRPSampler");
+        collapsedModel = ((CRPFactor) f).getCollapsedConjugateModel();
+      }
+    }
+
+    if (pyPrior == null)
+      throw new RuntimeException("PYPrior is not connected to the CRPState");
+    if (collapsedModel == null)
+      throw new RuntimeException("CRPFactor is not connected to the CRPState");
+
+    sweep(rand, crpState, collapsedModel.getHyperParameter(), collapsedModel, pyPrior, nShards, defaultExecutor());
+
+    return new Proposal() {
+
+      @Override
+      public double logProposalRatio() {
+        return 0;
+      }
+
+      @Override
+      public void acceptReject(boolean accept) {
+      }
+    };
+  }
+
+  /**
+   * Performs one sweep, see class comment.
+   *
+   * @param rand
+   * @param state
+   * @param hp
+   * @param collapsedModel Should be safe to use from several threads at once
+   * @param prior Should have discount zero
+   * @param nShards
+   * @param executor Runs the shards
+   */
+  public static void sweep(
+      Random rand,
+      CRPStateInterface state,
+      final HyperParameter hp,
+      final CollapsedConjugateModel collapsedModel,
+      PYPrior prior,
+      final int nShards,
+      ExecutorService executor)
+  {
+    if (prior.discount() != 0.0)
+      throw new RuntimeException("Parallel sweeps require a discount of zero");
+    if (nShards < 1)
+      throw new RuntimeException();
+
+    // 1. shard of each table, and a snapshot of the tables of each shard
+    final List<List<List<Integer>>> shard2Tables = new ArrayList<List<List<Integer>>>();
+    final List<Map<Integer,SufficientStatistic>> shard2Statistics = new ArrayList<Map<Integer,SufficientStatistic>>();
+    for (int shard = 0; shard < nShards; shard++)
+    {
+      shard2Tables.add(new ArrayList<List<Integer>>());
+      shard2Statistics.add(new HashMap<Integer,SufficientStatistic>());
+    }
+    for (ClusterId id : state.getAllClusterIds())
+    {
+      final int shard = rand.nextInt(nShards);
+      List<Integer> table = new ArrayList<Integer>(state.getTable(id));
+      Collections.sort(table);
+      shard2Tables.get(shard).add(table);
+      for (Integer customer : table)
+        shard2Statistics.get(shard).put(customer, state.getCustomerStatistic(customer));
+    }
+
+    // 2. reseat the customers of each shard in a local restaurant
+    final double localAlpha0 = prior.alpha0() / nShards;
+    List<Future<CRPState>> futures = new ArrayList<Future<CRPState>>();
+    for (int shard = 0; shard < nShards; shard++)
+    {
+      final List<List<Integer>> tables = shard2Tables.get(shard);
+      final Map<Integer,SufficientStatistic> statistics = shard2Statistics.get(shard);
+      final long seed = rand.nextLong();
+      futures.add(executor.submit(new Callable<CRPState>() {
+        @Override
+        public CRPState call()
+        {
+          return reseatShard(new Random(seed), tables, statistics, hp, collapsedModel, localAlpha0);
+        }
+      }));
+    }
+    List<CRPState> localStates = new ArrayList<CRPState>();
+    try
+    {
+      for (Future<CRPState> future : futures)
+        localStates.add(future.get());
+    }
+    catch (InterruptedException e) { throw new RuntimeException(e); }
+    catch (ExecutionException e) { throw new RuntimeException(e.getCause()); }
+
+    // 3. write back, moving only the customers whose table changed
+    writeBack(state, localStates);
+  }
+
+  /**
+   * Each local table is matched to the table of the state holding one of
+   * its customers (unless that table was already matched), or to a new
+   * table, and the customers not already there are moved to it. Matched
+   * tables keep at least one customer throughout, so their ClusterId
+   * stays valid.
+   */
+  private static void writeBack(CRPStateInterface state, List<CRPState> localStates)
+  {
+    Set<ClusterId> matched = new HashSet<ClusterId>();
+    List<List<Integer>> localTables = new ArrayList<List<Integer>>();
+    List<ClusterId> targets = new ArrayList<ClusterId>();
+    for (CRPState localState : localStates)
+      for (ClusterId localId : localState.getAllClusterIds())
+      {
+        List<Integer> table = new ArrayList<Integer>(localState.getTable(localId));
+        Collections.sort(table);
+        ClusterId target = null;
+        for (Integer customer : table)
+        {
+          ClusterId current = state.getClusterIdOfCustomer(customer);
+          if (matched.add(current))
+          {
+            target = current;
+            break;
+          }
+        }
+        localTables.add(table);
+        targets.add(target);
+      }
+    for (int i = 0; i < localTables.size(); i++)
+    {
+      ClusterId target = targets.get(i);
+      for (Integer customer : localTables.get(i))
+      {
+        if (target != null && target.equals(state.getClusterIdOfCustomer(customer)))
+          continue;
+        state.removeCustomer(customer);
+        if (target == null)
+          target = state.addCustomerToNewTable(customer);
+        else
+          state.addCustomerToExistingTable(customer, target);
+      }
+    }
+  }
+
+  private static CRPState reseatShard(
+      Random rand,
+      List<List<Integer>> tables,
+      Map<Integer,SufficientStatistic> statistics,
+      HyperParameter hp,
+      CollapsedConjugateModel collapsedModel,
+      double alpha0)
+  {
+    CRPState localState = new CRPState(statistics);
+    for (List<Integer> table : tables)
+    {
+      ClusterId id = localState.addCustomerToNewTable(table.get(0));
+      for (int i = 1; i < table.size(); i++)
+        localState.addCustomerToExistingTable(table.get(i), id);
+    }
+    PYPrior localPrior = new PYPrior(alpha0, 0.0, localState);
+    List<Integer> customers = new ArrayList<Integer>(statistics.keySet());
+    Collections.sort(customers);
+    Collections.shuffle(customers, rand);
+    for (Integer customer : customers)
+      CRPSampler.gibbs(rand, customer, localState, hp, collapsedModel, localPrior);
+    return localState;
+  }
+
+  private static ExecutorService defaultExecutor = null;
+
+  /**
+   *
+   * @return A shared pool of daemon threads, one per processor
+   */
+  public static synchronized ExecutorService defaultExecutor()
+  {
+    if (defaultExecutor == null)
+      defaultExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+          Thread result = new Thread(runnable, "ParallelCRPSampler");
+          result.setDaemon(true);
+          return result;
+        }
+      });
+    return defaultExecutor;
+  }
+}
@@ -0,0 +1,303 @@
+package polya.crp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import bayonet.math.NumericalUtils;
+import blang.factors.Factor;
+import blang.mcmc.ConnectedFactor;
+import blang.mcmc.MHProposalDistribution;
+import blang.mcmc.SampledVariable;
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterMarginalCache;
+import polya.crp.utils.TableSummary;
+import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.Parametrics;
+import polya.parametric.PredictivePosterior;
+import polya.parametric.SufficientStatistic;
+
+/**
+ * Restricted Gibbs split-merge moves (Jain and Neal, 2004), to use along
+ * CRPSampler: single customer moves need many sweeps to split or merge
+ * large tables.
+ *
+ * A move picks two distinct customers i and j. If they are at the same
+ * table, it proposes to split it, otherwise to merge their two tables.
+ * The other customers S of these tables are first assigned at random to
+ * the component of i or of j, then reseated by nIntermediateScans scans
+ * of Gibbs restricted to these two components (the launch state). A
+ * split is one more restricted scan from the launch state; the
+ * probability of the original split under such a scan gives the reverse
+ * move of a merge.
+ */
+public class SplitMergeSampler implements MHProposalDistribution
+{
+  @SampledVariable
+  CRPStateInterface crpState;
+  @ConnectedFactor
+  List<Factor> connectedFactors;
+
+  /**
+   * Number of restricted Gibbs scans used to build the launch state
+   * (t in Jain and Neal); each scan costs about as much as |S| Gibbs moves
+   */
+  public static int nIntermediateScans = 1;
+
+  @Override
+  public Proposal propose(Random rand)
+  {
+    PYPrior pyPrior = null;
+    CollapsedConjugateModel collapsedModel = null;
+
+    for (Factor f : connectedFactors)
+    {
+      if (f instanceof PYPrior)
+        pyPrior = (PYPrior) f;
+      if (f instanceof CRPFactor)
+        collapsedModel = ((CRPFactor) f).getCollapsedConjugateModel();
+    }
+
+    if (pyPrior == null)
+      throw new RuntimeException("PYPrior is not connected to the CRPState");
+    if (collapsedModel == null)
+      throw new RuntimeException("CRPFactor is not connected to the CRPState");
+
+    // the ratio of the factors is computed by the caller
+    final Move move = proposeMove(rand, crpState, collapsedModel.getHyperParameter(), collapsedModel, pyPrior);
+    move.apply();
+
+    return new Proposal() {
+
+      @Override
+      public double logProposalRatio() {
+        return move.logProposalRatio;
+      }
+
+      @Override
+      public void acceptReject(boolean accept) {
+        if (!accept)
+          move.revert();
+      }
+    };
+  }
+
+  /**
+   * Performs one complete Metropolis-Hastings split-merge step.
+   *
+   * @param rand
+   * @param state
+   * @param hp
+   * @param collapsedModel
+   * @param prior
+   * @return True if the move was accepted
+   */
+  public static boolean splitMerge(
+      Random rand,
+      CRPStateInterface state,
+      HyperParameter hp,
+      CollapsedConjugateModel collapsedModel,
+      PYPrior prior)
+  {
+    Move move = proposeMove(rand, state, hp, collapsedModel, prior);
+    final double logRatio = move.logProposalRatio + move.logTargetRatio;
+    if (logRatio < 0.0 && rand.nextDouble() >= Math.exp(logRatio))
+      return false;
+    move.apply();
+    return true;
+  }
+
+  /**
+   * Computes a split or merge proposal, without modifying the state.
+   */
+  static Move proposeMove(
+      Random rand,
+      CRPStateInterface state,
+      HyperParameter hp,
+      CollapsedConjugateModel collapsedModel,
+      PYPrior prior)
+  {
+    final int n = state.nCustomers();
+    if (n < 2)
+      return new Move(state, new ArrayList<Integer>(), null, false);
+    // the customers are 0, ..., n-1, as in CRPSampler.propose()
+    final Integer i = rand.nextInt(n);
+    Integer j = i;
+    while (j.equals(i))
+      j = rand.nextInt(n);
+
+    final ClusterId tableOfI = state.getClusterIdOfCustomer(i);
+    final ClusterId tableOfJ = state.getClusterIdOfCustomer(j);
+    if (tableOfI == null || tableOfJ == null)
+      throw new RuntimeException("The customers should be 0, ..., " + (n - 1));
+    final boolean split = tableOfI.equals(tableOfJ);
+
+    // the other customers of the two tables, in a random scan order
+    List<Integer> others = new ArrayList<Integer>();
+    for (Integer customer : state.getTable(tableOfI))
+      if (!customer.equals(i) && !customer.equals(j))
+        others.add(customer);
+    if (!split)
+      for (Integer customer : state.getTable(tableOfJ))
+        if (!customer.equals(j))
+          others.add(customer);
+    Collections.sort(others);
+    Collections.shuffle(others, rand);
+    final int nOthers = others.size();
+    SufficientStatistic [] statistics = new SufficientStatistic[nOthers];
+    for (int k = 0; k < nOthers; k++)
+      statistics[k] = state.getCustomerStatistic(others.get(k));
+
+    // launch state
+    final PredictivePosterior empty = Parametrics.predictivePosterior(collapsedModel, hp);
+    TableSummary a = new TableSummary(empty, state.getCustomerStatistic(i));
+    TableSummary b = new TableSummary(empty, state.getCustomerStatistic(j));
+    boolean [] inA = new boolean[nOthers];
+    for (int k = 0; k < nOthers; k++)
+    {
+      inA[k] = rand.nextBoolean();
+      (inA[k] ? a : b).add(statistics[k]);
+    }
+    final double discount = prior.discount();
+    for (int scan = 0; scan < nIntermediateScans; scan++)
+      restrictedScan(rand, statistics, inA, null, a, b, discount);
+
+    ClusterMarginalCache cache = state.getMarginalCache();
+    cache.checkHyperParameters(collapsedModel, hp);
+    final int nTables = state.nTables();
+    if (split)
+    {
+      final double logTransition = restrictedScan(rand, statistics, inA, null, a, b, discount);
+      List<Integer> movedToNewTable = new ArrayList<Integer>();
+      movedToNewTable.add(i);
+      for (int k = 0; k < nOthers; k++)
+        if (inA[k])
+          movedToNewTable.add(others.get(k));
+      Move result = new Move(state, movedToNewTable, tableOfJ, true);
+      result.logProposalRatio = - logTransition;
+      result.logTargetRatio =
+          prior.logUnnormalizedPredictive(0, nTables)
+          + prior.blockLogFactor(a.size())
+          + prior.blockLogFactor(b.size())
+          - prior.blockLogFactor(a.size() + b.size())
+          + cache.logMarginal(a.statistic())
+          + cache.logMarginal(b.statistic())
+          - cache.logMarginal(tableOfJ, state.getClusterStatistics(tableOfJ));
+      return result;
+    }
+    else
+    {
+      boolean [] originallyInA = new boolean[nOthers];
+      for (int k = 0; k < nOthers; k++)
+        originallyInA[k] = tableOfI.equals(state.getClusterIdOfCustomer(others.get(k)));
+      final double logReverseTransition = restrictedScan(rand, statistics, inA, originallyInA, a, b, discount);
+      final SufficientStatistic statisticOfI = state.getClusterStatistics(tableOfI);
+      final SufficientStatistic statisticOfJ = state.getClusterStatistics(tableOfJ);
+      SufficientStatistic merged = statisticOfI.copy();
+      merged.plusEqual(statisticOfJ);
+      final int sizeOfI = state.getTable(tableOfI).size();
+      final int sizeOfJ = state.getTable(tableOfJ).size();
+      Move result = new Move(state, new ArrayList<Integer>(state.getTable(tableOfI)), tableOfJ, false);
+      result.logProposalRatio = logReverseTransition;
+      result.logTargetRatio =
+          - prior.logUnnormalizedPredictive(0, nTables - 1)
+          - prior.blockLogFactor(sizeOfI)
+          - prior.blockLogFactor(sizeOfJ)
+          + prior.blockLogFactor(sizeOfI + sizeOfJ)
+          + cache.logMarginal(merged)
+          - cache.logMarginal(tableOfI, statisticOfI)
+          - cache.logMarginal(tableOfJ, statisticOfJ);
+      return result;
+    }
+  }
+
+  /**
+   * One Gibbs scan of the customers of S, restricted to the components a
+   * and b.
+   *
+   * @param forcedInA If non null, the assignments are set to these values
+   *  instead of being sampled
+   * @return The log probability of the transition
+   */
+  private static double restrictedScan(
+      Random rand,
+      SufficientStatistic [] statistics,
+      boolean [] inA,
+      boolean [] forcedInA,
+      TableSummary a,
+      TableSummary b,
+      double discount)
+  {
+    double result = 0.0;
+    for (int k = 0; k < statistics.length; k++)
+    {
+      final SufficientStatistic current = statistics[k];
+      (inA[k] ? a : b).remove(current);
+      final double logA = Math.log(a.size() - discount) + a.logPredictive(current);
+      final double logB = Math.log(b.size() - discount) + b.logPredictive(current);
+      final double logNorm = NumericalUtils.logAdd(logA, logB);
+      inA[k] = forcedInA == null ? rand.nextDouble() < Math.exp(logA - logNorm) : forcedInA[k];
+      result += (inA[k] ? logA : logB) - logNorm;
+      (inA[k] ? a : b).add(current);
+    }
+    return result;
+  }
+
+  /**
+   * A split or merge, moving some customers between a table and a new one.
+   */
+  static class Move
+  {
+    private final CRPStateInterface state;
+    private final List<Integer> moved;
+    private final ClusterId table;
+    private final boolean split;
+
+    /**
+     * log q(reverse move) - log q(move)
+     */
+    double logProposalRatio = 0.0;
+
+    /**
+     * Difference of the log densities of PYPrior and CRPFactor after and
+     * before the move
+     */
+    double logTargetRatio = 0.0;
+
+    /**
+     * @param moved For a split, the customers moved from table to a new
+     *  table; for a merge, the customers moved to table
+     */
+    private Move(CRPStateInterface state, List<Integer> moved, ClusterId table, boolean split)
+    {
+      this.state = state;
+      this.moved = moved;
+      this.table = table;
+      this.split = split;
+    }
+
+    void apply()
+    {
+      seat(split ? null : table);
+    }
+
+    void revert()
+    {
+      seat(split ? table : null);
+    }
+
+    private void seat(ClusterId destination)
+    {
+      for (Integer customer : moved)
+      {
+        state.removeCustomer(customer);
+        if (destination == null)
+          destination = state.addCustomerToNewTable(customer);
+        else
+          state.addCustomerToExistingTable(customer, destination);
+      }
+    }
+  }
+}
@@ -0,0 +1,339 @@
+package polya.crp.smc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import bayonet.math.NumericalUtils;
+import polya.crp.CRPState;
+import polya.crp.PYPrior;
+import polya.crp.ParallelCRPSampler;
+import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.Parametrics;
+import polya.parametric.PredictivePosterior;
+import polya.parametric.SufficientStatistic;
+
+/**
+ * Sequential Monte Carlo for PY mixtures: customers are added one at a
+ * time, and each particle seats the new customer with the conditional of
+ * CRPSampler.gibbs() given its current tables (the locally optimal
+ * proposal). The incremental weight of a particle is then the predictive
+ * of the customer, sum_k PYPrior.logUnnormalizedPredictive + predictive of
+ * table k, normalized by alpha0 + number of customers seated.
+ *
+ * Particles are resampled (systematic resampling) when the effective
+ * sample size falls below resamplingThreshold * nParticles. Particles
+ * share their unchanged tables and their history (see Particle), so
+ * resampling copies no table.
+ *
+ * Each step is done in parallel: first the predictive of the customer is
+ * computed once for each distinct table, then the particles are
+ * propagated. Each particle uses its own Random, seeded from the one
+ * passed to add(), so that the result depends only on that Random and not
+ * on the number of threads.
+ *
+ * logMarginalLikelihood() is the usual unbiased estimate of the marginal
+ * likelihood (on the log scale) of the customers added so far.
+ */
+public class CRPSMC
+{
+  private final PYPrior prior;
+  private final PredictivePosterior empty;
+  private final ExecutorService executor;
+  private final int nTasks;
+
+  /**
+   * Relative effective sample size below which the particles are resampled
+   */
+  public double resamplingThreshold = 0.5;
+
+  private Particle [] particles;
+  private double [] logWeights;
+  private double logMarginalLikelihood = 0.0;
+  private int nResamplings = 0;
+
+  private final List<Integer> customers = new ArrayList<Integer>();
+  private final Map<Integer,SufficientStatistic> customer2Statistic = new HashMap<Integer,SufficientStatistic>();
+
+  /**
+   * Uses ParallelCRPSampler.defaultExecutor(), one task per processor.
+   *
+   * @param collapsedModel
+   * @param hp
+   * @param prior Only its parameters are used, not its state
+   * @param nParticles
+   */
+  public CRPSMC(CollapsedConjugateModel collapsedModel, HyperParameter hp, PYPrior prior, int nParticles)
+  {
+    this(collapsedModel, hp, prior, nParticles, ParallelCRPSampler.defaultExecutor(), Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   *
+   * @param collapsedModel Should be safe to use from several threads at once
+   * @param hp
+   * @param prior Only its parameters are used, not its state
+   * @param nParticles
+   * @param executor Runs the tasks of each step
+   * @param nTasks Number of tasks each step is split in
+   */
+  public CRPSMC(
+      CollapsedConjugateModel collapsedModel,
+      HyperParameter hp,
+      PYPrior prior,
+      int nParticles,
+      ExecutorService executor,
+      int nTasks)
+  {
+    if (nParticles < 1 || nTasks < 1)
+      throw new RuntimeException();
+    this.prior = prior;
+    this.empty = Parametrics.predictivePosterior(collapsedModel, hp);
+    this.executor = executor;
+    this.nTasks = nTasks;
+    this.particles = new Particle[nParticles];
+    Arrays.fill(particles, Particle.initial());
+    this.logWeights = new double[nParticles];
+  }
+
+  /**
+   * Adds all the customers, in increasing order.
+   *
+   * @param rand
+   * @param data
+   * @param collapsedModel
+   * @param hp
+   * @param prior
+   * @param nParticles
+   * @return The engine after the last customer was added
+   */
+  public static CRPSMC run(
+      Random rand,
+      Map<Integer,SufficientStatistic> data,
+      CollapsedConjugateModel collapsedModel,
+      HyperParameter hp,
+      PYPrior prior,
+      int nParticles)
+  {
+    CRPSMC result = new CRPSMC(collapsedModel, hp, prior, nParticles);
+    List<Integer> sorted = new ArrayList<Integer>(data.keySet());
+    Collections.sort(sorted);
+    for (Integer customer : sorted)
+      result.add(rand, customer, data.get(customer));
+    return result;
+  }
+
+  /**
+   * Seats a new customer in all the particles, updates the weights and the
+   * marginal likelihood estimate, and resamples if needed.
+   *
+   * @param rand
+   * @param customer
+   * @param statistic Should not be modified afterwards
+   */
+  public void add(Random rand, Integer customer, final SufficientStatistic statistic)
+  {
+    if (customer2Statistic.containsKey(customer))
+      throw new RuntimeException("Customer already added: " + customer);
+    final int step = customers.size();
+    customers.add(customer);
+    customer2Statistic.put(customer, statistic);
+    final int nParticles = particles.length;
+
+    // 1. predictive of the customer at each distinct table
+    final List<Particle.Table> tables = new ArrayList<Particle.Table>();
+    for (Particle particle : particles)
+      particle.collectTables(step, tables);
+    List<Callable<Void>> tableTasks = new ArrayList<Callable<Void>>();
+    for (int task = 0; task < nTasks; task++)
+    {
+      final int start = range(task, tables.size()), end = range(task + 1, tables.size());
+      tableTasks.add(new Callable<Void>() {
+        @Override
+        public Void call()
+        {
+          for (int i = start; i < end; i++)
+            tables.get(i).computeLogPredictive(statistic);
+          return null;
+        }
+      });
+    }
+    invokeAll(tableTasks);
+    final double emptyLogPredictive = empty.logPredictive(statistic);
+
+    // 2. propagation
+    final long [] seeds = new long[nParticles];
+    for (int i = 0; i < nParticles; i++)
+      seeds[i] = rand.nextLong();
+    final Particle [] newParticles = new Particle[nParticles];
+    final double [] logIncrementalWeights = new double[nParticles];
+    List<Callable<Void>> particleTasks = new ArrayList<Callable<Void>>();
+    for (int task = 0; task < nTasks; task++)
+    {
+      final int start = range(task, nParticles), end = range(task + 1, nParticles);
+      particleTasks.add(new Callable<Void>() {
+        @Override
+        public Void call()
+        {
+          for (int i = start; i < end; i++)
+          {
+            Particle.Propagation propagation = particles[i].propagate(new Random(seeds[i]), statistic, empty, emptyLogPredictive, prior);
+            newParticles[i] = propagation.particle;
+            logIncrementalWeights[i] = propagation.logWeight;
+          }
+          return null;
+        }
+      });
+    }
+    invokeAll(particleTasks);
+    particles = newParticles;
+
+    // 3. weights and marginal likelihood
+    double logSumBefore = Double.NEGATIVE_INFINITY, logSumAfter = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < nParticles; i++)
+    {
+      logSumBefore = NumericalUtils.logAdd(logSumBefore, logWeights[i]);
+      logWeights[i] += logIncrementalWeights[i];
+      logSumAfter = NumericalUtils.logAdd(logSumAfter, logWeights[i]);
+    }
+    logMarginalLikelihood += logSumAfter - logSumBefore;
+
+    // 4. resampling
+    if (effectiveSampleSize() < resamplingThreshold * nParticles)
+      resample(rand);
+  }
+
+  private void resample(Random rand)
+  {
+    final int nParticles = particles.length;
+    final double [] weights = getNormalizedWeights();
+    Particle [] resampled = new Particle[nParticles];
+    final double u = rand.nextDouble();
+    double cumulative = weights[0];
+    int source = 0;
+    for (int i = 0; i < nParticles; i++)
+    {
+      final double position = (i + u) / nParticles;
+      while (cumulative < position && source < nParticles - 1)
+        cumulative += weights[++source];
+      resampled[i] = particles[source];
+    }
+    particles = resampled;
+    Arrays.fill(logWeights, 0.0);
+    nResamplings++;
+  }
+
+  /**
+   * @return The start of the range of the given task when splitting n items
+   */
+  private int range(int task, int n)
+  {
+    return (int) (((long) task * n) / nTasks);
+  }
+
+  private void invokeAll(List<Callable<Void>> tasks)
+  {
+    try
+    {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (Callable<Void> task : tasks)
+        futures.add(executor.submit(task));
+      for (Future<Void> future : futures)
+        future.get();
+    }
+    catch (InterruptedException e) { throw new RuntimeException(e); }
+    catch (ExecutionException e) { throw new RuntimeException(e.getCause()); }
+  }
+
+  /**
+   *
+   * @return The estimate of the log marginal likelihood of the customers
+   *  added so far
+   */
+  public double logMarginalLikelihood()
+  {
+    return logMarginalLikelihood;
+  }
+
+  /**
+   *
+   * @return (sum w)^2 / sum w^2, between 1 and nParticles()
+   */
+  public double effectiveSampleSize()
+  {
+    final double [] weights = getNormalizedWeights();
+    double sumOfSquares = 0.0;
+    for (double weight : weights)
+      sumOfSquares += weight * weight;
+    return 1.0 / sumOfSquares;
+  }
+
+  /**
+   *
+   * @return A new array with the weights of the particles, summing to one
+   */
+  public double [] getNormalizedWeights()
+  {
+    double logNorm = Double.NEGATIVE_INFINITY;
+    for (double logWeight : logWeights)
+      logNorm = NumericalUtils.logAdd(logNorm, logWeight);
+    double [] result = new double[logWeights.length];
+    for (int i = 0; i < result.length; i++)
+      result[i] = Math.exp(logWeights[i] - logNorm);
+    return result;
+  }
+
+  public int nParticles()
+  {
+    return particles.length;
+  }
+
+  public Particle getParticle(int i)
+  {
+    return particles[i];
+  }
+
+  /**
+   *
+   * @return Number of times the particles were resampled so far
+   */
+  public int nResamplings()
+  {
+    return nResamplings;
+  }
+
+  /**
+   *
+   * @return The customers added so far, in order
+   */
+  public List<Integer> getCustomers()
+  {
+    return Collections.unmodifiableList(customers);
+  }
+
+  /**
+   * Samples a particle according to the weights.
+   *
+   * @param rand
+   * @return A new CRPState with its seating arrangement, e.g. to start MCMC
+   *  with CRPSampler
+   */
+  public CRPState sampleState(Random rand)
+  {
+    final double [] weights = getNormalizedWeights();
+    double u = rand.nextDouble();
+    int i = 0;
+    while (i < weights.length - 1 && u >= weights[i])
+      u -= weights[i++];
+    return particles[i].toCRPState(customers, customer2Statistic);
+  }
+}
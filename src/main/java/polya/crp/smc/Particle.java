@@ -0,0 +1,240 @@
+package polya.crp.smc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import polya.crp.CRPState;
+import polya.crp.PYPrior;
+import polya.crp.utils.CategoricalSampler;
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.TableSummary;
+import polya.parametric.PredictivePosterior;
+import polya.parametric.SufficientStatistic;
+
+/**
+ * A seating arrangement of the first nCustomers() customers of an SMC run.
+ *
+ * Particles are immutable, and share everything they have in common with
+ * their ancestors: seating a customer creates a new particle which copies
+ * the list of tables and the table receiving the customer, and extends the
+ * history of the assignments of the previous customers by one node.
+ * Resampling therefore only copies references. The history does not refer
+ * to the ancestors themselves, so that their tables can be collected once
+ * no particle uses them.
+ *
+ * Since tables are shared, the predictive of the next customer is computed
+ * once per distinct table by CRPSMC (see collectTables()), and cached in
+ * the tables before propagate() is called.
+ */
+public class Particle
+{
+  private final List<Table> tables;
+  private final int nCustomers;
+  private final Assignment history;
+
+  /**
+   *
+   * @return A particle with no customers
+   */
+  static Particle initial()
+  {
+    return new Particle(Collections.<Table>emptyList(), 0, null);
+  }
+
+  private Particle(List<Table> tables, int nCustomers, Assignment history)
+  {
+    this.tables = tables;
+    this.nCustomers = nCustomers;
+    this.history = history;
+  }
+
+  /**
+   * Adds the tables of this particle not stamped with step yet to result,
+   * and stamps them.
+   *
+   * @param step
+   * @param result
+   */
+  void collectTables(int step, List<Table> result)
+  {
+    for (Table table : tables)
+      if (table.step != step)
+      {
+        table.step = step;
+        result.add(table);
+      }
+  }
+
+  /**
+   * Seats the next customer with the conditional of CRPSampler.gibbs(),
+   * i.e. the locally optimal proposal.
+   *
+   * @param rand
+   * @param customer
+   * @param empty Posterior of a table without customers
+   * @param emptyLogPredictive The predictive of the customer under empty
+   * @param prior
+   * @return The new particle, and the log incremental weight
+   */
+  Propagation propagate(
+      Random rand,
+      SufficientStatistic customer,
+      PredictivePosterior empty,
+      double emptyLogPredictive,
+      PYPrior prior)
+  {
+    final int nTables = tables.size();
+    CategoricalSampler sampler = CategoricalSampler.forCurrentThread();
+    double [] logUnnormalizedPrs = sampler.logWeights(nTables + 1);
+    for (int i = 0; i < nTables; i++)
+    {
+      Table current = tables.get(i);
+      logUnnormalizedPrs[i] =
+          current.logPredictive
+          + prior.logUnnormalizedPredictive(current.summary.size(), nTables);
+    }
+    logUnnormalizedPrs[nTables] =
+        emptyLogPredictive
+        + prior.logUnnormalizedPredictive(0, nTables);
+
+    final int sampledIndex = sampler.sample(rand, nTables + 1);
+    // the unnormalized prior predictives sum to alpha0 + nCustomers
+    final double logWeight = sampler.logNormalization() - Math.log(prior.alpha0() + nCustomers);
+
+    List<Table> newTables = new ArrayList<Table>(nTables + 1);
+    newTables.addAll(tables);
+    if (sampledIndex == nTables)
+      newTables.add(new Table(empty, customer));
+    else
+      newTables.set(sampledIndex, tables.get(sampledIndex).plus(customer));
+    final Assignment newHistory = new Assignment(sampledIndex, history);
+    return new Propagation(new Particle(newTables, nCustomers + 1, newHistory), logWeight);
+  }
+
+  /**
+   *
+   * @return The number of customers seated
+   */
+  public int nCustomers()
+  {
+    return nCustomers;
+  }
+
+  public int nTables()
+  {
+    return tables.size();
+  }
+
+  /**
+   *
+   * @return Entry i is the index of the table of the i-th customer seated,
+   *  tables being indexed by order of creation
+   */
+  public int [] assignments()
+  {
+    int [] result = new int[nCustomers];
+    Assignment current = history;
+    for (int i = nCustomers - 1; i >= 0; i--, current = current.previous)
+      result[i] = current.table;
+    return result;
+  }
+
+  /**
+   *
+   * @param customers The customers in the order they were seated
+   * @param customer2Statistic
+   * @return A new CRPState with the seating arrangement of this particle
+   */
+  public CRPState toCRPState(List<Integer> customers, Map<Integer,SufficientStatistic> customer2Statistic)
+  {
+    if (customers.size() != nCustomers)
+      throw new RuntimeException();
+    CRPState result = new CRPState(customer2Statistic);
+    int [] assignments = assignments();
+    List<ClusterId> ids = new ArrayList<ClusterId>();
+    for (int i = 0; i < nCustomers; i++)
+    {
+      final int table = assignments[i];
+      if (table == ids.size())
+        ids.add(result.addCustomerToNewTable(customers.get(i)));
+      else
+        result.addCustomerToExistingTable(customers.get(i), ids.get(table));
+    }
+    return result;
+  }
+
+  static class Propagation
+  {
+    final Particle particle;
+    final double logWeight;
+
+    private Propagation(Particle particle, double logWeight)
+    {
+      this.particle = particle;
+      this.logWeight = logWeight;
+    }
+  }
+
+  /**
+   * The table of a customer, linked to the ones of the customers seated
+   * before it.
+   */
+  private static class Assignment
+  {
+    private final int table;
+    private final Assignment previous;
+
+    private Assignment(int table, Assignment previous)
+    {
+      this.table = table;
+      this.previous = previous;
+    }
+  }
+
+  /**
+   * A table, shared by all the particles in which it did not change. Only
+   * the cache of the predictive of the current customer is modified after
+   * creation.
+   */
+  static class Table
+  {
+    private final TableSummary summary;
+
+    /**
+     * The predictive of the customer of the given step
+     */
+    private int step = -1;
+    private double logPredictive;
+
+    /**
+     * Caches the predictive of the customer; should be called by one
+     * thread at a time per table.
+     *
+     * @param customer
+     */
+    void computeLogPredictive(SufficientStatistic customer)
+    {
+      logPredictive = summary.logPredictive(customer);
+    }
+
+    private Table(TableSummary summary)
+    {
+      this.summary = summary;
+    }
+
+    private Table(PredictivePosterior empty, SufficientStatistic first)
+    {
+      this(new TableSummary(empty, first));
+    }
+
+    private Table plus(SufficientStatistic customer)
+    {
+      TableSummary newSummary = summary.copy();
+      newSummary.add(customer);
+      return new Table(newSummary);
+    }
+  }
+}
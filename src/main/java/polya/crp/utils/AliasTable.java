@@ -0,0 +1,113 @@
+package polya.crp.utils;
+
+import java.util.Random;
+
+/**
+ * Walker's alias method (in the version of Vose): built in O(n) from n
+ * log weights, after which each draw costs O(1) whatever n. Worth it when
+ * many draws are made from the same weights, or from weights changing
+ * slowly enough that a stale table is a good proposal (the exact
+ * probabilities of the table are available for the acceptance ratio,
+ * see logProbability()).
+ *
+ * rebuild() reuses the arrays of the previous build.
+ */
+public class AliasTable
+{
+  private int n = 0;
+  private double [] thresholds = new double[0];
+  private int [] aliases = new int[0];
+  private double [] logProbabilities = new double[0];
+  private int [] small = new int[0], large = new int[0];
+
+  /**
+   *
+   * @param logWeights
+   * @param n The number of outcomes, the first n entries of logWeights
+   *  being used
+   */
+  public void rebuild(double [] logWeights, int n)
+  {
+    final double max = CategoricalSampler.max(logWeights, n);
+    ensureCapacity(n);
+    this.n = n;
+    double sum = 0.0;
+    for (int i = 0; i < n; i++)
+    {
+      thresholds[i] = Math.exp(logWeights[i] - max);
+      sum += thresholds[i];
+    }
+    final double logNormalization = max + Math.log(sum);
+    int nSmall = 0, nLarge = 0;
+    for (int i = 0; i < n; i++)
+    {
+      logProbabilities[i] = logWeights[i] - logNormalization;
+      // scaled so that the average is one
+      thresholds[i] *= n / sum;
+      aliases[i] = i;
+      if (thresholds[i] < 1.0)
+        small[nSmall++] = i;
+      else
+        large[nLarge++] = i;
+    }
+    while (nSmall > 0 && nLarge > 0)
+    {
+      final int s = small[--nSmall], l = large[--nLarge];
+      aliases[s] = l;
+      thresholds[l] -= 1.0 - thresholds[s];
+      if (thresholds[l] < 1.0)
+        small[nSmall++] = l;
+      else
+        large[nLarge++] = l;
+    }
+    // left overs are at one up to round off
+    while (nSmall > 0)
+      thresholds[small[--nSmall]] = 1.0;
+    while (nLarge > 0)
+      thresholds[large[--nLarge]] = 1.0;
+  }
+
+  /**
+   *
+   * @param rand
+   * @return An outcome drawn from the weights of the last rebuild(), using
+   *  a single rand.nextDouble()
+   */
+  public int sample(Random rand)
+  {
+    if (n == 0)
+      throw new RuntimeException("Empty table");
+    final double scaled = rand.nextDouble() * n;
+    final int column = Math.min((int) scaled, n - 1);
+    return scaled - column < thresholds[column] ? column : aliases[column];
+  }
+
+  /**
+   *
+   * @param outcome
+   * @return The log probability of the outcome under sample()
+   */
+  public double logProbability(int outcome)
+  {
+    if (outcome < 0 || outcome >= n)
+      throw new RuntimeException("Outcome out of range: " + outcome);
+    return logProbabilities[outcome];
+  }
+
+  public int size()
+  {
+    return n;
+  }
+
+  private void ensureCapacity(int n)
+  {
+    if (thresholds.length >= n)
+      return;
+    final int capacity = Math.max(n, 2 * thresholds.length);
+    thresholds = new double[capacity];
+    aliases = new int[capacity];
+    logProbabilities = new double[capacity];
+    small = new int[capacity];
+    large = new int[capacity];
+  }
+}
@@ -0,0 +1,148 @@
+package polya.crp.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Streams back the samples of a trace written by AssignmentTraceWriter,
+ * keeping only the current sample in memory.
+ *
+ * Usage:
+ *
+ *   AssignmentTraceReader reader = new AssignmentTraceReader(file);
+ *   while (reader.next())
+ *     process(reader.iteration(), reader.labels());
+ *   reader.close();
+ */
+public class AssignmentTraceReader implements Closeable
+{
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+  private final int [] labels;
+  private int iteration = 0;
+  private boolean endOfFile = false;
+
+  public AssignmentTraceReader(File file)
+  {
+    try
+    {
+      @SuppressWarnings("resource")
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      channel = raf.getChannel();
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    buffer.limit(0);
+    if (!ensure(8) || buffer.getInt() != AssignmentTraceWriter.MAGIC)
+      throw new RuntimeException("Not an assignment trace: " + file);
+    final int version = buffer.getInt();
+    if (version != AssignmentTraceWriter.VERSION)
+      throw new RuntimeException("Unsupported version " + version + ": " + file);
+    labels = new int[getVarint()];
+    Arrays.fill(labels, -1);
+  }
+
+  /**
+   * Reads the next sample.
+   *
+   * @return False if there are no more samples
+   */
+  public boolean next()
+  {
+    if (!ensure(1))
+      return false;
+    iteration += getVarint();
+    final int nChanged = getVarint();
+    int customer = -1;
+    for (int i = 0; i < nChanged; i++)
+    {
+      customer += getVarint() + 1;
+      labels[customer] = getVarint() - 1;
+    }
+    return true;
+  }
+
+  /**
+   *
+   * @return The iteration of the current sample
+   */
+  public int iteration()
+  {
+    return iteration;
+  }
+
+  /**
+   *
+   * @return The labels of the current sample, entry c for customer c (-1
+   *  if not seated); overwritten by next()
+   */
+  public int [] labels()
+  {
+    return labels;
+  }
+
+  public int nCustomers()
+  {
+    return labels.length;
+  }
+
+  @Override
+  public void close()
+  {
+    try
+    {
+      channel.close();
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private int getVarint()
+  {
+    int result = 0;
+    for (int shift = 0; ; shift += 7)
+    {
+      if (!ensure(1))
+        throw new RuntimeException("Truncated trace");
+      final byte current = buffer.get();
+      result |= (current & 0x7f) << shift;
+      if ((current & 0x80) == 0)
+        return result;
+      if (shift > 28)
+        throw new RuntimeException("Corrupted trace");
+    }
+  }
+
+  /**
+   * @return False if fewer than n bytes are left in the file
+   */
+  private boolean ensure(int n)
+  {
+    if (buffer.remaining() >= n)
+      return true;
+    if (endOfFile)
+      return false;
+    buffer.compact();
+    try
+    {
+      while (buffer.position() < n && !endOfFile)
+        if (channel.read(buffer) < 0)
+          endOfFile = true;
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    buffer.flip();
+    return buffer.remaining() >= n;
+  }
+}
@@ -0,0 +1,156 @@
+package polya.crp.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Writes a trace of cluster assignments, one sample per call to write(),
+ * in a compact binary format read by AssignmentTraceReader.
+ *
+ * A sample is a vector of non negative labels, one per customer (-1 for a
+ * customer not seated). Each sample only stores the customers whose label
+ * changed since the previous sample, so a trace of a mixing chain grows
+ * with the number of moves rather than with the number of customers
+ * times the number of samples. All the integers are varints (7 bits per
+ * byte, low bits first):
+ *
+ * - header: the ints MAGIC and VERSION (4 bytes each, big endian), then
+ *   the number of customers;
+ * - each sample: the iteration minus the one of the previous sample, the
+ *   number of changed customers, then for each of them, in increasing
+ *   order, the customer minus the previous changed customer (minus one),
+ *   and the label plus one.
+ *
+ * Labels are arbitrary (e.g. ClusterId.id()), only the partition they
+ * induce is meaningful.
+ */
+public class AssignmentTraceWriter implements Closeable
+{
+  public static final int MAGIC = 0x54524345; // "TRCE"
+  public static final int VERSION = 1;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+  private final int [] previous;
+  private int previousIteration = 0;
+  private int nSamples = 0;
+
+  /**
+   *
+   * @param file Overwritten if it exists
+   * @param nCustomers Customers are 0, 1, ..., nCustomers - 1
+   */
+  public AssignmentTraceWriter(File file, int nCustomers)
+  {
+    if (nCustomers < 0)
+      throw new RuntimeException();
+    try
+    {
+      @SuppressWarnings("resource")
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      channel = raf.getChannel();
+      channel.truncate(0);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    previous = new int[nCustomers];
+    Arrays.fill(previous, -1);
+    buffer.putInt(MAGIC).putInt(VERSION);
+    putVarint(nCustomers);
+  }
+
+  /**
+   * Appends a sample.
+   *
+   * @param iteration Should not decrease between calls
+   * @param labels Entry c is the label of customer c, or -1
+   */
+  public void write(int iteration, int [] labels)
+  {
+    if (labels.length != previous.length)
+      throw new RuntimeException("Expected " + previous.length + " labels, got " + labels.length);
+    if (iteration < previousIteration)
+      throw new RuntimeException("Iterations should not decrease: " + iteration);
+    int nChanged = 0;
+    for (int c = 0; c < labels.length; c++)
+    {
+      if (labels[c] < -1)
+        throw new RuntimeException("Invalid label for customer " + c + ": " + labels[c]);
+      if (labels[c] != previous[c])
+        nChanged++;
+    }
+    putVarint(iteration - previousIteration);
+    putVarint(nChanged);
+    int last = -1;
+    for (int c = 0; c < labels.length; c++)
+      if (labels[c] != previous[c])
+      {
+        putVarint(c - last - 1);
+        putVarint(labels[c] + 1);
+        previous[c] = labels[c];
+        last = c;
+      }
+    previousIteration = iteration;
+    nSamples++;
+  }
+
+  /**
+   *
+   * @return The number of samples written so far
+   */
+  public int nSamples()
+  {
+    return nSamples;
+  }
+
+  /**
+   * Writes the buffered samples to the file.
+   */
+  public void flush()
+  {
+    buffer.flip();
+    try
+    {
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    buffer.clear();
+  }
+
+  @Override
+  public void close()
+  {
+    flush();
+    try
+    {
+      channel.close();
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void putVarint(int value)
+  {
+    if (buffer.remaining() < 5)
+      flush();
+    while ((value & ~0x7f) != 0)
+    {
+      buffer.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+}
@@ -0,0 +1,155 @@
+package polya.crp.utils;
+
+import java.util.Random;
+
+/**
+ * Draws from categorical distributions given by unnormalized log weights,
+ * in a scratch buffer reused from draw to draw rather than in an array
+ * allocated, exp-normalized and then scanned for each draw as with
+ * Multinomial.expNormalize() and Multinomial.sampleMultinomial().
+ *
+ * Usage: fill the first n entries of logWeights(n), then call
+ * sample(rand, n) or sampleGumbelMax(rand, n). Instances are not thread
+ * safe, see forCurrentThread(). For many draws from the same weights, see
+ * AliasTable.
+ */
+public class CategoricalSampler
+{
+  private static final ThreadLocal<CategoricalSampler> perThread = new ThreadLocal<CategoricalSampler>()
+  {
+    @Override
+    protected CategoricalSampler initialValue()
+    {
+      return new CategoricalSampler();
+    }
+  };
+
+  private double [] buffer = new double[16];
+  private double logNormalization = Double.NaN;
+
+  /**
+   *
+   * @return An instance confined to the calling thread, e.g. for the
+   *  static gibbs() methods of the samplers
+   */
+  public static CategoricalSampler forCurrentThread()
+  {
+    return perThread.get();
+  }
+
+  /**
+   *
+   * @param n
+   * @return The scratch buffer, of length at least n, to fill with the
+   *  log weights of outcomes 0, 1, ..., n-1; its previous content is
+   *  undefined
+   */
+  public double [] logWeights(int n)
+  {
+    if (buffer.length < n)
+      buffer = new double[Math.max(n, 2 * buffer.length)];
+    return buffer;
+  }
+
+  /**
+   * Draws an outcome with probability proportional to the exponential of
+   * its log weight: a pass for the maximum, a pass accumulating the
+   * weights in place, then a binary search. Uses a single
+   * rand.nextDouble(), like Multinomial.sampleMultinomial().
+   *
+   * Overwrites the log weights.
+   *
+   * @param rand
+   * @param n Number of outcomes
+   * @return The index of the outcome
+   */
+  public int sample(Random rand, int n)
+  {
+    final double [] weights = buffer;
+    final double max = max(weights, n);
+    double sum = 0.0;
+    for (int i = 0; i < n; i++)
+    {
+      sum += Math.exp(weights[i] - max);
+      weights[i] = sum;
+    }
+    logNormalization = max + Math.log(sum);
+    final double u = rand.nextDouble() * sum;
+    // first i with cumulative weight above u, skipping zero weights
+    int low = 0, high = n - 1;
+    while (low < high)
+    {
+      final int middle = (low + high) >>> 1;
+      if (weights[middle] > u)
+        high = middle;
+      else
+        low = middle + 1;
+    }
+    // u rounded up to sum: back to the last outcome with a positive weight
+    while (low > 0 && weights[low] == weights[low - 1])
+      low--;
+    return low;
+  }
+
+  /**
+   * Same distribution as sample(), in a single pass without
+   * normalization, by adding Gumbel noise to each log weight and taking
+   * the argmax. Uses n calls to rand.nextDouble() and two logarithms per
+   * outcome, so it is several times slower than sample(); it leaves the
+   * log weights untouched.
+   *
+   * @param rand
+   * @param n Number of outcomes
+   * @return The index of the outcome
+   */
+  public int sampleGumbelMax(Random rand, int n)
+  {
+    final double [] weights = buffer;
+    int result = -1;
+    double best = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++)
+    {
+      if (Double.isNaN(weights[i]))
+        throw new RuntimeException("NaN log weight at " + i);
+      if (weights[i] == Double.NEGATIVE_INFINITY)
+        continue;
+      final double perturbed = weights[i] - Math.log(-Math.log(rand.nextDouble()));
+      if (result == -1 || perturbed > best)
+      {
+        result = i;
+        best = perturbed;
+      }
+    }
+    if (result == -1)
+      throw new RuntimeException("All the log weights are -infinity");
+    logNormalization = Double.NaN;
+    return result;
+  }
+
+  /**
+   *
+   * @return The log of the sum of the weights of the last call to
+   *  sample(), e.g. for importance weights; NaN after sampleGumbelMax()
+   */
+  public double logNormalization()
+  {
+    return logNormalization;
+  }
+
+  static double max(double [] logWeights, int n)
+  {
+    if (n == 0)
+      throw new RuntimeException("No outcomes");
+    double result = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++)
+    {
+      if (Double.isNaN(logWeights[i]))
+        throw new RuntimeException("NaN log weight at " + i);
+      if (logWeights[i] > result)
+        result = logWeights[i];
+    }
+    if (result == Double.NEGATIVE_INFINITY)
+      throw new RuntimeException("All the log weights are -infinity");
+    return result;
+  }
+}
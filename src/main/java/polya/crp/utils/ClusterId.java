@@ -20,6 +20,16 @@ public class ClusterId implements Comparable<ClusterId>
     this.id = id;
   }
 
+  /**
+   * 
+   * @return The integer backing this id. Implementations hand these out
+   *  densely from zero, so it can be used to index arrays.
+   */
+  public int id()
+  {
+    return id;
+  }
+
   @Override
   public int hashCode()
   {
@@ -0,0 +1,22 @@
+package polya.crp.utils;
+
+/**
+ * The live clusters of a state, at positions 0, 1, ..., nClusters() - 1,
+ * to be enumerated without allocating, copying or sorting.
+ *
+ * Positions are only valid until the next change of the clusters: when a
+ * cluster is deleted, the one at the last position moves to its position.
+ * The order is hence deterministic given the sequence of changes, but
+ * not sorted.
+ */
+public interface ClusterIndex
+{
+  public int nClusters();
+
+  /**
+   *
+   * @param position Between 0 and nClusters() - 1
+   * @return The cluster at that position
+   */
+  public ClusterId clusterId(int position);
+}
@@ -0,0 +1,500 @@
+package polya.crp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import polya.parametric.BatchConjugateModel;
+import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.Parametrics;
+import polya.parametric.PosteriorBatch;
+import polya.parametric.PredictivePosterior;
+import polya.parametric.SufficientStatistic;
+
+/**
+ * Keeps, for each cluster, the posterior given the data at that cluster
+ * (see PredictivePosterior) and the log marginal of the cluster.
+ *
+ * The owner of the clusters (e.g. CRPState) is responsible for calling
+ * customerAdded() and customerRemoved() when a cluster changes, and
+ * invalidate() when a cluster is created or deleted. For models
+ * implementing IncrementalConjugateModel, the posteriors are then
+ * updated in place (e.g. rank one Cholesky updates for NIW); otherwise
+ * they are recomputed the next time they are needed, so that after a
+ * Gibbs move only the source and destination clusters are recomputed.
+ * Entries are indexed by ClusterId.id().
+ *
+ * For models implementing BatchConjugateModel, logPredictives() also
+ * keeps the posteriors of the clusters it was asked about in the rows
+ * 0, ..., nRows - 1 of a PosteriorBatch, a row being recomputed from the
+ * cluster statistic when the cluster has changed, and deleted clusters
+ * being replaced by the last row.
+ *
+ * totalLogMarginal() keeps the sum of the log marginals of all the
+ * clusters as a running total: each change to a cluster subtracts the
+ * cluster from the total, and the next call adds back the clusters
+ * changed since the previous one. Only a change of hyper-parameters (or
+ * the periodic re-summation bounding the rounding errors) recomputes all
+ * the clusters, in parallel.
+ *
+ * Before a batch of queries, checkHyperParameters() should be called: it
+ * clears everything if the model or the values of the hyper-parameters
+ * have changed since the entries were computed (e.g. after a MH move on
+ * the hyper-parameters).
+ *
+ * Not thread safe.
+ */
+public class ClusterMarginalCache
+{
+  /**
+   * Number of in place updates after which a posterior is recomputed from
+   * the cluster statistic, to avoid accumulating rounding errors
+   */
+  public static final int REFRESH_PERIOD = 100;
+
+  private CollapsedConjugateModel model = null;
+  private HyperParameter hp = null;
+
+  /**
+   * Copy of the value of hp when the entries were computed
+   */
+  private HyperParameter hpSnapshot = null;
+  private PredictivePosterior prior = null;
+
+  private PredictivePosterior [] posteriors = new PredictivePosterior[0];
+  private int [] nUpdates = new int[0];
+  private double [] logMarginals = new double[0];
+  private boolean [] hasLogMarginal = new boolean[0];
+
+  /**
+   * Number of patches of the running total after which it is summed
+   * again from the cached log marginals
+   */
+  public static final int RESUM_PERIOD = 100000;
+
+  /**
+   * Minimum number of clusters for the full recomputation of the running
+   * total to be split in parallel tasks
+   */
+  public static final int PARALLEL_THRESHOLD = 64;
+
+  private boolean hasRunningTotal = false;
+  private double runningTotal;
+  private int nPatches;
+  private double [] contributions = new double[0];
+  private boolean [] inRunningTotal = new boolean[0];
+  // the indices changed since the last total, each listed once
+  private boolean [] changedSinceTotal = new boolean[0];
+  private int [] changedStack = new int[16];
+  private int nChanged = 0;
+
+  private PosteriorBatch batch = null;
+  private int [] id2Row = new int[0]; // -1 if none
+  private int [] row2Id = new int[0];
+  private boolean [] rowIsStale = new boolean[0];
+  private int nRows = 0;
+  private double [] rowLogPredictives = new double[0];
+
+  /**
+   * Mark the cached quantities of a cluster as stale. Should be called
+   * when a cluster is created or deleted.
+   *
+   * @param clusterId
+   */
+  public void invalidate(ClusterId clusterId)
+  {
+    final int index = clusterId.id();
+    removeFromRunningTotal(index);
+    if (index < posteriors.length)
+    {
+      posteriors[index] = null;
+      hasLogMarginal[index] = false;
+      removeRow(index);
+    }
+  }
+
+  /**
+   * Should be called when a customer joins an existing cluster.
+   *
+   * @param clusterId
+   * @param customerStatistic
+   */
+  public void customerAdded(ClusterId clusterId, SufficientStatistic customerStatistic)
+  {
+    update(clusterId, customerStatistic, true);
+  }
+
+  /**
+   * Should be called when a customer leaves a cluster, unless the cluster
+   * becomes empty (see invalidate()).
+   *
+   * @param clusterId
+   * @param customerStatistic
+   */
+  public void customerRemoved(ClusterId clusterId, SufficientStatistic customerStatistic)
+  {
+    update(clusterId, customerStatistic, false);
+  }
+
+  private void update(ClusterId clusterId, SufficientStatistic customerStatistic, boolean add)
+  {
+    final int index = clusterId.id();
+    removeFromRunningTotal(index);
+    if (index < id2Row.length && id2Row[index] != -1)
+      rowIsStale[id2Row[index]] = true;
+    if (index >= posteriors.length || posteriors[index] == null)
+      return;
+    hasLogMarginal[index] = false;
+    final PredictivePosterior posterior = posteriors[index];
+    final boolean success = add ? posterior.add(customerStatistic) : posterior.remove(customerStatistic);
+    if (!success || ++nUpdates[index] >= REFRESH_PERIOD)
+      posteriors[index] = null;
+  }
+
+  /**
+   * Mark all cached quantities as stale.
+   */
+  public void invalidateAll()
+  {
+    Arrays.fill(posteriors, null);
+    Arrays.fill(hasLogMarginal, false);
+    Arrays.fill(id2Row, -1);
+    nRows = 0;
+    hasRunningTotal = false;
+    batch = null;
+    model = null;
+    hp = null;
+    hpSnapshot = null;
+    prior = null;
+  }
+
+  /**
+   * Should be called before a batch of queries with the given model and hyper-parameters.
+   *
+   * @param model
+   * @param hp
+   */
+  public void checkHyperParameters(CollapsedConjugateModel model, HyperParameter hp)
+  {
+    if (model == this.model && hp == this.hp && hp.equals(hpSnapshot))
+      return;
+    invalidateAll();
+    this.model = model;
+    this.hp = hp;
+    this.hpSnapshot = hp.copy();
+    this.prior = Parametrics.predictivePosterior(model, hp);
+    if (model instanceof BatchConjugateModel)
+      this.batch = ((BatchConjugateModel) model).posteriorBatch(hp);
+  }
+
+  /**
+   * Same as Parametrics.logMarginal(model, hp, data) for data not (yet) in
+   * a cluster, reusing the cached prior.
+   *
+   * @param data
+   * @return
+   */
+  public double logMarginal(SufficientStatistic data)
+  {
+    checkInitialized();
+    return prior.logPredictive(data);
+  }
+
+  /**
+   * Same as Parametrics.logMarginal(model, hp, clusterStatistic)
+   *
+   * @param clusterId
+   * @param clusterStatistic The current statistic of the data at that cluster
+   * @return
+   */
+  public double logMarginal(ClusterId clusterId, SufficientStatistic clusterStatistic)
+  {
+    final int index = ensureEntry(clusterId, clusterStatistic);
+    if (!hasLogMarginal[index])
+    {
+      logMarginals[index] =
+          prior.logPriorDensityAtThetaStar()
+          + model.logLikelihoodGivenThetaStar(clusterStatistic)
+          - posteriors[index].logPriorDensityAtThetaStar();
+      hasLogMarginal[index] = true;
+    }
+    return logMarginals[index];
+  }
+
+  /**
+   * Same as Parametrics.logPredictive(model, hp, newPoints, clusterStatistic),
+   * but reusing the cluster posterior.
+   *
+   * @param clusterId
+   * @param clusterStatistic The current statistic of the data at that cluster
+   * @param newPoints
+   * @return
+   */
+  public double logPredictive(ClusterId clusterId, SufficientStatistic clusterStatistic, SufficientStatistic newPoints)
+  {
+    final int index = ensureEntry(clusterId, clusterStatistic);
+    return posteriors[index].logPredictive(newPoints);
+  }
+
+  /**
+   * Same as the sum of logMarginal(id, clustering.getClusterStatistics(id))
+   * over all the clusters, but only recomputing the clusters changed
+   * since the previous call (all of them, in parallel, if the
+   * hyper-parameters have changed).
+   *
+   * @param clustering The owner of this cache
+   * @return
+   */
+  public double totalLogMarginal(Clustering clustering)
+  {
+    checkInitialized();
+    if (!hasRunningTotal || nPatches >= RESUM_PERIOD)
+      return recomputeRunningTotal(clustering);
+    while (nChanged > 0)
+    {
+      final int index = changedStack[--nChanged];
+      changedSinceTotal[index] = false;
+      final ClusterId clusterId = new ClusterId(index);
+      final SufficientStatistic statistic = clustering.getClusterStatistics(clusterId);
+      if (statistic == null)
+        continue; // deleted
+      // before indexing, since logMarginal() may grow the arrays
+      final double contribution = logMarginal(clusterId, statistic);
+      contributions[index] = contribution;
+      inRunningTotal[index] = true;
+      runningTotal += contributions[index];
+      nPatches++;
+    }
+    return runningTotal;
+  }
+
+  private double recomputeRunningTotal(Clustering clustering)
+  {
+    final ClusterIndex clusters = clustering.getClusterIndex();
+    final List<ClusterId> clusterIds = new ArrayList<ClusterId>(clusters.nClusters());
+    final List<SufficientStatistic> statistics = new ArrayList<SufficientStatistic>(clusters.nClusters());
+    int maxIndex = -1;
+    for (int position = 0; position < clusters.nClusters(); position++)
+    {
+      final ClusterId clusterId = clusters.clusterId(position);
+      clusterIds.add(clusterId);
+      statistics.add(clustering.getClusterStatistics(clusterId));
+      maxIndex = Math.max(maxIndex, clusterId.id());
+    }
+    if (maxIndex >= posteriors.length)
+      grow(maxIndex + 1);
+    // computed lazily otherwise, which the tasks would race on
+    prior.logPriorDensityAtThetaStar();
+    RecursiveAction task = new LogMarginalsTask(clusterIds, statistics, 0, clusterIds.size());
+    if (clusterIds.size() < PARALLEL_THRESHOLD)
+      task.invoke();
+    else
+      pool().invoke(task);
+
+    Arrays.fill(inRunningTotal, false);
+    runningTotal = 0.0;
+    for (ClusterId clusterId : clusterIds)
+    {
+      final int index = clusterId.id();
+      contributions[index] = logMarginals[index];
+      inRunningTotal[index] = true;
+      runningTotal += contributions[index];
+    }
+    clearChanged();
+    nPatches = 0;
+    hasRunningTotal = true;
+    return runningTotal;
+  }
+
+  private void removeFromRunningTotal(int index)
+  {
+    if (!hasRunningTotal)
+      return;
+    if (index < inRunningTotal.length && inRunningTotal[index])
+    {
+      runningTotal -= contributions[index];
+      inRunningTotal[index] = false;
+      nPatches++;
+    }
+    if (index >= changedSinceTotal.length)
+      grow(index + 1);
+    if (changedSinceTotal[index])
+      return;
+    changedSinceTotal[index] = true;
+    if (nChanged == changedStack.length)
+      changedStack = Arrays.copyOf(changedStack, 2 * nChanged);
+    changedStack[nChanged++] = index;
+  }
+
+  private void clearChanged()
+  {
+    while (nChanged > 0)
+      changedSinceTotal[changedStack[--nChanged]] = false;
+  }
+
+  /**
+   * Computes the log marginals of a range of clusters, splitting it in two
+   * halves while it is large. Each cluster only touches its own entries.
+   */
+  private class LogMarginalsTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+    private final List<ClusterId> clusterIds;
+    private final List<SufficientStatistic> statistics;
+    private final int start, end;
+
+    private LogMarginalsTask(List<ClusterId> clusterIds, List<SufficientStatistic> statistics, int start, int end)
+    {
+      this.clusterIds = clusterIds;
+      this.statistics = statistics;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (end - start <= PARALLEL_THRESHOLD / 4)
+      {
+        for (int i = start; i < end; i++)
+          logMarginal(clusterIds.get(i), statistics.get(i));
+        return;
+      }
+      final int middle = (start + end) >>> 1;
+      invokeAll(
+          new LogMarginalsTask(clusterIds, statistics, start, middle),
+          new LogMarginalsTask(clusterIds, statistics, middle, end));
+    }
+  }
+
+  private static ForkJoinPool pool = null;
+
+  private static synchronized ForkJoinPool pool()
+  {
+    if (pool == null)
+      pool = new ForkJoinPool();
+    return pool;
+  }
+
+  /**
+   * Sets entry i of result to logPredictive(id, clustering.getClusterStatistics(id),
+   * newPoints), where id is the cluster at position i of
+   * clustering.getClusterIndex(), in one batch when the model is a
+   * BatchConjugateModel and newPoints is a single point.
+   *
+   * @param clustering The owner of this cache
+   * @param newPoints
+   * @param result Array of length at least the number of clusters
+   */
+  public void logPredictives(
+      Clustering clustering,
+      SufficientStatistic newPoints,
+      double [] result)
+  {
+    checkInitialized();
+    final ClusterIndex index = clustering.getClusterIndex();
+    final int nClusters = index.nClusters();
+    if (batch == null || newPoints.numberOfPoints() != 1)
+    {
+      for (int i = 0; i < nClusters; i++)
+      {
+        final ClusterId clusterId = index.clusterId(i);
+        result[i] = logPredictive(clusterId, clustering.getClusterStatistics(clusterId), newPoints);
+      }
+      return;
+    }
+    for (int i = 0; i < nClusters; i++)
+    {
+      final ClusterId clusterId = index.clusterId(i);
+      ensureRow(clusterId, clustering.getClusterStatistics(clusterId));
+    }
+    if (rowLogPredictives.length < nRows)
+      rowLogPredictives = new double[Math.max(nRows, 2 * rowLogPredictives.length)];
+    batch.logPredictives(newPoints, nRows, rowLogPredictives);
+    for (int i = 0; i < nClusters; i++)
+      result[i] = rowLogPredictives[id2Row[index.clusterId(i).id()]];
+  }
+
+  private void ensureRow(ClusterId clusterId, SufficientStatistic clusterStatistic)
+  {
+    final int index = clusterId.id();
+    if (index >= posteriors.length)
+      grow(index + 1);
+    int row = id2Row[index];
+    if (row == -1)
+    {
+      row = nRows++;
+      if (row == row2Id.length)
+      {
+        row2Id = Arrays.copyOf(row2Id, Math.max(16, 2 * row2Id.length));
+        rowIsStale = Arrays.copyOf(rowIsStale, row2Id.length);
+      }
+      id2Row[index] = row;
+      row2Id[row] = index;
+      rowIsStale[row] = true;
+    }
+    if (rowIsStale[row])
+    {
+      batch.set(row, clusterStatistic);
+      rowIsStale[row] = false;
+    }
+  }
+
+  private void removeRow(int index)
+  {
+    final int row = id2Row[index];
+    if (row == -1)
+      return;
+    final int last = --nRows;
+    if (row != last)
+    {
+      batch.move(last, row);
+      row2Id[row] = row2Id[last];
+      rowIsStale[row] = rowIsStale[last];
+      id2Row[row2Id[row]] = row;
+    }
+    id2Row[index] = -1;
+  }
+
+  private int ensureEntry(ClusterId clusterId, SufficientStatistic clusterStatistic)
+  {
+    checkInitialized();
+    final int index = clusterId.id();
+    if (index >= posteriors.length)
+      grow(index + 1);
+    if (posteriors[index] == null)
+    {
+      final PredictivePosterior posterior = prior.copy();
+      if (!posterior.add(clusterStatistic))
+        throw new RuntimeException("Could not compute the posterior of " + clusterId);
+      posteriors[index] = posterior;
+      nUpdates[index] = 0;
+      hasLogMarginal[index] = false;
+    }
+    return index;
+  }
+
+  private void checkInitialized()
+  {
+    if (model == null)
+      throw new RuntimeException("checkHyperParameters() should be called first");
+  }
+
+  private void grow(int minCapacity)
+  {
+    final int newCapacity = Math.max(minCapacity, Math.max(16, 2 * posteriors.length));
+    posteriors = Arrays.copyOf(posteriors, newCapacity);
+    nUpdates = Arrays.copyOf(nUpdates, newCapacity);
+    logMarginals = Arrays.copyOf(logMarginals, newCapacity);
+    hasLogMarginal = Arrays.copyOf(hasLogMarginal, newCapacity);
+    contributions = Arrays.copyOf(contributions, newCapacity);
+    inRunningTotal = Arrays.copyOf(inRunningTotal, newCapacity);
+    changedSinceTotal = Arrays.copyOf(changedSinceTotal, newCapacity);
+    final int oldCapacity = id2Row.length;
+    id2Row = Arrays.copyOf(id2Row, newCapacity);
+    Arrays.fill(id2Row, oldCapacity, newCapacity, -1);
+  }
+}
@@ -0,0 +1,32 @@
+package polya.crp.utils;
+
+import java.util.List;
+
+import polya.parametric.SufficientStatistic;
+
+/**
+ * The clusters of a state and the statistics of their data, as read by
+ * ClusterMarginalCache.totalLogMarginal().
+ */
+public interface Clustering
+{
+  /**
+   * @return A new list of the clusters; see getClusterIndex() to
+   *  enumerate them without allocating
+   */
+  public List<ClusterId> getAllClusterIds();
+
+  /**
+   * @return The live clusters, kept up to date by the implementations;
+   *  should not be modified
+   */
+  public ClusterIndex getClusterIndex();
+
+  /**
+   *
+   * @param clusterId
+   * @return The sum of the statistics of the data at the cluster, or null
+   *  if there is no such cluster
+   */
+  public SufficientStatistic getClusterStatistics(ClusterId clusterId);
+}
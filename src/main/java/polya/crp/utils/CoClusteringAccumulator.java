@@ -0,0 +1,351 @@
+package polya.crp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Accumulates, over samples of a partition of customers 0, 1, ..., n-1,
+ * the number of samples in which each pair of customers is at the same
+ * table, i.e. the posterior similarity matrix pi(i, j) = count(i, j) /
+ * nSamples(), without ever storing it densely.
+ *
+ * Two storages are available:
+ *
+ * - exact(): the counts of all the pairs ever seen together, in a hash
+ *   table of pairs. A sample costs sum_t |t|^2 / 2 over its tables t, so
+ *   this is for partitions without very large tables; add() throws once
+ *   more than MAX_EXACT_PAIRS pairs would be needed.
+ * - sampled(): a fixed random set of pairs, each customer being paired
+ *   with nPartners random others. A sample costs O(n * nPartners), and
+ *   pi is only known on these pairs.
+ *
+ * binderLoss() evaluates a candidate partition against pi, also without
+ * the dense matrix; with the candidates being the samples themselves
+ * (e.g. streamed back from an AssignmentTraceReader) this gives the least
+ * squares estimate of Dahl (2006).
+ */
+public class CoClusteringAccumulator
+{
+  private final int nCustomers;
+  private int nSamples = 0;
+
+  // exact storage
+  private final PairCounts pairCounts;
+
+  // sampled storage: pair k is (firsts[k], seconds[k]), and the partners of
+  // customer i are the pairs i * nPartners, ..., (i + 1) * nPartners - 1
+  private final int [] firsts, seconds, sampledCounts;
+  private final int nPartners;
+
+  /**
+   * The most pairs exact() can store, in 12GB of hash table
+   */
+  public static final int MAX_EXACT_PAIRS = PairCounts.MAX_CAPACITY / 2;
+
+  /**
+   *
+   * @param nCustomers
+   * @return An accumulator keeping the counts of all pairs
+   */
+  public static CoClusteringAccumulator exact(int nCustomers)
+  {
+    return new CoClusteringAccumulator(nCustomers, new PairCounts(), null, null, 0);
+  }
+
+  /**
+   *
+   * @param nCustomers
+   * @param nPartners Number of random partners of each customer
+   * @param rand
+   * @return An accumulator keeping the counts of about nCustomers *
+   *  nPartners random pairs
+   */
+  public static CoClusteringAccumulator sampled(int nCustomers, int nPartners, Random rand)
+  {
+    if (nCustomers < 2 || nPartners < 1)
+      throw new RuntimeException();
+    if (((long) nCustomers) * nPartners > Integer.MAX_VALUE)
+      throw new RuntimeException("Too many pairs: " + nCustomers + " customers with " + nPartners + " partners each");
+    final int nPairs = nCustomers * nPartners;
+    int [] firsts = new int[nPairs], seconds = new int[nPairs];
+    for (int i = 0, k = 0; i < nCustomers; i++)
+      for (int p = 0; p < nPartners; p++, k++)
+      {
+        int j = rand.nextInt(nCustomers - 1);
+        if (j >= i)
+          j++;
+        firsts[k] = i;
+        seconds[k] = j;
+      }
+    return new CoClusteringAccumulator(nCustomers, null, firsts, seconds, nPartners);
+  }
+
+  private CoClusteringAccumulator(int nCustomers, PairCounts pairCounts, int [] firsts, int [] seconds, int nPartners)
+  {
+    this.nPartners = nPartners;
+    this.nCustomers = nCustomers;
+    this.pairCounts = pairCounts;
+    this.firsts = firsts;
+    this.seconds = seconds;
+    this.sampledCounts = firsts == null ? null : new int[firsts.length];
+  }
+
+  /**
+   * Adds a sample.
+   *
+   * @param labels Entry c is the label of the table of customer c, see
+   *  AssignmentTraceWriter; customers with label -1 are ignored
+   */
+  public void add(int [] labels)
+  {
+    checkLabels(labels);
+    if (pairCounts != null)
+    {
+      final List<int []> blocks = blocks(labels);
+      // fail before any change when the sample alone has too many pairs
+      long nPairs = 0;
+      for (int [] block : blocks)
+        nPairs += ((long) block.length) * (block.length - 1) / 2;
+      if (nPairs > MAX_EXACT_PAIRS)
+        throw new RuntimeException("A sample with " + nPairs + " pairs at the same table is too large for exact(), use sampled()");
+      for (int [] block : blocks)
+        for (int a = 0; a < block.length; a++)
+          for (int b = a + 1; b < block.length; b++)
+            pairCounts.increment(block[a], block[b]);
+    }
+    else
+      for (int k = 0; k < firsts.length; k++)
+        if (labels[firsts[k]] != -1 && labels[firsts[k]] == labels[seconds[k]])
+          sampledCounts[k]++;
+    nSamples++;
+  }
+
+  /**
+   *
+   * @param i
+   * @param j
+   * @return The fraction of the samples in which i and j were at the same
+   *  table; for sampled(), only defined if (i, j) is one of the sampled
+   *  pairs, and costs O(nPartners)
+   */
+  public double similarity(int i, int j)
+  {
+    if (nSamples == 0)
+      return 0.0;
+    if (pairCounts != null)
+      return i == j ? 1.0 : ((double) pairCounts.get(Math.min(i, j), Math.max(i, j))) / nSamples;
+    if (i < 0 || i >= nCustomers || j < 0 || j >= nCustomers)
+      throw new RuntimeException("Invalid pair: " + i + ", " + j);
+    for (int k = i * nPartners; k < (i + 1) * nPartners; k++)
+      if (seconds[k] == j)
+        return ((double) sampledCounts[k]) / nSamples;
+    for (int k = j * nPartners; k < (j + 1) * nPartners; k++)
+      if (seconds[k] == i)
+        return ((double) sampledCounts[k]) / nSamples;
+    throw new RuntimeException("Pair not sampled: " + i + ", " + j);
+  }
+
+  /**
+   * The Binder loss with equal costs, sum over pairs i < j of
+   * (1[i, j at the same table in the candidate] - pi(i, j))^2. For
+   * sampled(), the sum over the sampled pairs is scaled to all the pairs,
+   * which gives an unbiased estimate.
+   *
+   * Costs O(n + number of stored pairs), or O(n * nPartners).
+   *
+   * @param labels A candidate partition, in the form used by add()
+   * @return
+   */
+  public double binderLoss(int [] labels)
+  {
+    checkLabels(labels);
+    if (nSamples == 0)
+      throw new RuntimeException("No samples");
+    double result = 0.0;
+    if (pairCounts != null)
+    {
+      // pairs together in the candidate but never stored contribute 1 each
+      long nTogether = 0;
+      for (int [] block : blocks(labels))
+        nTogether += ((long) block.length) * (block.length - 1) / 2;
+      long nStoredTogether = 0;
+      for (int slot = 0; slot < pairCounts.keys.length; slot++)
+      {
+        final long key = pairCounts.keys[slot];
+        if (key == PairCounts.EMPTY)
+          continue;
+        final int i = (int) (key >>> 32), j = (int) key;
+        final boolean together = labels[i] != -1 && labels[i] == labels[j];
+        if (together)
+          nStoredTogether++;
+        final double difference = (together ? 1.0 : 0.0) - ((double) pairCounts.values[slot]) / nSamples;
+        result += difference * difference;
+      }
+      result += nTogether - nStoredTogether;
+    }
+    else
+    {
+      for (int k = 0; k < firsts.length; k++)
+      {
+        final boolean together = labels[firsts[k]] != -1 && labels[firsts[k]] == labels[seconds[k]];
+        final double difference = (together ? 1.0 : 0.0) - ((double) sampledCounts[k]) / nSamples;
+        result += difference * difference;
+      }
+      result *= (((double) nCustomers) * (nCustomers - 1) / 2.0) / firsts.length;
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param trace A trace of candidate partitions, read to its end
+   * @return The labels of the candidate with the smallest binderLoss(), or
+   *  null if the trace is empty
+   */
+  public int [] minimizeBinderLoss(AssignmentTraceReader trace)
+  {
+    int [] result = null;
+    double best = Double.POSITIVE_INFINITY;
+    while (trace.next())
+    {
+      final double loss = binderLoss(trace.labels());
+      if (loss < best)
+      {
+        best = loss;
+        result = trace.labels().clone();
+      }
+    }
+    return result;
+  }
+
+  public int nSamples()
+  {
+    return nSamples;
+  }
+
+  public int nCustomers()
+  {
+    return nCustomers;
+  }
+
+  /**
+   *
+   * @return The number of pairs with a count stored
+   */
+  public int nStoredPairs()
+  {
+    return pairCounts != null ? pairCounts.size : firsts.length;
+  }
+
+  private void checkLabels(int [] labels)
+  {
+    if (labels.length != nCustomers)
+      throw new RuntimeException("Expected " + nCustomers + " labels, got " + labels.length);
+  }
+
+  /**
+   * @return The customers of each label, in increasing order
+   */
+  private static List<int []> blocks(int [] labels)
+  {
+    // sort (label, customer) pairs packed in longs, to avoid boxing
+    int nSeated = 0;
+    for (int label : labels)
+      if (label != -1)
+        nSeated++;
+    long [] sorted = new long[nSeated];
+    for (int c = 0, k = 0; c < labels.length; c++)
+      if (labels[c] != -1)
+        sorted[k++] = (((long) labels[c]) << 32) | c;
+    Arrays.sort(sorted);
+    List<int []> result = new ArrayList<int []>();
+    for (int start = 0, end; start < nSeated; start = end)
+    {
+      end = start + 1;
+      while (end < nSeated && (sorted[end] >>> 32) == (sorted[start] >>> 32))
+        end++;
+      int [] block = new int[end - start];
+      for (int k = start; k < end; k++)
+        block[k - start] = (int) sorted[k];
+      result.add(block);
+    }
+    return result;
+  }
+
+  /**
+   * Open addressing hash table from pairs i < j to counts, with linear
+   * probing.
+   */
+  private static class PairCounts
+  {
+    private static final long EMPTY = -1L;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private long [] keys = newKeys(1024);
+    private int [] values = new int[1024];
+    private int size = 0;
+
+    private void increment(int i, int j)
+    {
+      if (2 * (size + 1) > keys.length)
+        grow();
+      final int slot = slot(keys, key(i, j));
+      if (keys[slot] == EMPTY)
+      {
+        keys[slot] = key(i, j);
+        size++;
+      }
+      values[slot]++;
+    }
+
+    private int get(int i, int j)
+    {
+      final int slot = slot(keys, key(i, j));
+      return keys[slot] == EMPTY ? 0 : values[slot];
+    }
+
+    private void grow()
+    {
+      if (keys.length == MAX_CAPACITY)
+        throw new RuntimeException("More than " + MAX_EXACT_PAIRS + " pairs for exact(), use sampled()");
+      final long [] oldKeys = keys;
+      final int [] oldValues = values;
+      keys = newKeys(2 * oldKeys.length);
+      values = new int[keys.length];
+      for (int old = 0; old < oldKeys.length; old++)
+        if (oldKeys[old] != EMPTY)
+        {
+          final int slot = slot(keys, oldKeys[old]);
+          keys[slot] = oldKeys[old];
+          values[slot] = oldValues[old];
+        }
+    }
+
+    private static long key(int i, int j)
+    {
+      return (((long) i) << 32) | j;
+    }
+
+    /**
+     * @return The slot of the key, or the empty slot where it would go
+     */
+    private static int slot(long [] keys, long key)
+    {
+      final int mask = keys.length - 1;
+      long hash = key * 0x9E3779B97F4A7C15L;
+      int slot = (int) (hash >>> 32) & mask;
+      while (keys[slot] != EMPTY && keys[slot] != key)
+        slot = (slot + 1) & mask;
+      return slot;
+    }
+
+    private static long [] newKeys(int n)
+    {
+      long [] result = new long[n];
+      Arrays.fill(result, EMPTY);
+      return result;
+    }
+  }
+}
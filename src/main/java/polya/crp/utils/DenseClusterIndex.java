@@ -0,0 +1,82 @@
+package polya.crp.utils;
+
+import java.util.Arrays;
+
+/**
+ * A ClusterIndex maintained by explicit add() and remove() calls: a dense
+ * array of the clusters and the position of each, indexed by ClusterId.id,
+ * with swap-remove.
+ */
+public class DenseClusterIndex implements ClusterIndex
+{
+  private static final int NONE = -1;
+
+  private ClusterId [] position2Id = new ClusterId[16];
+  private int [] id2Position = newId2Position(16);
+  private int nClusters = 0;
+
+  /**
+   *
+   * @param clusterId A cluster not already in the index
+   */
+  public void add(ClusterId clusterId)
+  {
+    final int id = clusterId.id();
+    if (id >= id2Position.length)
+    {
+      final int oldLength = id2Position.length;
+      id2Position = Arrays.copyOf(id2Position, Math.max(id + 1, 2 * oldLength));
+      Arrays.fill(id2Position, oldLength, id2Position.length, NONE);
+    }
+    if (id2Position[id] != NONE)
+      throw new RuntimeException("Cluster already there: " + clusterId);
+    if (nClusters == position2Id.length)
+      position2Id = Arrays.copyOf(position2Id, 2 * position2Id.length);
+    position2Id[nClusters] = clusterId;
+    id2Position[id] = nClusters++;
+  }
+
+  /**
+   * Removes the cluster; the last one moves to its position.
+   *
+   * @param clusterId A cluster in the index
+   */
+  public void remove(ClusterId clusterId)
+  {
+    if (!contains(clusterId))
+      throw new RuntimeException("Unknown cluster: " + clusterId);
+    final int position = id2Position[clusterId.id()];
+    final ClusterId last = position2Id[--nClusters];
+    position2Id[position] = last;
+    id2Position[last.id()] = position;
+    position2Id[nClusters] = null;
+    id2Position[clusterId.id()] = NONE;
+  }
+
+  public boolean contains(ClusterId clusterId)
+  {
+    final int id = clusterId.id();
+    return id >= 0 && id < id2Position.length && id2Position[id] != NONE;
+  }
+
+  @Override
+  public int nClusters()
+  {
+    return nClusters;
+  }
+
+  @Override
+  public ClusterId clusterId(int position)
+  {
+    if (position < 0 || position >= nClusters)
+      throw new RuntimeException("Invalid position: " + position);
+    return position2Id[position];
+  }
+
+  private static int [] newId2Position(int n)
+  {
+    int [] result = new int[n];
+    Arrays.fill(result, NONE);
+    return result;
+  }
+}
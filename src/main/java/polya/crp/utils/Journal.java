@@ -0,0 +1,59 @@
+package polya.crp.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Records the changes made to a map (e.g. customers to tables) so that
+ * snapshots of it can be taken without copying it.
+ *
+ * The owner of the map calls record() on each change, which does nothing
+ * until the first snapshot is taken. snapshot() then only seals the
+ * changes recorded since the previous snapshot, except when these changes
+ * and the ones it depends on add up to more than the size of the map, in
+ * which case the whole map is copied (a keyframe). Reading a snapshot
+ * therefore costs at most about twice the size of the map, and the
+ * memory used by a sequence of snapshots is at most about twice the
+ * number of changes between them.
+ */
+public class Journal<K,V>
+{
+  private Map<K,V> pending = null;
+  private Snapshot<K,V> last = null;
+
+  /**
+   * Should be called after each change of the map.
+   *
+   * @param key
+   * @param value The new value of key, or null if it was removed
+   */
+  public void record(K key, V value)
+  {
+    if (pending != null)
+      pending.put(key, value);
+  }
+
+  /**
+   *
+   * @param size The current size of the map
+   * @param map Gives the current contents of the map, only called when a
+   *  keyframe is needed; not retained
+   * @return A snapshot of the current contents of the map
+   */
+  public Snapshot<K,V> snapshot(int size, Supplier<Map<K,V>> map)
+  {
+    if (last != null && pending.isEmpty())
+      return last;
+    if (last == null || last.chainSize() + pending.size() > size)
+    {
+      Map<K,V> copy = new HashMap<K,V>(map.get());
+      last = new Snapshot<K,V>(null, copy);
+    }
+    else
+      last = new Snapshot<K,V>(last, pending);
+    pending = new HashMap<K,V>();
+    return last;
+  }
+}
@@ -0,0 +1,275 @@
+package polya.crp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import bayonet.math.NumericalUtils;
+
+/**
+ * Parallel tempering (replica exchange) for multimodal posteriors over
+ * clusterings. Replica k of the ladder targets the prior times the
+ * likelihood to the power beta_k, where 1 = beta_0 > beta_1 > ... The
+ * replica at rung 0 is a chain on the posterior, the hotter ones cross
+ * between modes more easily.
+ *
+ * A round:
+ *
+ * 1. sweeps each replica nSweepsPerRound times at the inverse temperature
+ *    of its rung, all the replicas at once on the executor;
+ * 2. proposes to swap the replicas of adjacent rungs (k, k+1), for even k
+ *    on even rounds and odd k on odd rounds, accepted with probability
+ *    min(1, exp((beta_k - beta_{k+1}) (L_{k+1} - L_k))), where L is the
+ *    untempered log likelihood of the replica. Only the references in the
+ *    ladder are exchanged, never the states;
+ * 3. during the first nAdaptiveRounds rounds, moves the temperatures
+ *    1 / beta_k toward equal swap acceptance rates between all the
+ *    adjacent rungs, keeping the first and last ones fixed (after
+ *    Vousden, Farr and Mandel, 2016). The ladder is then frozen, so that
+ *    the later rounds form a valid MCMC chain.
+ *
+ * Each replica is only touched by one thread at a time, so the states
+ * need no synchronization, but the replicas must not share mutable
+ * objects: e.g. for a DDCRP, each replica needs its own Customer objects.
+ * Each rung has its own Random, seeded from the one given to the
+ * constructor, so the result does not depend on the number of threads.
+ */
+public class ParallelTempering<R extends ParallelTempering.Replica>
+{
+  /**
+   * A chain whose target can be tempered.
+   */
+  public static interface Replica
+  {
+    /**
+     * Performs one sweep leaving the prior times the likelihood to the
+     * power inverseTemperature invariant.
+     */
+    public void sweep(Random rand, double inverseTemperature);
+
+    /**
+     * @return The untempered log likelihood of the current state
+     */
+    public double logLikelihood();
+  }
+
+  /**
+   * Number of sweeps of each replica between the swaps
+   */
+  public int nSweepsPerRound = 1;
+
+  /**
+   * Number of rounds during which the ladder is adapted
+   */
+  public int nAdaptiveRounds = 1000;
+
+  private final List<R> rung2Replica;
+  private final Random [] rung2Random;
+  private final Random rand;
+  private final ExecutorService executor;
+  private final double maxTemperature;
+
+  private final double [] inverseTemperatures;
+  // log(1 / beta_{k+1} - 1 / beta_k)
+  private final double [] logGaps;
+  // smoothed swap acceptance probability between rungs k and k+1
+  private final double [] recentAcceptance;
+  private final double [] sumAcceptance;
+  private final int [] nSwapAttempts;
+  private int nRounds = 0;
+
+  /**
+   * @param replicas One per rung, in any order; the ladder starts with
+   *  temperatures in geometric progression between 1 and maxTemperature
+   * @param maxTemperature The temperature of the hottest rung, 1 / beta_{K-1}
+   * @param rand
+   * @param executor Runs the sweeps; with at least as many threads as
+   *  replicas, each replica sweeps on a thread of its own
+   */
+  public ParallelTempering(List<R> replicas, double maxTemperature, Random rand, ExecutorService executor)
+  {
+    final int nRungs = replicas.size();
+    if (nRungs == 0)
+      throw new RuntimeException("No replicas");
+    if (!(maxTemperature > 1.0) && nRungs > 1)
+      throw new RuntimeException("Invalid maximum temperature: " + maxTemperature);
+    this.rung2Replica = new ArrayList<R>(replicas);
+    this.rung2Random = new Random[nRungs];
+    for (int rung = 0; rung < nRungs; rung++)
+      rung2Random[rung] = new Random(rand.nextLong());
+    this.rand = rand;
+    this.executor = executor;
+    this.maxTemperature = maxTemperature;
+    this.inverseTemperatures = new double[nRungs];
+    this.logGaps = new double[Math.max(nRungs - 1, 0)];
+    for (int k = 0; k < nRungs - 1; k++)
+      logGaps[k] = Math.log(
+          Math.pow(maxTemperature, (k + 1.0) / (nRungs - 1)) -
+          Math.pow(maxTemperature, ((double) k) / (nRungs - 1)));
+    updateInverseTemperatures();
+    this.recentAcceptance = new double[logGaps.length];
+    Arrays.fill(recentAcceptance, Double.NaN);
+    this.sumAcceptance = new double[logGaps.length];
+    this.nSwapAttempts = new int[logGaps.length];
+  }
+
+  public void run(int nRounds)
+  {
+    for (int i = 0; i < nRounds; i++)
+      round();
+  }
+
+  /**
+   * Performs one round, see class comment.
+   */
+  public void round()
+  {
+    final int nRungs = rung2Replica.size();
+
+    // 1. sweeps
+    List<Future<Double>> futures = new ArrayList<Future<Double>>();
+    for (int rung = 0; rung < nRungs; rung++)
+    {
+      final R replica = rung2Replica.get(rung);
+      final Random replicaRand = rung2Random[rung];
+      final double inverseTemperature = inverseTemperatures[rung];
+      final int nSweeps = nSweepsPerRound;
+      futures.add(executor.submit(new Callable<Double>() {
+        @Override
+        public Double call()
+        {
+          for (int sweep = 0; sweep < nSweeps; sweep++)
+            replica.sweep(replicaRand, inverseTemperature);
+          return replica.logLikelihood();
+        }
+      }));
+    }
+    double [] logLikelihoods = new double[nRungs];
+    try
+    {
+      for (int rung = 0; rung < nRungs; rung++)
+        logLikelihoods[rung] = futures.get(rung).get();
+    }
+    catch (InterruptedException e) { throw new RuntimeException(e); }
+    catch (ExecutionException e) { throw new RuntimeException(e.getCause()); }
+
+    // 2. swaps
+    for (int k = nRounds % 2; k < nRungs - 1; k += 2)
+    {
+      final double logRatio =
+          (inverseTemperatures[k] - inverseTemperatures[k + 1]) * (logLikelihoods[k + 1] - logLikelihoods[k]);
+      final double acceptance = logRatio >= 0.0 ? 1.0 : Math.exp(logRatio);
+      if (rand.nextDouble() < acceptance)
+      {
+        Collections.swap(rung2Replica, k, k + 1);
+        final double logLikelihood = logLikelihoods[k];
+        logLikelihoods[k] = logLikelihoods[k + 1];
+        logLikelihoods[k + 1] = logLikelihood;
+      }
+      sumAcceptance[k] += acceptance;
+      nSwapAttempts[k]++;
+      recentAcceptance[k] = Double.isNaN(recentAcceptance[k]) ?
+          acceptance :
+          (1.0 - smoothing) * recentAcceptance[k] + smoothing * acceptance;
+    }
+
+    // 3. adaptation
+    if (nRounds < nAdaptiveRounds && nRungs > 2)
+      adapt();
+    nRounds++;
+  }
+
+  private static final double smoothing = 0.1;
+
+  /**
+   * Widens the gaps whose acceptance is above the average and narrows
+   * the others, by a Robbins-Monro step, then rescales all the gaps so
+   * that the hottest temperature stays put.
+   */
+  private void adapt()
+  {
+    double meanAcceptance = 0.0;
+    for (int k = 0; k < logGaps.length; k++)
+    {
+      // wait for an estimate of every gap
+      if (Double.isNaN(recentAcceptance[k]))
+        return;
+      meanAcceptance += recentAcceptance[k] / logGaps.length;
+    }
+    final double gain = 10.0 / (100.0 + nRounds);
+    for (int k = 0; k < logGaps.length; k++)
+      logGaps[k] += gain * (recentAcceptance[k] - meanAcceptance);
+    double logSum = Double.NEGATIVE_INFINITY;
+    for (int k = 0; k < logGaps.length; k++)
+      logSum = NumericalUtils.logAdd(logSum, logGaps[k]);
+    final double shift = Math.log(maxTemperature - 1.0) - logSum;
+    for (int k = 0; k < logGaps.length; k++)
+      logGaps[k] += shift;
+    updateInverseTemperatures();
+  }
+
+  private void updateInverseTemperatures()
+  {
+    double temperature = 1.0;
+    inverseTemperatures[0] = 1.0;
+    for (int k = 0; k < logGaps.length; k++)
+    {
+      temperature += Math.exp(logGaps[k]);
+      inverseTemperatures[k + 1] = 1.0 / temperature;
+    }
+    // no drift of the hottest rung through round off
+    if (logGaps.length > 0)
+      inverseTemperatures[logGaps.length] = 1.0 / maxTemperature;
+  }
+
+  /**
+   * @return The replica currently at rung 0, which targets the posterior
+   */
+  public R coldReplica()
+  {
+    return rung2Replica.get(0);
+  }
+
+  /**
+   * @param rung
+   * @return The replica currently at that rung
+   */
+  public R getReplica(int rung)
+  {
+    return rung2Replica.get(rung);
+  }
+
+  public int nRungs()
+  {
+    return rung2Replica.size();
+  }
+
+  public int nRounds()
+  {
+    return nRounds;
+  }
+
+  /**
+   * @return A copy of the ladder, from the coldest rung to the hottest
+   */
+  public double [] getInverseTemperatures()
+  {
+    return inverseTemperatures.clone();
+  }
+
+  /**
+   * @param k Between 0 and nRungs() - 2
+   * @return The average acceptance probability of the swaps between rungs
+   *  k and k+1 so far, NaN before the first attempt
+   */
+  public double swapAcceptanceRate(int k)
+  {
+    return sumAcceptance[k] / nSwapAttempts[k];
+  }
+}
@@ -0,0 +1,93 @@
+package polya.crp.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable view of a map (e.g. customers to tables) at the time the
+ * snapshot was taken, see Journal.
+ *
+ * A snapshot stores either the whole map (a keyframe), or only the entries
+ * changed since the previous snapshot, with a reference to it. A null
+ * value in a delta means that the key was removed.
+ */
+public class Snapshot<K,V>
+{
+  private final Snapshot<K,V> parent;
+  private final Map<K,V> entries;
+
+  /**
+   * Number of entries stored by this snapshot and its ancestors, excluding
+   * the keyframe they are based on
+   */
+  private final int chainSize;
+
+  Snapshot(Snapshot<K,V> parent, Map<K,V> entries)
+  {
+    this.parent = parent;
+    this.entries = entries;
+    this.chainSize = parent == null ? 0 : entries.size() + parent.chainSize;
+  }
+
+  /**
+   *
+   * @param key
+   * @return The value of the key when the snapshot was taken, or null if
+   *  it was not in the map
+   */
+  public V get(K key)
+  {
+    for (Snapshot<K,V> current = this; current != null; current = current.parent)
+      if (current.entries.containsKey(key))
+        return current.entries.get(key);
+    return null;
+  }
+
+  /**
+   *
+   * @return A new map with the contents of the map when the snapshot was
+   *  taken, built in time linear in the size of the map plus the number
+   *  of changes since the previous keyframe
+   */
+  public Map<K,V> toMap()
+  {
+    List<Snapshot<K,V>> chain = new ArrayList<Snapshot<K,V>>();
+    for (Snapshot<K,V> current = this; current != null; current = current.parent)
+      chain.add(current);
+    Collections.reverse(chain);
+    Map<K,V> result = new HashMap<K,V>();
+    for (Snapshot<K,V> current : chain)
+      for (Map.Entry<K,V> entry : current.entries.entrySet())
+        if (entry.getValue() == null)
+          result.remove(entry.getKey());
+        else
+          result.put(entry.getKey(), entry.getValue());
+    return result;
+  }
+
+  /**
+   *
+   * @return True if the snapshot stores the whole map
+   */
+  public boolean isKeyframe()
+  {
+    return parent == null;
+  }
+
+  /**
+   *
+   * @return The number of entries stored by this snapshot itself
+   */
+  public int nStoredEntries()
+  {
+    return entries.size();
+  }
+
+  int chainSize()
+  {
+    return chainSize;
+  }
+}
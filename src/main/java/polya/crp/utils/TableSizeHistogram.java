@@ -0,0 +1,110 @@
+package polya.crp.utils;
+
+import java.util.Arrays;
+
+/**
+ * The number of tables of each size, maintained by the owner of the
+ * tables (see CRPStateInterface.getTableSizeHistogram()) as customers
+ * come and go, so that quantities depending only on the table sizes
+ * (e.g. the Pitman-Yor prior of the seating arrangement) are computed in
+ * time linear in the number of distinct sizes.
+ */
+public class TableSizeHistogram
+{
+  // counts[s] is the number of tables of size s
+  private int [] counts = new int[16];
+
+  // the sizes s with counts[s] > 0 are distinctSizes[0, ..., nDistinctSizes - 1],
+  // and size s is at distinctSizes[positions[s]]
+  private int [] distinctSizes = new int[16];
+  private int [] positions = new int[16];
+  private int nDistinctSizes = 0;
+  private int nTables = 0;
+
+  /**
+   * Records a new table.
+   * @param size
+   */
+  public void add(int size)
+  {
+    if (size < 1)
+      throw new RuntimeException("Invalid table size: " + size);
+    if (size >= counts.length)
+    {
+      counts = Arrays.copyOf(counts, Math.max(size + 1, 2 * counts.length));
+      positions = Arrays.copyOf(positions, counts.length);
+    }
+    if (counts[size]++ == 0)
+    {
+      if (nDistinctSizes == distinctSizes.length)
+        distinctSizes = Arrays.copyOf(distinctSizes, 2 * distinctSizes.length);
+      positions[size] = nDistinctSizes;
+      distinctSizes[nDistinctSizes++] = size;
+    }
+    nTables++;
+  }
+
+  /**
+   * Records the deletion of a table.
+   * @param size
+   */
+  public void remove(int size)
+  {
+    if (count(size) == 0)
+      throw new RuntimeException("No table of size " + size);
+    if (--counts[size] == 0)
+    {
+      final int last = distinctSizes[--nDistinctSizes];
+      distinctSizes[positions[size]] = last;
+      positions[last] = positions[size];
+    }
+    nTables--;
+  }
+
+  /**
+   * Records a table changing size.
+   * @param oldSize
+   * @param newSize
+   */
+  public void resize(int oldSize, int newSize)
+  {
+    remove(oldSize);
+    add(newSize);
+  }
+
+  /**
+   *
+   * @param size
+   * @return The number of tables of the given size
+   */
+  public int count(int size)
+  {
+    return size >= 0 && size < counts.length ? counts[size] : 0;
+  }
+
+  /**
+   *
+   * @return The number of sizes with at least one table
+   */
+  public int nDistinctSizes()
+  {
+    return nDistinctSizes;
+  }
+
+  /**
+   *
+   * @param index Between 0 (inclusive) and nDistinctSizes() (exclusive)
+   * @return A size with at least one table, in no particular order
+   */
+  public int distinctSize(int index)
+  {
+    if (index < 0 || index >= nDistinctSizes)
+      throw new RuntimeException("Invalid index: " + index);
+    return distinctSizes[index];
+  }
+
+  public int nTables()
+  {
+    return nTables;
+  }
+}
@@ -0,0 +1,268 @@
+package polya.crp.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The live tables and their sizes, maintained by the owner of the tables
+ * (see CRPStateInterface.getTableSizeIndex()) as customers come and go.
+ *
+ * The tables are kept densely in slots 0, 1, ..., nTables() - 1, which
+ * are the positions of the ClusterIndex (a removed table's slot is taken
+ * by the last one). A Fenwick tree over the sizes of the slots
+ * gives draws of a table with probability proportional to its size minus
+ * a discount in O(log K), e.g. for prior draws from a Pitman-Yor process.
+ */
+public class TableSizeIndex implements ClusterIndex
+{
+  private static final int NONE = -1;
+
+  private ClusterId [] slot2Id = new ClusterId[16];
+  private int [] slot2Size = new int[16];
+  // id2Slot[id.id()] is the slot of the table, or NONE
+  private int [] id2Slot = newId2Slot(16);
+  private int nTables = 0;
+  private long nCustomers = 0;
+
+  // 1-based: tree[i] is the sum of the sizes of slots (i - lowbit(i), i - 1]
+  private long [] tree = new long[slot2Size.length + 1];
+
+  /**
+   * Records a new table with one customer.
+   *
+   * @param clusterId
+   */
+  public void add(ClusterId clusterId)
+  {
+    final int id = clusterId.id();
+    if (id >= id2Slot.length)
+    {
+      final int oldLength = id2Slot.length;
+      id2Slot = Arrays.copyOf(id2Slot, Math.max(id + 1, 2 * oldLength));
+      Arrays.fill(id2Slot, oldLength, id2Slot.length, NONE);
+    }
+    if (id2Slot[id] != NONE)
+      throw new RuntimeException("Table already there: " + clusterId);
+    if (nTables == slot2Size.length)
+      grow();
+    final int slot = nTables++;
+    slot2Id[slot] = clusterId;
+    slot2Size[slot] = 1;
+    id2Slot[id] = slot;
+    addToTree(slot, 1);
+    nCustomers++;
+  }
+
+  /**
+   * Records a customer joining an existing table.
+   *
+   * @param clusterId
+   */
+  public void increment(ClusterId clusterId)
+  {
+    final int slot = slot(clusterId);
+    slot2Size[slot]++;
+    addToTree(slot, 1);
+    nCustomers++;
+  }
+
+  /**
+   * Records a customer leaving a table, deleting the table if it becomes
+   * empty; the last slot then moves to the slot of the deleted table.
+   *
+   * @param clusterId
+   */
+  public void decrement(ClusterId clusterId)
+  {
+    final int slot = slot(clusterId);
+    nCustomers--;
+    if (slot2Size[slot] > 1)
+    {
+      slot2Size[slot]--;
+      addToTree(slot, -1);
+      return;
+    }
+    final int last = --nTables;
+    id2Slot[clusterId.id()] = NONE;
+    if (slot != last)
+    {
+      addToTree(slot, slot2Size[last] - 1);
+      slot2Id[slot] = slot2Id[last];
+      slot2Size[slot] = slot2Size[last];
+      id2Slot[slot2Id[slot].id()] = slot;
+    }
+    addToTree(last, -slot2Size[last]);
+    slot2Id[last] = null;
+    slot2Size[last] = 0;
+  }
+
+  /**
+   *
+   * @param clusterId
+   * @return The number of customers at the table, zero if there is no
+   *  such table
+   */
+  public int size(ClusterId clusterId)
+  {
+    final int id = clusterId.id();
+    if (id < 0 || id >= id2Slot.length || id2Slot[id] == NONE)
+      return 0;
+    return slot2Size[id2Slot[id]];
+  }
+
+  public int nTables()
+  {
+    return nTables;
+  }
+
+  @Override
+  public int nClusters()
+  {
+    return nTables;
+  }
+
+  /**
+   *
+   * @return The sum of the sizes of the tables
+   */
+  public long nCustomers()
+  {
+    return nCustomers;
+  }
+
+  /**
+   *
+   * @param slot Between 0 and nTables() - 1
+   * @return The table at that slot
+   */
+  @Override
+  public ClusterId clusterId(int slot)
+  {
+    if (slot < 0 || slot >= nTables)
+      throw new RuntimeException("Invalid slot: " + slot);
+    return slot2Id[slot];
+  }
+
+  /**
+   *
+   * @param slot Between 0 and nTables() - 1
+   * @return The size of the table at that slot
+   */
+  public int sizeAt(int slot)
+  {
+    if (slot < 0 || slot >= nTables)
+      throw new RuntimeException("Invalid slot: " + slot);
+    return slot2Size[slot];
+  }
+
+  /**
+   *
+   * @param discount Between 0 (included) and 1 (excluded)
+   * @return The sum over the tables of their size minus the discount
+   */
+  public double totalWeight(double discount)
+  {
+    return nCustomers - discount * nTables;
+  }
+
+  /**
+   * Draws a table with probability proportional to its size minus the
+   * discount, by a descent of the Fenwick tree; a node covering len slots
+   * of total size s has weight s - discount * len.
+   *
+   * @param rand
+   * @param discount Between 0 (included) and 1 (excluded)
+   * @return The slot of the table
+   */
+  public int sampleSlot(Random rand, double discount)
+  {
+    if (nTables == 0)
+      throw new RuntimeException("No tables");
+    double u = rand.nextDouble() * totalWeight(discount);
+    int position = 0;
+    for (int step = Integer.highestOneBit(slot2Size.length); step > 0; step >>= 1)
+    {
+      final int next = position + step;
+      if (next > nTables)
+        continue;
+      final double weight = tree[next] - discount * step;
+      if (weight <= u)
+      {
+        u -= weight;
+        position = next;
+      }
+    }
+    // position == nTables only through round off
+    return Math.min(position, nTables - 1);
+  }
+
+  /**
+   * Checks the slots and the tree against each other.
+   */
+  public void checkIntegrity()
+  {
+    long [] expected = new long[tree.length];
+    long sum = 0;
+    for (int slot = 0; slot < slot2Size.length; slot++)
+    {
+      if ((slot < nTables) != (slot2Size[slot] > 0))
+        throw new RuntimeException();
+      if (slot < nTables && id2Slot[slot2Id[slot].id()] != slot)
+        throw new RuntimeException();
+      expected[slot + 1] = slot2Size[slot];
+      sum += slot2Size[slot];
+    }
+    buildTree(expected);
+    if (!Arrays.equals(expected, tree) || sum != nCustomers)
+      throw new RuntimeException();
+  }
+
+  private int slot(ClusterId clusterId)
+  {
+    final int id = clusterId.id();
+    final int result = id >= 0 && id < id2Slot.length ? id2Slot[id] : NONE;
+    if (result == NONE)
+      throw new RuntimeException("Unknown table: " + clusterId);
+    return result;
+  }
+
+  private void addToTree(int slot, int delta)
+  {
+    for (int i = slot + 1; i < tree.length; i += i & (-i))
+      tree[i] += delta;
+  }
+
+  /**
+   * Doubles the number of slots, rebuilding the tree in O(K).
+   */
+  private void grow()
+  {
+    slot2Id = Arrays.copyOf(slot2Id, 2 * slot2Id.length);
+    slot2Size = Arrays.copyOf(slot2Size, slot2Id.length);
+    tree = new long[slot2Size.length + 1];
+    for (int slot = 0; slot < nTables; slot++)
+      tree[slot + 1] = slot2Size[slot];
+    buildTree(tree);
+  }
+
+  /**
+   * Turns, in place, the values at positions 1, 2, ... into their
+   * Fenwick tree.
+   */
+  private static void buildTree(long [] values)
+  {
+    for (int i = 1; i < values.length; i++)
+    {
+      final int parent = i + (i & (-i));
+      if (parent < values.length)
+        values[parent] += values[i];
+    }
+  }
+
+  private static int [] newId2Slot(int n)
+  {
+    int [] result = new int[n];
+    Arrays.fill(result, NONE);
+    return result;
+  }
+}
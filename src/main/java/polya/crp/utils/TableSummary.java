@@ -0,0 +1,90 @@
+package polya.crp.utils;
+
+import polya.parametric.PredictivePosterior;
+import polya.parametric.SufficientStatistic;
+
+/**
+ * The statistic, number of customers and predictive posterior of a table,
+ * for samplers which track their tables outside of a CRPStateInterface.
+ *
+ * The posterior is updated in place when customers are added and removed,
+ * and rebuilt from the statistic when it cannot be.
+ */
+public class TableSummary
+{
+  private final PredictivePosterior empty;
+  private final SufficientStatistic statistic;
+  private PredictivePosterior posterior;
+  private int size;
+
+  /**
+   * @param empty Posterior of a table without customers, not modified
+   * @param first Statistic of the first customer, copied
+   */
+  public TableSummary(PredictivePosterior empty, SufficientStatistic first)
+  {
+    this(empty, first.copy(), null, 1);
+    refresh();
+  }
+
+  private TableSummary(PredictivePosterior empty, SufficientStatistic statistic, PredictivePosterior posterior, int size)
+  {
+    this.empty = empty;
+    this.statistic = statistic;
+    this.posterior = posterior;
+    this.size = size;
+  }
+
+  public void add(SufficientStatistic data)
+  {
+    statistic.plusEqual(data);
+    size++;
+    if (!posterior.add(data))
+      refresh();
+  }
+
+  /**
+   * Once the table is empty, the posterior is left as is, since it will
+   * not be used again.
+   */
+  public void remove(SufficientStatistic data)
+  {
+    statistic.minusEqual(data);
+    size--;
+    if (size > 0 && !posterior.remove(data))
+      refresh();
+  }
+
+  /**
+   * @return An independent copy, e.g. to modify a table shared by others
+   */
+  public TableSummary copy()
+  {
+    return new TableSummary(empty, statistic.copy(), posterior.copy(), size);
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * @return The sum of the statistics of the customers, not to be modified
+   */
+  public SufficientStatistic statistic()
+  {
+    return statistic;
+  }
+
+  public double logPredictive(SufficientStatistic data)
+  {
+    return posterior.logPredictive(data);
+  }
+
+  private void refresh()
+  {
+    posterior = empty.copy();
+    if (!posterior.add(statistic))
+      throw new RuntimeException("Could not compute the posterior of a table");
+  }
+}
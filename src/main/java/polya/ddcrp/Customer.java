@@ -1,11 +1,5 @@
 package polya.ddcrp;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-
-import org.apache.commons.math3.util.Pair;
-
 public class Customer implements Comparable<Customer>
 {
 	public int id;
@@ -34,20 +28,6 @@ public class Customer implements Comparable<Customer>
 		return false;
 	}
 
-  public Pair<Boolean, List<Customer>> pointsToCustomerTable(Set<Customer> customerTable, Set<Customer> otherTable) {
-  	Customer next = this;
-  	List<Customer> visitedCustomers = new ArrayList<Customer>();
-  	while (true) {
-  		if (customerTable.contains(next))
-  			return Pair.create(true, visitedCustomers);
-  		else if (otherTable.contains(next))
-  			break;
-  		visitedCustomers.add(next);
-  		next = next.pointer;
-  	}
-  	return Pair.create(false, visitedCustomers);
-  }
-	
   @Override
   public String toString() {
   	return ("(" + x + ", " + y + ")");
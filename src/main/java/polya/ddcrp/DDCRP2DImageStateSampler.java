@@ -4,12 +4,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
+import polya.crp.utils.CategoricalSampler;
 import polya.crp.utils.ClusterId;
 import polya.parametric.CollapsedConjugateModel;
 import polya.parametric.HyperParameter;
 import polya.parametric.Parametrics;
 import polya.parametric.SufficientStatistic;
-import bayonet.distributions.Multinomial;
 import blang.factors.Factor;
 import blang.mcmc.ConnectedFactor;
 import blang.mcmc.MHProposalDistribution;
@@ -27,6 +27,7 @@ public class DDCRP2DImageStateSampler implements MHProposalDistribution
 		DDCRPPrior ddCRPPrior = null;
 		CollapsedConjugateModel collapsedModel = null;
 		HyperParameter hp = null;
+		double inverseTemperature = 1.0;
 		
 		for (Factor f : connectedFactors)
 		{
@@ -39,6 +40,7 @@ public class DDCRP2DImageStateSampler implements MHProposalDistribution
 				DDCRPFactor ddCRPFactor = (DDCRPFactor)f;
 				collapsedModel = ddCRPFactor.getCollapsedConjugateModel();
 				hp = collapsedModel.getHyperParameter();
+				inverseTemperature = ddCRPFactor.getInverseTemperature();
 			}
 		}
 		
@@ -51,7 +53,7 @@ public class DDCRP2DImageStateSampler implements MHProposalDistribution
 		List<Customer> customers = new ArrayList<Customer>(ddCRPState.getAllCustomers());
 		Customer customer = customers.get(rand.nextInt(customers.size()));
 		
-		gibbs(rand, customer, ddCRPState, hp, collapsedModel, ddCRPPrior);
+		gibbs(rand, customer, ddCRPState, hp, collapsedModel, ddCRPPrior, inverseTemperature);
 		
 		// return the new Proposal object with acceptance prob of log(1) = 0
 		Proposal proposal = new Proposal() {
@@ -75,6 +77,22 @@ public class DDCRP2DImageStateSampler implements MHProposalDistribution
       HyperParameter hp, 
       CollapsedConjugateModel collapsedModel,
       DDCRPPrior prior)
+  {
+    gibbs(rand, customer, state, hp, collapsedModel, prior, 1.0);
+  }
+
+  /**
+   * Same as above, with the likelihood tempered as in 
+   * DDCRPSampler.gibbs().
+   */
+  public static void gibbs(
+      Random rand, 
+      Customer customer,
+      DDCRP2DImageState state, 
+      HyperParameter hp, 
+      CollapsedConjugateModel collapsedModel,
+      DDCRPPrior prior,
+      double inverseTemperature)
   {
   	ClusterId customerTableId = state.removeCustomerLink(customer);
   	SufficientStatistic currentCustomerTableSuffStat = state.getClusterStatistics(customerTableId);
@@ -82,15 +100,15 @@ public class DDCRP2DImageStateSampler implements MHProposalDistribution
     
     // consider all the ways to re-insert the customer -- for this problem, the connection can only be made to the neighbors
     // 1. compute the probabilities for merging the customer's table with another table (consider only the neighbors' tables)
-  	List<Customer> neighbors = new ArrayList<>(state.getNeighbors(customer));
-  	int nOutcomes = neighbors.size() + 1;
-    double [] logUnnormalizedPrs = new double[nOutcomes];
+  	int nOutcomes = state.nNeighbors(customer) + 1;
+    CategoricalSampler sampler = CategoricalSampler.forCurrentThread();
+    double [] logUnnormalizedPrs = sampler.logWeights(nOutcomes);
   	for (int i = 0; i < nOutcomes - 1; i++) {
   		// compute the probability of pointing to this neighbor
   		// 1. no need to compute the prior (the decay function) because the neighbors all have a value of 1
   		// 2. if the cluster of the neighbor and the customer are the same, no need to compute anything
   		// 3. if the cluster of the neighbor and the customer are different, need to consider the table join probability
-  		Customer neighbor = neighbors.get(i);
+  		Customer neighbor = state.getNeighbor(customer, i);
   		ClusterId neighborClusterId = state.getClusterId(neighbor);
   		if (neighborClusterId.equals(customerTableId)) {
   			logUnnormalizedPrs[i] = 0.0; // not necessary piece of code -- but for clarity, leave it for now (might need to debug later)
@@ -100,16 +118,14 @@ public class DDCRP2DImageStateSampler implements MHProposalDistribution
         customerAlreadyAtTable.plusEqual(currentCustomerTableSuffStat);
         double unnormalizedTableMergePr = Parametrics.logMarginal(collapsedModel, hp, customerAlreadyAtTable);
 
-  			logUnnormalizedPrs[i] = unnormalizedTableMergePr - (unnormalizedCurrentTablePr + unnormalizedCustomerTablePr);
+  			logUnnormalizedPrs[i] = inverseTemperature * (unnormalizedTableMergePr - (unnormalizedCurrentTablePr + unnormalizedCustomerTablePr));
   		}
   	}
   	
   	logUnnormalizedPrs[nOutcomes - 1] = Math.log(prior.getAlpha());
 
-    Multinomial.expNormalize(logUnnormalizedPrs);
-
     // sample
-    int sampledIndex = Multinomial.sampleMultinomial(rand , logUnnormalizedPrs);
+    int sampledIndex = sampler.sample(rand, nOutcomes);
 
     // do the assignment
     Customer pointer = null;
@@ -117,7 +133,7 @@ public class DDCRP2DImageStateSampler implements MHProposalDistribution
     	// self-pointer
     	pointer = customer;
     } else {
-    	pointer = neighbors.get(sampledIndex);
+    	pointer = state.getNeighbor(customer, sampledIndex);
     }
 
     /*
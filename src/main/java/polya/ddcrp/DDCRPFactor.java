@@ -1,8 +1,7 @@
 package polya.ddcrp;
 
-import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterMarginalCache;
 import polya.parametric.CollapsedConjugateModel;
-import polya.parametric.Parametrics;
 import blang.annotations.FactorArgument;
 import blang.annotations.FactorComponent;
 import blang.factors.Factor;
@@ -15,6 +14,8 @@ public class DDCRPFactor implements Factor
 	@FactorArgument(makeStochastic=true)
 	public final DDCRPStateInterface ddCRPState;
 
+	private double inverseTemperature = 1.0;
+
 	public DDCRPFactor(CollapsedConjugateModel collapsedModel, DDCRPStateInterface ddCRPState)
 	{
 		this.collapsedModel = collapsedModel;
@@ -26,17 +27,40 @@ public class DDCRPFactor implements Factor
 		return collapsedModel;
 	}
 
+	/**
+	 * Same as CRPFactor.setInverseTemperature().
+	 */
+	public void setInverseTemperature(double inverseTemperature)
+	{
+		if (!(inverseTemperature > 0.0 && inverseTemperature <= 1.0))
+			throw new RuntimeException("Invalid inverse temperature: " + inverseTemperature);
+		this.inverseTemperature = inverseTemperature;
+	}
+
+	public double getInverseTemperature()
+	{
+		return inverseTemperature;
+	}
+
 	@Override
 	public double logDensity()
+	{
+		final double logLikelihood = logLikelihood();
+		return inverseTemperature == 1.0 ? logLikelihood : inverseTemperature * logLikelihood;
+	}
+
+	/**
+	 * @return The untempered log marginal likelihood of the tables
+	 */
+	public double logLikelihood()
 	{
 		if (!collapsedModel.checkHyperParameterBound())
 			return Double.NEGATIVE_INFINITY;
 
-		double result = 0.0;
-		for (ClusterId id : ddCRPState.getAllClusterIds())
-			result += Parametrics.logMarginal(collapsedModel, collapsedModel.getHyperParameter(), ddCRPState.getClusterStatistics(id));
-      
-		return result;
+		// running total, patched by the merges and splits of the tables
+		ClusterMarginalCache cache = ddCRPState.getMarginalCache();
+		cache.checkHyperParameters(collapsedModel, collapsedModel.getHyperParameter());
+		return cache.totalLogMarginal(ddCRPState);
 	}
 
 }
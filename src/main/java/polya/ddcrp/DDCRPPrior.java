@@ -40,4 +40,6 @@ public class DDCRPPrior implements Factor
 	}
 	
 	public double getAlpha() { return alpha.getValue(); }
+	
+	public DecayFunction getDecayFunction() { return f; }
 }
@@ -2,7 +2,7 @@ package polya.ddcrp;
 
 import java.util.Set;
 
-import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterIndex;
 import blang.processing.NodeProcessor;
 import blang.processing.ProcessorContext;
 
@@ -17,12 +17,13 @@ public class DDCRPProcessor implements NodeProcessor<DDCRPStateInterface>
 			Set<Customer> customers = variable.getAllCustomers();
 			
 			int count = 0;
-			for (ClusterId clId : variable.getAllClusterIds()) {
-				if (variable.getTable(clId).size() > MIN_CLUSTER_SIZE_THREHOLD) {
+			ClusterIndex clusters = variable.getClusterIndex();
+			for (int i = 0; i < clusters.nClusters(); i++) {
+				if (variable.tableSize(clusters.clusterId(i)) > MIN_CLUSTER_SIZE_THREHOLD) {
 					count++;
 				}
 			}
-			System.out.println("Num Clusters=" + variable.getAllClusterIds().size());
+			System.out.println("Num Clusters=" + clusters.nClusters());
 			System.out.println("Num Clusters (size > " + MIN_CLUSTER_SIZE_THREHOLD + ")=" + count);
 			System.out.println("Num Customers=" + customers.size());
 		}
@@ -0,0 +1,60 @@
+package polya.ddcrp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import polya.crp.utils.ParallelTempering;
+
+/**
+ * A DDCRP state with its factors, as a replica of ParallelTempering; a
+ * sweep resamples the link of each customer once with the tempered
+ * DDCRPSampler.gibbs().
+ *
+ * The links are stored in the Customer objects, so each replica needs
+ * its own customers, and its own decay function over them.
+ */
+public class DDCRPReplica implements ParallelTempering.Replica
+{
+	public final DDCRPState state;
+	public final DDCRPFactor likelihood;
+	public final DDCRPPrior prior;
+	private final List<Customer> customers;
+
+	public DDCRPReplica(DDCRPState state, DDCRPFactor likelihood, DDCRPPrior prior)
+	{
+		if (likelihood.ddCRPState != state)
+			throw new RuntimeException("The DDCRPFactor is not on the state of the replica");
+		this.state = state;
+		this.likelihood = likelihood;
+		this.prior = prior;
+		this.customers = new ArrayList<Customer>(state.getAllCustomers());
+		Collections.sort(customers, new Comparator<Customer>() {
+			@Override
+			public int compare(Customer c1, Customer c2)
+			{
+				return Integer.compare(c1.id, c2.id);
+			}
+		});
+	}
+
+	@Override
+	public void sweep(Random rand, double inverseTemperature)
+	{
+		likelihood.setInverseTemperature(inverseTemperature);
+		Collections.shuffle(customers, rand);
+		for (Customer customer : customers)
+			DDCRPSampler.gibbs(
+					rand, customer, state,
+					likelihood.collapsedModel.getHyperParameter(), likelihood.collapsedModel,
+					prior, inverseTemperature);
+	}
+
+	@Override
+	public double logLikelihood()
+	{
+		return likelihood.logLikelihood();
+	}
+}
@@ -6,12 +6,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
+import polya.crp.utils.CategoricalSampler;
 import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterIndex;
 import polya.parametric.CollapsedConjugateModel;
 import polya.parametric.HyperParameter;
 import polya.parametric.Parametrics;
 import polya.parametric.SufficientStatistic;
-import bayonet.distributions.Multinomial;
 import blang.factors.Factor;
 import blang.mcmc.ConnectedFactor;
 import blang.mcmc.MHProposalDistribution;
@@ -29,6 +30,7 @@ public class DDCRPSampler implements MHProposalDistribution
 		DDCRPPrior ddCRPPrior = null;
 		CollapsedConjugateModel collapsedModel = null;
 		HyperParameter hp = null;
+		double inverseTemperature = 1.0;
 		
 		for (Factor f : connectedFactors)
 		{
@@ -41,6 +43,7 @@ public class DDCRPSampler implements MHProposalDistribution
 				DDCRPFactor ddCRPFactor = (DDCRPFactor)f;
 				collapsedModel = ddCRPFactor.getCollapsedConjugateModel();
 				hp = collapsedModel.getHyperParameter();
+				inverseTemperature = ddCRPFactor.getInverseTemperature();
 			}
 		}
 		
@@ -53,7 +56,7 @@ public class DDCRPSampler implements MHProposalDistribution
 		List<Customer> customers = new ArrayList<Customer>(ddCRPState.getAllCustomers());
 		Customer customer = customers.get(rand.nextInt(customers.size()));
 		
-		gibbs(rand, customer, ddCRPState, hp, collapsedModel, ddCRPPrior);
+		gibbs(rand, customer, ddCRPState, hp, collapsedModel, ddCRPPrior, inverseTemperature);
 		
 		// return the new Proposal object with acceptance prob of log(1) = 0
 		Proposal proposal = new Proposal() {
@@ -70,6 +73,11 @@ public class DDCRPSampler implements MHProposalDistribution
 		return proposal;
   }
 
+  /**
+   * Resamples the link of the customer. If the decay function of the prior 
+   * is a SparseDecayFunction, only the customer and its support are 
+   * considered, and only their tables are scored, see sparseGibbs().
+   */
   public static void gibbs(
       Random rand, 
       Customer customer,
@@ -78,18 +86,40 @@ public class DDCRPSampler implements MHProposalDistribution
       CollapsedConjugateModel collapsedModel,
       DDCRPPrior prior)
   {
+    gibbs(rand, customer, state, hp, collapsedModel, prior, 1.0);
+  }
+
+  /**
+   * Same as above, with the likelihood raised to the power 
+   * inverseTemperature (see DDCRPFactor.setInverseTemperature()), i.e. 
+   * with the log ratios of the table merges scaled by it.
+   */
+  public static void gibbs(
+      Random rand, 
+      Customer customer,
+      DDCRPState state, 
+      HyperParameter hp, 
+      CollapsedConjugateModel collapsedModel,
+      DDCRPPrior prior,
+      double inverseTemperature)
+  {
+    if (prior.getDecayFunction() instanceof SparseDecayFunction)
+    {
+      sparseGibbs(rand, customer, state, hp, collapsedModel, prior, (SparseDecayFunction) prior.getDecayFunction(), inverseTemperature);
+      return;
+    }
   	ClusterId customerTableId = state.removeCustomerLink(customer);
 
     // consider all the ways to re-insert the customer
     // 1. compute the probabilities for merging the customer's table with another table
-    List<ClusterId> existingTables = state.getAllClusterIds();
+    ClusterIndex existingTables = state.getClusterIndex();
     Map<ClusterId, Double> logUnnormalizedTableMergePrs = new HashMap<>();
     SufficientStatistic currentCustomerTable = state.getClusterStatistics(customerTableId);
     // compute the likelihood of the customer's current table
     double unnormalizedCustomerTablePr = Parametrics.logMarginal(collapsedModel, hp, currentCustomerTable);
     for (int i = 0; i < state.nTables(); i++)
     {
-      ClusterId current = existingTables.get(i);
+      ClusterId current = existingTables.clusterId(i);
       if (current.equals(customerTableId))
       	continue;
       
@@ -97,13 +127,14 @@ public class DDCRPSampler implements MHProposalDistribution
       double unnormalizedCurrentTablePr = Parametrics.logMarginal(collapsedModel, hp, customerAlreadyAtTable);
       customerAlreadyAtTable.plusEqual(currentCustomerTable);
       double unnormalizedTableMergePr = Parametrics.logMarginal(collapsedModel, hp, customerAlreadyAtTable);
-      logUnnormalizedTableMergePrs.put(current, unnormalizedTableMergePr - (unnormalizedCurrentTablePr + unnormalizedCustomerTablePr)); 
+      logUnnormalizedTableMergePrs.put(current, inverseTemperature * (unnormalizedTableMergePr - (unnormalizedCurrentTablePr + unnormalizedCustomerTablePr))); 
     }
 
     // 2. compute the probability for pointing to each of the customers and apply the appropriate logUnnormalizedTableMergePrs
     List<Customer> customers = new ArrayList<>(state.getAllCustomers());
     int nOutcomes = customers.size();
-    double [] logUnnormalizedPrs = new double[nOutcomes];
+    CategoricalSampler sampler = CategoricalSampler.forCurrentThread();
+    double [] logUnnormalizedPrs = sampler.logWeights(nOutcomes);
     for (int i = 0; i < nOutcomes; i++) {
     	Customer cc = customers.get(i);
   		logUnnormalizedPrs[i] = prior.logUnnormalizedPredictive(customer, cc);
@@ -118,10 +149,8 @@ public class DDCRPSampler implements MHProposalDistribution
   		}
     }
 
-    Multinomial.expNormalize(logUnnormalizedPrs);
-
     // sample
-    int sampledIndex = Multinomial.sampleMultinomial(rand , logUnnormalizedPrs);
+    int sampledIndex = sampler.sample(rand, nOutcomes);
 
     // do the assignment
     Customer pointer = customers.get(sampledIndex);
@@ -136,4 +165,58 @@ public class DDCRPSampler implements MHProposalDistribution
     state.updateCustomerLink(customer, pointer);
   }
 
+  /**
+   * Same as gibbs() with a dense decay function, but in time proportional 
+   * to the size of the support of the customer rather than to the number 
+   * of customers and tables.
+   */
+  public static void sparseGibbs(
+      Random rand, 
+      Customer customer,
+      DDCRPState state, 
+      HyperParameter hp, 
+      CollapsedConjugateModel collapsedModel,
+      DDCRPPrior prior,
+      SparseDecayFunction decay,
+      double inverseTemperature)
+  {
+    ClusterId customerTableId = state.removeCustomerLink(customer);
+    SufficientStatistic currentCustomerTable = state.getClusterStatistics(customerTableId);
+    double unnormalizedCustomerTablePr = Parametrics.logMarginal(collapsedModel, hp, currentCustomerTable);
+
+    // the last outcome is the self link
+    List<Customer> support = decay.getSupport(customer);
+    int nOutcomes = support.size() + 1;
+    CategoricalSampler sampler = CategoricalSampler.forCurrentThread();
+    double [] logUnnormalizedPrs = sampler.logWeights(nOutcomes);
+    // table merge probabilities, only for the tables of the support
+    Map<ClusterId, Double> logUnnormalizedTableMergePrs = new HashMap<>();
+    for (int i = 0; i < nOutcomes - 1; i++) {
+      Customer cc = support.get(i);
+      logUnnormalizedPrs[i] = prior.logUnnormalizedPredictive(customer, cc);
+
+      if (logUnnormalizedPrs[i] == Double.NEGATIVE_INFINITY)
+        continue;
+
+      ClusterId otherTableId = state.getClusterId(cc);
+      if (!customerTableId.equals(otherTableId)) {
+        Double tableMergePr = logUnnormalizedTableMergePrs.get(otherTableId);
+        if (tableMergePr == null) {
+          SufficientStatistic customerAlreadyAtTable = state.getClusterStatistics(otherTableId).copy();
+          double unnormalizedCurrentTablePr = Parametrics.logMarginal(collapsedModel, hp, customerAlreadyAtTable);
+          customerAlreadyAtTable.plusEqual(currentCustomerTable);
+          double unnormalizedTableMergePr = Parametrics.logMarginal(collapsedModel, hp, customerAlreadyAtTable);
+          tableMergePr = inverseTemperature * (unnormalizedTableMergePr - (unnormalizedCurrentTablePr + unnormalizedCustomerTablePr));
+          logUnnormalizedTableMergePrs.put(otherTableId, tableMergePr);
+        }
+        logUnnormalizedPrs[i] += tableMergePr;
+      }
+    }
+    logUnnormalizedPrs[nOutcomes - 1] = prior.logUnnormalizedPredictive(customer, customer);
+
+    int sampledIndex = sampler.sample(rand, nOutcomes);
+    Customer pointer = sampledIndex == nOutcomes - 1 ? customer : support.get(sampledIndex);
+    state.updateCustomerLink(customer, pointer);
+  }
+
 }
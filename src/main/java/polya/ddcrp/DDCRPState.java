@@ -1,16 +1,13 @@
 package polya.ddcrp;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.math3.util.Pair;
-
 import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterIndex;
+import polya.crp.utils.ClusterMarginalCache;
+import polya.crp.utils.Snapshot;
 import polya.parametric.SufficientStatistic;
 import blang.annotations.Processors;
 import blang.annotations.Samplers;
@@ -19,212 +16,105 @@ import blang.annotations.Samplers;
 @Processors({DDCRPProcessor.class})
 public class DDCRPState implements DDCRPStateInterface
 {
-	private Map<Customer,SufficientStatistic> customer2Statistic;
-  private Map<ClusterId, SufficientStatistic> cluster2Statistic = new HashMap<ClusterId, SufficientStatistic>();
-
-	private Map<ClusterId, Set<Customer>> cluster2Customers = new HashMap<ClusterId, Set<Customer>>();
-	private Map<Customer, ClusterId> customer2Cluster = new HashMap<>();
+	private final DDCRPTables tables;
 	
 	public DDCRPState(Map<Customer,SufficientStatistic> customer2Statistic) {
-		this.customer2Statistic = customer2Statistic;
-    for (Customer customer : customer2Statistic.keySet())
-      addCustomerToNewCluster(customer);
+		this.tables = new DDCRPTables(customer2Statistic);
 	}
 
 	public static DDCRPState fullyDisconnectedClustering(Map<Customer,SufficientStatistic> customer2Statistic) {
     return new DDCRPState(customer2Statistic);
 	}
 
-  private void checkCustomerNotAlreadyThere(Customer customer)
-  {
-    if (customer2Cluster.containsKey(customer))
-      throw new RuntimeException("Customer already in there. Remove the customer first.");
-  }
-
-	public ClusterId addCustomerToNewCluster(Customer customer) {
-		checkCustomerNotAlreadyThere(customer);
-
-    Set<Customer> newCluster = new HashSet<Customer>();
-    newCluster.add(customer);
-
-    ClusterId clusterId = getNextClusterId();
-    cluster2Customers.put(clusterId, newCluster);
-    customer2Cluster.put(customer, clusterId);
-    // note that we make a copy in this case because we want customer2Statistic
-    // to stay unchanged
-    cluster2Statistic.put(clusterId, customer2Statistic.get(customer).copy());
-
-    return clusterId;
-	}
-	
-	/*
-  public void addCustomerToExistingCluster(Customer customer, ClusterId clusterId)
-  {
-    checkCustomerNotAlreadyThere(customer);
-    
-    cluster2Customers.get(clusterId).add(customer);
-    customer2Cluster.put(customer, clusterId);
-    cluster2Statistic.get(clusterId).plusEqual(customer2Statistic.get(customer));
-  }
-  */
-  
 	public void updateCustomerLink(Customer customer, Customer link) {
-		customer.pointer = link;
-		ClusterId customerClusterId = customer2Cluster.get(customer);
-		ClusterId linkClusterId = customer2Cluster.get(link);
-		if (customerClusterId.equals(linkClusterId)) {
-			// no merging of the tables so nothing to update except for the customer link
-		} else {
-			// merging, so we need to update bunch of things
-			Set<Customer> customerTable = cluster2Customers.get(customerClusterId);
-			Set<Customer> linkTable = cluster2Customers.get(linkClusterId);
-			
-			// update the customerTable membership
-			customerTable.addAll(linkTable);
-			// update the sufficient stat
-			cluster2Statistic.get(customerClusterId).plusEqual(cluster2Statistic.get(linkClusterId));
-			// update the cluster information for the link table
-			for (Customer cc : linkTable) {
-				customer2Cluster.put(cc, customerClusterId);
-			}
-
-			// remove the linkTable from all of the data structures
-      cluster2Statistic.remove(linkClusterId);
-      cluster2Customers.remove(linkClusterId);
-			_lastRemoved.add(linkClusterId);
-		}
+		tables.updateCustomerLink(customer, link);
 	}
   
+	/**
+	 * Makes the customer point to itself, splitting its table if the
+	 * customer was not on the cycle of its table (see DDCRPTables).
+	 * 
+	 * @param customer
+	 * @return The id of the table of the customer after the removal; after
+	 *  a split, it is a new id if the customer is in the smaller part
+	 */
 	public ClusterId removeCustomerLink(Customer customer) {
-		
-		// removing customer from its current table can 
-		// 1. eliminate the table if it is the last customer sitting at the table
-		// 2. split the table into two
-		// 3. leave the table as is
-		// case 2 is a bit difficult to handle -- the others are easy
-		
-    ClusterId customerClusterId = customer2Cluster.get(customer);
-    Set<Customer> table = cluster2Customers.get(customerClusterId);
-    int tableSize = table.size();
-    
-    if (tableSize == 1) {
-      // if the customer was the last member of the table, just return the clusterId (nothing to be done, which is different from the CRP)
-    	// the table gets removed when it merges with another table 
-    } else {
-
-      // otherwise, there is a possibility of a split
-  
-      Set<Customer> customerTable = new HashSet<>();
-      Set<Customer> otherTable = new HashSet<>();
-  
-      // first determine if the table will be split into two -- this can be determined by following the next pointer
-      // if it reaches the customer, then there is an alternative path if not, then there is a split
-      Customer next = customer.pointer;
-      while (!otherTable.contains(next)) {
-      	otherTable.add(next);
-      	//table.remove(next);
-      	next = next.pointer;
-      }
-      
-      if (!otherTable.contains(customer)) {
-      	// split!
-      	
-      	// update the customer's table
-        cluster2Customers.put(customerClusterId, customerTable);
-        // assign the clusterId to the splitted table
-        ClusterId newClusterId = getNextClusterId();
-        cluster2Customers.put(newClusterId, otherTable);
-        
-      	// splits the table into two
-        customerTable.add(customer);
-        for (Customer cc : table) {
-      		if (otherTable.contains(cc) || customerTable.contains(cc))
-      			continue;
-  
-      		Pair<Boolean, List<Customer>> ret  = cc.pointsToCustomerTable(customerTable, otherTable);
-      		if (ret.getFirst()) {
-      			customerTable.addAll(ret.getSecond());
-      		} else {
-      			otherTable.addAll(ret.getSecond());
-      		}
-      	}
-        
-        if ((otherTable.size() + customerTable.size()) != tableSize)
-        	throw new RuntimeException("Bug.");
-  
-        recomputeSufficientStat(customerTable, customerClusterId);
-        recomputeSufficientStat(otherTable, newClusterId);
-      }
-    }
-    
-    return customerClusterId;
-	}
-	
-	private void recomputeSufficientStat(Set<Customer> customers, ClusterId clusterId) {
-		
-    cluster2Statistic.put(clusterId, null);
-
-		for (Customer cc : customers) {
-			customer2Cluster.put(cc, clusterId);
-			if (cluster2Statistic.get(clusterId) == null) {
-		    cluster2Statistic.put(clusterId, customer2Statistic.get(cc).copy());
-			} else {
-				cluster2Statistic.get(clusterId).plusEqual(customer2Statistic.get(cc));
-			}
-		}
+		return tables.removeCustomerLink(customer);
 	}
 
   public int nTables()
   {
-    return cluster2Customers.size();
+    return tables.nTables();
   }
 
   public List<ClusterId> getAllClusterIds()
   {
-    List<ClusterId> result = new ArrayList<ClusterId>(cluster2Customers.keySet());
-    Collections.sort(result);
-    return result;
+    return tables.getAllClusterIds();
+  }
+
+  public ClusterIndex getClusterIndex()
+  {
+    return tables.getClusterIndex();
   }
   
   public ClusterId getClusterId(Customer customer) {
-  	return customer2Cluster.get(customer);
+  	return tables.getClusterId(customer);
   }
 
   public SufficientStatistic getCustomerStatistic(Customer customer)
   {
-    return customer2Statistic.get(customer);
+    return tables.getCustomerStatistic(customer);
   }
   
+  /**
+   * @return The statistic of the table, or null if there is no such
+   *  table; should not be modified
+   */
   public SufficientStatistic getClusterStatistics(ClusterId current)
   {
-    return cluster2Statistic.get(current);
+    return tables.getClusterStatistics(current);
   }
-  
-  public Set<Customer> getTable(ClusterId clusterId)
+
+  public ClusterMarginalCache getMarginalCache()
   {
-    return cluster2Customers.get(clusterId);
+    return tables.getMarginalCache();
   }
-  
-  private int _nextClusterId = 0;
-  private List<ClusterId> _lastRemoved = new ArrayList<>();
-  
+
   /**
-   * Return a cluster id not in use.
-   * @return
+   * @return A new set, built in time linear in the size of the table
    */
-  private ClusterId getNextClusterId()
+  public Set<Customer> getTable(ClusterId clusterId)
+  {
+    return tables.getTable(clusterId);
+  }
+  
+  public int tableSize(ClusterId clusterId)
   {
-    if (_lastRemoved.size() > 0)
-    {
-      ClusterId result = _lastRemoved.remove(0);
-      return result;
-    }
-    if (_nextClusterId == Integer.MAX_VALUE)
-      throw new RuntimeException("Ids exhausted.");
-    return new ClusterId(_nextClusterId++);
+    return tables.tableSize(clusterId);
   }
 
 	public Set<Customer> getAllCustomers() {
-		return customer2Statistic.keySet();
+		return tables.getAllCustomers();
+	}
+
+	/**
+	 * A snapshot of the links, unaffected by later changes to this state.
+	 * Only the links changed since the previous snapshot are stored (see
+	 * Journal).
+	 * 
+	 * @return A map from each customer to the customer it points to, see 
+	 *  partition(Snapshot)
+	 */
+	public Snapshot<Customer, Customer> snapshot() {
+		return tables.snapshot();
+	}
+
+	/**
+	 * 
+	 * @param snapshot
+	 * @return The tables when the snapshot was taken, as new sets
+	 */
+	public static Set<Set<Customer>> partition(Snapshot<Customer, Customer> snapshot) {
+		return DDCRPTables.partition(snapshot);
 	}
 }
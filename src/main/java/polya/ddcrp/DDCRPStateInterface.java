@@ -4,12 +4,27 @@ import java.util.List;
 import java.util.Set;
 
 import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterMarginalCache;
+import polya.crp.utils.Clustering;
 import polya.parametric.SufficientStatistic;
 
-public interface DDCRPStateInterface {
+public interface DDCRPStateInterface extends Clustering {
 
   public List<ClusterId> getAllClusterIds();
   public SufficientStatistic getClusterStatistics(ClusterId current);
 	public Set<Customer> getAllCustomers();
+
+	/**
+	 * @return A new set, built in time linear in the size of the table;
+	 *  prefer tableSize() and getClusterStatistics() where they suffice
+	 */
 	public Set<Customer> getTable(ClusterId clusterId);
+
+	public int tableSize(ClusterId clusterId);
+
+	/**
+	 * @return Cached per-table marginals, notified of every merge and split
+	 *  of the tables (see ClusterMarginalCache)
+	 */
+	public ClusterMarginalCache getMarginalCache();
 }
@@ -0,0 +1,350 @@
+package polya.ddcrp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.base.Supplier;
+
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterIndex;
+import polya.crp.utils.ClusterMarginalCache;
+import polya.crp.utils.DenseClusterIndex;
+import polya.crp.utils.Journal;
+import polya.crp.utils.Snapshot;
+import polya.parametric.SufficientStatistic;
+
+/**
+ * The tables of a DDCRP, i.e. the connected components of the graph
+ * linking each customer to the customer it points to. Shared by
+ * DDCRPState and DDCRP2DImageState.
+ *
+ * Each table has exactly one cycle (possibly a self link), and is stored
+ * as a tree in an EulerTourForest: the parent of a customer is the
+ * customer it points to, except for one customer per table, the root,
+ * whose link closes the cycle. Removing the link of a customer is then:
+ *
+ * 1. nothing if it is the root;
+ * 2. otherwise, a cut of its subtree, which is a split of the table
+ *    unless the root points into that subtree, in which case the customer
+ *    was on the cycle, the root is linked to the customer it points to,
+ *    and the customer becomes the root.
+ *
+ * The tables are identified by their root, and their statistics and sizes
+ * are maintained by the forest, so none of these operations rescans a
+ * table.
+ *
+ * Customers are indexed by Customer.id, which should be small non
+ * negative integers.
+ *
+ * The links are journaled, so that snapshot() only stores the links
+ * changed since the previous snapshot.
+ */
+class DDCRPTables
+{
+	private final Map<Customer,SufficientStatistic> customer2Statistic;
+	private final Customer [] customers;
+	private final int [] id2Index;
+	private final EulerTourForest forest;
+
+	private final Map<Customer, ClusterId> root2Cluster = new HashMap<Customer, ClusterId>();
+	private final Map<ClusterId, Customer> cluster2Root = new HashMap<ClusterId, Customer>();
+	private final DenseClusterIndex clusterIndex = new DenseClusterIndex();
+
+	private final Journal<Customer, Customer> journal = new Journal<Customer, Customer>();
+
+	private final ClusterMarginalCache marginalCache = new ClusterMarginalCache();
+
+	/**
+	 * All the customers are initially at their own table, pointing to
+	 * themselves.
+	 *
+	 * @param customer2Statistic
+	 */
+	DDCRPTables(Map<Customer,SufficientStatistic> customer2Statistic)
+	{
+		this.customer2Statistic = customer2Statistic;
+		final int n = customer2Statistic.size();
+		customers = new Customer[n];
+		SufficientStatistic [] statistics = new SufficientStatistic[n];
+		int maxId = -1;
+		for (Customer customer : customer2Statistic.keySet())
+			maxId = Math.max(maxId, customer.id);
+		id2Index = new int[maxId + 1];
+		Arrays.fill(id2Index, -1);
+		int index = 0;
+		for (Customer customer : customer2Statistic.keySet())
+		{
+			if (customer.id < 0 || id2Index[customer.id] != -1)
+				throw new RuntimeException("Customer ids should be distinct and non negative: " + customer.id);
+			id2Index[customer.id] = index;
+			customers[index] = customer;
+			statistics[index] = customer2Statistic.get(customer);
+			customer.pointer = customer;
+			setCluster(customer, getNextClusterId());
+			index++;
+		}
+		forest = new EulerTourForest(statistics, new Random(1));
+	}
+
+	/**
+	 * Sets the link of the customer, merging the tables of customer and
+	 * link if they are different. Removes the previous link first if
+	 * needed.
+	 *
+	 * @param customer
+	 * @param link
+	 */
+	void updateCustomerLink(Customer customer, Customer link)
+	{
+		final int index = index(customer);
+		if (!forest.isRoot(index))
+			removeCustomerLink(customer);
+		customer.pointer = link;
+		journal.record(customer, link);
+		final int linkIndex = index(link);
+		if (forest.connected(index, linkIndex))
+			return; // closes the cycle of the table, customer stays the root
+
+		// merging by size: the larger table keeps its id and its cached
+		// posterior, which absorbs the statistic of the smaller one
+		final Customer linkRoot = customers[forest.findRoot(linkIndex)];
+		final ClusterId customerClusterId = root2Cluster.remove(customer);
+		final ClusterId linkClusterId = root2Cluster.get(linkRoot);
+		final boolean customerLarger = forest.treeSize(index) >= forest.treeSize(linkIndex);
+		final ClusterId keptId = customerLarger ? customerClusterId : linkClusterId;
+		final ClusterId retiredId = customerLarger ? linkClusterId : customerClusterId;
+		// before linking, while the statistic is the one of the smaller table only
+		marginalCache.customerAdded(keptId, forest.treeStatistic(customerLarger ? linkIndex : index));
+		marginalCache.invalidate(retiredId);
+		forest.link(index, linkIndex);
+		cluster2Root.remove(retiredId);
+		clusterIndex.remove(retiredId);
+		_lastRemoved.add(retiredId);
+		setCluster(linkRoot, keptId);
+	}
+
+	/**
+	 * Makes the customer point to itself, splitting its table if needed.
+	 *
+	 * @param customer
+	 * @return The id of the table of the customer after the removal; in case
+	 *  of a split, the larger part keeps the id of the table before
+	 */
+	ClusterId removeCustomerLink(Customer customer)
+	{
+		final int index = index(customer);
+		final Customer root = customers[forest.findRoot(index)];
+		final ClusterId customerClusterId = root2Cluster.get(root);
+		customer.pointer = customer;
+		journal.record(customer, customer);
+		if (root == customer)
+			return customerClusterId;
+
+		forest.cut(index);
+		final int rootLink = index(root.pointer);
+		if (forest.findRoot(rootLink) == index)
+		{
+			// the customer was on the cycle: no split, the root's link becomes a tree edge
+			forest.link(index(root), rootLink);
+			root2Cluster.remove(root);
+			setCluster(customer, customerClusterId);
+		}
+		else
+		{
+			// split by size: the larger part keeps the id and its cached
+			// posterior, from which the statistic of the smaller one is removed
+			final boolean customerLarger = forest.treeSize(index) >= forest.treeSize(index(root));
+			final ClusterId newId = getNextClusterId();
+			marginalCache.customerRemoved(customerClusterId, forest.treeStatistic(customerLarger ? index(root) : index));
+			marginalCache.invalidate(newId);
+			setCluster(customer, customerLarger ? customerClusterId : newId);
+			setCluster(root, customerLarger ? newId : customerClusterId);
+			return customerLarger ? customerClusterId : newId;
+		}
+		return customerClusterId;
+	}
+
+	int nTables()
+	{
+		return cluster2Root.size();
+	}
+
+	/**
+	 *
+	 * @return A new list of the ids of the tables, in the order of
+	 *  getClusterIndex()
+	 */
+	List<ClusterId> getAllClusterIds()
+	{
+		final int nTables = clusterIndex.nClusters();
+		List<ClusterId> result = new ArrayList<ClusterId>(nTables);
+		for (int i = 0; i < nTables; i++)
+			result.add(clusterIndex.clusterId(i));
+		return result;
+	}
+
+	/**
+	 *
+	 * @return The live tables, see ClusterIndex
+	 */
+	ClusterIndex getClusterIndex()
+	{
+		return clusterIndex;
+	}
+
+	ClusterId getClusterId(Customer customer)
+	{
+		return root2Cluster.get(customers[forest.findRoot(index(customer))]);
+	}
+
+	/**
+	 *
+	 * @param clusterId
+	 * @return The sum of the statistics of the table, or null if there is
+	 *  no such table; should not be modified
+	 */
+	SufficientStatistic getClusterStatistics(ClusterId clusterId)
+	{
+		final Customer root = cluster2Root.get(clusterId);
+		return root == null ? null : forest.treeStatistic(index(root));
+	}
+
+	/**
+	 *
+	 * @return Notified of every change to the tables
+	 */
+	ClusterMarginalCache getMarginalCache()
+	{
+		return marginalCache;
+	}
+
+	int tableSize(ClusterId clusterId)
+	{
+		return forest.treeSize(index(cluster2Root.get(clusterId)));
+	}
+
+	/**
+	 *
+	 * @param clusterId
+	 * @return A new set with the customers of the table, built in time
+	 *  linear in its size
+	 */
+	Set<Customer> getTable(ClusterId clusterId)
+	{
+		List<Integer> indices = new ArrayList<Integer>();
+		forest.collectTree(index(cluster2Root.get(clusterId)), indices);
+		Set<Customer> result = new HashSet<Customer>();
+		for (Integer current : indices)
+			result.add(customers[current]);
+		return result;
+	}
+
+	SufficientStatistic getCustomerStatistic(Customer customer)
+	{
+		return customer2Statistic.get(customer);
+	}
+
+	Set<Customer> getAllCustomers()
+	{
+		return customer2Statistic.keySet();
+	}
+
+	/**
+	 *
+	 * @return A map from each customer to the customer it points to,
+	 *  unaffected by later changes
+	 */
+	Snapshot<Customer, Customer> snapshot()
+	{
+		return journal.snapshot(customers.length, new Supplier<Map<Customer, Customer>>() {
+			@Override
+			public Map<Customer, Customer> get()
+			{
+				Map<Customer, Customer> result = new HashMap<Customer, Customer>();
+				for (Customer customer : customers)
+					result.put(customer, customer.pointer);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 *
+	 * @param snapshot
+	 * @return The tables when the snapshot was taken, i.e. the connected
+	 *  components of the links, as new sets
+	 */
+	static Set<Set<Customer>> partition(Snapshot<Customer, Customer> snapshot)
+	{
+		Map<Customer, Customer> links = snapshot.toMap();
+		// union find, with path halving
+		Map<Customer, Customer> representative = new HashMap<Customer, Customer>();
+		for (Customer customer : links.keySet())
+			representative.put(customer, customer);
+		for (Map.Entry<Customer, Customer> link : links.entrySet())
+			representative.put(find(representative, link.getKey()), find(representative, link.getValue()));
+		Map<Customer, Set<Customer>> blocks = new HashMap<Customer, Set<Customer>>();
+		for (Customer customer : links.keySet())
+		{
+			final Customer root = find(representative, customer);
+			Set<Customer> block = blocks.get(root);
+			if (block == null)
+				blocks.put(root, block = new HashSet<Customer>());
+			block.add(customer);
+		}
+		return new HashSet<Set<Customer>>(blocks.values());
+	}
+
+	private static Customer find(Map<Customer, Customer> representative, Customer customer)
+	{
+		Customer parent = representative.get(customer);
+		while (parent != customer)
+		{
+			final Customer grandParent = representative.get(parent);
+			representative.put(customer, grandParent);
+			customer = grandParent;
+			parent = representative.get(customer);
+		}
+		return customer;
+	}
+
+	private void setCluster(Customer root, ClusterId clusterId)
+	{
+		root2Cluster.put(root, clusterId);
+		if (cluster2Root.put(clusterId, root) == null)
+			clusterIndex.add(clusterId);
+	}
+
+	private int index(Customer customer)
+	{
+		final int result = customer.id >= 0 && customer.id < id2Index.length ? id2Index[customer.id] : -1;
+		if (result == -1 || customers[result] != customer)
+			throw new RuntimeException("Unknown customer: " + customer);
+		return result;
+	}
+
+	private int _nextClusterId = 0;
+	private List<ClusterId> _lastRemoved = new ArrayList<>();
+
+	/**
+	 * Return a cluster id not in use.
+	 * @return
+	 */
+	private ClusterId getNextClusterId()
+	{
+		if (_lastRemoved.size() > 0)
+		{
+			ClusterId result = _lastRemoved.remove(0);
+			return result;
+		}
+		if (_nextClusterId == Integer.MAX_VALUE)
+			throw new RuntimeException("Ids exhausted.");
+		return new ClusterId(_nextClusterId++);
+	}
+}
@@ -0,0 +1,78 @@
+package polya.ddcrp;
+
+import java.io.File;
+import java.util.Arrays;
+
+import polya.crp.utils.AssignmentTraceWriter;
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterIndex;
+import blang.processing.NodeProcessor;
+import blang.processing.ProcessorContext;
+
+/**
+ * Same as CRPTraceProcessor, for DDCRPs: customer c of the trace is the
+ * one with Customer.id c, and its label is the id of its table. Each
+ * sample is flushed to the file as it is written.
+ */
+public class DDCRPTraceProcessor implements NodeProcessor<DDCRPStateInterface>
+{
+	private final File file;
+	private DDCRPStateInterface variable;
+	private AssignmentTraceWriter writer = null;
+	private int [] labels;
+
+	/**
+	 * 
+	 * @param file Overwritten at the first call
+	 */
+	public DDCRPTraceProcessor(File file) {
+		this.file = file;
+	}
+
+	public DDCRPTraceProcessor(DDCRPStateInterface variable, File file) {
+		this(file);
+		setReference(variable);
+	}
+
+	@Override
+	public void process(ProcessorContext context) {
+		write(context.getMcmcIteration());
+		if (context.isLastProcessCall())
+			close();
+	}
+
+	/**
+	 * Appends the current tables as the sample of the given iteration.
+	 */
+	void write(int iteration) {
+		if (writer == null) {
+			int nCustomers = 0;
+			for (Customer customer : variable.getAllCustomers())
+				nCustomers = Math.max(nCustomers, customer.id + 1);
+			writer = new AssignmentTraceWriter(file, nCustomers);
+			labels = new int[nCustomers];
+		}
+		Arrays.fill(labels, -1);
+		ClusterIndex tables = variable.getClusterIndex();
+		for (int i = 0; i < tables.nClusters(); i++) {
+			final ClusterId id = tables.clusterId(i);
+			for (Customer customer : variable.getTable(id))
+				labels[customer.id] = id.id();
+		}
+		writer.write(iteration, labels);
+		writer.flush();
+	}
+
+	/**
+	 * Closes the file; called automatically at the last iteration.
+	 */
+	public void close() {
+		if (writer != null)
+			writer.close();
+	}
+
+	@Override
+	public void setReference(DDCRPStateInterface variable) {
+		this.variable = variable;
+	}
+}
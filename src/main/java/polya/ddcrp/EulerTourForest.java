@@ -0,0 +1,297 @@
+package polya.ddcrp;
+
+import java.util.List;
+import java.util.Random;
+
+import polya.parametric.SufficientStatistic;
+
+/**
+ * A forest of rooted trees over the vertices 0, 1, ..., n-1, supporting
+ * link, cut, root and whole-tree sufficient statistic queries in
+ * expected O(log n) time.
+ *
+ * Each tree is stored as its Euler tour (vertex v is opened, its subtrees
+ * are visited, then v is closed) in a treap keyed by position. The
+ * subtree of v is the contiguous segment between the opening and the
+ * closing of v, so link and cut are a few splits and merges, and two
+ * vertices are in the same tree iff their nodes have the same treap root.
+ *
+ * Each treap node keeps the number of vertices and the sum of the
+ * statistics of the vertices of its treap subtree. Each node owns its
+ * sum, rebuilt in place from the ones of its children when the treap
+ * changes, so that link and cut do not allocate. Sums are only ever
+ * built by adding, so they do not accumulate cancellation errors.
+ * The statistics passed in should not be modified.
+ */
+public class EulerTourForest
+{
+	private static final int NONE = -1;
+
+	// node 2v opens vertex v, node 2v + 1 closes it
+	private final int [] left, right, parent, priority, nNodes, nVertices;
+	private final SufficientStatistic [] aggregates;
+
+	private final SufficientStatistic [] statistics;
+	private final int [] treeParent;
+
+	/**
+	 * Creates a forest where each vertex is a tree by itself.
+	 *
+	 * @param statistics The statistic of each vertex
+	 * @param rand Used for the treap priorities
+	 */
+	public EulerTourForest(SufficientStatistic [] statistics, Random rand)
+	{
+		final int n = statistics.length;
+		this.statistics = statistics;
+		this.treeParent = new int[n];
+		left = new int[2 * n];
+		right = new int[2 * n];
+		parent = new int[2 * n];
+		priority = new int[2 * n];
+		nNodes = new int[2 * n];
+		nVertices = new int[2 * n];
+		aggregates = new SufficientStatistic[2 * n];
+		for (int node = 0; node < 2 * n; node++)
+		{
+			aggregates[node] = statistics[node / 2].copy();
+			left[node] = right[node] = parent[node] = NONE;
+			priority[node] = rand.nextInt();
+			pull(node);
+		}
+		for (int v = 0; v < n; v++)
+		{
+			treeParent[v] = NONE;
+			parent[merge(2 * v, 2 * v + 1)] = NONE;
+		}
+	}
+
+	/**
+	 * Makes the tree rooted at child a subtree of parent.
+	 *
+	 * @param child Should be the root of a tree not containing parent
+	 * @param parent
+	 */
+	public void link(int child, int parent)
+	{
+		if (!isRoot(child))
+			throw new RuntimeException("Vertex " + child + " already has a parent.");
+		final int parentTree = treapRoot(2 * parent);
+		if (parentTree == treapRoot(2 * child))
+			throw new RuntimeException("Linking " + child + " to " + parent + " would create a cycle.");
+		split(parentTree, index(2 * parent) + 1);
+		final int before = splitLeft, after = splitRight;
+		final int childTree = treapRoot(2 * child);
+		this.parent[merge(merge(before, childTree), after)] = NONE;
+		treeParent[child] = parent;
+	}
+
+	/**
+	 * Detaches the subtree of v from its parent.
+	 *
+	 * @param v Should not be a root
+	 */
+	public void cut(int v)
+	{
+		if (isRoot(v))
+			throw new RuntimeException("Vertex " + v + " has no parent.");
+		final int tree = treapRoot(2 * v);
+		final int start = index(2 * v), end = index(2 * v + 1);
+		split(tree, end + 1);
+		final int after = splitRight;
+		split(splitLeft, start);
+		final int before = splitLeft;
+		parent[merge(before, after)] = NONE;
+		treeParent[v] = NONE;
+	}
+
+	/**
+	 *
+	 * @param v
+	 * @return The root of the tree of v
+	 */
+	public int findRoot(int v)
+	{
+		int node = treapRoot(2 * v);
+		while (left[node] != NONE)
+			node = left[node];
+		return node / 2;
+	}
+
+	public boolean isRoot(int v)
+	{
+		return treeParent[v] == NONE;
+	}
+
+	/**
+	 *
+	 * @param v
+	 * @return The parent of v, or -1 if v is a root
+	 */
+	public int getParent(int v)
+	{
+		return treeParent[v];
+	}
+
+	public boolean connected(int u, int v)
+	{
+		return treapRoot(2 * u) == treapRoot(2 * v);
+	}
+
+	/**
+	 *
+	 * @param v
+	 * @return The sum of the statistics of the tree of v; should not be
+	 *  modified, and only valid until the next link or cut
+	 */
+	public SufficientStatistic treeStatistic(int v)
+	{
+		return aggregates[treapRoot(2 * v)];
+	}
+
+	/**
+	 *
+	 * @param v
+	 * @return The number of vertices in the tree of v
+	 */
+	public int treeSize(int v)
+	{
+		return nVertices[treapRoot(2 * v)];
+	}
+
+	/**
+	 * Adds the vertices of the tree of v to result, in Euler tour order.
+	 *
+	 * @param v
+	 * @param result
+	 */
+	public void collectTree(int v, List<Integer> result)
+	{
+		collect(treapRoot(2 * v), result);
+	}
+
+	private void collect(int node, List<Integer> result)
+	{
+		if (node == NONE)
+			return;
+		collect(left[node], result);
+		if (node % 2 == 0)
+			result.add(node / 2);
+		collect(right[node], result);
+	}
+
+	private int treapRoot(int node)
+	{
+		while (parent[node] != NONE)
+			node = parent[node];
+		return node;
+	}
+
+	/**
+	 * @return The position of the node in the tour of its tree
+	 */
+	private int index(int node)
+	{
+		int result = size(left[node]);
+		while (parent[node] != NONE)
+		{
+			final int p = parent[node];
+			if (right[p] == node)
+				result += size(left[p]) + 1;
+			node = p;
+		}
+		return result;
+	}
+
+	private int size(int node)
+	{
+		return node == NONE ? 0 : nNodes[node];
+	}
+
+	/**
+	 * @return The root of the concatenation of the two treaps; its parent
+	 *  is not set
+	 */
+	private int merge(int a, int b)
+	{
+		if (a == NONE)
+			return b;
+		if (b == NONE)
+			return a;
+		if (priority[a] > priority[b])
+		{
+			final int merged = merge(right[a], b);
+			right[a] = merged;
+			parent[merged] = a;
+			pull(a);
+			return a;
+		}
+		else
+		{
+			final int merged = merge(a, left[b]);
+			left[b] = merged;
+			parent[merged] = b;
+			pull(b);
+			return b;
+		}
+	}
+
+	private int splitLeft, splitRight;
+
+	/**
+	 * Splits the treap into its first k nodes (splitLeft) and the rest
+	 * (splitRight), both with parent set to NONE.
+	 */
+	private void split(int node, int k)
+	{
+		splitRec(node, k);
+		if (splitLeft != NONE)
+			parent[splitLeft] = NONE;
+		if (splitRight != NONE)
+			parent[splitRight] = NONE;
+	}
+
+	private void splitRec(int node, int k)
+	{
+		if (node == NONE)
+		{
+			splitLeft = splitRight = NONE;
+			return;
+		}
+		if (size(left[node]) >= k)
+		{
+			splitRec(left[node], k);
+			left[node] = splitRight;
+			if (splitRight != NONE)
+				parent[splitRight] = node;
+			pull(node);
+			splitRight = node;
+		}
+		else
+		{
+			splitRec(right[node], k - size(left[node]) - 1);
+			right[node] = splitLeft;
+			if (splitLeft != NONE)
+				parent[splitLeft] = node;
+			pull(node);
+			splitLeft = node;
+		}
+	}
+
+	private void pull(int node)
+	{
+		final int l = left[node], r = right[node];
+		final boolean opening = node % 2 == 0;
+		nNodes[node] = 1 + size(l) + size(r);
+		nVertices[node] = (opening ? 1 : 0) + (l == NONE ? 0 : nVertices[l]) + (r == NONE ? 0 : nVertices[r]);
+		final SufficientStatistic aggregate = aggregates[node];
+		// reset to zero, then the sum of the children and of the vertex
+		aggregate.minusEqual(aggregate);
+		if (l != NONE)
+			aggregate.plusEqual(aggregates[l]);
+		if (opening)
+			aggregate.plusEqual(statistics[node / 2]);
+		if (r != NONE)
+			aggregate.plusEqual(aggregates[r]);
+	}
+}
@@ -0,0 +1,27 @@
+package polya.ddcrp;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An IndicatorDecay whose support is precomputed with a NeighborIndex
+ * over the positions of the customers.
+ */
+public class GridIndicatorDecay extends IndicatorDecay implements SparseDecayFunction
+{
+	private final NeighborIndex index;
+
+	/**
+	 * @param a
+	 * @param customers All the customers the decay will be evaluated on
+	 */
+	public GridIndicatorDecay(double a, Collection<Customer> customers) {
+		super(a);
+		this.index = new NeighborIndex(NeighborIndex.columns(customers), NeighborIndex.neighborhoodOf(this));
+	}
+
+	@Override
+	public List<Customer> getSupport(Customer customer) {
+		return index.getNeighbors(customer);
+	}
+}
@@ -0,0 +1,214 @@
+package polya.ddcrp;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The neighbors of each customer of an image, precomputed once in
+ * compressed sparse row form: the neighbors of the customer with row r
+ * are neighbors[offsets[r]], ..., neighbors[offsets[r + 1] - 1].
+ *
+ * A neighborhood is a list of offsets {dx, dy}; see fourNeighborhood(),
+ * squareNeighborhood() and neighborhoodOf(). Offsets falling outside the
+ * image, or on a missing pixel, are skipped.
+ *
+ * Customers are looked up by Customer.id, which should be small non
+ * negative integers (e.g. the line numbers given by
+ * NIWs.loadCustomersFromCSVFile()).
+ */
+public class NeighborIndex
+{
+	private final int [] id2Row;
+	private final int [] offsets;
+	private final Customer [] neighbors;
+
+	/**
+	 *
+	 * @param customerArray Column x at index x, with the customers of each
+	 *  column sorted by increasing y
+	 * @param neighborhood Offsets {dx, dy} of the neighbors
+	 */
+	public NeighborIndex(List<CustomerColumn> customerArray, int [][] neighborhood)
+	{
+		int nCustomers = 0, maxId = -1;
+		for (CustomerColumn column : customerArray)
+			for (Customer customer : column.getCustomers())
+			{
+				nCustomers++;
+				maxId = Math.max(maxId, customer.id);
+			}
+
+		id2Row = new int[maxId + 1];
+		Arrays.fill(id2Row, -1);
+		offsets = new int[nCustomers + 1];
+		List<Customer> result = new ArrayList<Customer>();
+		int row = 0;
+		for (int x = 0; x < customerArray.size(); x++)
+			for (Customer customer : customerArray.get(x).getCustomers())
+			{
+				if (customer.x != x)
+					throw new RuntimeException("Customer " + customer + " is in column " + x);
+				if (customer.id < 0 || id2Row[customer.id] != -1)
+					throw new RuntimeException("Customer ids should be distinct and non negative: " + customer.id);
+				id2Row[customer.id] = row;
+				for (int [] offset : neighborhood)
+				{
+					Customer neighbor = find(customerArray, customer.x + offset[0], customer.y + offset[1]);
+					if (neighbor != null && neighbor != customer)
+						result.add(neighbor);
+				}
+				offsets[++row] = result.size();
+			}
+		neighbors = result.toArray(new Customer[result.size()]);
+	}
+
+	/**
+	 *
+	 * @param customer
+	 * @return A read only view of the neighbors of the customer
+	 */
+	public List<Customer> getNeighbors(Customer customer)
+	{
+		final int row = row(customer);
+		return new NeighborList(offsets[row], offsets[row + 1]);
+	}
+
+	public int nNeighbors(Customer customer)
+	{
+		final int row = row(customer);
+		return offsets[row + 1] - offsets[row];
+	}
+
+	/**
+	 *
+	 * @param customer
+	 * @param index Between 0 (inclusive) and nNeighbors(customer) (exclusive)
+	 * @return
+	 */
+	public Customer getNeighbor(Customer customer, int index)
+	{
+		return neighbors[offsets[row(customer)] + index];
+	}
+
+	/**
+	 *
+	 * @param customers Customers with non negative, distinct positions
+	 * @return The columns of the customers, in the form expected by the
+	 *  constructor
+	 */
+	public static List<CustomerColumn> columns(Collection<Customer> customers)
+	{
+		List<Customer> sorted = new ArrayList<Customer>(customers);
+		Collections.sort(sorted);
+		List<CustomerColumn> result = new ArrayList<CustomerColumn>();
+		for (Customer customer : sorted)
+		{
+			if (customer.x < 0 || customer.y < 0)
+				throw new RuntimeException("Negative position: " + customer);
+			while (result.size() <= customer.x)
+				result.add(new CustomerColumn(result.size()));
+			List<Customer> column = result.get(customer.x).getCustomers();
+			if (!column.isEmpty() && column.get(column.size() - 1).y == customer.y)
+				throw new RuntimeException("Two customers at " + customer);
+			column.add(customer);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return The 4 customers sharing an edge with a pixel
+	 */
+	public static int [][] fourNeighborhood()
+	{
+		return new int[][]{{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+	}
+
+	/**
+	 *
+	 * @param radius
+	 * @return The customers at distance at most radius in both coordinates
+	 *  (radius 1 is the 8-neighborhood)
+	 */
+	public static int [][] squareNeighborhood(int radius)
+	{
+		List<int []> result = new ArrayList<int []>();
+		for (int dx = -radius; dx <= radius; dx++)
+			for (int dy = -radius; dy <= radius; dy++)
+				if (dx != 0 || dy != 0)
+					result.add(new int[]{dx, dy});
+		return result.toArray(new int[result.size()][]);
+	}
+
+	/**
+	 *
+	 * @param decay
+	 * @return The customers for which the decay is one
+	 */
+	public static int [][] neighborhoodOf(IndicatorDecay decay)
+	{
+		return squareNeighborhood((int) Math.floor(decay.a));
+	}
+
+	private int row(Customer customer)
+	{
+		final int row = customer.id < id2Row.length ? id2Row[customer.id] : -1;
+		if (row == -1)
+			throw new RuntimeException("Customer not in the index: " + customer);
+		return row;
+	}
+
+	/**
+	 *
+	 * @return The customer at (x, y), or null if there is none
+	 */
+	private static Customer find(List<CustomerColumn> customerArray, int x, int y)
+	{
+		if (x < 0 || x >= customerArray.size())
+			return null;
+		List<Customer> column = customerArray.get(x).getCustomers();
+		int low = 0, high = column.size() - 1;
+		while (low <= high)
+		{
+			final int middle = (low + high) >>> 1;
+			final int current = column.get(middle).y;
+			if (current < y)
+				low = middle + 1;
+			else if (current > y)
+				high = middle - 1;
+			else
+				return column.get(middle);
+		}
+		return null;
+	}
+
+	private class NeighborList extends AbstractList<Customer> implements RandomAccess
+	{
+		private final int start, end;
+
+		private NeighborList(int start, int end)
+		{
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Customer get(int index)
+		{
+			if (index < 0 || index >= end - start)
+				throw new IndexOutOfBoundsException("" + index);
+			return neighbors[start + index];
+		}
+
+		@Override
+		public int size()
+		{
+			return end - start;
+		}
+	}
+}
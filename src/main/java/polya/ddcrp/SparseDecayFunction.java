@@ -0,0 +1,16 @@
+package polya.ddcrp;
+
+import java.util.List;
+
+/**
+ * A DecayFunction that can enumerate, for each customer, the other
+ * customers with a non-zero decay, so that samplers can skip the others.
+ */
+public interface SparseDecayFunction extends DecayFunction {
+
+	/**
+	 * @param customer
+	 * @return The customers c other than customer with decay(customer, c) > 0
+	 */
+	public List<Customer> getSupport(Customer customer);
+}
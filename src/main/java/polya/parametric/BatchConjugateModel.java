@@ -0,0 +1,17 @@
+package polya.parametric;
+
+
+/**
+ * A CollapsedConjugateModel whose single point predictives have a closed
+ * form cheap enough to be evaluated at many tables at once, see
+ * PosteriorBatch.
+ */
+public interface BatchConjugateModel extends CollapsedConjugateModel
+{
+  /**
+   *
+   * @param hp
+   * @return An empty batch of posteriors, with prior hp
+   */
+  public PosteriorBatch posteriorBatch(HyperParameter hp);
+}
@@ -0,0 +1,58 @@
+package polya.parametric;
+
+
+/**
+ * A PredictivePosterior going through model.update(), for models not 
+ * implementing IncrementalConjugateModel. Does not support removal.
+ */
+class GenericPredictivePosterior implements PredictivePosterior
+{
+  private final CollapsedConjugateModel model;
+  private HyperParameter posterior;
+  private double logPriorAtPosterior = Double.NaN;
+  
+  GenericPredictivePosterior(CollapsedConjugateModel model, HyperParameter hp)
+  {
+    this.model = model;
+    this.posterior = hp;
+  }
+
+  @Override
+  public double logPredictive(SufficientStatistic newPoints)
+  {
+    return 
+        logPriorDensityAtThetaStar() 
+        + model.logLikelihoodGivenThetaStar(newPoints) 
+        - model.logPriorDensityAtThetaStar(model.update(posterior, newPoints));
+  }
+
+  @Override
+  public double logPriorDensityAtThetaStar()
+  {
+    if (Double.isNaN(logPriorAtPosterior))
+      logPriorAtPosterior = model.logPriorDensityAtThetaStar(posterior);
+    return logPriorAtPosterior;
+  }
+
+  @Override
+  public boolean add(SufficientStatistic data)
+  {
+    posterior = model.update(posterior, data);
+    logPriorAtPosterior = Double.NaN;
+    return true;
+  }
+
+  @Override
+  public boolean remove(SufficientStatistic data)
+  {
+    return false;
+  }
+
+  @Override
+  public PredictivePosterior copy()
+  {
+    GenericPredictivePosterior result = new GenericPredictivePosterior(model, posterior);
+    result.logPriorAtPosterior = logPriorAtPosterior;
+    return result;
+  }
+}
@@ -4,9 +4,18 @@ package polya.parametric;
 /**
  * See CollapsedConjugateModel
  * 
+ * Implementations should also implement equals() and hashCode() based
+ * on the current values of the hyper-parameters, so that changes
+ * (e.g. from resampling) can be detected by comparing with a copy.
+ * 
  * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
  *
  */
 public interface HyperParameter
 {
+  /**
+   * 
+   * @return A deep clone of this object
+   */
+  public HyperParameter copy();
 }
@@ -0,0 +1,16 @@
+package polya.parametric;
+
+
+/**
+ * A CollapsedConjugateModel providing its own PredictivePosterior, 
+ * typically one supporting cheap additions and removals of single points.
+ */
+public interface IncrementalConjugateModel extends CollapsedConjugateModel
+{
+  /**
+   * 
+   * @param hp
+   * @return The posterior given no data, i.e. the prior
+   */
+  public PredictivePosterior predictivePosterior(HyperParameter hp);
+}
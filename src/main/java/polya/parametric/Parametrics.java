@@ -57,5 +57,20 @@ public class Parametrics
     return logMarginal(model, updated, newPoints);
     /* endRem */
   }
-
+  
+  /**
+   * 
+   * @param model
+   * @param hp
+   * @return The model's own PredictivePosterior if it is an IncrementalConjugateModel, 
+   *  otherwise one based on update()
+   */
+  public static PredictivePosterior predictivePosterior(
+      CollapsedConjugateModel model,
+      HyperParameter hp)
+  {
+    if (model instanceof IncrementalConjugateModel)
+      return ((IncrementalConjugateModel) model).predictivePosterior(hp);
+    return new GenericPredictivePosterior(model, hp);
+  }
 }
@@ -0,0 +1,38 @@
+package polya.parametric;
+
+
+/**
+ * The posteriors of a BatchConjugateModel given the data at each of a
+ * number of tables, stored as one array per posterior parameter (a
+ * structure of arrays), so that the predictive of a point at all the
+ * tables is a single loop over primitive arrays.
+ *
+ * Rows are indexed from 0, and grow as needed. Not thread safe.
+ */
+public interface PosteriorBatch
+{
+  /**
+   * Sets row to the posterior given data, i.e. model.update(hp, data).
+   * @param row
+   * @param data
+   */
+  public void set(int row, SufficientStatistic data);
+
+  /**
+   * Copies row from into row to.
+   * @param from
+   * @param to
+   */
+  public void move(int from, int to);
+
+  /**
+   * Entry r of result is set to the same as
+   * PredictivePosterior.logPredictive(point) for the posterior at row r,
+   * for r = 0, ..., nRows - 1.
+   *
+   * @param point Statistic of a single point
+   * @param nRows
+   * @param result
+   */
+  public void logPredictives(SufficientStatistic point, int nRows, double [] result);
+}
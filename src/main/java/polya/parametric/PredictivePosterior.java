@@ -0,0 +1,54 @@
+package polya.parametric;
+
+
+/**
+ * The posterior of a CollapsedConjugateModel given the data seen so far,
+ * in a form that can be updated in place as data points come and go.
+ * 
+ * Conceptually equivalent to the HyperParameter model.update(hp, data),
+ * but implementations can keep auxiliary quantities (e.g. a factorization)
+ * so that predictives and updates are cheaper than going through
+ * Parametrics.
+ * 
+ * See IncrementalConjugateModel and Parametrics.predictivePosterior()
+ */
+public interface PredictivePosterior
+{
+  /**
+   * Same as Parametrics.logPredictive(model, hp, newPoints, oldPoints),
+   * where oldPoints is the data seen so far.
+   * @param newPoints
+   * @return
+   */
+  public double logPredictive(SufficientStatistic newPoints);
+  
+  /**
+   * Same as model.logPriorDensityAtThetaStar(model.update(hp, oldPoints))
+   * @return
+   */
+  public double logPriorDensityAtThetaStar();
+  
+  /**
+   * Warning: modifies this object in place
+   * 
+   * @param data Points to add to the data seen so far
+   * @return False if the update could not be done, in which case this 
+   *  object should be discarded
+   */
+  public boolean add(SufficientStatistic data);
+  
+  /**
+   * Warning: modifies this object in place
+   * 
+   * @param data Points previously added, to remove from the data seen so far
+   * @return False if the update could not be done (e.g. not supported, 
+   *  or numerically unstable), in which case this object should be discarded
+   */
+  public boolean remove(SufficientStatistic data);
+  
+  /**
+   * 
+   * @return A deep clone of this object
+   */
+  public PredictivePosterior copy();
+}
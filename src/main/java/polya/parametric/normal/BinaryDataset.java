@@ -0,0 +1,434 @@
+package polya.parametric.normal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import briefj.BriefArrays;
+import briefj.BriefIO;
+import polya.ddcrp.Customer;
+import polya.parametric.SufficientStatistic;
+
+
+/**
+ * A dataset of points stored in a binary file, read through a memory
+ * mapping instead of being parsed and copied to the heap.
+ *
+ * The file is a 24 bytes header (the int MAGIC, the int VERSION, the long
+ * number of rows and the int number of columns, then 4 bytes of padding),
+ * followed by the rows, each as nColumns contiguous float64. Everything is
+ * little endian. Use fromCSVFile() to convert a CSV dataset.
+ *
+ * The statistics returned by statistics() and customers() are packed
+ * (see TwoMomentsSufficientStatistics.pack()) a block of rows at a time,
+ * the first time a row of the block is looked up, and kept from then on,
+ * so only the blocks in use are paged in and take heap space.
+ */
+public class BinaryDataset
+{
+  public static final int MAGIC = 0x504f4c59; // "POLY"
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 24;
+  private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  private final int nRows, nColumns;
+
+  /**
+   * Each chunk maps rowsPerChunk rows (the last one possibly fewer), since a
+   * single mapping cannot exceed 2GB.
+   */
+  private final DoubleBuffer [] chunks;
+  private final int rowsPerChunk;
+
+  /**
+   * Entry b holds views on one slab with the statistics of rows
+   * b * rowsPerBlock, ..., or null until one of them is looked up. Atomic
+   * since the maps may be shared by the replicas of a ParallelTempering.
+   */
+  private final AtomicReferenceArray<TwoMomentsSufficientStatistics []> blocks;
+  private final int rowsPerBlock;
+  private static final int BLOCK_SIZE = 1 << 20;
+
+  /**
+   * Maps a file created by fromCSVFile().
+   *
+   * @param file
+   * @return
+   */
+  public static BinaryDataset map(File file)
+  {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+    {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+      while (header.hasRemaining())
+        if (channel.read(header, header.position()) < 0)
+          throw new RuntimeException("Truncated header: " + file);
+      header.flip();
+      if (header.getInt() != MAGIC)
+        throw new RuntimeException("Not a binary dataset: " + file);
+      final int version = header.getInt();
+      if (version != VERSION)
+        throw new RuntimeException("Unsupported version " + version + ": " + file);
+      final long nRows = header.getLong();
+      final int nColumns = header.getInt();
+      if (nRows < 0 || nRows > Integer.MAX_VALUE || nColumns < 1)
+        throw new RuntimeException("Invalid dimensions " + nRows + "x" + nColumns + ": " + file);
+      final long rowSize = 8L * nColumns;
+      if (channel.size() != HEADER_SIZE + nRows * rowSize)
+        throw new RuntimeException("File size does not match the header: " + file);
+
+      final int rowsPerChunk = (int) Math.max(1, Integer.MAX_VALUE / rowSize);
+      final int nChunks = (int) ((nRows + rowsPerChunk - 1) / rowsPerChunk);
+      DoubleBuffer [] chunks = new DoubleBuffer[nChunks];
+      for (int c = 0; c < nChunks; c++)
+      {
+        final long firstRow = (long) c * rowsPerChunk;
+        final long chunkRows = Math.min(rowsPerChunk, nRows - firstRow);
+        chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + firstRow * rowSize, chunkRows * rowSize)
+            .order(ORDER).asDoubleBuffer();
+      }
+      return new BinaryDataset((int) nRows, nColumns, chunks, rowsPerChunk);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Converts a CSV dataset where each row is a point, and columns are
+   * dimensions (the format read by NIWs.loadFromCSVFile()) into a binary
+   * dataset. The CSV file is streamed, so it can be larger than the heap.
+   *
+   * @param csvFile
+   * @param binaryFile Overwritten if it exists
+   * @return The number of rows written
+   */
+  public static int fromCSVFile(File csvFile, File binaryFile)
+  {
+    try (RandomAccessFile raf = new RandomAccessFile(binaryFile, "rw"); FileChannel channel = raf.getChannel())
+    {
+      channel.truncate(0);
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ORDER);
+      channel.position(HEADER_SIZE);
+      int nRows = 0, nColumns = -1;
+      for (List<String> line : BriefIO.readLines(csvFile).splitCSV())
+      {
+        double [] row = BriefArrays.parseDoublesToArray(line);
+        if (nColumns == -1)
+          nColumns = row.length;
+        if (row.length != nColumns)
+          throw new RuntimeException("Dimensionality mismatch at row " + nRows + " of " + csvFile);
+        if (nRows == Integer.MAX_VALUE)
+          throw new RuntimeException("Too many rows: " + csvFile);
+        if (buffer.remaining() < 8 * nColumns)
+          flush(buffer, channel);
+        for (double value : row)
+          buffer.putDouble(value);
+        nRows++;
+      }
+      flush(buffer, channel);
+      if (nColumns == -1)
+        throw new RuntimeException("Empty dataset: " + csvFile);
+
+      buffer.putInt(MAGIC).putInt(VERSION).putLong(nRows).putInt(nColumns).putInt(0);
+      buffer.flip();
+      while (buffer.hasRemaining())
+        channel.write(buffer, buffer.position());
+      return nRows;
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException
+  {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+    buffer.clear();
+  }
+
+  private BinaryDataset(int nRows, int nColumns, DoubleBuffer [] chunks, int rowsPerChunk)
+  {
+    this.nRows = nRows;
+    this.nColumns = nColumns;
+    this.chunks = chunks;
+    this.rowsPerChunk = rowsPerChunk;
+    this.rowsPerBlock = Math.max(1, BLOCK_SIZE / TwoMomentsSufficientStatistics.stride(nColumns));
+    this.blocks = new AtomicReferenceArray<TwoMomentsSufficientStatistics []>((nRows + rowsPerBlock - 1) / rowsPerBlock);
+  }
+
+  public int nRows()
+  {
+    return nRows;
+  }
+
+  public int nColumns()
+  {
+    return nColumns;
+  }
+
+  /**
+   *
+   * @param row
+   * @param column
+   * @return
+   */
+  public double get(int row, int column)
+  {
+    checkRow(row);
+    if (column < 0 || column >= nColumns)
+      throw new RuntimeException("Invalid column: " + column);
+    return chunks[row / rowsPerChunk].get((row % rowsPerChunk) * nColumns + column);
+  }
+
+  /**
+   *
+   * @param row
+   * @param result Array of length nColumns() where the row is written
+   */
+  public void getRow(int row, double [] result)
+  {
+    checkRow(row);
+    if (result.length != nColumns)
+      throw new RuntimeException();
+    final DoubleBuffer chunk = chunks[row / rowsPerChunk];
+    final int start = (row % rowsPerChunk) * nColumns;
+    for (int i = 0; i < nColumns; i++)
+      result[i] = chunk.get(start + i);
+  }
+
+  /**
+   *
+   * @param row
+   * @return A new statistic of the single point at the given row
+   */
+  public TwoMomentsSufficientStatistics statistic(int row)
+  {
+    double [] point = new double[nColumns];
+    getRow(row, point);
+    return TwoMomentsSufficientStatistics.fromOnePoint(point);
+  }
+
+  /**
+   * @param row
+   * @return The statistic of the row shared by the maps, not to be modified
+   */
+  private TwoMomentsSufficientStatistics packedStatistic(int row)
+  {
+    final int block = row / rowsPerBlock;
+    TwoMomentsSufficientStatistics [] views = blocks.get(block);
+    if (views == null)
+    {
+      final int first = block * rowsPerBlock, n = Math.min(rowsPerBlock, nRows - first);
+      final int stride = TwoMomentsSufficientStatistics.stride(nColumns);
+      double [] slab = new double[n * stride];
+      double [] point = new double[nColumns];
+      views = new TwoMomentsSufficientStatistics[n];
+      for (int i = 0; i < n; i++)
+      {
+        getRow(first + i, point);
+        TwoMomentsSufficientStatistics.writeOnePoint(slab, i * stride, point);
+        views[i] = TwoMomentsSufficientStatistics.view(slab, i * stride, nColumns);
+      }
+      // another thread may have packed the block meanwhile, use its views
+      if (!blocks.compareAndSet(block, null, views))
+        views = blocks.get(block);
+    }
+    return views[row - block * rowsPerBlock];
+  }
+
+  /**
+   * The same map as NIWs.loadFromCSVFile() on the original CSV file, but
+   * with the statistics packed on first lookup. Read only.
+   *
+   * @return A map from datapoint index (row in file) to the sufficient stat of that row
+   */
+  public Map<Integer,SufficientStatistic> statistics()
+  {
+    return new StatisticMap<Integer>() {
+      @Override
+      Integer key(int row)
+      {
+        return row;
+      }
+
+      @Override
+      int row(Object key)
+      {
+        if (!(key instanceof Integer))
+          return -1;
+        final int row = (Integer) key;
+        return row >= 0 && row < nRows ? row : -1;
+      }
+    };
+  }
+
+  /**
+   * The same map as NIWs.loadCustomersFromCSVFile() on the original CSV
+   * file: the first three columns are the position x, y and the datum of
+   * a customer, whose id is its row. The customers are created once,
+   * their statistics are packed on first lookup. Read only.
+   *
+   * @return
+   */
+  public Map<Customer,SufficientStatistic> customers()
+  {
+    if (nColumns < 3)
+      throw new RuntimeException("Customers need at least 3 columns, found " + nColumns);
+    final Customer [] customers = new Customer[nRows];
+    for (int id = 0; id < nRows; id++)
+      customers[id] = new Customer(id, (int) get(id, 0), (int) get(id, 1), get(id, 2));
+    return new StatisticMap<Customer>() {
+      @Override
+      Customer key(int row)
+      {
+        return customers[row];
+      }
+
+      @Override
+      int row(Object key)
+      {
+        if (!(key instanceof Customer))
+          return -1;
+        final int id = ((Customer) key).id;
+        return id >= 0 && id < nRows && customers[id] == key ? id : -1;
+      }
+    };
+  }
+
+  private void checkRow(int row)
+  {
+    if (row < 0 || row >= nRows)
+      throw new RuntimeException("Invalid row: " + row);
+  }
+
+  /**
+   * A read only map with one key per row, and the statistic of the row as
+   * value.
+   */
+  private abstract class StatisticMap<K> extends AbstractMap<K,SufficientStatistic>
+  {
+    abstract K key(int row);
+
+    /**
+     * @return The row of the key, or -1 if it is not in the map
+     */
+    abstract int row(Object key);
+
+    @Override
+    public SufficientStatistic get(Object key)
+    {
+      final int row = row(key);
+      return row == -1 ? null : packedStatistic(row);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+      return row(key) != -1;
+    }
+
+    @Override
+    public int size()
+    {
+      return nRows;
+    }
+
+    @Override
+    public Set<K> keySet()
+    {
+      return new AbstractSet<K>() {
+        @Override
+        public Iterator<K> iterator()
+        {
+          return new RowIterator<K>() {
+            @Override
+            K get(int row)
+            {
+              return key(row);
+            }
+          };
+        }
+
+        @Override
+        public boolean contains(Object key)
+        {
+          return containsKey(key);
+        }
+
+        @Override
+        public int size()
+        {
+          return nRows;
+        }
+      };
+    }
+
+    @Override
+    public Set<Map.Entry<K,SufficientStatistic>> entrySet()
+    {
+      return new AbstractSet<Map.Entry<K,SufficientStatistic>>() {
+        @Override
+        public Iterator<Map.Entry<K,SufficientStatistic>> iterator()
+        {
+          return new RowIterator<Map.Entry<K,SufficientStatistic>>() {
+            @Override
+            Map.Entry<K,SufficientStatistic> get(int row)
+            {
+              return new AbstractMap.SimpleImmutableEntry<K,SufficientStatistic>(key(row), packedStatistic(row));
+            }
+          };
+        }
+
+        @Override
+        public int size()
+        {
+          return nRows;
+        }
+      };
+    }
+  }
+
+  private abstract class RowIterator<T> implements Iterator<T>
+  {
+    private int next = 0;
+
+    abstract T get(int row);
+
+    @Override
+    public boolean hasNext()
+    {
+      return next < nRows;
+    }
+
+    @Override
+    public T next()
+    {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      return get(next++);
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
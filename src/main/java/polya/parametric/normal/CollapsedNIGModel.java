@@ -1,5 +1,6 @@
 package polya.parametric.normal;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import org.apache.commons.lang3.tuple.Pair;
@@ -8,9 +9,10 @@ import bayonet.distributions.Gamma;
 import bayonet.distributions.Normal;
 import bayonet.math.SpecialFunctions;
 import blang.annotations.FactorComponent;
-import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.BatchConjugateModel;
 import polya.parametric.HyperParameter;
 import polya.parametric.Parameter;
+import polya.parametric.PosteriorBatch;
 import polya.parametric.SufficientStatistic;
 import polya.parametric.TestedModel;
 
@@ -22,7 +24,7 @@ import polya.parametric.TestedModel;
  * @author Seong-Hwan Jun (s2jun.uw@gmail.com)
  *
  */
-public class CollapsedNIGModel implements CollapsedConjugateModel, TestedModel
+public class CollapsedNIGModel implements BatchConjugateModel, TestedModel
 {
 	@FactorComponent
 	private final NIGHyperParameter hp;
@@ -55,7 +57,7 @@ public class CollapsedNIGModel implements CollapsedConjugateModel, TestedModel
 	{
 		TwoMomentsSufficientStatistics suff = (TwoMomentsSufficientStatistics)data;
 
-		double retval = Normal.logProb(0.0, 1.0, suff.sumOfValues().get(0, 0), suff.sumOfOuterProducts().get(0, 0), suff.numberOfPoints());
+		double retval = Normal.logProb(0.0, 1.0, suff.sumOfValues(0), suff.sumOfOuterProducts(0, 0), suff.numberOfPoints());
 		return retval;
 	}
 
@@ -67,16 +69,81 @@ public class CollapsedNIGModel implements CollapsedConjugateModel, TestedModel
 		TwoMomentsSufficientStatistics suff = (TwoMomentsSufficientStatistics)data;
 
 		int n = data.numberOfPoints();
-		double xbar = suff.sumOfValues().get(0, 0)/n;
+		double xbar = suff.sumOfValues(0)/n;
 
 		double mu0 = (param.nu()*param.mu0() + n*xbar)/(param.nu() + n);
 		double nu = param.nu() + n;
 		double alpha = param.alpha() + n/2.0;
-		double beta = param.beta() + 0.5*(suff.sumOfOuterProducts().get(0,0) - n*Math.pow(xbar, 2.0)) + (n*param.nu()/(param.nu() + n))*(Math.pow(xbar - param.mu0(), 2)/2);
+		double beta = param.beta() + 0.5*(suff.sumOfOuterProducts(0, 0) - n*Math.pow(xbar, 2.0)) + (n*param.nu()/(param.nu() + n))*(Math.pow(xbar - param.mu0(), 2)/2);
 
 		return new NIGHyperParameter(mu0, nu, alpha, beta);
 	}
 
+	/**
+	 * The predictive of a single point is a Student t with 2 alpha degrees
+	 * of freedom, location mu0 and squared scale beta (nu + 1) / (alpha nu),
+	 * stored per row as the location, the exponent alpha + 1/2, the
+	 * coefficient of the squared deviation and the normalization.
+	 */
+	@Override
+	public PosteriorBatch posteriorBatch(HyperParameter hp)
+	{
+		final NIGHyperParameter prior = (NIGHyperParameter)hp;
+		return new PosteriorBatch() {
+			private double [] locations = new double[16], exponents = new double[16], scales = new double[16], logNorms = new double[16];
+
+			@Override
+			public void set(int row, SufficientStatistic data)
+			{
+				if (row >= locations.length)
+				{
+					final int capacity = Math.max(row + 1, 2 * locations.length);
+					locations = Arrays.copyOf(locations, capacity);
+					exponents = Arrays.copyOf(exponents, capacity);
+					scales = Arrays.copyOf(scales, capacity);
+					logNorms = Arrays.copyOf(logNorms, capacity);
+				}
+				final NIGHyperParameter posterior = data.numberOfPoints() == 0 ? prior : (NIGHyperParameter)update(prior, data);
+				final double nu = posterior.nu(), alpha = posterior.alpha(), beta = posterior.beta();
+				locations[row] = posterior.mu0();
+				exponents[row] = alpha + 0.5;
+				scales[row] = nu / (2 * beta * (nu + 1));
+				logNorms[row] = SpecialFunctions.lnGamma(alpha + 0.5) - SpecialFunctions.lnGamma(alpha) - 0.5 * Math.log(2 * Math.PI * beta * (nu + 1) / nu);
+			}
+
+			@Override
+			public void move(int from, int to)
+			{
+				locations[to] = locations[from];
+				exponents[to] = exponents[from];
+				scales[to] = scales[from];
+				logNorms[to] = logNorms[from];
+			}
+
+			@Override
+			public void logPredictives(SufficientStatistic point, int nRows, double [] result)
+			{
+				final double x = singlePoint(point);
+				for (int r = 0; r < nRows; r++)
+				{
+					final double deviation = x - locations[r];
+					result[r] = logNorms[r] - exponents[r] * Math.log(1.0 + scales[r] * deviation * deviation);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return The value of a statistic of a single univariate point
+	 */
+	static double singlePoint(SufficientStatistic point)
+	{
+		TwoMomentsSufficientStatistics suff = (TwoMomentsSufficientStatistics)point;
+		if (suff.numberOfPoints() != 1 || suff.dim() != 1)
+			throw new RuntimeException("Expected a single univariate point");
+		return suff.sumOfValues(0);
+	}
+
 	@Override
 	public HyperParameter getHyperParameter()
 	{
@@ -110,14 +177,15 @@ public class CollapsedNIGModel implements CollapsedConjugateModel, TestedModel
 		Parameter param = new NormalParameter(mean, var);
 
 		// generate the data
-		SufficientStatistic suff = TwoMomentsSufficientStatistics.fromEmpty(1);
+		TwoMomentsSufficientStatistics suff = TwoMomentsSufficientStatistics.fromEmpty(1);
+		double [] x = new double[1];
 		for (int i = 0; i < nDataPoints; i++)
 		{
-			double x = Normal.generate(rand, mean, var);
-			suff.plusEqual(TwoMomentsSufficientStatistics.fromOnePoint(new double[]{x}));
+			x[0] = Normal.generate(rand, mean, var);
+			suff.addPoint(x);
 		}
 		
-		return Pair.of(param, suff);
+		return Pair.<Parameter, SufficientStatistic>of(param, suff);
 	}
 
 	@Override
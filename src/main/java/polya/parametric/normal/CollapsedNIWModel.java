@@ -5,9 +5,10 @@ import java.util.Random;
 import org.apache.commons.lang3.tuple.Pair;
 import org.ejml.simple.SimpleMatrix;
 
-import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.IncrementalConjugateModel;
 import polya.parametric.HyperParameter;
 import polya.parametric.Parameter;
+import polya.parametric.PredictivePosterior;
 import polya.parametric.SufficientStatistic;
 import polya.parametric.TestedModel;
 import tutorialj.Tutorial;
@@ -22,7 +23,7 @@ import blang.annotations.FactorComponent;
  * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
  *
  */
-public class CollapsedNIWModel implements CollapsedConjugateModel, TestedModel
+public class CollapsedNIWModel implements IncrementalConjugateModel, TestedModel
 {
 	@FactorComponent
 	private final NIWHyperParameter hp;
@@ -92,7 +93,7 @@ public class CollapsedNIWModel implements CollapsedConjugateModel, TestedModel
     /* startRem throw new RuntimeException(); */
     double sum = 0.0;
     for (int i = 0; i < data.dim(); i++)
-      sum += Normal.logProb(0.0, 1.0, data.sumOfValues().get(i), data.sumOfOuterProducts().get(i, i), data.numberOfPoints());
+      sum += Normal.logProb(0.0, 1.0, data.sumOfValues(i), data.sumOfOuterProducts(i, i), data.numberOfPoints());
     return sum;
     /* endRem */
   }
@@ -116,8 +117,6 @@ public class CollapsedNIWModel implements CollapsedConjugateModel, TestedModel
     checkCompatible(before, data);
     
     /* startRem throw new RuntimeException(); */
-    final SimpleMatrix sumObs = data.sumOfValues();
-    final SimpleMatrix outerProducts = data.sumOfOuterProducts();
     final int dim = data.dim();
     final int numPoints = data.numberOfPoints();
     final double nu = before.nu();
@@ -131,18 +130,28 @@ public class CollapsedNIWModel implements CollapsedConjugateModel, TestedModel
     final SimpleMatrix deltaPrime = new SimpleMatrix(dim, dim);
     
     for (int i = 0; i < dim; i++)
-      scriptVPrime.set(i, 0, (kappa * scriptV.get(i,0) + sumObs.get(i, 0)) / kappaPrime);
+      scriptVPrime.set(i, 0, (kappa * scriptV.get(i,0) + data.sumOfValues(i)) / kappaPrime);
     
     for (int i = 0; i < dim; i++)
       for (int j = 0; j < dim; j++)
         deltaPrime.set(i,j, 
-            (nu * delta.get(i,j) + outerProducts.get(i,j) + kappa * scriptV.get(i,0) * scriptV.get(j,0) - kappaPrime * scriptVPrime.get(i,0) * scriptVPrime.get(j,0)) 
+            (nu * delta.get(i,j) + data.sumOfOuterProducts(i, j) + kappa * scriptV.get(i,0) * scriptV.get(j,0) - kappaPrime * scriptVPrime.get(i,0) * scriptVPrime.get(j,0)) 
               / nuPrime);
     
     return new NIWHyperParameter(kappaPrime, scriptVPrime, nuPrime, deltaPrime);
     /* endRem */
   }
 
+  /**
+   * See NIWPredictivePosterior: keeps a Cholesky factor of the scale matrix,
+   * updated in O(dim^2) when single points are added or removed.
+   */
+  @Override
+  public PredictivePosterior predictivePosterior(HyperParameter hp)
+  {
+    return new NIWPredictivePosterior(this, (NIWHyperParameter) hp);
+  }
+
   /**
    * Performs a simple sanity check on dimensionality.
    * @param before
@@ -173,7 +182,7 @@ public class CollapsedNIWModel implements CollapsedConjugateModel, TestedModel
     for (int i = 0; i < nDataPoints; i++)
     {
       SimpleMatrix sample = NIWs.nextMVN(rand, parameter.getMeanParameter(), parameter.getCovarianceParameter());
-      stats.plusEqual(TwoMomentsSufficientStatistics.fromOnePoint(sample.getMatrix().getData()));
+      stats.addPoint(sample.getMatrix().getData());
     }
     Pair result = Pair.of(parameter, stats);
     return result;
@@ -1,14 +1,16 @@
 package polya.parametric.normal;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import org.apache.commons.lang3.tuple.Pair;
 
 import bayonet.distributions.Normal;
 import blang.annotations.FactorComponent;
-import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.BatchConjugateModel;
 import polya.parametric.HyperParameter;
 import polya.parametric.Parameter;
+import polya.parametric.PosteriorBatch;
 import polya.parametric.SufficientStatistic;
 import polya.parametric.TestedModel;
 
@@ -29,7 +31,7 @@ import polya.parametric.TestedModel;
  * @author Seong-Hwan Jun (s2jun.uw@gmail.com)
  *
  */
-public class CollapsedNormalNormalModel implements CollapsedConjugateModel, TestedModel
+public class CollapsedNormalNormalModel implements BatchConjugateModel, TestedModel
 {
 	private double var;
 
@@ -69,8 +71,8 @@ public class CollapsedNormalNormalModel implements CollapsedConjugateModel, Test
 		if (suff.dim() > 1)
 			throw new RuntimeException();
 		
-		double sum = suff.sumOfValues().get(0, 0);
-		double sumSq = suff.sumOfOuterProducts().get(0, 0);
+		double sum = suff.sumOfValues(0);
+		double sumSq = suff.sumOfOuterProducts(0, 0);
 		int n = suff.numberOfPoints();
 		double result = Normal.logProb(0.0, var, sum, sumSq, n);
 		return result;
@@ -87,7 +89,7 @@ public class CollapsedNormalNormalModel implements CollapsedConjugateModel, Test
 		TwoMomentsSufficientStatistics suff = (TwoMomentsSufficientStatistics)data;
 		NormalParameter hp0 = (NormalParameter)before;
 		
-		double sum = suff.sumOfValues().get(0, 0);
+		double sum = suff.sumOfValues(0);
 		int n = suff.numberOfPoints();
 		
 		double mean1 = (hp0.mean()/hp0.var() + sum/var) / (1/hp0.var() + n/var);
@@ -97,6 +99,55 @@ public class CollapsedNormalNormalModel implements CollapsedConjugateModel, Test
 		return hp1;
 	}
 
+	/**
+	 * The predictive of a single point is N(mean, var + posterior variance),
+	 * stored per row as the mean, 1 / (2 variance) and the normalization.
+	 */
+	@Override
+	public PosteriorBatch posteriorBatch(HyperParameter hp)
+	{
+		final NormalParameter prior = (NormalParameter)hp;
+		return new PosteriorBatch() {
+			private double [] means = new double[16], halfPrecisions = new double[16], logNorms = new double[16];
+
+			@Override
+			public void set(int row, SufficientStatistic data)
+			{
+				if (row >= means.length)
+				{
+					final int capacity = Math.max(row + 1, 2 * means.length);
+					means = Arrays.copyOf(means, capacity);
+					halfPrecisions = Arrays.copyOf(halfPrecisions, capacity);
+					logNorms = Arrays.copyOf(logNorms, capacity);
+				}
+				final NormalParameter posterior = (NormalParameter)update(prior, data);
+				final double predictiveVar = var + posterior.var();
+				means[row] = posterior.mean();
+				halfPrecisions[row] = 0.5 / predictiveVar;
+				logNorms[row] = -0.5 * Math.log(2 * Math.PI * predictiveVar);
+			}
+
+			@Override
+			public void move(int from, int to)
+			{
+				means[to] = means[from];
+				halfPrecisions[to] = halfPrecisions[from];
+				logNorms[to] = logNorms[from];
+			}
+
+			@Override
+			public void logPredictives(SufficientStatistic point, int nRows, double [] result)
+			{
+				final double x = CollapsedNIGModel.singlePoint(point);
+				for (int r = 0; r < nRows; r++)
+				{
+					final double deviation = x - means[r];
+					result[r] = logNorms[r] - halfPrecisions[r] * deviation * deviation;
+				}
+			}
+		};
+	}
+
 	@Override
 	public HyperParameter getHyperParameter()
 	{
@@ -114,16 +165,16 @@ public class CollapsedNormalNormalModel implements CollapsedConjugateModel, Test
 
 		// generate the data from N(mu, var)
 		// TODO: using TwoMomentSufficientStatistics may not be the most optimal way to do it, make it better later (not critical)
-		SufficientStatistic suff = TwoMomentsSufficientStatistics.fromEmpty(1);
+		TwoMomentsSufficientStatistics suff = TwoMomentsSufficientStatistics.fromEmpty(1);
+		double [] dataPoint = new double[1];
 		for (int i = 0; i < nDataPoints; i++)
 		{
-			double x = Normal.generate(rand, mu, var);
-			TwoMomentsSufficientStatistics dataPoint = TwoMomentsSufficientStatistics.fromOnePoint(new double[]{x});
-			suff.plusEqual(dataPoint);
+			dataPoint[0] = Normal.generate(rand, mu, var);
+			suff.addPoint(dataPoint);
 		}
 		
 		// wrap it as a Parameter and return it
-		Pair<Parameter, SufficientStatistic> retval = Pair.of(param, suff);
+		Pair<Parameter, SufficientStatistic> retval = Pair.<Parameter, SufficientStatistic>of(param, suff);
 		return retval;
 	  }
 
@@ -42,4 +42,39 @@ public class NIGHyperParameter implements HyperParameter
 	{
 		return beta.getValue();
 	}
+
+	@Override
+	public HyperParameter copy()
+	{
+		return new NIGHyperParameter(mu0(), nu(), alpha(), beta());
+	}
+
+	@Override
+	public int hashCode()
+	{
+		final int prime = 31;
+		int result = 1;
+		for (double value : new double[]{mu0(), nu(), alpha(), beta()})
+		{
+			long temp = Double.doubleToLongBits(value);
+			result = prime * result + (int) (temp ^ (temp >>> 32));
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		NIGHyperParameter other = (NIGHyperParameter) obj;
+		return Double.doubleToLongBits(mu0()) == Double.doubleToLongBits(other.mu0()) &&
+				Double.doubleToLongBits(nu()) == Double.doubleToLongBits(other.nu()) &&
+				Double.doubleToLongBits(alpha()) == Double.doubleToLongBits(other.alpha()) &&
+				Double.doubleToLongBits(beta()) == Double.doubleToLongBits(other.beta());
+	}
 }
@@ -195,4 +195,49 @@ public class NIWHyperParameter implements HyperParameter
     return new NIWHyperParameter(hp.kappa(), hp.scriptV.copy(), hp.nu(), hp.delta.copy());
   }
 
+  @Override
+  public HyperParameter copy()
+  {
+    return copyOf(this);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    final int prime = 31;
+    int result = 1;
+    long temp = Double.doubleToLongBits(kappa());
+    result = prime * result + (int) (temp ^ (temp >>> 32));
+    temp = Double.doubleToLongBits(nu());
+    result = prime * result + (int) (temp ^ (temp >>> 32));
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    NIWHyperParameter other = (NIWHyperParameter) obj;
+    if (Double.doubleToLongBits(kappa()) != Double.doubleToLongBits(other.kappa()))
+      return false;
+    if (Double.doubleToLongBits(nu()) != Double.doubleToLongBits(other.nu()))
+      return false;
+    return sameEntries(scriptV, other.scriptV) && sameEntries(delta, other.delta);
+  }
+
+  private static boolean sameEntries(SimpleMatrix m1, SimpleMatrix m2)
+  {
+    if (m1.numRows() != m2.numRows() || m1.numCols() != m2.numCols())
+      return false;
+    for (int i = 0; i < m1.getNumElements(); i++)
+      if (Double.doubleToLongBits(m1.get(i)) != Double.doubleToLongBits(m2.get(i)))
+        return false;
+    return true;
+  }
+
 }
\ No newline at end of file
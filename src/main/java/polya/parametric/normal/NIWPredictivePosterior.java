@@ -0,0 +1,348 @@
+package polya.parametric.normal;
+
+import org.ejml.simple.SimpleMatrix;
+
+import bayonet.math.SpecialFunctions;
+import polya.parametric.PredictivePosterior;
+import polya.parametric.SufficientStatistic;
+
+/**
+ * Posterior of a CollapsedNIWModel keeping the Cholesky factor L of the
+ * scale matrix nu * delta (see NIWHyperParameter).
+ *
+ * Adding or removing a single point changes the scale matrix by a rank
+ * one term, c (x - scriptV)(x - scriptV)^T, so L is updated or downdated
+ * in O(dim^2) instead of recomputing a determinant in O(dim^3). For the
+ * same reason, the predictive of a single point (a multivariate Student-t)
+ * costs one triangular solve, O(dim^2), using the matrix determinant lemma.
+ *
+ * Statistics of more than one point fall back to refactorizing, O(dim^3).
+ *
+ * The densities are the same as those computed by Parametrics from
+ * CollapsedNIWModel, up to rounding.
+ */
+public class NIWPredictivePosterior implements PredictivePosterior
+{
+  private final CollapsedNIWModel model;
+  private final int dim;
+  private double kappa, nu;
+  private final double [] scriptV;
+
+  /**
+   * Lower triangle of the Cholesky factor of nu * delta, packed
+   * column major: entry (i, j), i >= j, is at index(j) + i - j
+   */
+  private final double [] cholesky;
+
+  /**
+   * Scratch space
+   */
+  private final double [] work;
+
+  /**
+   * Trace and log determinant of the scale matrix, multivariate log gamma
+   * at nu/2 and (nu+1)/2, and prior density at theta*, computed lazily
+   * (logPrior is NaN when they are stale)
+   */
+  private double trace, logDet, logGamma, logGammaNext, logPrior = Double.NaN;
+
+  /**
+   *
+   * @param model
+   * @param hp
+   */
+  public NIWPredictivePosterior(CollapsedNIWModel model, NIWHyperParameter hp)
+  {
+    this.model = model;
+    this.dim = hp.dim();
+    this.kappa = hp.kappa();
+    this.nu = hp.nu();
+    this.scriptV = new double[dim];
+    for (int i = 0; i < dim; i++)
+      scriptV[i] = hp.scriptV().get(i, 0);
+    this.cholesky = new double[dim * (dim + 1) / 2];
+    this.work = new double[dim];
+    final SimpleMatrix delta = hp.delta();
+    for (int j = 0; j < dim; j++)
+      for (int i = j; i < dim; i++)
+        cholesky[index(j) + i - j] = nu * delta.get(i, j);
+    if (!factorize())
+      throw new RuntimeException("The scale matrix is not positive definite");
+  }
+
+  private NIWPredictivePosterior(NIWPredictivePosterior other)
+  {
+    this.model = other.model;
+    this.dim = other.dim;
+    this.kappa = other.kappa;
+    this.nu = other.nu;
+    this.scriptV = other.scriptV.clone();
+    this.cholesky = other.cholesky.clone();
+    this.work = new double[dim];
+    this.trace = other.trace;
+    this.logDet = other.logDet;
+    this.logGamma = other.logGamma;
+    this.logGammaNext = other.logGammaNext;
+    this.logPrior = other.logPrior;
+  }
+
+  @Override
+  public double logPriorDensityAtThetaStar()
+  {
+    if (Double.isNaN(logPrior))
+    {
+      trace = 0.0;
+      logDet = 0.0;
+      for (int j = 0; j < dim; j++)
+      {
+        final int start = index(j);
+        logDet += 2.0 * Math.log(cholesky[start]);
+        for (int i = j; i < dim; i++)
+          trace += cholesky[start + i - j] * cholesky[start + i - j];
+      }
+      double normSquared = 0.0;
+      for (int i = 0; i < dim; i++)
+        normSquared += scriptV[i] * scriptV[i];
+      logGamma = SpecialFunctions.multivariateLogGamma(dim, nu / 2.0);
+      logGammaNext = SpecialFunctions.multivariateLogGamma(dim, (nu + 1.0) / 2.0);
+      logPrior = logDensity(kappa, normSquared, nu, trace, logDet, logGamma);
+    }
+    return logPrior;
+  }
+
+  @Override
+  public double logPredictive(SufficientStatistic _newPoints)
+  {
+    TwoMomentsSufficientStatistics newPoints = (TwoMomentsSufficientStatistics) _newPoints;
+    checkCompatible(newPoints);
+    if (newPoints.numberOfPoints() != 1)
+      return
+          logPriorDensityAtThetaStar()
+          + model.logLikelihoodGivenThetaStar(newPoints)
+          - model.logPriorDensityAtThetaStar(model.update(toHyperParameter(), newPoints));
+
+    final double logPriorBefore = logPriorDensityAtThetaStar();
+    // the posterior after adding x has kappa + 1, nu + 1, and scale
+    // matrix L L^T + c u u^T, with u = x - scriptV
+    final double c = kappa / (kappa + 1.0);
+    final double kappaPrime = kappa + 1.0;
+    double uNormSquared = 0.0, vPrimeNormSquared = 0.0;
+    for (int i = 0; i < dim; i++)
+    {
+      final double x = newPoints.sumOfValues(i);
+      final double u = x - scriptV[i];
+      work[i] = u;
+      uNormSquared += u * u;
+      final double vPrime = (kappa * scriptV[i] + x) / kappaPrime;
+      vPrimeNormSquared += vPrime * vPrime;
+    }
+    // trace and determinant (via the matrix determinant lemma) of the new scale matrix
+    final double quadraticForm = forwardSolveNormSquared(work);
+    final double tracePrime = trace + c * uNormSquared;
+    final double logDetPrime = logDet + Math.log1p(c * quadraticForm);
+    return
+        logPriorBefore
+        + model.logLikelihoodGivenThetaStar(newPoints)
+        - logDensity(kappaPrime, vPrimeNormSquared, nu + 1.0, tracePrime, logDetPrime, logGammaNext);
+  }
+
+  @Override
+  public boolean add(SufficientStatistic data)
+  {
+    return change((TwoMomentsSufficientStatistics) data, +1);
+  }
+
+  @Override
+  public boolean remove(SufficientStatistic data)
+  {
+    return change((TwoMomentsSufficientStatistics) data, -1);
+  }
+
+  @Override
+  public PredictivePosterior copy()
+  {
+    return new NIWPredictivePosterior(this);
+  }
+
+  /**
+   *
+   * @return The posterior in the form computed by CollapsedNIWModel.update()
+   */
+  public NIWHyperParameter toHyperParameter()
+  {
+    SimpleMatrix scriptVMatrix = new SimpleMatrix(dim, 1);
+    for (int i = 0; i < dim; i++)
+      scriptVMatrix.set(i, 0, scriptV[i]);
+    return new NIWHyperParameter(kappa, scriptVMatrix, nu, scaleMatrix().scale(1.0 / nu));
+  }
+
+  private boolean change(TwoMomentsSufficientStatistics data, int sign)
+  {
+    checkCompatible(data);
+    logPrior = Double.NaN;
+    final int nPoints = data.numberOfPoints();
+    if (nPoints == 0)
+      return true;
+    final double kappaPrime = kappa + sign * nPoints;
+    if (kappaPrime <= 0.0)
+      return false;
+    if (nPoints != 1)
+      return changeAndRefactorize(data, sign, kappaPrime);
+
+    // scale matrix changes by sign * c u u^T, with u = x - scriptV, where
+    // c = kappa / (kappa + 1) when adding, and kappa / (kappa - 1) when removing
+    final double sqrtC = Math.sqrt(kappa / kappaPrime);
+    for (int i = 0; i < dim; i++)
+    {
+      final double x = data.sumOfValues(i);
+      work[i] = sqrtC * (x - scriptV[i]);
+      scriptV[i] = (kappa * scriptV[i] + sign * x) / kappaPrime;
+    }
+    kappa = kappaPrime;
+    nu += sign;
+    return rankOneChange(work, sign);
+  }
+
+  /**
+   * Explicit form of CollapsedNIWModel.update(), also used (with sign = -1) to undo it
+   */
+  private boolean changeAndRefactorize(TwoMomentsSufficientStatistics data, int sign, double kappaPrime)
+  {
+    final SimpleMatrix scale = scaleMatrix();
+    final double [] scriptVPrime = new double[dim];
+    for (int i = 0; i < dim; i++)
+      scriptVPrime[i] = (kappa * scriptV[i] + sign * data.sumOfValues(i)) / kappaPrime;
+    for (int j = 0; j < dim; j++)
+      for (int i = j; i < dim; i++)
+        cholesky[index(j) + i - j] =
+            scale.get(i, j)
+            + sign * data.sumOfOuterProducts(i, j)
+            + kappa * scriptV[i] * scriptV[j]
+            - kappaPrime * scriptVPrime[i] * scriptVPrime[j];
+    System.arraycopy(scriptVPrime, 0, scriptV, 0, dim);
+    kappa = kappaPrime;
+    nu += sign * data.numberOfPoints();
+    return factorize();
+  }
+
+  /**
+   * L L^T += sign * x x^T, in place. Destroys x.
+   *
+   * @return False if the result is not positive definite
+   */
+  private boolean rankOneChange(double [] x, int sign)
+  {
+    for (int k = 0; k < dim; k++)
+    {
+      final int start = index(k);
+      final double diagonal = cholesky[start];
+      final double rSquared = diagonal * diagonal + sign * x[k] * x[k];
+      if (!(rSquared > 0.0))
+        return false;
+      final double r = Math.sqrt(rSquared);
+      final double c = r / diagonal, s = x[k] / diagonal;
+      cholesky[start] = r;
+      for (int i = k + 1; i < dim; i++)
+      {
+        final int entry = start + i - k;
+        cholesky[entry] = (cholesky[entry] + sign * s * x[i]) / c;
+        x[i] = c * x[i] - s * cholesky[entry];
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Solves L y = b in place.
+   *
+   * @return |y|^2 = b^T (L L^T)^-1 b
+   */
+  private double forwardSolveNormSquared(double [] b)
+  {
+    double result = 0.0;
+    for (int j = 0; j < dim; j++)
+    {
+      final int start = index(j);
+      final double y = b[j] / cholesky[start];
+      b[j] = y;
+      result += y * y;
+      for (int i = j + 1; i < dim; i++)
+        b[i] -= cholesky[start + i - j] * y;
+    }
+    return result;
+  }
+
+  /**
+   * Replaces the lower triangle of the scale matrix stored in cholesky by its factor.
+   *
+   * @return False if the matrix is not positive definite
+   */
+  private boolean factorize()
+  {
+    for (int j = 0; j < dim; j++)
+    {
+      final int start = index(j);
+      final double diagonal = cholesky[start];
+      if (!(diagonal > 0.0))
+        return false;
+      final double pivot = Math.sqrt(diagonal);
+      cholesky[start] = pivot;
+      for (int i = j + 1; i < dim; i++)
+        cholesky[start + i - j] /= pivot;
+      // subtract the outer product of column j from the trailing columns
+      for (int k = j + 1; k < dim; k++)
+      {
+        final double ljk = cholesky[start + k - j];
+        final int startK = index(k);
+        for (int i = k; i < dim; i++)
+          cholesky[startK + i - k] -= cholesky[start + i - j] * ljk;
+      }
+    }
+    return true;
+  }
+
+  private SimpleMatrix scaleMatrix()
+  {
+    SimpleMatrix result = new SimpleMatrix(dim, dim);
+    for (int i = 0; i < dim; i++)
+      for (int j = 0; j <= i; j++)
+      {
+        double sum = 0.0;
+        for (int k = 0; k <= j; k++)
+          sum += cholesky[index(k) + i - k] * cholesky[index(k) + j - k];
+        result.set(i, j, sum);
+        result.set(j, i, sum);
+      }
+    return result;
+  }
+
+  /**
+   * Start of column j in the packed lower triangle
+   */
+  private int index(int j)
+  {
+    return j * dim - j * (j - 1) / 2;
+  }
+
+  /**
+   * Same as CollapsedNIWModel.logPriorDensityAtThetaStar() in terms of the
+   * trace and log determinant of the scale matrix nu * delta.
+   */
+  private double logDensity(double kappa, double scriptVNormSquared, double nu, double trace, double logDet, double logMultivariateGamma)
+  {
+    double result = 0.0;
+    result -= 0.5 * trace;
+    result -= (kappa / 2.0) * scriptVNormSquared;
+    result += (nu / 2.0) * logDet;
+    result -= (nu * dim) * Math.log(2.0);
+    result -= logMultivariateGamma;
+    result -= ((double) dim) / 2.0 * Math.log(2.0 * Math.PI / kappa);
+    return result;
+  }
+
+  private void checkCompatible(TwoMomentsSufficientStatistics data)
+  {
+    if (data.dim() != dim)
+      throw new RuntimeException();
+  }
+}
@@ -1,6 +1,7 @@
 package polya.parametric.normal;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -142,37 +143,70 @@ public class NIWs
    * Creates observations ready to use by the NIW machinery from a CSV file.
    * 
    * Reads a CSV dataset where each row is a point, and columns are dimensions.
-   * Transform each datapoint into a TwoMomentsSufficientStatistics.
+   * Transform each datapoint into a TwoMomentsSufficientStatistics, all packed
+   * in a single slab.
+   * 
+   * For large datasets, convert the file once with BinaryDataset.fromCSVFile()
+   * and use loadFromBinaryFile() instead.
    * 
    * @param file
    * @return A map from datapoint index (row in file) to the sufficient stat of that row
    */
   public static Map<Integer,SufficientStatistic> loadFromCSVFile(File file)
   {
+    TwoMomentsSufficientStatistics [] stats = TwoMomentsSufficientStatistics.pack(readCSVFile(file));
     Map<Integer,SufficientStatistic> result = new HashMap<Integer,SufficientStatistic>();
-    int i = 0;
-    for (List<String> datum : BriefIO.readLines(file).splitCSV())
-    {
-      double [] parsedDatum = BriefArrays.parseDoublesToArray(datum);
-      SufficientStatistic stat = TwoMomentsSufficientStatistics.fromOnePoint(parsedDatum);
-      result.put(i++, stat);
-    }
+    for (int i = 0; i < stats.length; i++)
+      result.put(i, stats[i]);
     return result;
   }
 
   public static Map<Customer,SufficientStatistic> loadCustomersFromCSVFile(File file)
   {
+    double [][] parsed = readCSVFile(file);
+    TwoMomentsSufficientStatistics [] stats = TwoMomentsSufficientStatistics.pack(parsed);
     Map<Customer,SufficientStatistic> result = new HashMap<Customer,SufficientStatistic>();
-    int id = 0;
-    for (List<String> datum : BriefIO.readLines(file).splitCSV())
+    for (int id = 0; id < stats.length; id++)
     {
-      double [] parsedDatum = BriefArrays.parseDoublesToArray(datum);
-      SufficientStatistic stat = TwoMomentsSufficientStatistics.fromOnePoint(parsedDatum);
-      result.put(new Customer(id++, (int)parsedDatum[0], (int)parsedDatum[1], parsedDatum[2]), stat);
+      double [] parsedDatum = parsed[id];
+      result.put(new Customer(id, (int)parsedDatum[0], (int)parsedDatum[1], parsedDatum[2]), stats[id]);
     }
     return result;
   }
 
+  /**
+   * Same as loadFromCSVFile(), for a file created by BinaryDataset.fromCSVFile().
+   * The file is memory mapped, and the statistic of a datapoint is only 
+   * computed when it is looked up.
+   * 
+   * @param file
+   * @return A read only map from datapoint index (row in file) to the sufficient stat of that row
+   */
+  public static Map<Integer,SufficientStatistic> loadFromBinaryFile(File file)
+  {
+    return BinaryDataset.map(file).statistics();
+  }
+
+  /**
+   * Same as loadCustomersFromCSVFile(), for a file created by 
+   * BinaryDataset.fromCSVFile(). See loadFromBinaryFile().
+   * 
+   * @param file
+   * @return
+   */
+  public static Map<Customer,SufficientStatistic> loadCustomersFromBinaryFile(File file)
+  {
+    return BinaryDataset.map(file).customers();
+  }
+
+  private static double [][] readCSVFile(File file)
+  {
+    List<double[]> result = new ArrayList<double[]>();
+    for (List<String> datum : BriefIO.readLines(file).splitCSV())
+      result.add(BriefArrays.parseDoublesToArray(datum));
+    return result.toArray(new double[result.size()][]);
+  }
+
   /**
    * 
    * @param p1
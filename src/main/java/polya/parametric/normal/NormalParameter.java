@@ -37,4 +37,36 @@ public class NormalParameter implements HyperParameter, Parameter
 		return var.getValue();
 	}
 
+	@Override
+	public HyperParameter copy()
+	{
+		return new NormalParameter(mean(), var());
+	}
+
+	@Override
+	public int hashCode()
+	{
+		final int prime = 31;
+		int result = 1;
+		long temp = Double.doubleToLongBits(mean());
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		temp = Double.doubleToLongBits(var());
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		NormalParameter other = (NormalParameter) obj;
+		return Double.doubleToLongBits(mean()) == Double.doubleToLongBits(other.mean()) &&
+				Double.doubleToLongBits(var()) == Double.doubleToLongBits(other.var());
+	}
+
 }
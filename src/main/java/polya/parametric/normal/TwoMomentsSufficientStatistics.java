@@ -8,28 +8,32 @@ import polya.parametric.SufficientStatistic;
 /**
  * The sufficient statistic for the first two moments.
  * For example for a multivariate normal likelihood model.
- * 
+ *
+ * Stored flat in a double array, as the number of points, followed by
+ * the sum of the vectors, followed by the upper triangle (row major) of
+ * the sum of outer products. All updates are done in place.
+ *
+ * The array can either be owned by this object, or be a slab shared by
+ * many statistics (see view() and pack()), so that the statistics of
+ * a large number of individual points do not need one array each.
+ *
  * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
  *
  */
 public class TwoMomentsSufficientStatistics implements SufficientStatistic
 {
+  private final int dim;
+
   /**
-   * The number of points this object is summarizing. (Different than dim())
-   */
-  private int numberOfPoints;
-  
-  /**
-   * The sum of the vectors, \sum_i^numberOfPoints x
-   */
-  private SimpleMatrix sumOfValues;
-  
-  /**
-   * The sum of the outerproducts, \sum_i^numberOfPoints x x^T
-   * where x^T denotes transpose
+   * Contains, starting at offset, stride(dim) entries:
+   * - the number of points this object is summarizing
+   * - the sum of the vectors, \sum_i^numberOfPoints x
+   * - the upper triangle of the sum of the outerproducts,
+   *   \sum_i^numberOfPoints x x^T where x^T denotes transpose
    */
-  private SimpleMatrix sumOfOuterProducts;
-  
+  private final double [] data;
+  private final int offset;
+
   /**
    * Create an object containing the sufficient statistic for a single data point
    * @param point Array, with entry p denoting the value of the point for coordinate p
@@ -38,14 +42,11 @@ public class TwoMomentsSufficientStatistics implements SufficientStatistic
   public static TwoMomentsSufficientStatistics fromOnePoint(double [] point)
   {
     final int dim = point.length;
-    SimpleMatrix 
-      sumOfValues = new SimpleMatrix(dim, 1);
-    for (int i = 0; i < dim; i++)
-      sumOfValues.set(i, 0, point[i]);
-    SimpleMatrix sumOfOuterProd = sumOfValues.mult(sumOfValues.transpose());
-    return new TwoMomentsSufficientStatistics(1, sumOfValues, sumOfOuterProd);
+    double [] data = new double[stride(dim)];
+    writeOnePoint(data, 0, point);
+    return new TwoMomentsSufficientStatistics(dim, data, 0);
   }
-  
+
   /**
    * Create an object containing the sufficient statistic of zero points.
    * @param dim The dimensionality of the points that will inserted in the future
@@ -53,96 +54,236 @@ public class TwoMomentsSufficientStatistics implements SufficientStatistic
    */
   public static TwoMomentsSufficientStatistics fromEmpty(int dim)
   {
-    return new TwoMomentsSufficientStatistics(0, new SimpleMatrix(dim, 1), new SimpleMatrix(dim, dim));
+    return new TwoMomentsSufficientStatistics(dim, new double[stride(dim)], 0);
+  }
+
+  /**
+   * Create a statistic backed by a region of a shared slab, without copying.
+   * Modifications to the statistic write through to the slab.
+   *
+   * @param slab
+   * @param offset Start of the region, which has length stride(dim)
+   * @param dim
+   * @return
+   */
+  public static TwoMomentsSufficientStatistics view(double [] slab, int offset, int dim)
+  {
+    if (offset < 0 || offset + stride(dim) > slab.length)
+      throw new RuntimeException();
+    return new TwoMomentsSufficientStatistics(dim, slab, offset);
+  }
+
+  /**
+   * Pack the statistics of many single points into one slab.
+   *
+   * @param points Points of a common dimensionality
+   * @return Entry i is a view on the statistic of points[i]
+   */
+  public static TwoMomentsSufficientStatistics [] pack(double [][] points)
+  {
+    TwoMomentsSufficientStatistics [] result = new TwoMomentsSufficientStatistics[points.length];
+    if (points.length == 0)
+      return result;
+    final int dim = points[0].length;
+    final int stride = stride(dim);
+    double [] slab = new double[stride * points.length];
+    for (int i = 0; i < points.length; i++)
+    {
+      if (points[i].length != dim)
+        throw new RuntimeException("Dimensionality mismatch at point " + i);
+      writeOnePoint(slab, i * stride, points[i]);
+      result[i] = new TwoMomentsSufficientStatistics(dim, slab, i * stride);
+    }
+    return result;
+  }
+
+  /**
+   * @param dim
+   * @return The number of doubles used to store a statistic of dimensionality dim
+   */
+  public static int stride(int dim)
+  {
+    return 1 + dim + dim * (dim + 1) / 2;
+  }
+
+  /**
+   * Write the statistic of a single point in the region of slab starting at offset.
+   * @param slab
+   * @param offset
+   * @param point
+   */
+  public static void writeOnePoint(double [] slab, int offset, double [] point)
+  {
+    final int dim = point.length;
+    slab[offset] = 1;
+    int sums = offset + 1, triangle = sums + dim;
+    for (int i = 0; i < dim; i++)
+    {
+      slab[sums + i] = point[i];
+      for (int j = i; j < dim; j++)
+        slab[triangle++] = point[i] * point[j];
+    }
   }
 
-  private TwoMomentsSufficientStatistics(int numberOfPoints,
-      SimpleMatrix sumOfValues, SimpleMatrix sumOfOuterProducts)
+  private TwoMomentsSufficientStatistics(int dim, double [] data, int offset)
   {
-    this.numberOfPoints = numberOfPoints;
-    this.sumOfValues = sumOfValues;
-    this.sumOfOuterProducts = sumOfOuterProducts;
+    this.dim = dim;
+    this.data = data;
+    this.offset = offset;
     checks();
   }
 
   /**
-   * Check the dimensions of the matrices match
+   * Check the dimension and the number of points
    */
   private void checks()
   {
-    int dim = dim();
     if (dim < 1 ||
-        numberOfPoints < 0 ||
-        dim != sumOfOuterProducts.numCols() ||
-        dim != sumOfOuterProducts.numRows() ||
-        dim != sumOfValues.numRows() ||
-        1 != sumOfValues.numCols())
+        numberOfPoints() < 0)
       throw new RuntimeException();
   }
 
   /**
-   * 
+   *
    * @return The dimensionality of each point summarized by this object
    */
   public int dim()
   {
-    return sumOfOuterProducts.numRows();
+    return dim;
   }
-  
+
+  /**
+   *
+   * @param i
+   * @return Coordinate i of the sum of the vectors, \sum_i^numberOfPoints x
+   */
+  public double sumOfValues(int i)
+  {
+    return data[offset + 1 + i];
+  }
+
+  /**
+   *
+   * @param i
+   * @param j
+   * @return Entry (i, j) of the sum of the outerproducts, \sum_i^numberOfPoints x x^T
+   */
+  public double sumOfOuterProducts(int i, int j)
+  {
+    if (i > j)
+      return data[triangleIndex(j, i)];
+    return data[triangleIndex(i, j)];
+  }
+
+  private int triangleIndex(int i, int j)
+  {
+    return offset + 1 + dim + i * dim - i * (i - 1) / 2 + (j - i);
+  }
+
   /**
-   * 
-   * @return The sum of the vectors, \sum_i^numberOfPoints x
+   * Note: allocates a new matrix, prefer sumOfValues(int) in loops.
+   *
+   * @return A copy of the sum of the vectors, \sum_i^numberOfPoints x
    */
   public SimpleMatrix sumOfValues()
   {
-    return sumOfValues;
+    SimpleMatrix result = new SimpleMatrix(dim, 1);
+    for (int i = 0; i < dim; i++)
+      result.set(i, 0, sumOfValues(i));
+    return result;
   }
-  
+
   /**
-   * @return The sum of the outerproducts, \sum_i^numberOfPoints x x^T
+   * Note: allocates a new matrix, prefer sumOfOuterProducts(int, int) in loops.
+   *
+   * @return A copy of the sum of the outerproducts, \sum_i^numberOfPoints x x^T
    * where x^T denotes transpose
    */
   public SimpleMatrix sumOfOuterProducts()
   {
-    return sumOfOuterProducts;
+    SimpleMatrix result = new SimpleMatrix(dim, dim);
+    for (int i = 0; i < dim; i++)
+      for (int j = i; j < dim; j++)
+      {
+        final double value = data[triangleIndex(i, j)];
+        result.set(i, j, value);
+        result.set(j, i, value);
+      }
+    return result;
   }
 
   @Override
   public int numberOfPoints()
   {
-    return numberOfPoints;
+    return (int) data[offset];
+  }
+
+  /**
+   * Warning: modifies this object in place
+   *
+   * Add a single point to this statistic (a rank one update), without allocation.
+   * @param point
+   */
+  public void addPoint(double [] point)
+  {
+    if (point.length != dim)
+      throw new RuntimeException();
+    data[offset]++;
+    int sums = offset + 1, triangle = sums + dim;
+    for (int i = 0; i < dim; i++)
+    {
+      data[sums + i] += point[i];
+      final double xi = point[i];
+      for (int j = i; j < dim; j++)
+        data[triangle++] += xi * point[j];
+    }
   }
 
   @Override
   public void plusEqual(SufficientStatistic _other)
   {
     TwoMomentsSufficientStatistics other = (TwoMomentsSufficientStatistics) _other;
-    this.numberOfPoints += other.numberOfPoints;
-    this.sumOfValues = this.sumOfValues.plus(other.sumOfValues);
-    this.sumOfOuterProducts = this.sumOfOuterProducts.plus(other.sumOfOuterProducts);
+    checkCompatible(other);
+    final double [] otherData = other.data;
+    final int otherOffset = other.offset, length = stride(dim);
+    for (int i = 0; i < length; i++)
+      data[offset + i] += otherData[otherOffset + i];
   }
 
   @Override
   public void minusEqual(SufficientStatistic _other)
   {
     TwoMomentsSufficientStatistics other = (TwoMomentsSufficientStatistics) _other;
-    this.numberOfPoints -= other.numberOfPoints;
-    this.sumOfValues = this.sumOfValues.minus(other.sumOfValues);
-    this.sumOfOuterProducts = this.sumOfOuterProducts.minus(other.sumOfOuterProducts);
+    checkCompatible(other);
+    final double [] otherData = other.data;
+    final int otherOffset = other.offset, length = stride(dim);
+    for (int i = 0; i < length; i++)
+      data[offset + i] -= otherData[otherOffset + i];
+  }
+
+  private void checkCompatible(TwoMomentsSufficientStatistics other)
+  {
+    if (other.dim != dim)
+      throw new RuntimeException();
   }
 
+  /**
+   *
+   * @return A deep clone of this object, owning its own array (also when this is a view)
+   */
   @Override
   public SufficientStatistic copy()
   {
-    TwoMomentsSufficientStatistics copy = TwoMomentsSufficientStatistics.fromEmpty(dim());
-    copy.plusEqual(this);
-    return copy;
+    final int length = stride(dim);
+    double [] copy = new double[length];
+    System.arraycopy(data, offset, copy, 0, length);
+    return new TwoMomentsSufficientStatistics(dim, copy, 0);
   }
 
   @Override
   public String toString()
   {
-    return "TwoMomentsSufficientStatistics [numberOfPoints=" + numberOfPoints + "]";
+    return "TwoMomentsSufficientStatistics [numberOfPoints=" + numberOfPoints() + "]";
   }
 
 
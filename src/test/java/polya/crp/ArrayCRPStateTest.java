@@ -0,0 +1,96 @@
+package polya.crp;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.utils.ClusterId;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.NIWs;
+
+import com.beust.jcommander.internal.Sets;
+
+public class ArrayCRPStateTest
+{
+  @Test
+  public void tests()
+  {
+    ArrayCRPState state = new ArrayCRPState(NIWs.loadFromCSVFile(new File("data/tiny-data.csv")));
+
+    state.checkIntegrity();
+    state.addCustomerToNewTable(0);
+    state.checkIntegrity();
+    state.addCustomerToExistingTable(1, state.getClusterIdOfCustomer(0));
+    state.checkIntegrity();
+    Assert.assertEquals(state.partition(), part(block(0,1)));
+
+    state.addCustomerToNewTable(2);
+    state.checkIntegrity();
+    Assert.assertEquals(state.nTables(), 2);
+    Assert.assertEquals(state.nCustomers(), 3);
+    state.removeCustomer(2);
+    state.checkIntegrity();
+    Assert.assertEquals(state.nTables(), 1);
+    Assert.assertEquals(state.nCustomers(), 2);
+    state.removeCustomer(1);
+    state.checkIntegrity();
+    state.addCustomerToExistingTable(3, state.getClusterIdOfCustomer(0));
+    Assert.assertEquals(state.partition(), part(block(0,3)));
+    state.checkIntegrity();
+  }
+
+  /**
+   * Applies the same random moves to a CRPState and an ArrayCRPState and checks they agree.
+   */
+  @Test
+  public void agreesWithCRPState()
+  {
+    Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/circle.csv"));
+    CRPState reference = CRPState.fullyDisconnectedClustering(data);
+    ArrayCRPState state = ArrayCRPState.fullyDisconnectedClustering(data);
+    Random rand = new Random(1);
+    for (int i = 0; i < 10000; i++)
+    {
+      int customer = rand.nextInt(data.size());
+      reference.removeCustomer(customer);
+      state.removeCustomer(customer);
+      int other = rand.nextInt(data.size());
+      if (other == customer || rand.nextInt(10) == 0)
+      {
+        reference.addCustomerToNewTable(customer);
+        state.addCustomerToNewTable(customer);
+      }
+      else
+      {
+        reference.addCustomerToExistingTable(customer, reference.getClusterIdOfCustomer(other));
+        state.addCustomerToExistingTable(customer, state.getClusterIdOfCustomer(other));
+      }
+    }
+    reference.checkIntegrity();
+    state.checkIntegrity();
+    Assert.assertEquals(reference.partition(), state.partition());
+    Assert.assertEquals(reference.nTables(), state.nTables());
+    for (ClusterId id : state.getAllClusterIds())
+      Assert.assertEquals(state.getTable(id).size(), state.getClusterStatistics(id).numberOfPoints());
+  }
+
+  private static Set<Set<Integer>> part(@SuppressWarnings("rawtypes") Set ... blocks)
+  {
+    Set<Set<Integer>> result = Sets.newHashSet();
+    for (Set<Integer> block : blocks)
+      result.add(block);
+    return result;
+  }
+
+  private static Set<Integer> block(int ... numbers )
+  {
+    Set<Integer> result = Sets.newHashSet();
+    for (int number : numbers)
+      result.add(number);
+    return result;
+  }
+}
@@ -0,0 +1,86 @@
+package polya.crp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import polya.crp.utils.AssignmentTraceReader;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNormalNormalModel;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.NormalParameter;
+
+public class CRPTraceProcessorTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * The trace of a Gibbs run should hold the partition of the state at
+   * each call, readable before the processor is closed.
+   */
+  @Test
+  public void tracesGibbs() throws IOException
+  {
+    Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/normal_normal_data.csv"));
+    NormalParameter hp = new NormalParameter(0.0, 1.0);
+    CRPState state = CRPState.fullyDisconnectedClustering(data);
+    PYPrior prior = new PYPrior(1.0, 0.0, state);
+    CollapsedNormalNormalModel model = new CollapsedNormalNormalModel(1.0, hp);
+    Random rand = new Random(1);
+
+    File file = folder.newFile("trace");
+    CRPTraceProcessor processor = new CRPTraceProcessor(state, file);
+    List<Set<Set<Integer>>> expected = new ArrayList<Set<Set<Integer>>>();
+    final int nSamples = 20;
+    for (int sample = 0; sample < nSamples; sample++)
+    {
+      for (int i = 0; i < data.size(); i++)
+        CRPSampler.gibbs(rand, rand.nextInt(data.size()), state, hp, model, prior);
+      processor.write(5 * sample);
+      // partition() shares the sets of the state
+      Set<Set<Integer>> partition = new HashSet<Set<Integer>>();
+      for (Set<Integer> table : state.partition())
+        partition.add(new HashSet<Integer>(table));
+      expected.add(partition);
+    }
+
+    AssignmentTraceReader reader = new AssignmentTraceReader(file);
+    Assert.assertEquals(data.size(), reader.nCustomers());
+    for (int sample = 0; sample < nSamples; sample++)
+    {
+      Assert.assertTrue(reader.next());
+      Assert.assertEquals(5 * sample, reader.iteration());
+      Assert.assertEquals(expected.get(sample), partition(reader.labels()));
+    }
+    Assert.assertFalse(reader.next());
+    reader.close();
+    processor.close();
+  }
+
+  /**
+   * @return The customers of each label
+   */
+  public static Set<Set<Integer>> partition(int [] labels)
+  {
+    Map<Integer,Set<Integer>> label2Customers = new HashMap<Integer,Set<Integer>>();
+    for (int customer = 0; customer < labels.length; customer++)
+    {
+      if (!label2Customers.containsKey(labels[customer]))
+        label2Customers.put(labels[customer], new HashSet<Integer>());
+      label2Customers.get(labels[customer]).add(customer);
+    }
+    return new HashSet<Set<Integer>>(label2Customers.values());
+  }
+}
@@ -0,0 +1,76 @@
+package polya.crp;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import blang.variables.RealVariable;
+import polya.crp.utils.ClusterId;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+
+public class CRPsTest
+{
+  /**
+   * Compares the prior of the seating arrangement, which uses the table
+   * size histogram and the tabulated logarithms of PYPrior, with a direct
+   * computation, while Gibbs moves change the tables and alpha0 is
+   * modified in place (as the MH moves on the hyper-parameters do).
+   */
+  @Test
+  public void agreesWithDirectComputation() throws Exception
+  {
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    CollapsedNIWModel model = new CollapsedNIWModel(hp);
+    Random rand = new Random(1);
+    for (CRPStateInterface state : new CRPStateInterface[]{
+        CRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(new File("data/circle.csv"))),
+        ArrayCRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(new File("data/circle.csv")))})
+      for (double discount : new double[]{0.0, 0.3})
+      {
+        PYPrior prior = new PYPrior(1.0, discount, state);
+        Field alpha0Field = PYPrior.class.getDeclaredField("alpha0");
+        alpha0Field.setAccessible(true);
+        RealVariable alpha0 = (RealVariable) alpha0Field.get(prior);
+        for (int i = 0; i < 1000; i++)
+        {
+          CRPSampler.gibbs(rand, rand.nextInt(state.nCustomers()), state, hp, model, prior);
+          if (i % 100 == 0)
+          {
+            state.checkIntegrity();
+            Assert.assertEquals(direct(prior, state), CRPs.crpAssignmentLogProbabilitiy(prior, state), 1e-8);
+            Assert.assertEquals(Math.log(alpha0.getValue() + 3 * discount), prior.logUnnormalizedPredictive(0, 3), 1e-12);
+            alpha0.setValue(0.5 + 2 * rand.nextDouble());
+            Assert.assertEquals(direct(prior, state), CRPs.crpAssignmentLogProbabilitiy(prior, state), 1e-8);
+            Assert.assertEquals(Math.log(alpha0.getValue() + 3 * discount), prior.logUnnormalizedPredictive(0, 3), 1e-12);
+            Assert.assertEquals(Math.log(7 - discount), prior.logUnnormalizedPredictive(7, 3), 1e-12);
+          }
+        }
+      }
+  }
+
+  private static double direct(PYPrior prior, CRPStateInterface state)
+  {
+    final double alpha0 = prior.alpha0(), discount = prior.discount();
+    double result = 0.0;
+    int nSeated = 0, nTables = 0;
+    // sequential construction, one table after the other
+    for (ClusterId id : state.getAllClusterIds())
+    {
+      Set<Integer> table = state.getTable(id);
+      for (int k = 0; k < table.size(); k++)
+      {
+        final double numerator = k == 0 ? alpha0 + nTables * discount : k - discount;
+        result += Math.log(numerator) - Math.log(alpha0 + nSeated);
+        nSeated++;
+      }
+      nTables++;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,197 @@
+package polya.crp;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.ClusterIndex;
+import polya.crp.utils.ClusterMarginalCache;
+import polya.parametric.Parametrics;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIGModel;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.CollapsedNormalNormalModel;
+import polya.parametric.normal.NIGHyperParameter;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.NormalParameter;
+import polya.parametric.normal.TwoMomentsSufficientStatistics;
+
+public class ClusterMarginalCacheTest
+{
+  /**
+   * Runs Gibbs moves and checks the cached marginals against the ones
+   * computed from scratch, including after the hyper-parameters are
+   * modified in place.
+   */
+  @Test
+  public void agreesWithParametrics()
+  {
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    CollapsedNIWModel model = new CollapsedNIWModel(hp);
+    PYPrior prior = new PYPrior(1.0, 0.0, null);
+    Random rand = new Random(1);
+    for (CRPStateInterface state : new CRPStateInterface[]{
+        CRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(new File("data/circle.csv"))),
+        ArrayCRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(new File("data/circle.csv")))})
+    {
+      for (int i = 0; i < 2000; i++)
+      {
+        CRPSampler.gibbs(rand, rand.nextInt(state.nCustomers()), state, hp, model, prior);
+        if (i % 500 == 0)
+        {
+          check(state, model, hp);
+          hp.setKappa(hp.kappa() * 1.5);
+          check(state, model, hp);
+        }
+      }
+      check(state, model, hp);
+    }
+  }
+
+  /**
+   * Same with the batch predictives of a univariate model, which also
+   * exercises the recycling of the rows of deleted tables.
+   */
+  @Test
+  public void batchAgreesWithParametrics()
+  {
+    NIGHyperParameter hp = new NIGHyperParameter(0.0, 1.0, 2.0, 1.0);
+    CollapsedNIGModel model = new CollapsedNIGModel(hp);
+    PYPrior prior = new PYPrior(1.0, 0.0, null);
+    Random rand = new Random(1);
+    Map<Integer,SufficientStatistic> data = new HashMap<Integer,SufficientStatistic>();
+    for (int i = 0; i < 200; i++)
+      data.put(i, TwoMomentsSufficientStatistics.fromOnePoint(new double[]{(i % 3) * 5 + rand.nextGaussian()}));
+    for (CRPStateInterface state : new CRPStateInterface[]{
+        CRPState.fullyDisconnectedClustering(data),
+        ArrayCRPState.fullyDisconnectedClustering(data)})
+      for (int i = 0; i < 2000; i++)
+      {
+        CRPSampler.gibbs(rand, rand.nextInt(state.nCustomers()), state, hp, model, prior);
+        if (i % 100 == 0)
+        {
+          ClusterMarginalCache cache = state.getMarginalCache();
+          cache.checkHyperParameters(model, hp);
+          ClusterIndex ids = state.getClusterIndex();
+          SufficientStatistic point = data.get(rand.nextInt(data.size()));
+          double [] result = new double[ids.nClusters()];
+          cache.logPredictives(state, point, result);
+          for (int t = 0; t < ids.nClusters(); t++)
+          {
+            SufficientStatistic statistic = state.getClusterStatistics(ids.clusterId(t));
+            Assert.assertEquals(Parametrics.logPredictive(model, hp, point, statistic), result[t], 1e-8);
+          }
+        }
+      }
+  }
+
+  /**
+   * The running total of CRPFactor, patched by Gibbs and split-merge
+   * moves, against the sum of the marginals from scratch, with changes of
+   * the hyper-parameters (recomputed in parallel with enough tables).
+   */
+  @Test
+  public void factorRunningTotal()
+  {
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    CollapsedNIWModel model = new CollapsedNIWModel(hp);
+    PYPrior prior = new PYPrior(1.0, 0.0, null);
+    Random rand = new Random(1);
+    for (CRPStateInterface state : new CRPStateInterface[]{
+        CRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(new File("data/circle.csv"))),
+        ArrayCRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(new File("data/circle.csv")))})
+    {
+      CRPFactor factor = new CRPFactor(model, state);
+      for (int i = 0; i < 3000; i++)
+      {
+        if (i % 3 == 0)
+          SplitMergeSampler.splitMerge(rand, state, hp, model, prior);
+        else
+          CRPSampler.gibbs(rand, rand.nextInt(state.nCustomers()), state, hp, model, prior);
+        if (i % (1 + rand.nextInt(20)) == 0)
+        {
+          double expected = 0.0;
+          for (ClusterId id : state.getAllClusterIds())
+            expected += Parametrics.logMarginal(model, hp, state.getClusterStatistics(id));
+          Assert.assertEquals(expected, factor.logDensity(), 1e-6);
+        }
+        if (i % 1000 == 0)
+          hp.setKappa(hp.kappa() * 1.5);
+      }
+    }
+  }
+
+  /**
+   * Tables whose ids are beyond the entries of the cache, first seen when
+   * patching the running total.
+   */
+  @Test
+  public void runningTotalWithNewId()
+  {
+    NIGHyperParameter hp = new NIGHyperParameter(0.0, 1.0, 2.0, 1.0);
+    CollapsedNIGModel model = new CollapsedNIGModel(hp);
+    Map<Integer,SufficientStatistic> data = new HashMap<Integer,SufficientStatistic>();
+    for (int i = 0; i < 40; i++)
+      data.put(i, TwoMomentsSufficientStatistics.fromOnePoint(new double[]{i}));
+    CRPState state = new CRPState(data);
+    for (int i = 0; i < 8; i++)
+      state.addCustomerToNewTable(i);
+    CRPFactor factor = new CRPFactor(model, state);
+    factor.logDensity();
+    // ids 8, ..., 39, beyond the 16 entries of the cache
+    for (int i = 8; i < 40; i++)
+      state.addCustomerToNewTable(i);
+    Assert.assertEquals(39, state.getClusterIdOfCustomer(39).id());
+    double expected = 0.0;
+    for (ClusterId id : state.getAllClusterIds())
+      expected += Parametrics.logMarginal(model, hp, state.getClusterStatistics(id));
+    Assert.assertEquals(expected, factor.logDensity(), 1e-8);
+  }
+
+  /**
+   * The ids of the tables index the entries of the cache, so they should
+   * stay below the largest number of tables seen, however long the run.
+   */
+  @Test
+  public void idsStayBounded()
+  {
+    Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/normal_normal_data.csv"));
+    NormalParameter hp = new NormalParameter(0.0, 1.0);
+    CollapsedNormalNormalModel model = new CollapsedNormalNormalModel(1.0, hp);
+    for (CRPStateInterface state : new CRPStateInterface[]{
+        CRPState.fullyDisconnectedClustering(data),
+        ArrayCRPState.fullyDisconnectedClustering(data)})
+    {
+      PYPrior prior = new PYPrior(100.0, 0.0, state);
+      Random rand = new Random(1);
+      int maxTables = state.nTables();
+      for (int sweep = 0; sweep < 200; sweep++)
+      {
+        for (int i = 0; i < data.size(); i++)
+        {
+          CRPSampler.gibbs(rand, i, state, hp, model, prior);
+          maxTables = Math.max(maxTables, state.nTables());
+        }
+        for (ClusterId id : state.getAllClusterIds())
+          Assert.assertTrue(id.id() < maxTables);
+      }
+    }
+  }
+
+  private static void check(CRPStateInterface state, CollapsedNIWModel model, NIWHyperParameter hp)
+  {
+    ClusterMarginalCache cache = state.getMarginalCache();
+    cache.checkHyperParameters(model, hp);
+    for (ClusterId id : state.getAllClusterIds())
+      Assert.assertEquals(
+          Parametrics.logMarginal(model, hp, state.getClusterStatistics(id)),
+          cache.logMarginal(id, state.getClusterStatistics(id)),
+          1e-8);
+  }
+}
@@ -0,0 +1,56 @@
+package polya.crp;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNormalNormalModel;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.NormalParameter;
+
+public class MetropolisCRPSamplerTest
+{
+  /**
+   * Compares the posterior mean of the number of tables and of the size of
+   * the table of customer 0 with the one from Gibbs, with a discount so
+   * that the proposal differs from the prior predictive.
+   */
+  @Test
+  public void agreesWithGibbs()
+  {
+    Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/normal_normal_data.csv"));
+    NormalParameter hp = new NormalParameter(0.0, 1.0);
+    CollapsedNormalNormalModel model = new CollapsedNormalNormalModel(1.0, hp);
+    final int nSweeps = 3000, burnIn = 300;
+    double [] gibbs = new double[2], metropolis = new double[2];
+    for (boolean useMetropolis : new boolean[]{false, true})
+    {
+      CRPState state = CRPState.fullyDisconnectedClustering(data);
+      PYPrior prior = new PYPrior(1.0, 0.3, state);
+      Random rand = new Random(1);
+      double [] sums = useMetropolis ? metropolis : gibbs;
+      for (int sweep = 0; sweep < nSweeps; sweep++)
+      {
+        for (int i = 0; i < data.size(); i++)
+          if (useMetropolis)
+            MetropolisCRPSampler.metropolis(rand, rand.nextInt(data.size()), state, hp, model, prior, 4);
+          else
+            CRPSampler.gibbs(rand, rand.nextInt(data.size()), state, hp, model, prior);
+        if (sweep >= burnIn)
+        {
+          sums[0] += ((double) state.nTables()) / (nSweeps - burnIn);
+          sums[1] += ((double) state.getTableOfCustomer(0).size()) / (nSweeps - burnIn);
+        }
+      }
+      state.checkIntegrity();
+    }
+    System.out.println("gibbs:      nTables=" + gibbs[0] + ", size of table of 0=" + gibbs[1]);
+    System.out.println("metropolis: nTables=" + metropolis[0] + ", size of table of 0=" + metropolis[1]);
+    Assert.assertEquals(gibbs[0], metropolis[0], 0.1 * gibbs[0]);
+    Assert.assertEquals(gibbs[1], metropolis[1], 0.1 * gibbs[1]);
+  }
+}
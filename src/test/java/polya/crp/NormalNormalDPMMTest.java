@@ -1,9 +1,7 @@
 package polya.crp;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -11,12 +9,12 @@ import polya.crp.CRPFactor;
 import polya.crp.CRPState;
 import polya.crp.PYPrior;
 import polya.crp.utils.ClusterId;
+import polya.crp.utils.TableSizeIndex;
 import polya.parametric.SufficientStatistic;
 import polya.parametric.normal.CollapsedNormalNormalModel;
 import polya.parametric.normal.NIWs;
 import polya.parametric.normal.NormalParameter;
 import polya.parametric.normal.TwoMomentsSufficientStatistics;
-import bayonet.distributions.Multinomial;
 import bayonet.distributions.Normal;
 import blang.MCMCAlgorithm;
 import blang.MCMCFactory;
@@ -106,30 +104,17 @@ public class NormalNormalDPMMTest implements Runnable, Processor
 	    // 2 a. For each z_i, mu_{z_i} ~ N(mu0, var0) 
 	    // 2 b. draw x_i | z_i ~ N(mu_{z_i}, var)
 
-	    // Step 1.
-	    List<Integer> tables = new ArrayList<Integer>();
-	    int nTables = 0;
+	    // Step 1., each existing table drawn in O(log nTables)
+	    TableSizeIndex tables = new TableSizeIndex();
 	    for (int i = 0; i < numDataPoints; i++)
 	    {
-		    nTables = tables.size();
-	    	double [] assignmentProbs = new double[nTables + 1];
-	    	for (int j = 0; j < nTables; j++)
-	    	{
-	    		assignmentProbs[j] = tables.get(j)/(i + alpha0); 
-	    	}
-	    	assignmentProbs[nTables] = alpha0/(i + alpha0);
-
-	    	int tableIndex = Multinomial.sampleMultinomial(rand, assignmentProbs);
-	    	if (tableIndex == nTables)
-	    	{
-	    		tables.add(1);
-	    	} 
-	    	else 
-	    	{
-	    		tables.set(tableIndex, tables.get(tableIndex) + 1);
-	    	}
+	    	if (rand.nextDouble() * (i + alpha0) < i)
+	    		tables.increment(tables.clusterId(tables.sampleSlot(rand, 0.0)));
+	    	else
+	    		tables.add(new ClusterId(tables.nTables()));
 	    }
-	    System.out.println("nTables generated=" + tables.size());
+	    final int nTables = tables.nTables();
+	    System.out.println("nTables generated=" + nTables);
 
 	    // Step 2.
 	    Map<Integer, SufficientStatistic> data = new HashMap<Integer, SufficientStatistic>();
@@ -137,7 +122,7 @@ public class NormalNormalDPMMTest implements Runnable, Processor
 	    double [] trueMean = new double[nTables];
 		for (int i = 0; i < nTables; i++)
 	    {
-			int numCustomers = tables.get(i);
+			int numCustomers = tables.sizeAt(i);
 
 			// draw mu ~ N(mu0, sigma0^2)
 	    	double mu = Normal.generate(rand, mu0, var0);
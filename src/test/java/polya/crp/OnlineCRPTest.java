@@ -0,0 +1,90 @@
+package polya.crp;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.utils.ClusterId;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNormalNormalModel;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.NormalParameter;
+import polya.parametric.normal.TwoMomentsSufficientStatistics;
+
+public class OnlineCRPTest
+{
+  /**
+   * With a window holding all the customers, rejuvenation sweeps should
+   * target the same posterior as CRPSampler.gibbs().
+   */
+  @Test
+  public void agreesWithGibbs()
+  {
+    Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/normal_normal_data.csv"));
+    NormalParameter hp = new NormalParameter(0.0, 1.0);
+    CollapsedNormalNormalModel model = new CollapsedNormalNormalModel(1.0, hp);
+    final int nSweeps = 3000, burnIn = 300;
+    Random rand = new Random(1);
+
+    CRPState state = CRPState.fullyDisconnectedClustering(data);
+    PYPrior prior = new PYPrior(1.0, 0.2, state);
+    double gibbs = 0.0, online = 0.0;
+    for (int sweep = 0; sweep < nSweeps; sweep++)
+    {
+      for (int i = 0; i < data.size(); i++)
+        CRPSampler.gibbs(rand, rand.nextInt(data.size()), state, hp, model, prior);
+      if (sweep >= burnIn)
+        gibbs += ((double) state.nTables()) / (nSweeps - burnIn);
+    }
+
+    OnlineCRP onlineCRP = new OnlineCRP(model, hp, prior, OnlineCRP.Window.SLIDING, data.size(), 1);
+    for (int i = 0; i < data.size(); i++)
+      onlineCRP.observe(rand, data.get(i));
+    for (int sweep = 0; sweep < nSweeps; sweep++)
+    {
+      onlineCRP.sweep(rand);
+      if (sweep >= burnIn)
+        online += ((double) onlineCRP.nTables()) / (nSweeps - burnIn);
+    }
+    System.out.println("gibbs: nTables=" + gibbs + ", online: nTables=" + online);
+    Assert.assertEquals(gibbs, online, 0.1 * gibbs);
+  }
+
+  /**
+   * Long streams with a small window: the retired customers should still be
+   * counted in the tables, and two well separated clusters found.
+   */
+  @Test
+  public void windows()
+  {
+    NormalParameter hp = new NormalParameter(0.0, 100.0);
+    CollapsedNormalNormalModel model = new CollapsedNormalNormalModel(1.0, hp);
+    PYPrior prior = new PYPrior(1.0, 0.0, null);
+    for (OnlineCRP.Window window : OnlineCRP.Window.values())
+    {
+      Random rand = new Random(1);
+      OnlineCRP onlineCRP = new OnlineCRP(model, hp, prior, window, 20, 5);
+      final int n = 5000;
+      for (int i = 0; i < n; i++)
+        onlineCRP.observe(rand, TwoMomentsSufficientStatistics.fromOnePoint(new double[]{(i % 2 == 0 ? -10.0 : 10.0) + rand.nextGaussian()}));
+      Assert.assertEquals(n, onlineCRP.nCustomers());
+      Assert.assertEquals(20, onlineCRP.nInWindow());
+      int nCustomers = 0, nLarge = 0;
+      for (ClusterId table : onlineCRP.getAllClusterIds())
+      {
+        final int size = onlineCRP.tableSize(table);
+        Assert.assertEquals(size, onlineCRP.getClusterStatistics(table).numberOfPoints());
+        nCustomers += size;
+        if (size > n / 4)
+          nLarge++;
+      }
+      Assert.assertEquals(n, nCustomers);
+      Assert.assertEquals(2, nLarge);
+      if (window == OnlineCRP.Window.SLIDING)
+        Assert.assertEquals(n - 20, onlineCRP.getWindowCustomer(0));
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package polya.crp;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNormalNormalModel;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.NormalParameter;
+
+public class ParallelCRPSamplerTest
+{
+  private final Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/normal_normal_data.csv"));
+  private final NormalParameter hp = new NormalParameter(0.0, 1.0);
+  private final CollapsedNormalNormalModel model = new CollapsedNormalNormalModel(1.0, hp);
+
+  private static final int N_SWEEPS = 6000, BURN_IN = 300;
+
+  /**
+   * Compares the posterior mean of the number of tables and of the size of
+   * the table of customer 0 with the one from sequential Gibbs.
+   */
+  @Test
+  public void agreesWithSequentialGibbs()
+  {
+    double [] sequential = new double[2], parallel = new double[2];
+
+    CRPState state = CRPState.fullyDisconnectedClustering(data);
+    PYPrior prior = new PYPrior(1.0, 0.0, state);
+    Random rand = new Random(1);
+    for (int sweep = 0; sweep < N_SWEEPS; sweep++)
+    {
+      for (int i = 0; i < data.size(); i++)
+        CRPSampler.gibbs(rand, rand.nextInt(data.size()), state, hp, model, prior);
+      if (sweep >= BURN_IN)
+        record(state, sequential);
+    }
+
+    state = CRPState.fullyDisconnectedClustering(data);
+    prior = new PYPrior(1.0, 0.0, state);
+    rand = new Random(1);
+    for (int sweep = 0; sweep < N_SWEEPS; sweep++)
+    {
+      ParallelCRPSampler.sweep(rand, state, hp, model, prior, 4, ParallelCRPSampler.defaultExecutor());
+      state.checkIntegrity();
+      if (sweep >= BURN_IN)
+        record(state, parallel);
+    }
+
+    System.out.println("sequential: nTables=" + sequential[0] + ", size of table of 0=" + sequential[1]);
+    System.out.println("parallel:   nTables=" + parallel[0] + ", size of table of 0=" + parallel[1]);
+    Assert.assertEquals(sequential[0], parallel[0], 0.1 * sequential[0]);
+    Assert.assertEquals(sequential[1], parallel[1], 0.1 * sequential[1]);
+  }
+
+  /**
+   * The result should only depend on the seed and the number of shards.
+   */
+  @Test
+  public void reproducible()
+  {
+    CRPState state1 = CRPState.fullyDisconnectedClustering(data);
+    CRPState state2 = CRPState.fullyDisconnectedClustering(data);
+    Random rand1 = new Random(1), rand2 = new Random(1);
+    for (int sweep = 0; sweep < 20; sweep++)
+    {
+      ParallelCRPSampler.sweep(rand1, state1, hp, model, new PYPrior(1.0, 0.0, state1), 8, ParallelCRPSampler.defaultExecutor());
+      ParallelCRPSampler.sweep(rand2, state2, hp, model, new PYPrior(1.0, 0.0, state2), 8, ParallelCRPSampler.defaultExecutor());
+    }
+    Assert.assertEquals(state1.partition(), state2.partition());
+  }
+
+  private void record(CRPState state, double [] sums)
+  {
+    final int nSamples = N_SWEEPS - BURN_IN;
+    sums[0] += ((double) state.nTables()) / nSamples;
+    sums[1] += ((double) state.getTableOfCustomer(0).size()) / nSamples;
+  }
+}
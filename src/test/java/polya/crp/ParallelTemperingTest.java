@@ -0,0 +1,132 @@
+package polya.crp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.ParallelTempering;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNormalNormalModel;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.NormalParameter;
+
+public class ParallelTemperingTest
+{
+  private final Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/normal_normal_data.csv"));
+  private final NormalParameter hp = new NormalParameter(0.0, 1.0);
+
+  private static final int N_ROUNDS = 3000, BURN_IN = 300, N_REPLICAS = 4;
+
+  /**
+   * Compares the posterior mean of the number of tables and of the size of
+   * the table of a customer, averaged over the customers (which varies
+   * less between runs than for a single customer), at the cold rung with
+   * the one from Gibbs.
+   */
+  @Test
+  public void agreesWithGibbs()
+  {
+    double [] gibbs = new double[2], tempered = new double[2];
+
+    CRPState state = CRPState.fullyDisconnectedClustering(data);
+    PYPrior prior = new PYPrior(1.0, 0.0, state);
+    CollapsedNormalNormalModel model = new CollapsedNormalNormalModel(1.0, hp);
+    Random rand = new Random(1);
+    for (int sweep = 0; sweep < N_ROUNDS; sweep++)
+    {
+      for (int i = 0; i < data.size(); i++)
+        CRPSampler.gibbs(rand, rand.nextInt(data.size()), state, hp, model, prior);
+      if (sweep >= BURN_IN)
+        record(state, gibbs);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(N_REPLICAS);
+    try
+    {
+      ParallelTempering<CRPReplica> sampler = newSampler(new Random(1), executor);
+      sampler.nAdaptiveRounds = BURN_IN;
+      for (int round = 0; round < N_ROUNDS; round++)
+      {
+        sampler.round();
+        if (round >= BURN_IN)
+          record(sampler.coldReplica().getState(), tempered);
+      }
+      for (int rung = 0; rung < N_REPLICAS; rung++)
+        ((CRPState) sampler.getReplica(rung).getState()).checkIntegrity();
+      for (int k = 0; k < N_REPLICAS - 1; k++)
+        System.out.println("swap acceptance " + k + ": " + sampler.swapAcceptanceRate(k));
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+
+    System.out.println("gibbs:    nTables=" + gibbs[0] + ", size of table of a customer=" + gibbs[1]);
+    System.out.println("tempered: nTables=" + tempered[0] + ", size of table of a customer=" + tempered[1]);
+    Assert.assertEquals(gibbs[0], tempered[0], 0.1 * gibbs[0]);
+    Assert.assertEquals(gibbs[1], tempered[1], 0.1 * gibbs[1]);
+  }
+
+  /**
+   * The adapted ladder should keep its ends, stay ordered, and not depend
+   * on the number of threads.
+   */
+  @Test
+  public void ladder()
+  {
+    List<double []> ladders = new ArrayList<double []>();
+    for (int nThreads : new int[]{1, N_REPLICAS})
+    {
+      ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+      try
+      {
+        ParallelTempering<CRPReplica> sampler = newSampler(new Random(2), executor);
+        sampler.nAdaptiveRounds = 200;
+        sampler.run(300);
+        ladders.add(sampler.getInverseTemperatures());
+      }
+      finally
+      {
+        executor.shutdown();
+      }
+    }
+    double [] ladder = ladders.get(0);
+    Assert.assertArrayEquals(ladder, ladders.get(1), 0.0);
+    Assert.assertEquals(1.0, ladder[0], 0.0);
+    Assert.assertEquals(1.0 / MAX_TEMPERATURE, ladder[N_REPLICAS - 1], 1e-12);
+    for (int k = 0; k < N_REPLICAS - 1; k++)
+      Assert.assertTrue(ladder[k] > ladder[k + 1]);
+  }
+
+  private static final double MAX_TEMPERATURE = 2.0;
+
+  private ParallelTempering<CRPReplica> newSampler(Random rand, ExecutorService executor)
+  {
+    List<CRPReplica> replicas = new ArrayList<CRPReplica>();
+    for (int i = 0; i < N_REPLICAS; i++)
+    {
+      CRPState state = CRPState.fullyDisconnectedClustering(data);
+      CRPFactor likelihood = new CRPFactor(new CollapsedNormalNormalModel(1.0, hp), state);
+      replicas.add(new CRPReplica(likelihood, new PYPrior(1.0, 0.0, state)));
+    }
+    return new ParallelTempering<CRPReplica>(replicas, MAX_TEMPERATURE, rand, executor);
+  }
+
+  private void record(CRPStateInterface state, double [] sums)
+  {
+    final int nSamples = N_ROUNDS - BURN_IN;
+    sums[0] += ((double) state.nTables()) / nSamples;
+    double sumOfSquares = 0.0;
+    for (ClusterId id : state.getAllClusterIds())
+      sumOfSquares += Math.pow(state.getTable(id).size(), 2);
+    sums[1] += sumOfSquares / state.nCustomers() / nSamples;
+  }
+}
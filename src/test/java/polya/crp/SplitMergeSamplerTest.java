@@ -0,0 +1,89 @@
+package polya.crp;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.CollapsedNormalNormalModel;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.NormalParameter;
+
+public class SplitMergeSamplerTest
+{
+  /**
+   * The target ratio computed by the move should be the change of the
+   * log densities of the factors, and reverting should restore the
+   * partition.
+   */
+  @Test
+  public void targetRatioMatchesFactors()
+  {
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    CollapsedNIWModel model = new CollapsedNIWModel(hp);
+    CRPState state = CRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(new File("data/circle.csv")));
+    PYPrior prior = new PYPrior(1.0, 0.3, state);
+    CRPFactor factor = new CRPFactor(model, state);
+    Random rand = new Random(1);
+    for (int i = 0; i < 300; i++)
+    {
+      CRPSampler.gibbs(rand, rand.nextInt(state.nCustomers()), state, hp, model, prior);
+      SplitMergeSampler.Move move = SplitMergeSampler.proposeMove(rand, state, hp, model, prior);
+      Set<Set<Integer>> before = new HashSet<Set<Integer>>();
+      for (Set<Integer> table : state.partition())
+        before.add(new HashSet<Integer>(table));
+      final double logDensityBefore = prior.logDensity() + factor.logDensity();
+      move.apply();
+      state.checkIntegrity();
+      final double logDensityAfter = prior.logDensity() + factor.logDensity();
+      Assert.assertEquals(logDensityAfter - logDensityBefore, move.logTargetRatio, 1e-6);
+      move.revert();
+      Assert.assertEquals(before, state.partition());
+    }
+  }
+
+  /**
+   * Compares the posterior mean of the number of tables and of the size of
+   * the table of customer 0 with the one from Gibbs alone.
+   */
+  @Test
+  public void agreesWithGibbs()
+  {
+    Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/normal_normal_data.csv"));
+    NormalParameter hp = new NormalParameter(0.0, 1.0);
+    CollapsedNormalNormalModel model = new CollapsedNormalNormalModel(1.0, hp);
+    final int nSweeps = 3000, burnIn = 300;
+    double [] gibbs = new double[2], splitMerge = new double[2];
+    for (boolean useSplitMerge : new boolean[]{false, true})
+    {
+      CRPState state = CRPState.fullyDisconnectedClustering(data);
+      PYPrior prior = new PYPrior(1.0, 0.0, state);
+      Random rand = new Random(1);
+      double [] sums = useSplitMerge ? splitMerge : gibbs;
+      for (int sweep = 0; sweep < nSweeps; sweep++)
+      {
+        for (int i = 0; i < data.size(); i++)
+          CRPSampler.gibbs(rand, rand.nextInt(data.size()), state, hp, model, prior);
+        if (useSplitMerge)
+          for (int i = 0; i < 10; i++)
+            SplitMergeSampler.splitMerge(rand, state, hp, model, prior);
+        if (sweep >= burnIn)
+        {
+          sums[0] += ((double) state.nTables()) / (nSweeps - burnIn);
+          sums[1] += ((double) state.getTableOfCustomer(0).size()) / (nSweeps - burnIn);
+        }
+      }
+    }
+    System.out.println("gibbs:       nTables=" + gibbs[0] + ", size of table of 0=" + gibbs[1]);
+    System.out.println("split-merge: nTables=" + splitMerge[0] + ", size of table of 0=" + splitMerge[1]);
+    Assert.assertEquals(gibbs[0], splitMerge[0], 0.1 * gibbs[0]);
+    Assert.assertEquals(gibbs[1], splitMerge[1], 0.1 * gibbs[1]);
+  }
+}
@@ -0,0 +1,96 @@
+package polya.crp.smc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bayonet.math.NumericalUtils;
+import polya.crp.CRPState;
+import polya.crp.CRPs;
+import polya.crp.PYPrior;
+import polya.crp.utils.ClusterId;
+import polya.parametric.Parametrics;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+
+public class CRPSMCTest
+{
+  /**
+   * Compares the marginal likelihood estimate with the exact one, obtained
+   * by enumerating the partitions of a few customers.
+   */
+  @Test
+  public void marginalLikelihood()
+  {
+    Map<Integer,SufficientStatistic> all = NIWs.loadFromCSVFile(new File("data/circle.csv"));
+    Map<Integer,SufficientStatistic> data = new HashMap<Integer,SufficientStatistic>();
+    for (int i = 0; i < 7; i++)
+      data.put(i, all.get(i));
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    CollapsedNIWModel model = new CollapsedNIWModel(hp);
+    PYPrior prior = new PYPrior(1.0, 0.3, null);
+
+    final double exact = exactLogMarginal(new CRPState(data), 0, model, hp, prior);
+    CRPSMC smc = CRPSMC.run(new Random(1), data, model, hp, new PYPrior(1.0, 0.3, null), 5000);
+    System.out.println("exact: " + exact + ", smc: " + smc.logMarginalLikelihood() + ", resamplings: " + smc.nResamplings());
+    Assert.assertEquals(exact, smc.logMarginalLikelihood(), 0.05);
+    Assert.assertEquals(7, smc.sampleState(new Random(1)).nCustomers());
+  }
+
+  private static double exactLogMarginal(CRPState state, int customer, CollapsedNIWModel model, NIWHyperParameter hp, PYPrior prior)
+  {
+    if (customer == 7)
+    {
+      double result = CRPs.crpAssignmentLogProbabilitiy(new PYPrior(prior.alpha0(), prior.discount(), state), state);
+      for (ClusterId id : state.getAllClusterIds())
+        result += Parametrics.logMarginal(model, hp, state.getClusterStatistics(id));
+      return result;
+    }
+    double result = Double.NEGATIVE_INFINITY;
+    for (ClusterId id : new ArrayList<ClusterId>(state.getAllClusterIds()))
+    {
+      state.addCustomerToExistingTable(customer, id);
+      result = NumericalUtils.logAdd(result, exactLogMarginal(state, customer + 1, model, hp, prior));
+      state.removeCustomer(customer);
+    }
+    state.addCustomerToNewTable(customer);
+    result = NumericalUtils.logAdd(result, exactLogMarginal(state, customer + 1, model, hp, prior));
+    state.removeCustomer(customer);
+    return result;
+  }
+
+  /**
+   * The result should only depend on the Random, not on the number of
+   * tasks.
+   */
+  @Test
+  public void independentOfTasks()
+  {
+    Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/circle.csv"));
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    CollapsedNIWModel model = new CollapsedNIWModel(hp);
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    List<Double> estimates = new ArrayList<Double>();
+    for (int nTasks : new int[]{1, 3, 7})
+    {
+      CRPSMC smc = new CRPSMC(model, hp, new PYPrior(1.0, 0.0, null), 100, executor, nTasks);
+      Random rand = new Random(1);
+      for (int i = 0; i < data.size(); i++)
+        smc.add(rand, i, data.get(i));
+      estimates.add(smc.logMarginalLikelihood());
+    }
+    executor.shutdown();
+    Assert.assertEquals(estimates.get(0), estimates.get(1));
+    Assert.assertEquals(estimates.get(0), estimates.get(2));
+  }
+}
@@ -0,0 +1,56 @@
+package polya.crp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AssignmentTraceTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Writes samples where a few customers change at a time, with unseated
+   * customers and large labels, and reads them back.
+   */
+  @Test
+  public void roundTrip() throws IOException
+  {
+    File file = folder.newFile("trace");
+    Random rand = new Random(1);
+    final int nCustomers = 5000, nSamples = 500;
+    List<int []> expected = new ArrayList<int []>();
+    int [] labels = new int[nCustomers];
+    AssignmentTraceWriter writer = new AssignmentTraceWriter(file, nCustomers);
+    for (int sample = 0; sample < nSamples; sample++)
+    {
+      final int nChanges = sample == 0 ? nCustomers : rand.nextInt(20);
+      for (int i = 0; i < nChanges; i++)
+        labels[rand.nextInt(nCustomers)] = rand.nextInt(10) == 0 ? -1 : rand.nextInt(rand.nextBoolean() ? 100 : Integer.MAX_VALUE);
+      writer.write(10 * sample, labels);
+      expected.add(labels.clone());
+    }
+    writer.close();
+    Assert.assertEquals(nSamples, writer.nSamples());
+    // much smaller than a full vector per sample
+    Assert.assertTrue(file.length() < 4L * nCustomers * nSamples / 20);
+
+    AssignmentTraceReader reader = new AssignmentTraceReader(file);
+    Assert.assertEquals(nCustomers, reader.nCustomers());
+    for (int sample = 0; sample < nSamples; sample++)
+    {
+      Assert.assertTrue(reader.next());
+      Assert.assertEquals(10 * sample, reader.iteration());
+      Assert.assertArrayEquals(expected.get(sample), reader.labels());
+    }
+    Assert.assertFalse(reader.next());
+    reader.close();
+  }
+}
@@ -0,0 +1,78 @@
+package polya.crp.utils;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bayonet.distributions.Multinomial;
+
+public class CategoricalSamplerTest
+{
+  private static final double [] logWeights = {Math.log(0.1), Double.NEGATIVE_INFINITY, 3.0, Math.log(2.0), 2.5, Double.NEGATIVE_INFINITY};
+
+  private static double [] probabilities()
+  {
+    double [] result = logWeights.clone();
+    Multinomial.expNormalize(result);
+    return result;
+  }
+
+  private static void checkFrequencies(int [] counts, int nDraws)
+  {
+    double [] probabilities = probabilities();
+    for (int i = 0; i < counts.length; i++)
+    {
+      final double sd = Math.sqrt(probabilities[i] * (1.0 - probabilities[i]) / nDraws);
+      Assert.assertEquals(probabilities[i], ((double) counts[i]) / nDraws, 5 * sd + 1e-12);
+    }
+  }
+
+  @Test
+  public void sampleMatchesMultinomial()
+  {
+    CategoricalSampler sampler = new CategoricalSampler();
+    double [] probabilities = probabilities();
+    Random rand = new Random(1), reference = new Random(1);
+    for (int draw = 0; draw < 10000; draw++)
+    {
+      System.arraycopy(logWeights, 0, sampler.logWeights(logWeights.length), 0, logWeights.length);
+      Assert.assertEquals(Multinomial.sampleMultinomial(reference, probabilities), sampler.sample(rand, logWeights.length));
+    }
+    double expected = Double.NEGATIVE_INFINITY;
+    for (double logWeight : logWeights)
+      expected = Math.max(expected, logWeight) + Math.log1p(Math.exp(Math.min(expected, logWeight) - Math.max(expected, logWeight)));
+    Assert.assertEquals(expected, sampler.logNormalization(), 1e-12);
+  }
+
+  @Test
+  public void gumbelMax()
+  {
+    CategoricalSampler sampler = new CategoricalSampler();
+    Random rand = new Random(2);
+    final int nDraws = 100000;
+    int [] counts = new int[logWeights.length];
+    System.arraycopy(logWeights, 0, sampler.logWeights(logWeights.length), 0, logWeights.length);
+    for (int draw = 0; draw < nDraws; draw++)
+      counts[sampler.sampleGumbelMax(rand, logWeights.length)]++;
+    checkFrequencies(counts, nDraws);
+  }
+
+  @Test
+  public void aliasTable()
+  {
+    AliasTable table = new AliasTable();
+    // a larger table first, to check that the arrays are reused correctly
+    table.rebuild(new double[]{0.0, 1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0}, 9);
+    table.rebuild(logWeights, logWeights.length);
+    Random rand = new Random(3);
+    final int nDraws = 100000;
+    int [] counts = new int[logWeights.length];
+    for (int draw = 0; draw < nDraws; draw++)
+      counts[table.sample(rand)]++;
+    checkFrequencies(counts, nDraws);
+    double [] probabilities = probabilities();
+    for (int i = 0; i < logWeights.length; i++)
+      Assert.assertEquals(Math.log(probabilities[i]), table.logProbability(i), 1e-12);
+  }
+}
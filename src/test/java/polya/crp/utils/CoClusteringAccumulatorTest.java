@@ -0,0 +1,167 @@
+package polya.crp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CoClusteringAccumulatorTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static List<int []> samples(Random rand, int nCustomers, int nSamples)
+  {
+    List<int []> result = new ArrayList<int []>();
+    int [] labels = new int[nCustomers];
+    for (int c = 0; c < nCustomers; c++)
+      labels[c] = c % 4;
+    for (int sample = 0; sample < nSamples; sample++)
+    {
+      for (int i = 0; i < 5; i++)
+        labels[rand.nextInt(nCustomers)] = rand.nextInt(6);
+      result.add(labels.clone());
+    }
+    return result;
+  }
+
+  private static double [][] densePSM(List<int []> samples, int nCustomers)
+  {
+    double [][] result = new double[nCustomers][nCustomers];
+    for (int [] labels : samples)
+      for (int i = 0; i < nCustomers; i++)
+        for (int j = 0; j < nCustomers; j++)
+          if (labels[i] == labels[j])
+            result[i][j] += 1.0 / samples.size();
+    return result;
+  }
+
+  private static double denseBinderLoss(double [][] psm, int [] labels)
+  {
+    double result = 0.0;
+    for (int i = 0; i < labels.length; i++)
+      for (int j = i + 1; j < labels.length; j++)
+      {
+        final double difference = (labels[i] == labels[j] ? 1.0 : 0.0) - psm[i][j];
+        result += difference * difference;
+      }
+    return result;
+  }
+
+  @Test
+  public void exactMatchesDense()
+  {
+    Random rand = new Random(1);
+    final int nCustomers = 40;
+    List<int []> samples = samples(rand, nCustomers, 200);
+    CoClusteringAccumulator accumulator = CoClusteringAccumulator.exact(nCustomers);
+    for (int [] labels : samples)
+      accumulator.add(labels);
+    double [][] psm = densePSM(samples, nCustomers);
+    for (int i = 0; i < nCustomers; i++)
+      for (int j = 0; j < nCustomers; j++)
+        Assert.assertEquals(psm[i][j], accumulator.similarity(i, j), 1e-10);
+    for (int [] candidate : samples.subList(0, 20))
+      Assert.assertEquals(denseBinderLoss(psm, candidate), accumulator.binderLoss(candidate), 1e-8);
+  }
+
+  @Test
+  public void sampledEstimatesLoss()
+  {
+    Random rand = new Random(2);
+    final int nCustomers = 200;
+    List<int []> samples = samples(rand, nCustomers, 100);
+    CoClusteringAccumulator accumulator = CoClusteringAccumulator.sampled(nCustomers, 20, rand);
+    for (int [] labels : samples)
+      accumulator.add(labels);
+    Assert.assertEquals(20 * nCustomers, accumulator.nStoredPairs());
+    double [][] psm = densePSM(samples, nCustomers);
+    for (int [] candidate : new int[][]{samples.get(0), samples.get(99), new int[nCustomers]})
+    {
+      final double expected = denseBinderLoss(psm, candidate);
+      Assert.assertEquals(expected, accumulator.binderLoss(candidate), 0.1 * expected);
+    }
+  }
+
+  /**
+   * Each sampled pair should be found from either end.
+   */
+  @Test
+  public void sampledSimilarity()
+  {
+    Random rand = new Random(4);
+    final int nCustomers = 50, nPartners = 3;
+    List<int []> samples = samples(rand, nCustomers, 100);
+    CoClusteringAccumulator accumulator = CoClusteringAccumulator.sampled(nCustomers, nPartners, rand);
+    for (int [] labels : samples)
+      accumulator.add(labels);
+    double [][] psm = densePSM(samples, nCustomers);
+    int nSampled = 0;
+    for (int i = 0; i < nCustomers; i++)
+      for (int j = 0; j < nCustomers; j++)
+        try
+        {
+          Assert.assertEquals(psm[i][j], accumulator.similarity(i, j), 1e-10);
+          Assert.assertEquals(accumulator.similarity(i, j), accumulator.similarity(j, i), 0.0);
+          nSampled++;
+        }
+        catch (RuntimeException e) {}
+    // each pair drawn is found twice, duplicates once
+    Assert.assertTrue(nSampled > nCustomers * nPartners && nSampled <= 2 * nCustomers * nPartners);
+  }
+
+  /**
+   * A table too large for the hash table of exact() should be rejected
+   * before any of its pairs is counted.
+   */
+  @Test
+  public void exactRejectsHugeTables()
+  {
+    final int nCustomers = 40000;
+    CoClusteringAccumulator accumulator = CoClusteringAccumulator.exact(nCustomers);
+    try
+    {
+      accumulator.add(new int[nCustomers]);
+      Assert.fail();
+    }
+    catch (RuntimeException e) {}
+    Assert.assertEquals(0, accumulator.nStoredPairs());
+    Assert.assertEquals(0, accumulator.nSamples());
+  }
+
+  @Test
+  public void minimizeOverTrace() throws IOException
+  {
+    Random rand = new Random(3);
+    final int nCustomers = 30;
+    List<int []> samples = samples(rand, nCustomers, 50);
+    File file = folder.newFile("trace");
+    AssignmentTraceWriter writer = new AssignmentTraceWriter(file, nCustomers);
+    CoClusteringAccumulator accumulator = CoClusteringAccumulator.exact(nCustomers);
+    for (int i = 0; i < samples.size(); i++)
+    {
+      writer.write(i, samples.get(i));
+      accumulator.add(samples.get(i));
+    }
+    writer.close();
+
+    double [][] psm = densePSM(samples, nCustomers);
+    int [] expected = null;
+    double best = Double.POSITIVE_INFINITY;
+    for (int [] candidate : samples)
+      if (denseBinderLoss(psm, candidate) < best)
+      {
+        best = denseBinderLoss(psm, candidate);
+        expected = candidate;
+      }
+    AssignmentTraceReader reader = new AssignmentTraceReader(file);
+    Assert.assertArrayEquals(expected, accumulator.minimizeBinderLoss(reader));
+    reader.close();
+  }
+}
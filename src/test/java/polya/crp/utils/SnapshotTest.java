@@ -0,0 +1,62 @@
+package polya.crp.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.CRPSampler;
+import polya.crp.CRPState;
+import polya.crp.PYPrior;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+
+public class SnapshotTest
+{
+  /**
+   * Snapshots taken along a Gibbs run should keep the partition of the time
+   * they were taken, while storing fewer entries than full copies.
+   */
+  @Test
+  public void crpSnapshots()
+  {
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    CollapsedNIWModel model = new CollapsedNIWModel(hp);
+    CRPState state = CRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(new File("data/circle.csv")));
+    PYPrior prior = new PYPrior(1.0, 0.0, state);
+    Random rand = new Random(1);
+    List<Snapshot<Integer,ClusterId>> snapshots = new ArrayList<Snapshot<Integer,ClusterId>>();
+    List<Set<Set<Integer>>> partitions = new ArrayList<Set<Set<Integer>>>();
+    int nStored = 0;
+    for (int i = 0; i < 3000; i++)
+    {
+      CRPSampler.gibbs(rand, rand.nextInt(state.nCustomers()), state, hp, model, prior);
+      if (i % 10 == 0)
+      {
+        Snapshot<Integer,ClusterId> snapshot = state.snapshot();
+        snapshots.add(snapshot);
+        nStored += snapshot.nStoredEntries();
+        Set<Set<Integer>> partition = new HashSet<Set<Integer>>();
+        for (Set<Integer> table : state.partition())
+          partition.add(new HashSet<Integer>(table));
+        partitions.add(partition);
+      }
+    }
+    for (int i = 0; i < snapshots.size(); i++)
+    {
+      Assert.assertEquals(partitions.get(i), CRPState.partition(snapshots.get(i)));
+      for (Set<Integer> block : partitions.get(i))
+        for (Integer customer : block)
+          Assert.assertEquals(snapshots.get(i).toMap().get(customer), snapshots.get(i).get(customer));
+    }
+    // no change, same snapshot
+    Assert.assertSame(state.snapshot(), state.snapshot());
+    Assert.assertTrue(nStored < snapshots.size() * state.nCustomers() / 2);
+  }
+}
@@ -0,0 +1,93 @@
+package polya.crp.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TableSizeIndexTest
+{
+  /**
+   * Random changes against a map of the sizes, going through several
+   * growths of the slots.
+   */
+  @Test
+  public void matchesMap()
+  {
+    Random rand = new Random(1);
+    TableSizeIndex index = new TableSizeIndex();
+    Map<ClusterId,Integer> sizes = new HashMap<ClusterId,Integer>();
+    List<ClusterId> free = new ArrayList<ClusterId>();
+    int nextId = 0;
+    for (int iteration = 0; iteration < 20000; iteration++)
+    {
+      List<ClusterId> live = new ArrayList<ClusterId>(sizes.keySet());
+      final double u = rand.nextDouble();
+      if (live.isEmpty() || u < 0.2 + 0.2 * Math.sin(iteration / 2000.0))
+      {
+        ClusterId id = free.isEmpty() ? new ClusterId(nextId++) : free.remove(free.size() - 1);
+        index.add(id);
+        sizes.put(id, 1);
+      }
+      else
+      {
+        ClusterId id = live.get(rand.nextInt(live.size()));
+        if (rand.nextBoolean())
+        {
+          index.increment(id);
+          sizes.put(id, sizes.get(id) + 1);
+        }
+        else
+        {
+          index.decrement(id);
+          if (sizes.get(id) == 1)
+          {
+            sizes.remove(id);
+            free.add(id);
+          }
+          else
+            sizes.put(id, sizes.get(id) - 1);
+        }
+      }
+      if (iteration % 100 == 0)
+      {
+        index.checkIntegrity();
+        Assert.assertEquals(sizes.size(), index.nTables());
+        Map<ClusterId,Integer> enumerated = new HashMap<ClusterId,Integer>();
+        for (int slot = 0; slot < index.nTables(); slot++)
+          enumerated.put(index.clusterId(slot), index.sizeAt(slot));
+        Assert.assertEquals(sizes, enumerated);
+        for (ClusterId id : free)
+          Assert.assertEquals(0, index.size(id));
+      }
+    }
+  }
+
+  @Test
+  public void sampleWithDiscount()
+  {
+    Random rand = new Random(2);
+    TableSizeIndex index = new TableSizeIndex();
+    final int [] sizes = {1, 5, 2, 1, 30, 7, 1, 1, 12, 3, 1, 4, 1, 1, 2, 9, 1, 6};
+    for (int i = 0; i < sizes.length; i++)
+    {
+      index.add(new ClusterId(i));
+      for (int j = 1; j < sizes[i]; j++)
+        index.increment(new ClusterId(i));
+    }
+    final double discount = 0.6;
+    final int nDraws = 200000;
+    int [] counts = new int[sizes.length];
+    for (int draw = 0; draw < nDraws; draw++)
+      counts[index.clusterId(index.sampleSlot(rand, discount)).id()]++;
+    for (int i = 0; i < sizes.length; i++)
+    {
+      final double p = (sizes[i] - discount) / index.totalWeight(discount);
+      Assert.assertEquals(p, ((double) counts[i]) / nDraws, 5 * Math.sqrt(p * (1 - p) / nDraws));
+    }
+  }
+}
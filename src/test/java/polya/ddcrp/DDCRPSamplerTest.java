@@ -0,0 +1,97 @@
+package polya.ddcrp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.TwoMomentsSufficientStatistics;
+
+public class DDCRPSamplerTest
+{
+	/**
+	 * The support of GridIndicatorDecay should be the other customers with
+	 * non zero decay.
+	 */
+	@Test
+	public void supportIsNonZeroDecay()
+	{
+		List<Customer> customers = grid(new Random(1), 7);
+		for (double a : new double[]{0.5, 1.0, 2.5})
+		{
+			GridIndicatorDecay decay = new GridIndicatorDecay(a, customers);
+			for (Customer customer : customers)
+			{
+				HashSet<Customer> expected = new HashSet<Customer>();
+				for (Customer other : customers)
+					if (other != customer && decay.decay(customer, other) > 0.0)
+						expected.add(other);
+				Assert.assertEquals(expected, new HashSet<Customer>(decay.getSupport(customer)));
+			}
+		}
+	}
+
+	/**
+	 * Starting from the same links, the sparse and dense moves should sample
+	 * the new link of a customer from the same distribution.
+	 */
+	@Test
+	public void sparseMatchesDense()
+	{
+		Random rand = new Random(1);
+		List<Customer> customers = grid(rand, 6);
+		Map<Customer,SufficientStatistic> data = new HashMap<Customer,SufficientStatistic>();
+		for (Customer customer : customers)
+			data.put(customer, TwoMomentsSufficientStatistics.fromOnePoint(new double[]{customer.datum}));
+		NIWHyperParameter hp = NIWHyperParameter.withDimensionality(1);
+		CollapsedNIWModel model = new CollapsedNIWModel(hp);
+		DDCRPState state = DDCRPState.fullyDisconnectedClustering(data);
+		for (Customer customer : customers)
+			if (customer.x > 0 && customer.y != 2)
+				state.updateCustomerLink(customer, customers.get(customer.id - 6));
+		DDCRPPrior dense = new DDCRPPrior(1.0, new IndicatorDecay(1.0), state);
+		DDCRPPrior sparse = new DDCRPPrior(1.0, new GridIndicatorDecay(1.0, customers), state);
+
+		final int nSamples = 20000;
+		Customer customer = customers.get(15);
+		Customer link = customer.pointer;
+		Map<Customer,Double> denseFrequencies = new HashMap<Customer,Double>(), sparseFrequencies = new HashMap<Customer,Double>();
+		for (int i = 0; i < nSamples; i++)
+		{
+			DDCRPSampler.gibbs(rand, customer, state, hp, model, dense);
+			increment(denseFrequencies, customer.pointer, 1.0 / nSamples);
+			state.updateCustomerLink(customer, link);
+			DDCRPSampler.gibbs(rand, customer, state, hp, model, sparse);
+			increment(sparseFrequencies, customer.pointer, 1.0 / nSamples);
+			state.updateCustomerLink(customer, link);
+		}
+		Assert.assertEquals(denseFrequencies.keySet(), sparseFrequencies.keySet());
+		for (Customer current : denseFrequencies.keySet())
+			Assert.assertEquals(denseFrequencies.get(current), sparseFrequencies.get(current), 0.02);
+	}
+
+	private static void increment(Map<Customer,Double> map, Customer key, double value)
+	{
+		map.put(key, (map.containsKey(key) ? map.get(key) : 0.0) + value);
+	}
+
+	/**
+	 * @return side * side customers, customer x * side + y at (x, y)
+	 */
+	private static List<Customer> grid(Random rand, int side)
+	{
+		List<Customer> result = new ArrayList<Customer>();
+		for (int x = 0; x < side; x++)
+			for (int y = 0; y < side; y++)
+				result.add(new Customer(result.size(), x, y, (x < side / 2 ? -3.0 : 3.0) + rand.nextGaussian()));
+		return result;
+	}
+}
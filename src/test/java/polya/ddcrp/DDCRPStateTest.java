@@ -0,0 +1,228 @@
+package polya.ddcrp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.Snapshot;
+import polya.parametric.Parametrics;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIGModel;
+import polya.parametric.normal.NIGHyperParameter;
+import polya.parametric.normal.TwoMomentsSufficientStatistics;
+
+public class DDCRPStateTest
+{
+	/**
+	 * Random link changes, checking the tables and their statistics against
+	 * the connected components of the links.
+	 */
+	@Test
+	public void tablesAreConnectedComponents()
+	{
+		Random rand = new Random(1);
+		final int n = 60;
+		Map<Customer,SufficientStatistic> data = new HashMap<Customer,SufficientStatistic>();
+		List<Customer> customers = new ArrayList<Customer>();
+		for (int i = 0; i < n; i++)
+		{
+			Customer customer = new Customer(i, i, 0, rand.nextGaussian());
+			customers.add(customer);
+			data.put(customer, TwoMomentsSufficientStatistics.fromOnePoint(new double[]{customer.datum}));
+		}
+		DDCRPState state = DDCRPState.fullyDisconnectedClustering(data);
+		for (int iteration = 0; iteration < 5000; iteration++)
+		{
+			Customer customer = customers.get(rand.nextInt(n));
+			ClusterId id = state.removeCustomerLink(customer);
+			Assert.assertEquals(id, state.getClusterId(customer));
+			check(state, customers);
+			// mostly local links, so that tables are large and have long cycles
+			Customer link = customers.get(Math.max(0, Math.min(n - 1, customer.id + rand.nextInt(7) - 3)));
+			state.updateCustomerLink(customer, link);
+			check(state, customers);
+		}
+	}
+
+	/**
+	 * The running total of DDCRPFactor, patched by the merges and splits,
+	 * against the sum of the marginals of the tables.
+	 */
+	@Test
+	public void factorRunningTotal()
+	{
+		Random rand = new Random(1);
+		final int n = 60;
+		Map<Customer,SufficientStatistic> data = new HashMap<Customer,SufficientStatistic>();
+		List<Customer> customers = new ArrayList<Customer>();
+		for (int i = 0; i < n; i++)
+		{
+			Customer customer = new Customer(i, i, 0, rand.nextGaussian());
+			customers.add(customer);
+			data.put(customer, TwoMomentsSufficientStatistics.fromOnePoint(new double[]{customer.datum}));
+		}
+		DDCRPState state = DDCRPState.fullyDisconnectedClustering(data);
+		NIGHyperParameter hp = new NIGHyperParameter(0.0, 1.0, 2.0, 1.0);
+		CollapsedNIGModel model = new CollapsedNIGModel(hp);
+		DDCRPFactor factor = new DDCRPFactor(model, state);
+		for (int iteration = 0; iteration < 2000; iteration++)
+		{
+			Customer customer = customers.get(rand.nextInt(n));
+			state.updateCustomerLink(customer, customers.get(Math.max(0, Math.min(n - 1, customer.id + rand.nextInt(7) - 3))));
+			if (iteration % (1 + rand.nextInt(10)) == 0)
+			{
+				double expected = 0.0;
+				for (ClusterId id : state.getAllClusterIds())
+					expected += Parametrics.logMarginal(model, hp, state.getClusterStatistics(id));
+				Assert.assertEquals(expected, factor.logDensity(), 1e-8);
+			}
+		}
+	}
+
+	/**
+	 * Merges and splits keep the id of the larger table, and the cached
+	 * posterior of that table is updated in place.
+	 */
+	@Test
+	public void largerTableKeepsItsId()
+	{
+		final int n = 10;
+		Map<Customer,SufficientStatistic> data = new HashMap<Customer,SufficientStatistic>();
+		List<Customer> customers = new ArrayList<Customer>();
+		for (int i = 0; i < n; i++)
+		{
+			Customer customer = new Customer(i, i, 0, i);
+			customers.add(customer);
+			data.put(customer, TwoMomentsSufficientStatistics.fromOnePoint(new double[]{customer.datum}));
+		}
+		DDCRPState state = DDCRPState.fullyDisconnectedClustering(data);
+		NIGHyperParameter hp = new NIGHyperParameter(0.0, 1.0, 2.0, 1.0);
+		CollapsedNIGModel model = new CollapsedNIGModel(hp);
+		state.getMarginalCache().checkHyperParameters(model, hp);
+		SufficientStatistic newPoint = TwoMomentsSufficientStatistics.fromOnePoint(new double[]{1.5});
+
+		// a chain 0 <- 1 <- ... <- 7, then 8 -> 0 joins the larger table
+		for (int i = 1; i < 8; i++)
+			state.updateCustomerLink(customers.get(i), customers.get(i - 1));
+		ClusterId large = state.getClusterId(customers.get(0));
+		state.getMarginalCache().logPredictive(large, state.getClusterStatistics(large), newPoint);
+		state.updateCustomerLink(customers.get(8), customers.get(0));
+		Assert.assertEquals(large, state.getClusterId(customers.get(8)));
+		Assert.assertEquals(
+				Parametrics.logPredictive(model, hp, newPoint, state.getClusterStatistics(large)),
+				state.getMarginalCache().logPredictive(large, state.getClusterStatistics(large), newPoint), 1e-8);
+
+		// cutting 1 -> 0 leaves 0, 8 apart, the rest keeps the id
+		ClusterId returned = state.removeCustomerLink(customers.get(1));
+		Assert.assertEquals(large, returned);
+		Assert.assertEquals(large, state.getClusterId(customers.get(7)));
+		Assert.assertNotEquals(large, state.getClusterId(customers.get(0)));
+		Assert.assertEquals(state.getClusterId(customers.get(0)), state.getClusterId(customers.get(8)));
+		Assert.assertEquals(
+				Parametrics.logPredictive(model, hp, newPoint, state.getClusterStatistics(large)),
+				state.getMarginalCache().logPredictive(large, state.getClusterStatistics(large), newPoint), 1e-8);
+		check(state, customers);
+	}
+
+	/**
+	 * Snapshots taken along random link changes should keep the links and
+	 * tables of the time they were taken.
+	 */
+	@Test
+	public void snapshots()
+	{
+		Random rand = new Random(1);
+		final int n = 40;
+		Map<Customer,SufficientStatistic> data = new HashMap<Customer,SufficientStatistic>();
+		List<Customer> customers = new ArrayList<Customer>();
+		for (int i = 0; i < n; i++)
+		{
+			Customer customer = new Customer(i, i, 0, rand.nextGaussian());
+			customers.add(customer);
+			data.put(customer, TwoMomentsSufficientStatistics.fromOnePoint(new double[]{customer.datum}));
+		}
+		DDCRPState state = DDCRPState.fullyDisconnectedClustering(data);
+		List<Snapshot<Customer,Customer>> snapshots = new ArrayList<Snapshot<Customer,Customer>>();
+		List<Map<Customer,Customer>> links = new ArrayList<Map<Customer,Customer>>();
+		List<Set<Set<Customer>>> partitions = new ArrayList<Set<Set<Customer>>>();
+		for (int iteration = 0; iteration < 2000; iteration++)
+		{
+			Customer customer = customers.get(rand.nextInt(n));
+			state.updateCustomerLink(customer, customers.get(Math.max(0, Math.min(n - 1, customer.id + rand.nextInt(7) - 3))));
+			if (iteration % (1 + rand.nextInt(20)) == 0)
+			{
+				snapshots.add(state.snapshot());
+				Map<Customer,Customer> current = new HashMap<Customer,Customer>();
+				for (Customer c : customers)
+					current.put(c, c.pointer);
+				links.add(current);
+				Set<Set<Customer>> partition = new HashSet<Set<Customer>>();
+				for (ClusterId id : state.getAllClusterIds())
+					partition.add(state.getTable(id));
+				partitions.add(partition);
+			}
+		}
+		for (int i = 0; i < snapshots.size(); i++)
+		{
+			Assert.assertEquals(links.get(i), snapshots.get(i).toMap());
+			Assert.assertEquals(partitions.get(i), DDCRPState.partition(snapshots.get(i)));
+		}
+	}
+
+	private static void check(DDCRPState state, List<Customer> customers)
+	{
+		// connected components by union find on the links
+		Map<Customer,Customer> representative = new HashMap<Customer,Customer>();
+		for (Customer customer : customers)
+			representative.put(customer, customer);
+		for (Customer customer : customers)
+			representative.put(find(representative, customer), find(representative, customer.pointer));
+		Map<Customer,Set<Customer>> components = new HashMap<Customer,Set<Customer>>();
+		for (Customer customer : customers)
+		{
+			Customer key = find(representative, customer);
+			if (!components.containsKey(key))
+				components.put(key, new HashSet<Customer>());
+			components.get(key).add(customer);
+		}
+
+		Set<Set<Customer>> tables = new HashSet<Set<Customer>>();
+		for (ClusterId id : state.getAllClusterIds())
+		{
+			Set<Customer> table = state.getTable(id);
+			tables.add(table);
+			Assert.assertEquals(table.size(), state.tableSize(id));
+			double sum = 0.0;
+			for (Customer customer : table)
+			{
+				Assert.assertEquals(id, state.getClusterId(customer));
+				sum += customer.datum;
+			}
+			TwoMomentsSufficientStatistics statistic = (TwoMomentsSufficientStatistics) state.getClusterStatistics(id);
+			Assert.assertEquals(table.size(), statistic.numberOfPoints());
+			Assert.assertEquals(sum, statistic.sumOfValues(0), 1e-8);
+		}
+		Assert.assertEquals(new HashSet<Set<Customer>>(components.values()), tables);
+		Assert.assertEquals(components.size(), state.nTables());
+		Set<ClusterId> indexed = new HashSet<ClusterId>();
+		for (int i = 0; i < state.getClusterIndex().nClusters(); i++)
+			indexed.add(state.getClusterIndex().clusterId(i));
+		Assert.assertEquals(new HashSet<ClusterId>(state.getAllClusterIds()), indexed);
+		Assert.assertEquals(state.nTables(), state.getClusterIndex().nClusters());
+	}
+
+	private static Customer find(Map<Customer,Customer> representative, Customer customer)
+	{
+		while (representative.get(customer) != customer)
+			customer = representative.get(customer);
+		return customer;
+	}
+}
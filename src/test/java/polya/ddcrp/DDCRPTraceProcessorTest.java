@@ -0,0 +1,82 @@
+package polya.ddcrp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import polya.crp.CRPTraceProcessorTest;
+import polya.crp.utils.AssignmentTraceReader;
+import polya.crp.utils.ClusterId;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.TwoMomentsSufficientStatistics;
+
+public class DDCRPTraceProcessorTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * The trace should hold the tables of the state at each call, as links
+	 * are added and removed, readable before the processor is closed.
+	 */
+	@Test
+	public void tracesLinks() throws IOException
+	{
+		Random rand = new Random(1);
+		final int side = 8;
+		List<Customer> customers = new ArrayList<Customer>();
+		Map<Customer,SufficientStatistic> data = new HashMap<Customer,SufficientStatistic>();
+		for (int x = 0; x < side; x++)
+			for (int y = 0; y < side; y++) {
+				Customer customer = new Customer(customers.size(), x, y, rand.nextGaussian());
+				customers.add(customer);
+				data.put(customer, TwoMomentsSufficientStatistics.fromOnePoint(new double[]{customer.datum}));
+			}
+		DDCRPState state = DDCRPState.fullyDisconnectedClustering(data);
+
+		File file = folder.newFile("trace");
+		DDCRPTraceProcessor processor = new DDCRPTraceProcessor(state, file);
+		List<Set<Set<Integer>>> expected = new ArrayList<Set<Set<Integer>>>();
+		final int nSamples = 30;
+		for (int sample = 0; sample < nSamples; sample++) {
+			for (int i = 0; i < 10; i++) {
+				Customer customer = customers.get(rand.nextInt(customers.size()));
+				if (rand.nextInt(3) == 0)
+					state.removeCustomerLink(customer);
+				else
+					state.updateCustomerLink(customer, customers.get(rand.nextInt(customers.size())));
+			}
+			processor.write(sample);
+			Set<Set<Integer>> partition = new HashSet<Set<Integer>>();
+			for (ClusterId id : state.getAllClusterIds()) {
+				Set<Integer> table = new HashSet<Integer>();
+				for (Customer customer : state.getTable(id))
+					table.add(customer.id);
+				partition.add(table);
+			}
+			expected.add(partition);
+		}
+
+		AssignmentTraceReader reader = new AssignmentTraceReader(file);
+		Assert.assertEquals(customers.size(), reader.nCustomers());
+		for (int sample = 0; sample < nSamples; sample++) {
+			Assert.assertTrue(reader.next());
+			Assert.assertEquals(sample, reader.iteration());
+			Assert.assertEquals(expected.get(sample), CRPTraceProcessorTest.partition(reader.labels()));
+		}
+		Assert.assertFalse(reader.next());
+		reader.close();
+		processor.close();
+	}
+}
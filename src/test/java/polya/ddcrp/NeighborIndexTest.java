@@ -0,0 +1,56 @@
+package polya.ddcrp;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NeighborIndexTest
+{
+	/**
+	 * Compares the index to IndicatorDecay on a grid with missing pixels.
+	 */
+	@Test
+	public void matchesIndicatorDecay()
+	{
+		final int width = 7, height = 5;
+		List<CustomerColumn> columns = new ArrayList<CustomerColumn>();
+		List<Customer> customers = new ArrayList<Customer>();
+		int id = 0;
+		for (int x = 0; x < width; x++)
+		{
+			CustomerColumn column = new CustomerColumn(x);
+			for (int y = 0; y < height; y++)
+				if ((x * 3 + y) % 4 != 0)
+				{
+					Customer customer = new Customer(id++, x, y, 0.0);
+					column.addCustomer(customer);
+					customers.add(customer);
+				}
+			columns.add(column);
+		}
+
+		for (double a : new double[]{1.0, 2.0})
+		{
+			IndicatorDecay decay = new IndicatorDecay(a);
+			NeighborIndex index = new NeighborIndex(columns, NeighborIndex.neighborhoodOf(decay));
+			for (Customer customer : customers)
+			{
+				Set<Customer> expected = new HashSet<Customer>();
+				for (Customer other : customers)
+					if (other != customer && decay.decay(customer, other) == 1.0)
+						expected.add(other);
+				Assert.assertEquals(expected, new HashSet<Customer>(index.getNeighbors(customer)));
+				Assert.assertEquals(expected.size(), index.nNeighbors(customer));
+			}
+		}
+
+		NeighborIndex index = new NeighborIndex(columns, NeighborIndex.fourNeighborhood());
+		for (Customer customer : customers)
+			for (Customer neighbor : index.getNeighbors(customer))
+				Assert.assertEquals(1, Math.abs(customer.x - neighbor.x) + Math.abs(customer.y - neighbor.y));
+	}
+}
@@ -0,0 +1,112 @@
+package polya.parametric.normal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import polya.crp.CRPState;
+import polya.ddcrp.Customer;
+import polya.parametric.SufficientStatistic;
+
+public class BinaryDatasetTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Converting a CSV file and mapping it should give the same statistics as
+   * parsing it.
+   */
+  @Test
+  public void agreesWithCSV() throws IOException
+  {
+    File csv = new File("data/circle.csv");
+    File binary = folder.newFile("circle.bin");
+    Map<Integer,SufficientStatistic> expected = NIWs.loadFromCSVFile(csv);
+    Assert.assertEquals(expected.size(), BinaryDataset.fromCSVFile(csv, binary));
+    Map<Integer,SufficientStatistic> actual = NIWs.loadFromBinaryFile(binary);
+    Assert.assertEquals(expected.keySet(), actual.keySet());
+    for (Integer i : expected.keySet())
+      check((TwoMomentsSufficientStatistics) expected.get(i), (TwoMomentsSufficientStatistics) actual.get(i));
+    Assert.assertNull(actual.get(-1));
+    Assert.assertNull(actual.get(expected.size()));
+    // packed once, not recomputed on each lookup
+    Assert.assertSame(actual.get(3), actual.get(3));
+
+    // usable as is by the samplers' states
+    CRPState state = CRPState.fullyDisconnectedClustering(actual);
+    Assert.assertEquals(expected.size(), state.nTables());
+  }
+
+  @Test
+  public void customers() throws IOException
+  {
+    File csv = folder.newFile("pixels.csv");
+    PrintWriter writer = new PrintWriter(csv);
+    for (int x = 0; x < 3; x++)
+      for (int y = 0; y < 4; y++)
+        writer.println(x + "," + y + "," + (x * 0.5 - y));
+    writer.close();
+    File binary = folder.newFile("pixels.bin");
+    BinaryDataset.fromCSVFile(csv, binary);
+
+    Map<Customer,SufficientStatistic> expected = NIWs.loadCustomersFromCSVFile(csv);
+    Map<Customer,SufficientStatistic> actual = NIWs.loadCustomersFromBinaryFile(binary);
+    Assert.assertEquals(expected.size(), actual.size());
+    for (Customer customer : expected.keySet())
+    {
+      Customer found = null;
+      for (Customer candidate : actual.keySet())
+        if (candidate.id == customer.id)
+          found = candidate;
+      Assert.assertEquals(customer.x, found.x);
+      Assert.assertEquals(customer.y, found.y);
+      Assert.assertEquals(customer.datum, found.datum, 0.0);
+      check((TwoMomentsSufficientStatistics) expected.get(customer), (TwoMomentsSufficientStatistics) actual.get(found));
+      Assert.assertFalse(actual.containsKey(customer));
+    }
+  }
+
+  /**
+   * With wide enough rows, each block holds a single row.
+   */
+  @Test
+  public void oneRowPerBlock() throws IOException
+  {
+    final int nColumns = 1500, nRows = 3;
+    File csv = folder.newFile("wide.csv");
+    PrintWriter writer = new PrintWriter(csv);
+    for (int row = 0; row < nRows; row++)
+      for (int column = 0; column < nColumns; column++)
+        writer.print((row + 1.0) / (column + 1.0) + (column == nColumns - 1 ? "\n" : ","));
+    writer.close();
+    File binary = folder.newFile("wide.bin");
+    BinaryDataset.fromCSVFile(csv, binary);
+
+    BinaryDataset dataset = BinaryDataset.map(binary);
+    Map<Integer,SufficientStatistic> actual = dataset.statistics();
+    for (int row = nRows - 1; row >= 0; row--)
+    {
+      check(dataset.statistic(row), (TwoMomentsSufficientStatistics) actual.get(row));
+      Assert.assertSame(actual.get(row), dataset.statistics().get(row));
+    }
+  }
+
+  private static void check(TwoMomentsSufficientStatistics expected, TwoMomentsSufficientStatistics actual)
+  {
+    Assert.assertEquals(expected.dim(), actual.dim());
+    Assert.assertEquals(expected.numberOfPoints(), actual.numberOfPoints());
+    for (int i = 0; i < expected.dim(); i++)
+    {
+      Assert.assertEquals(expected.sumOfValues(i), actual.sumOfValues(i), 0.0);
+      for (int j = 0; j < expected.dim(); j++)
+        Assert.assertEquals(expected.sumOfOuterProducts(i, j), actual.sumOfOuterProducts(i, j), 0.0);
+    }
+  }
+}
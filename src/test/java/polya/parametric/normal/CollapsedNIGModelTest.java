@@ -2,10 +2,14 @@ package polya.parametric.normal;
 
 import java.util.Random;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import polya.ParametricsTutorial;
+import polya.parametric.BatchConjugateModel;
 import polya.parametric.HyperParameter;
+import polya.parametric.Parametrics;
+import polya.parametric.PosteriorBatch;
 import polya.parametric.TestedModel;
 
 public class CollapsedNIGModelTest 
@@ -27,4 +31,29 @@ public class CollapsedNIGModelTest
 	    System.out.println("-------");
 
 	}
+
+	@Test
+	public void batchMatchesParametrics()
+	{
+		Random rand = new Random(2);
+		HyperParameter hp = new NIGHyperParameter(1.0, 2.0, 3.0, 1.5);
+		BatchConjugateModel model = new CollapsedNIGModel(hp);
+		PosteriorBatch batch = model.posteriorBatch(hp);
+		final int nRows = 40;
+		TwoMomentsSufficientStatistics [] tables = new TwoMomentsSufficientStatistics[nRows];
+		for (int r = 0; r < nRows; r++)
+		{
+			tables[r] = TwoMomentsSufficientStatistics.fromEmpty(1);
+			for (int i = 0; i < r; i++)
+				tables[r].addPoint(new double[]{rand.nextGaussian() * 3});
+			batch.set(r, tables[r]);
+		}
+		batch.move(nRows - 1, 0);
+		tables[0] = tables[nRows - 1];
+		TwoMomentsSufficientStatistics point = TwoMomentsSufficientStatistics.fromOnePoint(new double[]{0.7});
+		double [] result = new double[nRows];
+		batch.logPredictives(point, nRows, result);
+		for (int r = 0; r < nRows; r++)
+			Assert.assertEquals(Parametrics.logPredictive(model, hp, point, tables[r]), result[r], 1e-9);
+	}
 }
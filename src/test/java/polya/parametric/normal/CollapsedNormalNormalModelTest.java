@@ -2,10 +2,14 @@ package polya.parametric.normal;
 
 import java.util.Random;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import polya.ParametricsTutorial;
+import polya.parametric.BatchConjugateModel;
 import polya.parametric.HyperParameter;
+import polya.parametric.Parametrics;
+import polya.parametric.PosteriorBatch;
 import polya.parametric.TestedModel;
 
 /**
@@ -30,4 +34,29 @@ public class CollapsedNormalNormalModelTest
 	    System.out.println("-------");
 
 	}
+
+	@Test
+	public void batchMatchesParametrics()
+	{
+		Random rand = new Random(2);
+		HyperParameter hp = new NormalParameter(1.0, 2.0);
+		BatchConjugateModel model = new CollapsedNormalNormalModel(0.5, hp);
+		PosteriorBatch batch = model.posteriorBatch(hp);
+		final int nRows = 40;
+		TwoMomentsSufficientStatistics [] tables = new TwoMomentsSufficientStatistics[nRows];
+		for (int r = 0; r < nRows; r++)
+		{
+			tables[r] = TwoMomentsSufficientStatistics.fromEmpty(1);
+			for (int i = 0; i < r; i++)
+				tables[r].addPoint(new double[]{rand.nextGaussian() * 3});
+			batch.set(r, tables[r]);
+		}
+		batch.move(nRows - 1, 0);
+		tables[0] = tables[nRows - 1];
+		TwoMomentsSufficientStatistics point = TwoMomentsSufficientStatistics.fromOnePoint(new double[]{0.7});
+		double [] result = new double[nRows];
+		batch.logPredictives(point, nRows, result);
+		for (int r = 0; r < nRows; r++)
+			Assert.assertEquals(Parametrics.logPredictive(model, hp, point, tables[r]), result[r], 1e-9);
+	}
 }
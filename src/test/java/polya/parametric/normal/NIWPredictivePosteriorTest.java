@@ -0,0 +1,78 @@
+package polya.parametric.normal;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.parametric.Parametrics;
+import polya.parametric.PredictivePosterior;
+
+public class NIWPredictivePosteriorTest
+{
+  /**
+   * Adds and removes points one at a time and in batches, and compares
+   * with the densities computed by Parametrics from CollapsedNIWModel.
+   */
+  @Test
+  public void agreesWithParametrics()
+  {
+    Random rand = new Random(1);
+    final int dim = 5;
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(dim);
+    hp.setNu(dim + 2);
+    hp.setKappa(0.5);
+    for (int i = 0; i < dim; i++)
+      hp.scriptV().set(i, 0, rand.nextGaussian());
+    CollapsedNIWModel model = new CollapsedNIWModel(hp);
+
+    double [][] points = new double[200][dim];
+    for (int n = 0; n < points.length; n++)
+      for (int i = 0; i < dim; i++)
+        points[n][i] = 3.0 * rand.nextGaussian() + i;
+
+    PredictivePosterior posterior = model.predictivePosterior(hp);
+    TwoMomentsSufficientStatistics seen = TwoMomentsSufficientStatistics.fromEmpty(dim);
+    for (int n = 0; n < points.length; n++)
+    {
+      TwoMomentsSufficientStatistics point = TwoMomentsSufficientStatistics.fromOnePoint(points[n]);
+      check(model, hp, posterior, seen, point);
+      if (n % 3 == 2)
+      {
+        // remove the previous point
+        TwoMomentsSufficientStatistics previous = TwoMomentsSufficientStatistics.fromOnePoint(points[n - 1]);
+        Assert.assertTrue(posterior.remove(previous));
+        seen.minusEqual(previous);
+        check(model, hp, posterior, seen, point);
+      }
+      Assert.assertTrue(posterior.add(point));
+      seen.plusEqual(point);
+    }
+
+    // batches
+    TwoMomentsSufficientStatistics batch = TwoMomentsSufficientStatistics.fromEmpty(dim);
+    for (int n = 0; n < 10; n++)
+      batch.addPoint(points[n]);
+    check(model, hp, posterior, seen, batch);
+    Assert.assertTrue(posterior.add(batch));
+    seen.plusEqual(batch);
+    check(model, hp, posterior, seen, batch);
+    Assert.assertTrue(posterior.remove(batch));
+    seen.minusEqual(batch);
+    check(model, hp, posterior, seen, batch);
+  }
+
+  private static void check(
+      CollapsedNIWModel model,
+      NIWHyperParameter hp,
+      PredictivePosterior posterior,
+      TwoMomentsSufficientStatistics seen,
+      TwoMomentsSufficientStatistics newPoints)
+  {
+    final double expectedPrior = model.logPriorDensityAtThetaStar(model.update(hp, seen));
+    Assert.assertEquals(expectedPrior, posterior.logPriorDensityAtThetaStar(), 1e-6 * Math.abs(expectedPrior));
+    final double expected = Parametrics.logPredictive(model, hp, newPoints, seen);
+    Assert.assertEquals(expected, posterior.logPredictive(newPoints), 1e-6 * Math.max(1.0, Math.abs(expected)));
+    Assert.assertEquals(expected, posterior.copy().logPredictive(newPoints), 1e-6 * Math.max(1.0, Math.abs(expected)));
+  }
+}
@@ -0,0 +1,113 @@
+package polya.parametric.normal;
+
+import java.util.Random;
+
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the flat layout against sums of vectors and outer products
+ * computed with SimpleMatrix.
+ */
+public class TwoMomentsSufficientStatisticsTest
+{
+  private static final double TOLERANCE = 1e-10;
+
+  @Test
+  public void matchesMatrices()
+  {
+    Random rand = new Random(1);
+    for (int dim : new int[]{1, 2, 3, 7})
+    {
+      final int nPoints = 20;
+      double [][] points = new double[nPoints][dim];
+      for (int i = 0; i < nPoints; i++)
+        for (int p = 0; p < dim; p++)
+          points[i][p] = rand.nextGaussian();
+
+      // reference sums
+      SimpleMatrix sum = new SimpleMatrix(dim, 1);
+      SimpleMatrix outer = new SimpleMatrix(dim, dim);
+      for (double [] point : points)
+      {
+        SimpleMatrix x = new SimpleMatrix(dim, 1, true, point);
+        sum = sum.plus(x);
+        outer = outer.plus(x.mult(x.transpose()));
+      }
+
+      // one point at a time with addPoint, plusEqual of fromOnePoint, and pack
+      TwoMomentsSufficientStatistics added = TwoMomentsSufficientStatistics.fromEmpty(dim);
+      TwoMomentsSufficientStatistics summed = TwoMomentsSufficientStatistics.fromEmpty(dim);
+      TwoMomentsSufficientStatistics [] packed = TwoMomentsSufficientStatistics.pack(points);
+      TwoMomentsSufficientStatistics summedPacked = TwoMomentsSufficientStatistics.fromEmpty(dim);
+      for (int i = 0; i < nPoints; i++)
+      {
+        added.addPoint(points[i]);
+        summed.plusEqual(TwoMomentsSufficientStatistics.fromOnePoint(points[i]));
+        summedPacked.plusEqual(packed[i]);
+        check(TwoMomentsSufficientStatistics.fromOnePoint(points[i]), packed[i]);
+      }
+      for (TwoMomentsSufficientStatistics statistic : new TwoMomentsSufficientStatistics[]{added, summed, summedPacked})
+      {
+        Assert.assertEquals(nPoints, statistic.numberOfPoints());
+        check(sum, outer, statistic);
+      }
+
+      // minusEqual back to a single point
+      TwoMomentsSufficientStatistics last = (TwoMomentsSufficientStatistics) added.copy();
+      for (int i = 0; i < nPoints - 1; i++)
+        last.minusEqual(packed[i]);
+      check(TwoMomentsSufficientStatistics.fromOnePoint(points[nPoints - 1]), last);
+      // the copy does not write through
+      check(sum, outer, added);
+    }
+  }
+
+  /**
+   * A view writes through to its region of the slab, and only to it.
+   */
+  @Test
+  public void viewWritesThrough()
+  {
+    final int dim = 3, stride = TwoMomentsSufficientStatistics.stride(dim);
+    Assert.assertEquals(1 + 3 + 6, stride);
+    double [] slab = new double[3 * stride];
+    double [] point = {1.0, 2.0, 3.0};
+    TwoMomentsSufficientStatistics.writeOnePoint(slab, stride, point);
+    TwoMomentsSufficientStatistics view = TwoMomentsSufficientStatistics.view(slab, stride, dim);
+    check(TwoMomentsSufficientStatistics.fromOnePoint(point), view);
+    view.addPoint(new double[]{-1.0, 0.5, 2.0});
+    Assert.assertEquals(2.0, slab[stride], 0.0);
+    Assert.assertEquals(0.0, view.sumOfValues(0), 0.0);
+    // entry (1, 2), 2 * 3 + 0.5 * 2, is at index 4 of the upper triangle
+    Assert.assertEquals(7.0, slab[stride + 1 + dim + 4], 0.0);
+    Assert.assertEquals(7.0, view.sumOfOuterProducts(2, 1), 0.0);
+    for (int i = 0; i < stride; i++)
+    {
+      Assert.assertEquals(0.0, slab[i], 0.0);
+      Assert.assertEquals(0.0, slab[2 * stride + i], 0.0);
+    }
+  }
+
+  private static void check(SimpleMatrix sum, SimpleMatrix outer, TwoMomentsSufficientStatistics statistic)
+  {
+    final int dim = statistic.dim();
+    for (int i = 0; i < dim; i++)
+    {
+      Assert.assertEquals(sum.get(i, 0), statistic.sumOfValues(i), TOLERANCE);
+      Assert.assertEquals(sum.get(i, 0), statistic.sumOfValues().get(i, 0), TOLERANCE);
+      for (int j = 0; j < dim; j++)
+      {
+        Assert.assertEquals(outer.get(i, j), statistic.sumOfOuterProducts(i, j), TOLERANCE);
+        Assert.assertEquals(outer.get(i, j), statistic.sumOfOuterProducts().get(i, j), TOLERANCE);
+      }
+    }
+  }
+
+  private static void check(TwoMomentsSufficientStatistics expected, TwoMomentsSufficientStatistics actual)
+  {
+    Assert.assertEquals(expected.numberOfPoints(), actual.numberOfPoints());
+    check(expected.sumOfValues(), expected.sumOfOuterProducts(), actual);
+  }
+}